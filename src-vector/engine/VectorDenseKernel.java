@@ -0,0 +1,62 @@
+package engine;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The dense layers of NeuralNetwork written with the incubating Vector API, so
+ * that each column of 8-bit weights is widened and added to the 32-bit sums
+ * with explicit SIMD instructions instead of relying on the JIT compiler to
+ * vectorize the loop.
+ *
+ * This class needs the jdk.incubator.vector module, both to compile and to
+ * run, with "--add-modules jdk.incubator.vector", so it is kept apart from the
+ * rest of the engine in the src-vector source root, which is compiled on its
+ * own into the same output (see README.txt). NeuralNetwork only loads it, by
+ * name, when that module is present and the class was built, and otherwise
+ * uses its scalar loops, so nothing else refers to it directly.
+ */
+final class VectorDenseKernel implements NeuralNetwork.DenseKernel {
+	/**
+	 * 16 weights are loaded at a time, a width every SIMD instruction set has
+	 */
+	private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_128;
+	/**
+	 * the sums are added at the widest width the processor has, capped at 512
+	 * bits or 16 ints so that a part never covers more than the 16 weights, in
+	 * as many parts as it takes to cover them
+	 */
+	private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED.length() > BYTES.length()
+			? IntVector.SPECIES_512
+			: IntVector.SPECIES_PREFERRED;
+	private static final int PARTS = BYTES.length() / INTS.length();
+
+	@Override
+	public void dense(byte[] input, byte[] weights, int[] biases, int[] sums, byte[] output) {
+		int outputs = output.length;
+		int vectorEnd = BYTES.loopBound(outputs);
+		System.arraycopy(biases, 0, sums, 0, outputs);
+		for (int i = 0; i < input.length; i++) {
+			int value = input[i];
+			if (value == 0) {
+				continue;
+			}
+			int offset = i * outputs;
+			int j = 0;
+			for (; j < vectorEnd; j += BYTES.length()) {
+				ByteVector column = ByteVector.fromArray(BYTES, weights, offset + j);
+				for (int part = 0; part < PARTS; part++) {
+					IntVector widened = (IntVector) column.convertShape(VectorOperators.B2I, INTS, part);
+					int index = j + part * INTS.length();
+					IntVector.fromArray(INTS, sums, index).add(widened.mul(value)).intoArray(sums, index);
+				}
+			}
+			for (; j < outputs; j++) {
+				sums[j] += value * weights[offset + j];
+			}
+		}
+		NeuralNetwork.clipSums(sums, output);
+	}
+}
@@ -0,0 +1,125 @@
+package archive;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compares a GameArchive with gzipped PGN: the size of each, the games per
+ * second of a full scan (gunzip and parse for PGN; decompress and decode for
+ * the archive, on one thread and in parallel), and the time to fetch one game
+ * from the archive. Without a file, it first writes a file of random games.
+ *
+ * Usage: ArchiveBenchmark [file.pgn | number of random games]
+ */
+public class ArchiveBenchmark {
+	private static final int FETCHES = 2000;
+
+	public static void main(String[] args) throws IOException {
+		Path pgn;
+		boolean temporary = args.length == 0 || args[0].matches("\\d+");
+		if (temporary) {
+			pgn = Files.createTempFile("games", ".pgn");
+			PgnBenchmark.writeRandomGames(pgn, args.length > 0 ? Integer.parseInt(args[0]) : 20_000, 1);
+		} else {
+			pgn = Paths.get(args[0]);
+		}
+		Path gzip = Files.createTempFile("games", ".pgn.gz");
+		Path unzipped = Files.createTempFile("games", ".pgn");
+		Path archive = Files.createTempFile("games", ".garc");
+		try {
+			try (InputStream input = Files.newInputStream(pgn);
+					OutputStream output = new GZIPOutputStream(Files.newOutputStream(gzip), 1 << 16)) {
+				copy(input, output);
+			}
+			long start = System.nanoTime();
+			long games;
+			try (PgnReader reader = new PgnReader(pgn); GameArchiveWriter writer = new GameArchiveWriter(archive)) {
+				reader.read(game -> {
+					try {
+						writer.add(game);
+					} catch (IOException e) {
+						throw new RuntimeException(e);
+					}
+				});
+				games = writer.getGameCount();
+			}
+			System.out.printf("imported %d games in %d ms%n", games, (System.nanoTime() - start) / 1_000_000);
+			long pgnSize = Files.size(pgn);
+			long gzipSize = Files.size(gzip);
+			long archiveSize = Files.size(archive);
+			System.out.printf("PGN %.1f MB, gzipped PGN %.1f MB, archive %.1f MB (%.1fx smaller than PGN, %.1fx than gzip)%n",
+					pgnSize / 1e6, gzipSize / 1e6, archiveSize / 1e6, (double) pgnSize / archiveSize,
+					(double) gzipSize / archiveSize);
+
+			for (int pass = 0; pass < 2; pass++) {
+				// the first pass warms up the JIT compiler
+				boolean report = pass == 1;
+				start = System.nanoTime();
+				try (InputStream input = new GZIPInputStream(Files.newInputStream(gzip), 1 << 16);
+						OutputStream output = Files.newOutputStream(unzipped)) {
+					copy(input, output);
+				}
+				try (PgnReader reader = new PgnReader(unzipped)) {
+					reader.read(game -> {
+					});
+				}
+				print(report, "gzipped PGN scan", games, start);
+
+				AtomicLong moves = new AtomicLong();
+				start = System.nanoTime();
+				try (GameArchive reader = new GameArchive(archive)) {
+					for (int block = 0; block < reader.getBlockCount(); block++) {
+						reader.readBlock(block, game -> moves.addAndGet(game.getMoveCount()));
+					}
+				}
+				print(report, "archive scan, 1 thread", games, start);
+
+				start = System.nanoTime();
+				try (GameArchive reader = new GameArchive(archive)) {
+					reader.forEach(game -> moves.addAndGet(game.getMoveCount()));
+				}
+				print(report, "archive scan, parallel", games, start);
+
+				SplittableRandom random = new SplittableRandom(pass);
+				try (GameArchive reader = new GameArchive(archive)) {
+					start = System.nanoTime();
+					for (int i = 0; i < FETCHES; i++) {
+						moves.addAndGet(reader.getGame(random.nextLong(games)).getMoveCount());
+					}
+					if (report) {
+						System.out.printf("single game fetch: %.1f us%n", (System.nanoTime() - start) / 1e3 / FETCHES);
+					}
+				}
+			}
+		} finally {
+			if (temporary) {
+				Files.deleteIfExists(pgn);
+			}
+			Files.deleteIfExists(gzip);
+			Files.deleteIfExists(unzipped);
+			Files.deleteIfExists(archive);
+		}
+	}
+
+	private static void print(boolean report, String name, long games, long start) {
+		if (report) {
+			System.out.printf("%s: %.0f games/s%n", name, games * 1e9 / (System.nanoTime() - start));
+		}
+	}
+
+	private static void copy(InputStream input, OutputStream output) throws IOException {
+		byte[] buffer = new byte[1 << 16];
+		int read;
+		while ((read = input.read(buffer)) >= 0) {
+			output.write(buffer, 0, read);
+		}
+	}
+}
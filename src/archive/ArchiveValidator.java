@@ -0,0 +1,283 @@
+package archive;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import board.ChessColor;
+import engine.EngineBoard;
+
+/**
+ * Checks every game of a PGN archive before it is loaded: that every move is
+ * legal, and that games ending in checkmate or stalemate have the matching
+ * result. The file is split into chunks of bytes that are read in parallel on
+ * a fork-join pool, each chunk by its own PgnReader and board, so the work
+ * grows with the number of cores and no state is shared between workers.
+ *
+ * Usage: ArchiveValidator [file.pgn | number of random games] [threads]
+ */
+public class ArchiveValidator {
+	/**
+	 * default number of bytes read by one task
+	 */
+	public static final long DEFAULT_CHUNK_SIZE = 1L << 20;
+	/**
+	 * most problems kept in a report; more are only counted
+	 */
+	private static final int MAX_PROBLEMS = 1000;
+
+	private final ForkJoinPool pool;
+	private final long chunkSize;
+
+	/**
+	 * Creates a validator.
+	 *
+	 * @param pool      the pool to run on
+	 * @param chunkSize the number of bytes read by one task
+	 */
+	public ArchiveValidator(ForkJoinPool pool, long chunkSize) {
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException("Chunk size must be positive");
+		}
+		this.pool = pool;
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Checks every game of a file.
+	 *
+	 * @param file the PGN file to check
+	 * @return the problems found, ordered by offset, and the time taken
+	 * @throws IOException if the file cannot be read
+	 */
+	public Report validate(Path file) throws IOException {
+		long start = System.nanoTime();
+		Report report;
+		try {
+			report = pool.invoke(new ChunkTask(file, 0, Files.size(file)));
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		report.elapsedNanos = System.nanoTime() - start;
+		return report;
+	}
+
+	/**
+	 * Checks the games that start in a range of the file, splitting the range in
+	 * two until it is no larger than the chunk size.
+	 */
+	private class ChunkTask extends RecursiveTask<Report> {
+		private static final long serialVersionUID = 1L;
+		private final Path file;
+		private final long start;
+		private final long end;
+
+		ChunkTask(Path file, long start, long end) {
+			this.file = file;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected Report compute() {
+			if (end - start > chunkSize) {
+				long middle = start + (end - start) / 2;
+				ChunkTask right = new ChunkTask(file, middle, end);
+				right.fork();
+				Report output = new ChunkTask(file, start, middle).compute();
+				output.add(right.join());
+				return output;
+			}
+			Report output = new Report();
+			try (PgnReader reader = new PgnReader(file, start, end)) {
+				while (reader.next()) {
+					check(reader.getGame(), reader.getBoard(), output);
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return output;
+		}
+	}
+
+	/**
+	 * Checks one game, whose moves have all been made on the board.
+	 */
+	private static void check(PgnGame game, EngineBoard board, Report report) {
+		report.games++;
+		report.moves += game.getMoveCount();
+		if (!game.isValid()) {
+			report.addProblem(new Problem(game.getOffset(), Problem.Type.ILLEGAL_MOVE, game.getError()));
+			return;
+		}
+		int[] moves = report.buffer;
+		if (board.generateLegalMoves(moves) > 0 || game.getResult() == null) {
+			return;
+		}
+		ChessColor expected = ChessColor.DRAW;
+		if (board.inCheck()) {
+			expected = board.getSideToMove() == EngineBoard.WHITE ? ChessColor.BLACK : ChessColor.WHITE;
+		}
+		if (game.getResult() != expected) {
+			report.addProblem(new Problem(game.getOffset(), Problem.Type.RESULT_MISMATCH,
+					(expected == ChessColor.DRAW ? "Stalemate" : "Checkmate") + " recorded as "
+							+ PgnWriter.resultText(game.getResult())));
+		}
+	}
+
+	/**
+	 * A problem found in a game.
+	 */
+	public static class Problem {
+		public enum Type {
+			/**
+			 * a move that is not legal or cannot be read
+			 */
+			ILLEGAL_MOVE,
+			/**
+			 * a game ending in checkmate or stalemate with another result
+			 */
+			RESULT_MISMATCH
+		}
+
+		private final long offset;
+		private final Type type;
+		private final String message;
+
+		Problem(long offset, Type type, String message) {
+			this.offset = offset;
+			this.type = type;
+			this.message = message;
+		}
+
+		/**
+		 * Returns the byte offset in the file where the game starts.
+		 */
+		public long getOffset() {
+			return offset;
+		}
+
+		public Type getType() {
+			return type;
+		}
+
+		public String getMessage() {
+			return message;
+		}
+
+		public String toString() {
+			return "offset " + offset + ": " + type + ": " + message;
+		}
+	}
+
+	/**
+	 * The outcome of checking an archive.
+	 */
+	public static class Report {
+		private long games;
+		private long moves;
+		private long problemCount;
+		private final List<Problem> problems = new ArrayList<Problem>();
+		private long elapsedNanos;
+		// scratch space for the worker filling the report
+		private final int[] buffer = new int[EngineBoard.MAX_MOVES];
+
+		private void addProblem(Problem problem) {
+			problemCount++;
+			if (problems.size() < MAX_PROBLEMS) {
+				problems.add(problem);
+			}
+		}
+
+		/**
+		 * Adds the counts and problems of the report of a later range.
+		 */
+		private void add(Report other) {
+			games += other.games;
+			moves += other.moves;
+			problemCount += other.problemCount;
+			for (Problem problem : other.problems) {
+				if (problems.size() < MAX_PROBLEMS) {
+					problems.add(problem);
+				}
+			}
+		}
+
+		public long getGames() {
+			return games;
+		}
+
+		public long getMoves() {
+			return moves;
+		}
+
+		/**
+		 * Returns the number of problems found, which may be more than the number
+		 * kept by getProblems.
+		 */
+		public long getProblemCount() {
+			return problemCount;
+		}
+
+		/**
+		 * Returns the first 1000 problems found, ordered by offset.
+		 */
+		public List<Problem> getProblems() {
+			return Collections.unmodifiableList(problems);
+		}
+
+		public boolean isValid() {
+			return problemCount == 0;
+		}
+
+		/**
+		 * Returns the games checked per second, from start to end.
+		 */
+		public double getGamesPerSecond() {
+			return elapsedNanos <= 0 ? 0 : games * 1e9 / elapsedNanos;
+		}
+
+		public String toString() {
+			return String.format("%d games, %d moves, %d problems, %.0f games/s", games, moves, problemCount,
+					getGamesPerSecond());
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		Path file;
+		boolean temporary = args.length == 0 || args[0].matches("\\d+");
+		if (temporary) {
+			file = Files.createTempFile("games", ".pgn");
+			PgnBenchmark.writeRandomGames(file, args.length > 0 ? Integer.parseInt(args[0]) : 20_000, 1);
+		} else {
+			file = Paths.get(args[0]);
+		}
+		int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		try {
+			// a first pass warms up the JIT compiler
+			new ArchiveValidator(ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE).validate(file);
+			for (int threads = 1; threads <= maxThreads; threads *= 2) {
+				ForkJoinPool pool = new ForkJoinPool(threads);
+				Report report = new ArchiveValidator(pool, DEFAULT_CHUNK_SIZE).validate(file);
+				pool.shutdown();
+				System.out.println(threads + " threads: " + report);
+				if (threads * 2 > maxThreads) {
+					for (Problem problem : report.getProblems()) {
+						System.out.println(problem);
+					}
+				}
+			}
+		} finally {
+			if (temporary) {
+				Files.deleteIfExists(file);
+			}
+		}
+	}
+}
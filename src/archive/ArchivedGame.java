@@ -0,0 +1,98 @@
+package archive;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import board.ChessColor;
+import engine.Move;
+import game.Turn;
+
+/**
+ * A game read from a GameArchive: its id, tags, starting position, moves in
+ * the engine encoding (see Move) and result. ArchivedGames are immutable.
+ */
+public class ArchivedGame {
+	private final long id;
+	private final Map<String, String> tags;
+	private final String startFen;
+	private final short[] moves;
+	private final ChessColor result;
+
+	ArchivedGame(long id, Map<String, String> tags, String startFen, short[] moves, ChessColor result) {
+		this.id = id;
+		this.tags = Collections.unmodifiableMap(tags);
+		this.startFen = startFen;
+		this.moves = moves;
+		this.result = result;
+	}
+
+	/**
+	 * Returns the game's id, its index in the archive.
+	 */
+	public long getId() {
+		return id;
+	}
+
+	/**
+	 * Returns the game's tags, in the order they were stored.
+	 */
+	public Map<String, String> getTags() {
+		return tags;
+	}
+
+	/**
+	 * Returns the starting position, or null for the standard position.
+	 */
+	public String getStartFen() {
+		return startFen;
+	}
+
+	public int getMoveCount() {
+		return moves.length;
+	}
+
+	/**
+	 * Returns a move in the engine encoding.
+	 *
+	 * @param ply the index of the move, from 0
+	 * @return the encoded move, see Move
+	 */
+	public int getMove(int ply) {
+		return moves[ply] & 0xFFFF;
+	}
+
+	/**
+	 * Returns the moves in the engine encoding.
+	 */
+	public int[] getMoves() {
+		int[] output = new int[moves.length];
+		for (int ply = 0; ply < moves.length; ply++) {
+			output[ply] = moves[ply] & 0xFFFF;
+		}
+		return output;
+	}
+
+	/**
+	 * Returns the moves as Turns.
+	 */
+	public List<Turn> getTurns() {
+		List<Turn> output = new ArrayList<Turn>(moves.length);
+		for (int ply = 0; ply < moves.length; ply++) {
+			output.add(Move.toTurn(getMove(ply)));
+		}
+		return output;
+	}
+
+	/**
+	 * Returns the winning color, DRAW, or null if the game is unfinished.
+	 */
+	public ChessColor getResult() {
+		return result;
+	}
+
+	public String toString() {
+		return "ArchivedGame[" + id + ", " + moves.length + " moves, result " + result + "]";
+	}
+}
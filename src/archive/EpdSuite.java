@@ -0,0 +1,610 @@
+package archive;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import board.ChessColor;
+import board.PlayingBoard;
+import engine.EngineBoard;
+import engine.Evaluator;
+import engine.Move;
+import engine.Search;
+import engine.SearchOptions;
+import engine.SearchResult;
+import engine.TranspositionTable;
+import game.LegalMoveSet;
+import game.Turn;
+
+/**
+ * Runs a suite of test positions in Extended Position Description (EPD) format:
+ * one position per line, the first four fields of a FEN followed by
+ * operations separated by ';', such as
+ *
+ * r1b1k2r/ppppnppp/2n2q2/2b5/3NP3/2P1B3/PP3PPP/RN1QKB1R w KQkq - bm Nb5; id
+ * "WAC.093";
+ *
+ * The operations checked are "bm" and "am", the best moves and the moves to
+ * avoid, which are solved by a Search limited to a time per position, and
+ * "D1" to "Dn", perft counts of the positions reached after that many plies,
+ * which are counted until the same time runs out. Perft counts are found
+ * either by the rules of the game, PlayingBoard and LegalMoveSet, or by
+ * EngineBoard. The rules of the game do not include castling, en passant or
+ * promotion, so their counts only match the published ones in positions where
+ * none of these can happen within the depth. Positions are run in parallel on
+ * a fork-join pool, each worker thread keeping its own transposition table.
+ *
+ * Usage: EpdSuite [file.epd] [milliseconds per position] [threads] [rules |
+ * engine]
+ */
+public class EpdSuite {
+	public static final long DEFAULT_TIME_MILLIS = 2000;
+	private static final int TABLE_MEGABYTES = 16;
+	/**
+	 * perft nodes counted between checks of the clock
+	 */
+	private static final int CLOCK_INTERVAL = 1 << 10;
+
+	/**
+	 * The move generator that perft counts are checked with.
+	 */
+	public enum Generator {
+		/**
+		 * the rules of the game: PlayingBoard and LegalMoveSet
+		 */
+		RULES,
+		/**
+		 * the engine's EngineBoard
+		 */
+		ENGINE
+	}
+
+	private final ForkJoinPool pool;
+	private final long timeMillis;
+	private final Generator generator;
+
+	/**
+	 * Creates a suite runner.
+	 *
+	 * @param pool       the pool to run on
+	 * @param timeMillis the time limit of each position
+	 * @param generator  the move generator perft counts are checked with
+	 */
+	public EpdSuite(ForkJoinPool pool, long timeMillis, Generator generator) {
+		if (timeMillis <= 0) {
+			throw new IllegalArgumentException("Time per position must be positive");
+		}
+		this.pool = pool;
+		this.timeMillis = timeMillis;
+		this.generator = generator;
+	}
+
+	/**
+	 * Reads the positions of an EPD file. Blank lines and lines starting with
+	 * '#' are skipped.
+	 *
+	 * @param file the file to read
+	 * @return the positions, in file order
+	 * @throws IOException if the file cannot be read or a line is not valid EPD
+	 */
+	public static List<Entry> read(Path file) throws IOException {
+		List<Entry> output = new ArrayList<Entry>();
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line;
+			int lineNumber = 0;
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				try {
+					output.add(Entry.parse(line));
+				} catch (IllegalArgumentException e) {
+					throw new IOException(file + " line " + lineNumber + ": " + e.getMessage(), e);
+				}
+			}
+		}
+		return output;
+	}
+
+	/**
+	 * Runs every position.
+	 *
+	 * @param entries the positions to run
+	 * @return the result of each position, in the order given, and the time
+	 *         taken
+	 */
+	public Report run(List<Entry> entries) {
+		ThreadLocal<Worker> workers = ThreadLocal.withInitial(Worker::new);
+		long start = System.nanoTime();
+		Report report = entries.isEmpty() ? new Report()
+				: pool.invoke(new PositionTask(entries, 0, entries.size(), workers));
+		report.elapsedNanos = System.nanoTime() - start;
+		return report;
+	}
+
+	/**
+	 * Runs the positions in a range of the list, splitting the range in two
+	 * until it holds one position, as positions can take very different times.
+	 */
+	private class PositionTask extends RecursiveTask<Report> {
+		private static final long serialVersionUID = 1L;
+		private final List<Entry> entries;
+		private final int start;
+		private final int end;
+		private final ThreadLocal<Worker> workers;
+
+		PositionTask(List<Entry> entries, int start, int end, ThreadLocal<Worker> workers) {
+			this.entries = entries;
+			this.start = start;
+			this.end = end;
+			this.workers = workers;
+		}
+
+		@Override
+		protected Report compute() {
+			if (end - start > 1) {
+				int middle = start + (end - start) / 2;
+				PositionTask right = new PositionTask(entries, middle, end, workers);
+				right.fork();
+				Report output = new PositionTask(entries, start, middle, workers).compute();
+				output.add(right.join());
+				return output;
+			}
+			Report output = new Report();
+			output.add(workers.get().run(entries.get(start)));
+			return output;
+		}
+	}
+
+	/**
+	 * The state one thread reuses between positions.
+	 */
+	private class Worker {
+		private final TranspositionTable table = new TranspositionTable(TABLE_MEGABYTES);
+		private final Evaluator evaluator = new Evaluator();
+		private final int[] buffer = new int[EngineBoard.MAX_MOVES];
+		private long deadline;
+		private long nodes;
+		private boolean stopped;
+
+		Result run(Entry entry) {
+			long start = System.currentTimeMillis();
+			deadline = start + timeMillis;
+			nodes = 0;
+			stopped = false;
+			Result.Status status = Result.Status.UNCHECKED;
+			StringBuilder detail = new StringBuilder();
+			if (!entry.bestMoves.isEmpty() || !entry.avoidMoves.isEmpty()) {
+				status = solve(entry, detail);
+			}
+			if (entry.perftCounts.length > 0 && status != Result.Status.FAILED) {
+				// the moves, if any, were solved, so the perft counts decide
+				status = perft(entry, detail);
+			}
+			return new Result(entry, status, detail.toString(), nodes, System.currentTimeMillis() - start);
+		}
+
+		/**
+		 * Searches for the best move and checks it against the bm and am moves.
+		 */
+		private Result.Status solve(Entry entry, StringBuilder detail) {
+			EngineBoard board = new EngineBoard(entry.fen);
+			int[] best = parseMoves(board, entry.bestMoves, detail);
+			int[] avoid = parseMoves(board, entry.avoidMoves, detail);
+			if (best == null || avoid == null) {
+				return Result.Status.FAILED;
+			}
+			table.clear();
+			Search search = new Search(board, new SearchOptions(), evaluator, table);
+			SearchResult result = search.search(Search.MAX_PLY - 1, timeMillis, 0);
+			nodes += result.getNodes();
+			int move = result.getBestMove();
+			detail.append(move == Move.NONE ? "no move" : San.format(board, move)).append(" at depth ")
+					.append(result.getDepth());
+			boolean solved = (best.length == 0 || contains(best, move)) && !contains(avoid, move);
+			return solved ? Result.Status.SOLVED : Result.Status.FAILED;
+		}
+
+		/**
+		 * Reads moves in SAN, or returns null and describes the first that is not
+		 * legal in the position.
+		 */
+		private int[] parseMoves(EngineBoard board, List<String> moves, StringBuilder detail) {
+			int[] output = new int[moves.size()];
+			for (int i = 0; i < output.length; i++) {
+				byte[] text = moves.get(i).getBytes(StandardCharsets.US_ASCII);
+				output[i] = San.parse(board, text, 0, text.length, buffer);
+				if (output[i] == Move.NONE) {
+					detail.append("not a legal move: ").append(moves.get(i));
+					return null;
+				}
+			}
+			return output;
+		}
+
+		/**
+		 * Counts each perft depth in turn and compares it with the expected count.
+		 */
+		private Result.Status perft(Entry entry, StringBuilder detail) {
+			if (detail.length() > 0) {
+				detail.append(", ");
+			}
+			EngineBoard engineBoard = null;
+			PlayingBoard rulesBoard = null;
+			ChessColor color = null;
+			if (generator == Generator.ENGINE) {
+				engineBoard = new EngineBoard(entry.fen);
+			} else {
+				rulesBoard = PlayingBoard.fromFen(entry.fen);
+				color = entry.fen.split(" ")[1].equals("b") ? ChessColor.BLACK : ChessColor.WHITE;
+			}
+			int[] moves = new int[EngineBoard.MAX_MOVES * entry.perftCounts.length];
+			for (int depth = 1; depth <= entry.perftCounts.length; depth++) {
+				long expected = entry.perftCounts[depth - 1];
+				if (expected < 0) {
+					continue;
+				}
+				long found = engineBoard != null ? perft(engineBoard, moves, 0, depth) : perft(rulesBoard, color, depth);
+				if (stopped) {
+					detail.append("timed out at D").append(depth);
+					return Result.Status.TIMED_OUT;
+				}
+				if (found != expected) {
+					detail.append("D").append(depth).append(" expected ").append(expected).append(", found ")
+							.append(found);
+					return Result.Status.FAILED;
+				}
+			}
+			detail.append("perft to D").append(entry.perftCounts.length);
+			return Result.Status.SOLVED;
+		}
+
+		/**
+		 * Counts the positions depth plies after an EngineBoard position, using
+		 * the part of the move array after start for this ply and deeper ones.
+		 */
+		private long perft(EngineBoard board, int[] moves, int start, int depth) {
+			int end = board.generateMoves(moves, start);
+			long count = 0;
+			for (int i = start; i < end && !stopped; i++) {
+				if (!board.makeMove(moves[i])) {
+					continue;
+				}
+				count += depth == 1 ? 1 : perft(board, moves, end, depth - 1);
+				board.unmakeMove();
+				countNode();
+			}
+			return count;
+		}
+
+		/**
+		 * Counts the positions depth plies after a position under the rules of
+		 * the game. Each move is made on a new PlayingBoard built from the square
+		 * codes of the one before it.
+		 */
+		private long perft(PlayingBoard board, ChessColor color, int depth) {
+			LegalMoveSet legalMoves = LegalMoveSet.generate(board, color);
+			if (depth == 1) {
+				nodes += legalMoves.size();
+				return legalMoves.size();
+			}
+			byte[] squareCodes = board.toSquareCodes();
+			long count = 0;
+			for (Turn turn : legalMoves.getTurns()) {
+				if (stopped) {
+					break;
+				}
+				byte[] next = squareCodes.clone();
+				next[turn.getProposed().getSquareIndex()] = next[turn.getCurrent().getSquareIndex()];
+				next[turn.getCurrent().getSquareIndex()] = PlayingBoard.EMPTY_SQUARE_CODE;
+				count += perft(PlayingBoard.fromSquareCodes(next), color.getOppositeColor(), depth - 1);
+				countNode();
+			}
+			return count;
+		}
+
+		private void countNode() {
+			if (++nodes % CLOCK_INTERVAL == 0 && System.currentTimeMillis() >= deadline) {
+				stopped = true;
+			}
+		}
+	}
+
+	private static boolean contains(int[] moves, int move) {
+		for (int candidate : moves) {
+			if (candidate == move) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * One position of a suite and the operations to check in it.
+	 */
+	public static class Entry {
+		private final String fen;
+		private final String id;
+		private final List<String> bestMoves;
+		private final List<String> avoidMoves;
+		/**
+		 * expected perft count of each depth from 1, or -1 where not given
+		 */
+		private final long[] perftCounts;
+
+		private Entry(String fen, String id, List<String> bestMoves, List<String> avoidMoves, long[] perftCounts) {
+			this.fen = fen;
+			this.id = id;
+			this.bestMoves = bestMoves;
+			this.avoidMoves = avoidMoves;
+			this.perftCounts = perftCounts;
+		}
+
+		/**
+		 * Reads one line of EPD. Move counters after the four position fields are
+		 * accepted, and operations other than bm, am, id and D1 to Dn are
+		 * ignored.
+		 *
+		 * @param line the line to read
+		 * @return the position and its operations
+		 */
+		public static Entry parse(String line) {
+			String[] fields = line.trim().split("\\s+", 5);
+			if (fields.length < 4) {
+				throw new IllegalArgumentException("EPD needs four position fields: " + line);
+			}
+			String fen = fields[0] + " " + fields[1] + " " + fields[2] + " " + fields[3];
+			String operations = fields.length > 4 ? fields[4] : "";
+			// the halfmove clock and fullmove number, as in a FEN
+			String[] counters = operations.split("\\s+", 3);
+			if (counters.length >= 2 && counters[0].matches("\\d+") && counters[1].matches("\\d+")) {
+				fen += " " + counters[0] + " " + counters[1];
+				operations = counters.length > 2 ? counters[2] : "";
+			} else {
+				fen += " 0 1";
+			}
+			// checks the position before any operation is read
+			new EngineBoard(fen);
+			String id = null;
+			List<String> bestMoves = new ArrayList<String>();
+			List<String> avoidMoves = new ArrayList<String>();
+			long[] perftCounts = new long[0];
+			for (String operation : operations.split(";")) {
+				String[] parts = operation.trim().split("\\s+");
+				String opcode = parts[0];
+				if (opcode.equals("bm") || opcode.equals("am")) {
+					(opcode.equals("bm") ? bestMoves : avoidMoves).addAll(Arrays.asList(parts).subList(1, parts.length));
+				} else if (opcode.equals("id")) {
+					id = operation.trim().substring(2).trim().replace("\"", "");
+				} else if (opcode.matches("D\\d+") && parts.length > 1) {
+					int depth = Integer.parseInt(opcode.substring(1));
+					if (depth < 1 || depth > Search.MAX_PLY) {
+						throw new IllegalArgumentException("Invalid perft depth: " + opcode);
+					}
+					if (depth > perftCounts.length) {
+						int previous = perftCounts.length;
+						perftCounts = Arrays.copyOf(perftCounts, depth);
+						Arrays.fill(perftCounts, previous, depth, -1);
+					}
+					try {
+						perftCounts[depth - 1] = Long.parseLong(parts[1]);
+					} catch (NumberFormatException e) {
+						throw new IllegalArgumentException("Invalid perft count: " + operation.trim());
+					}
+				}
+			}
+			return new Entry(fen, id, bestMoves, avoidMoves, perftCounts);
+		}
+
+		/**
+		 * Returns the position as a FEN, with move counters.
+		 */
+		public String getFen() {
+			return fen;
+		}
+
+		/**
+		 * Returns the id operation, or null if there is none.
+		 */
+		public String getId() {
+			return id;
+		}
+	}
+
+	/**
+	 * The outcome of one position.
+	 */
+	public static class Result {
+		public enum Status {
+			/**
+			 * every operation checked was met
+			 */
+			SOLVED,
+			/**
+			 * a wrong move was chosen, a perft count differed or a move could not
+			 * be read
+			 */
+			FAILED,
+			/**
+			 * the time ran out before every perft depth was counted
+			 */
+			TIMED_OUT,
+			/**
+			 * the position has no operation to check
+			 */
+			UNCHECKED
+		}
+
+		private final Entry entry;
+		private final Status status;
+		private final String detail;
+		private final long nodes;
+		private final long elapsedMillis;
+
+		Result(Entry entry, Status status, String detail, long nodes, long elapsedMillis) {
+			this.entry = entry;
+			this.status = status;
+			this.detail = detail;
+			this.nodes = nodes;
+			this.elapsedMillis = elapsedMillis;
+		}
+
+		public Entry getEntry() {
+			return entry;
+		}
+
+		public Status getStatus() {
+			return status;
+		}
+
+		/**
+		 * Returns the move chosen or the perft depth reached, and what differed if
+		 * the position failed.
+		 */
+		public String getDetail() {
+			return detail;
+		}
+
+		/**
+		 * Returns the positions searched or counted.
+		 */
+		public long getNodes() {
+			return nodes;
+		}
+
+		public long getElapsedMillis() {
+			return elapsedMillis;
+		}
+
+		public String toString() {
+			return (entry.id != null ? entry.id : entry.fen) + ": " + status + " (" + detail + ") in " + elapsedMillis
+					+ " ms";
+		}
+	}
+
+	/**
+	 * The outcome of running a suite.
+	 */
+	public static class Report {
+		private final List<Result> results = new ArrayList<Result>();
+		private final int[] counts = new int[Result.Status.values().length];
+		private long nodes;
+		private long elapsedNanos;
+
+		private void add(Result result) {
+			results.add(result);
+			counts[result.status.ordinal()]++;
+			nodes += result.nodes;
+		}
+
+		/**
+		 * Adds the results of the report of a later range.
+		 */
+		private void add(Report other) {
+			for (Result result : other.results) {
+				add(result);
+			}
+		}
+
+		/**
+		 * Returns the result of each position, in the order run.
+		 */
+		public List<Result> getResults() {
+			return Collections.unmodifiableList(results);
+		}
+
+		/**
+		 * Returns the number of positions with a status.
+		 */
+		public int getCount(Result.Status status) {
+			return counts[status.ordinal()];
+		}
+
+		public long getNodes() {
+			return nodes;
+		}
+
+		public long getElapsedNanos() {
+			return elapsedNanos;
+		}
+
+		/**
+		 * Returns the positions run per second, from start to end.
+		 */
+		public double getPositionsPerSecond() {
+			return elapsedNanos <= 0 ? 0 : results.size() * 1e9 / elapsedNanos;
+		}
+
+		/**
+		 * Returns the nodes searched or counted per second, from start to end.
+		 */
+		public double getNodesPerSecond() {
+			return elapsedNanos <= 0 ? 0 : nodes * 1e9 / elapsedNanos;
+		}
+
+		public String toString() {
+			return String.format(
+					"%d/%d solved, %d failed, %d timed out, %d unchecked in %d ms, %.1f positions/s, %.0f nodes/s",
+					getCount(Result.Status.SOLVED), results.size(), getCount(Result.Status.FAILED),
+					getCount(Result.Status.TIMED_OUT), getCount(Result.Status.UNCHECKED), elapsedNanos / 1_000_000,
+					getPositionsPerSecond(), getNodesPerSecond());
+		}
+	}
+
+	/**
+	 * Writes a small suite of well-known positions: perft positions whose
+	 * counts are published, and tactics from Win At Chess.
+	 */
+	static void writeDefaultSuite(Path file) throws IOException {
+		List<String> lines = Arrays.asList(
+				"rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - D1 20; D2 400; D3 8902; D4 197281; id \"start\";",
+				"r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - D1 48; D2 2039; D3 97862; id \"kiwipete\";",
+				"8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - D1 14; D2 191; D3 2812; D4 43238; id \"perft 3\";",
+				"r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1 D1 6; D2 264; D3 9467; id \"perft 4\";",
+				"rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8 D1 44; D2 1486; D3 62379; id \"perft 5\";",
+				"2rr3k/pp3pp1/1nnqbN1p/3pN3/2pP4/2P3Q1/PPB4P/R4RK1 w - - bm Qg6; id \"WAC.001\";",
+				"8/7p/5k2/5p2/p1p2P2/Pr1pPK2/1P1R3P/8 b - - bm Rxb2; id \"WAC.002\";",
+				"r1bq2rk/pp3pbp/2p1p1pQ/7P/3P4/2PB1N2/PP3PPR/2KR4 w - - bm Qxh7+; id \"WAC.004\";",
+				"5k2/6pp/p1qN4/1p1p4/3P4/2PKP2Q/PP3r2/3R4 b - - bm Qc4+; id \"WAC.005\";");
+		Files.write(file, lines, StandardCharsets.UTF_8);
+	}
+
+	public static void main(String[] args) throws IOException {
+		boolean temporary = args.length == 0;
+		Path file;
+		if (temporary) {
+			file = Files.createTempFile("suite", ".epd");
+			writeDefaultSuite(file);
+		} else {
+			file = Paths.get(args[0]);
+		}
+		long timeMillis = args.length > 1 ? Long.parseLong(args[1]) : DEFAULT_TIME_MILLIS;
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		Generator generator = args.length > 3 ? Generator.valueOf(args[3].toUpperCase()) : Generator.RULES;
+		try {
+			List<Entry> entries = read(file);
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			Report report = new EpdSuite(pool, timeMillis, generator).run(entries);
+			pool.shutdown();
+			for (Result result : report.getResults()) {
+				System.out.println(result);
+			}
+			System.out.println(generator + " perft, " + threads + " threads: " + report);
+		} finally {
+			if (temporary) {
+				Files.deleteIfExists(file);
+			}
+		}
+	}
+}
@@ -0,0 +1,236 @@
+package archive;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import board.ChessColor;
+
+/**
+ * Binary game archive, written by GameArchiveWriter. Games are stored as
+ * 16-bit engine moves (see Move) with a few tags, and grouped into blocks that
+ * are each compressed with Deflate on their own. A block index at the end of
+ * the file gives each block's position and first game id, so fetching one
+ * game decompresses a single block, and a whole archive can be decoded a block
+ * per task in parallel. A GameArchive is safe for use by many threads.
+ *
+ * File layout, all values big-endian: the magic number "GARC" and a format
+ * version; the compressed blocks; the block index, with for each block its
+ * file offset (8 bytes), compressed and uncompressed lengths (4 each) and first
+ * game id (8); and a trailer of the index offset (8), block count (4), game
+ * count (8) and the magic number again (4).
+ *
+ * Uncompressed, a block holds its number of games and the offset of each game
+ * after the offset table, then the games. A game is its result (0 unfinished,
+ * otherwise 1 plus the ChessColor ordinal), a flag and modified UTF-8 string
+ * for a starting position, a tag count and name and value strings, and a move
+ * count followed by the moves.
+ */
+public class GameArchive implements AutoCloseable {
+	static final int MAGIC = 0x47415243;
+	static final int VERSION = 1;
+	static final int TRAILER_SIZE = 8 + 4 + 8 + 4;
+	private static final int INDEX_ENTRY_SIZE = 8 + 4 + 4 + 8;
+	/**
+	 * tags kept when games are imported from PGN
+	 */
+	static final String[] STORED_TAGS = { "Event", "Site", "Date", "Round", "White", "Black", "WhiteElo",
+			"BlackElo", "ECO" };
+
+	private static final ChessColor[] COLORS = ChessColor.values();
+
+	private final FileChannel channel;
+	private final long gameCount;
+	private final long[] blockOffsets;
+	private final int[] compressedLengths;
+	private final int[] uncompressedLengths;
+	private final long[] firstGames;
+
+	/**
+	 * Opens an archive and reads its block index.
+	 *
+	 * @param file the archive file
+	 * @throws IOException if the file cannot be read or is not an archive
+	 */
+	public GameArchive(Path file) throws IOException {
+		channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			ByteBuffer header = size < 8 + TRAILER_SIZE ? null : readBuffer(0, 8);
+			if (header == null || header.getInt() != MAGIC) {
+				throw new IOException("Not a game archive: " + file);
+			}
+			int version = header.getInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported game archive version " + version + ": " + file);
+			}
+			ByteBuffer trailer = readBuffer(size - TRAILER_SIZE, TRAILER_SIZE);
+			long indexOffset = trailer.getLong();
+			int blockCount = trailer.getInt();
+			gameCount = trailer.getLong();
+			if (trailer.getInt() != MAGIC || indexOffset + (long) blockCount * INDEX_ENTRY_SIZE != size - TRAILER_SIZE) {
+				throw new IOException("Damaged or incomplete game archive: " + file);
+			}
+			ByteBuffer index = readBuffer(indexOffset, blockCount * INDEX_ENTRY_SIZE);
+			blockOffsets = new long[blockCount];
+			compressedLengths = new int[blockCount];
+			uncompressedLengths = new int[blockCount];
+			firstGames = new long[blockCount];
+			for (int block = 0; block < blockCount; block++) {
+				blockOffsets[block] = index.getLong();
+				compressedLengths[block] = index.getInt();
+				uncompressedLengths[block] = index.getInt();
+				firstGames[block] = index.getLong();
+			}
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	public long getGameCount() {
+		return gameCount;
+	}
+
+	public int getBlockCount() {
+		return blockOffsets.length;
+	}
+
+	/**
+	 * Returns one game, decompressing only the block that holds it.
+	 *
+	 * @param id the id of the game, from 0
+	 * @return the game
+	 * @throws IOException if the archive cannot be read
+	 */
+	public ArchivedGame getGame(long id) throws IOException {
+		if (id < 0 || id >= gameCount) {
+			throw new IndexOutOfBoundsException("No game " + id + " in an archive of " + gameCount);
+		}
+		int block = Arrays.binarySearch(firstGames, id);
+		if (block < 0) {
+			block = -block - 2;
+		}
+		ByteBuffer data = readBlock(block);
+		int index = (int) (id - firstGames[block]);
+		int games = data.getInt(0);
+		data.position(4 + 4 * games + data.getInt(4 + 4 * index));
+		return readGame(id, data);
+	}
+
+	/**
+	 * Reads every game of one block.
+	 *
+	 * @param block    the index of the block
+	 * @param consumer the consumer of the games, in id order
+	 * @throws IOException if the archive cannot be read
+	 */
+	public void readBlock(int block, Consumer<ArchivedGame> consumer) throws IOException {
+		ByteBuffer data = readBlock(block);
+		int games = data.getInt();
+		data.position(4 + 4 * games);
+		for (int i = 0; i < games; i++) {
+			consumer.accept(readGame(firstGames[block] + i, data));
+		}
+	}
+
+	/**
+	 * Reads every game, decompressing blocks in parallel on the common fork-join
+	 * pool. Games of one block are passed on in order by one thread, but blocks
+	 * are read in no particular order, so the consumer must be thread-safe.
+	 *
+	 * @param consumer the consumer of the games
+	 * @throws IOException if the archive cannot be read
+	 */
+	public void forEach(Consumer<ArchivedGame> consumer) throws IOException {
+		try {
+			IntStream.range(0, blockOffsets.length).parallel().forEach(block -> {
+				try {
+					readBlock(block, consumer);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	private ByteBuffer readBlock(int block) throws IOException {
+		ByteBuffer compressed = readBuffer(blockOffsets[block], compressedLengths[block]);
+		byte[] output = new byte[uncompressedLengths[block]];
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(compressed.array(), 0, compressedLengths[block]);
+			int length = 0;
+			while (length < output.length && !inflater.finished()) {
+				int read = inflater.inflate(output, length, output.length - length);
+				if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				length += read;
+			}
+			if (length != output.length) {
+				throw new IOException("Damaged block " + block);
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Damaged block " + block, e);
+		} finally {
+			inflater.end();
+		}
+		return ByteBuffer.wrap(output);
+	}
+
+	private static ArchivedGame readGame(long id, ByteBuffer data) {
+		int result = data.get();
+		String startFen = data.get() != 0 ? readString(data) : null;
+		int tagCount = data.get() & 0xFF;
+		Map<String, String> tags = new LinkedHashMap<String, String>();
+		for (int i = 0; i < tagCount; i++) {
+			String name = readString(data);
+			tags.put(name, readString(data));
+		}
+		short[] moves = new short[data.getShort() & 0xFFFF];
+		data.asShortBuffer().get(moves);
+		data.position(data.position() + 2 * moves.length);
+		return new ArchivedGame(id, tags, startFen, moves, result == 0 ? null : COLORS[result - 1]);
+	}
+
+	/**
+	 * Reads a string written by DataOutput.writeUTF. Tags are nearly always
+	 * ASCII, for which modified UTF-8 and UTF-8 are the same.
+	 */
+	private static String readString(ByteBuffer data) {
+		int length = data.getShort() & 0xFFFF;
+		String output = new String(data.array(), data.position(), length, StandardCharsets.UTF_8);
+		data.position(data.position() + length);
+		return output;
+	}
+
+	private ByteBuffer readBuffer(long offset, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, offset + buffer.position()) < 0) {
+				throw new IOException("Unexpected end of archive");
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,230 @@
+package archive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import board.ChessColor;
+
+/**
+ * Writes a GameArchive. Games are added in order and numbered from 0; they are
+ * collected into blocks of about DEFAULT_BLOCK_SIZE bytes, and each full block
+ * is compressed on its own and written. Closing the writer writes the last
+ * block and the block index. See GameArchive for the file layout.
+ */
+public class GameArchiveWriter implements AutoCloseable {
+	/**
+	 * default uncompressed size at which a block is written
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+	private final FileChannel channel;
+	private final int blockSize;
+	private final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+	private final ByteArrayOutputStream blockBytes;
+	private final DataOutputStream block;
+	private final DataOutputStream index;
+	private final ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+	private byte[] compressed;
+	// offsets of the games of the current block, from the start of its game data
+	private int[] gameOffsets = new int[256];
+	private int blockGames;
+	private int blockCount;
+	private long gameCount;
+	private long position;
+
+	/**
+	 * Creates an archive with blocks of the default size.
+	 *
+	 * @param file the archive file, replaced if it exists
+	 * @throws IOException if the file cannot be written
+	 */
+	public GameArchiveWriter(Path file) throws IOException {
+		this(file, DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * Creates an archive.
+	 *
+	 * @param file      the archive file, replaced if it exists
+	 * @param blockSize the uncompressed size at which a block is written; larger
+	 *                  blocks compress better but make fetching one game slower
+	 * @throws IOException if the file cannot be written
+	 */
+	public GameArchiveWriter(Path file, int blockSize) throws IOException {
+		if (blockSize <= 0) {
+			throw new IllegalArgumentException("Block size must be positive");
+		}
+		this.blockSize = blockSize;
+		blockBytes = new ByteArrayOutputStream(blockSize + 1024);
+		block = new DataOutputStream(blockBytes);
+		index = new DataOutputStream(indexBytes);
+		compressed = new byte[blockSize + 1024];
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		ByteBuffer header = ByteBuffer.allocate(8);
+		header.putInt(GameArchive.MAGIC).putInt(GameArchive.VERSION).flip();
+		write(header);
+	}
+
+	/**
+	 * Adds a game read by a PgnReader. Only the moves before any error are kept.
+	 *
+	 * @param game the game to add
+	 * @return the id of the game in the archive
+	 * @throws IOException if the file cannot be written
+	 */
+	public long add(PgnGame game) throws IOException {
+		int[] moves = new int[game.getMoveCount()];
+		for (int ply = 0; ply < moves.length; ply++) {
+			moves[ply] = game.getMove(ply);
+		}
+		Map<String, String> tags = new LinkedHashMap<String, String>();
+		for (String name : GameArchive.STORED_TAGS) {
+			String value = game.getTag(name);
+			if (value != null) {
+				tags.put(name, value);
+			}
+		}
+		return add(tags, game.getStartFen(), moves, moves.length, game.getResult());
+	}
+
+	/**
+	 * Adds a game.
+	 *
+	 * @param tags     tag names and values
+	 * @param startFen the starting position, or null for the standard position
+	 * @param moves    the moves in the engine encoding
+	 * @param count    the number of moves
+	 * @param result   the winning color, DRAW, or null if unfinished
+	 * @return the id of the game in the archive
+	 * @throws IOException if the file cannot be written
+	 */
+	public long add(Map<String, String> tags, String startFen, int[] moves, int count, ChessColor result)
+			throws IOException {
+		if (count > 0xFFFF || tags.size() > 0xFF) {
+			throw new IllegalArgumentException("Game too long to archive");
+		}
+		// checked before anything is written, so that a game refused half way does
+		// not leave a partial game in the block
+		if (startFen != null) {
+			checkString(startFen);
+		}
+		for (Map.Entry<String, String> tag : tags.entrySet()) {
+			checkString(tag.getKey());
+			checkString(tag.getValue());
+		}
+		if (blockGames == gameOffsets.length) {
+			gameOffsets = Arrays.copyOf(gameOffsets, blockGames * 2);
+		}
+		gameOffsets[blockGames++] = blockBytes.size();
+		block.writeByte(result == null ? 0 : 1 + result.ordinal());
+		block.writeBoolean(startFen != null);
+		if (startFen != null) {
+			block.writeUTF(startFen);
+		}
+		block.writeByte(tags.size());
+		for (Map.Entry<String, String> tag : tags.entrySet()) {
+			block.writeUTF(tag.getKey());
+			block.writeUTF(tag.getValue());
+		}
+		block.writeShort(count);
+		for (int ply = 0; ply < count; ply++) {
+			block.writeShort(moves[ply]);
+		}
+		long id = gameCount++;
+		if (blockBytes.size() >= blockSize) {
+			writeBlock();
+		}
+		return id;
+	}
+
+	/**
+	 * Checks that a string can be written with writeUTF, whose modified UTF-8
+	 * encoding is at most 65535 bytes long.
+	 */
+	private static void checkString(String value) {
+		if (value == null) {
+			throw new IllegalArgumentException("Tag names and values must not be null");
+		}
+		int length = 0;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			length += c >= 1 && c <= 0x7F ? 1 : c <= 0x7FF ? 2 : 3;
+		}
+		if (length > 0xFFFF) {
+			throw new IllegalArgumentException("String too long to archive");
+		}
+	}
+
+	/**
+	 * Compresses and writes the current block: the number of games, the offset
+	 * of each, then the games.
+	 */
+	private void writeBlock() throws IOException {
+		if (blockGames == 0) {
+			return;
+		}
+		ByteBuffer raw = ByteBuffer.allocate(4 + 4 * blockGames + blockBytes.size());
+		raw.putInt(blockGames);
+		for (int i = 0; i < blockGames; i++) {
+			raw.putInt(gameOffsets[i]);
+		}
+		raw.put(blockBytes.toByteArray());
+		deflater.reset();
+		deflater.setInput(raw.array());
+		deflater.finish();
+		int length = 0;
+		while (!deflater.finished()) {
+			if (length == compressed.length) {
+				compressed = Arrays.copyOf(compressed, compressed.length * 2);
+			}
+			length += deflater.deflate(compressed, length, compressed.length - length);
+		}
+		index.writeLong(position);
+		index.writeInt(length);
+		index.writeInt(raw.capacity());
+		index.writeLong(gameCount - blockGames);
+		write(ByteBuffer.wrap(compressed, 0, length));
+		blockCount++;
+		blockGames = 0;
+		blockBytes.reset();
+	}
+
+	private void write(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+
+	public long getGameCount() {
+		return gameCount;
+	}
+
+	/**
+	 * Writes the last block, the block index and the trailer, and closes the
+	 * file.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			writeBlock();
+			long indexOffset = position;
+			write(ByteBuffer.wrap(indexBytes.toByteArray()));
+			ByteBuffer trailer = ByteBuffer.allocate(GameArchive.TRAILER_SIZE);
+			trailer.putLong(indexOffset).putInt(blockCount).putLong(gameCount).putInt(GameArchive.MAGIC).flip();
+			write(trailer);
+		} finally {
+			deflater.end();
+			channel.close();
+		}
+	}
+}
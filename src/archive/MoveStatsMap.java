@@ -0,0 +1,148 @@
+package archive;
+
+import board.ChessColor;
+
+/**
+ * Open-addressing hash map from (position key, move) to result counts and a
+ * rating sum, stored in parallel primitive arrays so that adding a game's
+ * moves allocates nothing. Not thread-safe; the opening explorer gives each
+ * worker thread its own maps.
+ */
+final class MoveStatsMap {
+	private static final int INITIAL_CAPACITY = 1 << 10;
+
+	long[] keys;
+	int[] moves;
+	/**
+	 * games per entry; 0 marks an empty slot
+	 */
+	int[] games;
+	int[] whiteWins;
+	int[] draws;
+	int[] blackWins;
+	long[] ratingSums;
+	int[] ratedGames;
+	private int size;
+	private int mask;
+
+	MoveStatsMap() {
+		allocate(INITIAL_CAPACITY);
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		moves = new int[capacity];
+		games = new int[capacity];
+		whiteWins = new int[capacity];
+		draws = new int[capacity];
+		blackWins = new int[capacity];
+		ratingSums = new long[capacity];
+		ratedGames = new int[capacity];
+		mask = capacity - 1;
+	}
+
+	int size() {
+		return size;
+	}
+
+	int capacity() {
+		return keys.length;
+	}
+
+	/**
+	 * Counts one game in which a move was played in a position.
+	 *
+	 * @param key    the position's Zobrist key
+	 * @param move   the move, in the engine encoding
+	 * @param result the game's result, or null if unknown
+	 * @param rating the players' average rating, or 0 if unknown
+	 */
+	void add(long key, int move, ChessColor result, int rating) {
+		int slot = slot(key, move);
+		games[slot]++;
+		if (result == ChessColor.WHITE) {
+			whiteWins[slot]++;
+		} else if (result == ChessColor.BLACK) {
+			blackWins[slot]++;
+		} else if (result == ChessColor.DRAW) {
+			draws[slot]++;
+		}
+		if (rating > 0) {
+			ratingSums[slot] += rating;
+			ratedGames[slot]++;
+		}
+	}
+
+	/**
+	 * Adds every entry of another map to this one.
+	 */
+	void addAll(MoveStatsMap other) {
+		for (int i = 0; i < other.keys.length; i++) {
+			if (other.games[i] == 0) {
+				continue;
+			}
+			int slot = slot(other.keys[i], other.moves[i]);
+			games[slot] += other.games[i];
+			whiteWins[slot] += other.whiteWins[i];
+			draws[slot] += other.draws[i];
+			blackWins[slot] += other.blackWins[i];
+			ratingSums[slot] += other.ratingSums[i];
+			ratedGames[slot] += other.ratedGames[i];
+		}
+	}
+
+	/**
+	 * Finds the slot of an entry, creating an empty entry if there is none.
+	 */
+	private int slot(long key, int move) {
+		if (size * 2 >= keys.length) {
+			grow();
+		}
+		int slot = hash(key, move) & mask;
+		while (games[slot] != 0) {
+			if (keys[slot] == key && moves[slot] == move) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		// the caller counts at least one game, so the slot will not stay empty
+		keys[slot] = key;
+		moves[slot] = move;
+		size++;
+		return slot;
+	}
+
+	private static int hash(long key, int move) {
+		long mixed = (key ^ move) * 0x9E3779B97F4A7C15L;
+		return (int) (mixed >>> 32);
+	}
+
+	private void grow() {
+		long[] oldKeys = keys;
+		int[] oldMoves = moves;
+		int[] oldGames = games;
+		int[] oldWhite = whiteWins;
+		int[] oldDraws = draws;
+		int[] oldBlack = blackWins;
+		long[] oldRatings = ratingSums;
+		int[] oldRated = ratedGames;
+		allocate(oldKeys.length * 2);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldGames[i] == 0) {
+				continue;
+			}
+			int slot = hash(oldKeys[i], oldMoves[i]) & mask;
+			while (games[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			keys[slot] = oldKeys[i];
+			moves[slot] = oldMoves[i];
+			games[slot] = oldGames[i];
+			whiteWins[slot] = oldWhite[i];
+			draws[slot] = oldDraws[i];
+			blackWins[slot] = oldBlack[i];
+			ratingSums[slot] = oldRatings[i];
+			ratedGames[slot] = oldRated[i];
+		}
+	}
+}
@@ -0,0 +1,176 @@
+package archive;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import board.ChessColor;
+import engine.EngineBoard;
+import engine.Move;
+import engine.OpeningBook;
+import engine.Search;
+import engine.SearchResult;
+
+/**
+ * Builds an OpeningBook from the first plies of the games of a GameArchive.
+ * Each move played in a position is weighted as Polyglot books usually are:
+ * two points for each game the moving side won and one for each draw. Moves
+ * played in fewer than minGames games, or never scoring, are left out.
+ *
+ * Usage: OpeningBookBuilder [archive book | number of random games]
+ */
+public class OpeningBookBuilder {
+	public static final int DEFAULT_MAX_PLIES = 20;
+	public static final int DEFAULT_MIN_GAMES = 2;
+	private static final int MAX_WEIGHT = 0xFFFF;
+
+	private final int maxPlies;
+	private final int minGames;
+
+	/**
+	 * Creates a builder.
+	 *
+	 * @param maxPlies the number of plies of each game to add
+	 * @param minGames the fewest games a move must be played in to be kept
+	 */
+	public OpeningBookBuilder(int maxPlies, int minGames) {
+		if (maxPlies <= 0 || minGames <= 0) {
+			throw new IllegalArgumentException("Plies and games must be positive");
+		}
+		this.maxPlies = maxPlies;
+		this.minGames = minGames;
+	}
+
+	/**
+	 * Builds a book from every game of an archive.
+	 *
+	 * @param archive the games to learn from
+	 * @param output  the book file to write
+	 * @return the number of entries written
+	 * @throws IOException if a file cannot be read or written
+	 */
+	public int build(GameArchive archive, Path output) throws IOException {
+		// results are counted from the moving side's point of view: WHITE is a win
+		// for the side that played the move
+		MoveStatsMap counts = new MoveStatsMap();
+		EngineBoard board = new EngineBoard();
+		for (int block = 0; block < archive.getBlockCount(); block++) {
+			archive.readBlock(block, game -> {
+				board.loadFen(game.getStartFen() == null ? EngineBoard.START_FEN : game.getStartFen());
+				int plies = Math.min(maxPlies, game.getMoveCount());
+				for (int ply = 0; ply < plies; ply++) {
+					int move = game.getMove(ply);
+					counts.add(OpeningBook.getKey(board), OpeningBook.toPolyglot(move),
+							relativeResult(game.getResult(), board), 0);
+					if (!board.makeMove(move)) {
+						break;
+					}
+				}
+			});
+		}
+		// sorted by key as an unsigned number, then by weight from highest
+		long[] keys = new long[counts.size()];
+		long[] values = new long[counts.size()];
+		int count = 0;
+		for (int slot = 0; slot < counts.capacity(); slot++) {
+			int weight = 2 * counts.whiteWins[slot] + counts.draws[slot];
+			if (counts.games[slot] < minGames || weight == 0) {
+				continue;
+			}
+			keys[count] = counts.keys[slot] ^ Long.MIN_VALUE;
+			values[count] = ((long) (Integer.MAX_VALUE - weight) << 16) | counts.moves[slot];
+			count++;
+		}
+		PositionIndexBuilder.sort(keys, values, 0, count - 1);
+		try (DataOutputStream writer = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(output), 1 << 16))) {
+			int first = 0;
+			while (first < count) {
+				// weights of one position are scaled down together if any is too large
+				int last = first;
+				while (last + 1 < count && keys[last + 1] == keys[first]) {
+					last++;
+				}
+				long largest = Integer.MAX_VALUE - (values[first] >>> 16);
+				for (int entry = first; entry <= last; entry++) {
+					long weight = Integer.MAX_VALUE - (values[entry] >>> 16);
+					if (largest > MAX_WEIGHT) {
+						weight = Math.max(1, weight * MAX_WEIGHT / largest);
+					}
+					writer.writeLong(keys[entry] ^ Long.MIN_VALUE);
+					writer.writeShort((int) (values[entry] & 0xFFFF));
+					writer.writeShort((int) weight);
+					writer.writeInt(0);
+				}
+				first = last + 1;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns a result with WHITE meaning a win for the side to move.
+	 */
+	private static ChessColor relativeResult(ChessColor result, EngineBoard board) {
+		if (result == null || result == ChessColor.DRAW || board.getSideToMove() == EngineBoard.WHITE) {
+			return result;
+		}
+		return result.getOppositeColor();
+	}
+
+	public static void main(String[] args) throws IOException {
+		boolean temporary = args.length < 2;
+		Path archiveFile;
+		Path bookFile;
+		if (temporary) {
+			archiveFile = PgnBenchmark.writeRandomArchive(args.length > 0 ? Integer.parseInt(args[0]) : 20_000);
+			bookFile = Files.createTempFile("games", ".bin");
+		} else {
+			archiveFile = Paths.get(args[0]);
+			bookFile = Paths.get(args[1]);
+		}
+		try {
+			long start = System.nanoTime();
+			try (GameArchive archive = new GameArchive(archiveFile)) {
+				int entries = new OpeningBookBuilder(DEFAULT_MAX_PLIES, DEFAULT_MIN_GAMES).build(archive, bookFile);
+				System.out.printf("built %d entries from %d games in %d ms%n", entries, archive.getGameCount(),
+						(System.nanoTime() - start) / 1_000_000);
+			}
+			try (OpeningBook book = new OpeningBook(bookFile)) {
+				// play from the book until it runs out, then search
+				EngineBoard board = new EngineBoard();
+				Search search = new Search(board);
+				search.setOpeningBook(book, new Random(1));
+				StringBuilder line = new StringBuilder();
+				for (int ply = 0; ply < 12; ply++) {
+					start = System.nanoTime();
+					SearchResult result = search.search(6, 1000, 0);
+					if (result.getBestMove() == Move.NONE) {
+						break;
+					}
+					line.append(Move.toString(result.getBestMove())).append(result.getDepth() == 0 ? "(book) " : " ");
+					board.makeMove(result.getBestMove());
+				}
+				System.out.println(line.toString().trim());
+				int probes = 100_000;
+				int[] moves = new int[EngineBoard.MAX_MOVES];
+				int[] weights = new int[EngineBoard.MAX_MOVES];
+				EngineBoard startBoard = new EngineBoard();
+				start = System.nanoTime();
+				for (int i = 0; i < probes; i++) {
+					book.probe(startBoard, moves, weights);
+				}
+				System.out.printf("probe: %.2f us%n", (System.nanoTime() - start) / 1e3 / probes);
+			}
+		} finally {
+			if (temporary) {
+				Files.deleteIfExists(archiveFile);
+				Files.deleteIfExists(bookFile);
+			}
+		}
+	}
+}
@@ -0,0 +1,192 @@
+package archive;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import engine.Move;
+import game.Turn;
+
+/**
+ * Move statistics of the opening positions of a game database, read from a
+ * table written by OpeningExplorerBuilder. The table is memory-mapped and
+ * searched in place, so a query costs a binary search over the entries and
+ * opening it reads nothing but the header.
+ *
+ * File layout, big-endian: the magic number "OEXP", a format version, the
+ * entry count (8 bytes) and the number of plies counted (4), then the entries
+ * ordered by position key, as unsigned numbers, and move. An entry is the
+ * position key (8), the move (2), the average rating (2), and the games, white
+ * wins, draws and black wins (4 each).
+ */
+public class OpeningExplorer implements AutoCloseable {
+	static final int MAGIC = 0x4F455850;
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 4 + 4 + 8 + 4;
+	static final int ENTRY_SIZE = 8 + 2 + 2 + 4 * 4;
+	/**
+	 * entries per mapped segment, keeping each segment under 2GB
+	 */
+	private static final int SEGMENT_SHIFT = 26;
+	private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+	/**
+	 * Statistics of one move played in a position.
+	 */
+	public static class MoveStats {
+		private final int move;
+		private final int games;
+		private final int whiteWins;
+		private final int draws;
+		private final int blackWins;
+		private final int averageRating;
+
+		MoveStats(int move, int games, int whiteWins, int draws, int blackWins, int averageRating) {
+			this.move = move;
+			this.games = games;
+			this.whiteWins = whiteWins;
+			this.draws = draws;
+			this.blackWins = blackWins;
+			this.averageRating = averageRating;
+		}
+
+		/**
+		 * Returns the move in the engine encoding, see Move.
+		 */
+		public int getMove() {
+			return move;
+		}
+
+		public Turn getTurn() {
+			return Move.toTurn(move);
+		}
+
+		/**
+		 * Returns the number of games the move was played in, including games
+		 * without a result.
+		 */
+		public int getGames() {
+			return games;
+		}
+
+		public int getWhiteWins() {
+			return whiteWins;
+		}
+
+		public int getDraws() {
+			return draws;
+		}
+
+		public int getBlackWins() {
+			return blackWins;
+		}
+
+		/**
+		 * Returns the average rating of the players of the games, or 0 if none
+		 * were rated.
+		 */
+		public int getAverageRating() {
+			return averageRating;
+		}
+
+		public String toString() {
+			return String.format("%s: %d games, +%d =%d -%d, rating %d", Move.toString(move), games, whiteWins, draws,
+					blackWins, averageRating);
+		}
+	}
+
+	private final FileChannel channel;
+	private final long entryCount;
+	private final int maxPlies;
+	private final MappedByteBuffer[] segments;
+
+	/**
+	 * Opens a table.
+	 *
+	 * @param file the table file
+	 * @throws IOException if the file cannot be read or is not a table
+	 */
+	public OpeningExplorer(Path file) throws IOException {
+		channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			if (channel.size() < HEADER_SIZE) {
+				throw new IOException("Not an opening table: " + file);
+			}
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+			if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+				throw new IOException("Not a version " + VERSION + " opening table: " + file);
+			}
+			entryCount = header.getLong();
+			maxPlies = header.getInt();
+			if (channel.size() != HEADER_SIZE + entryCount * ENTRY_SIZE) {
+				throw new IOException("Damaged or incomplete opening table: " + file);
+			}
+			segments = new MappedByteBuffer[(int) ((entryCount + SEGMENT_MASK) >>> SEGMENT_SHIFT)];
+			for (int segment = 0; segment < segments.length; segment++) {
+				long first = (long) segment << SEGMENT_SHIFT;
+				long entries = Math.min(entryCount - first, 1L << SEGMENT_SHIFT);
+				segments[segment] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + first * ENTRY_SIZE,
+						entries * ENTRY_SIZE);
+			}
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the statistics of every move played in a position, most played
+	 * first.
+	 *
+	 * @param key the Zobrist key of the position, see EngineBoard.getKey
+	 * @return the moves played, or an empty list if the position is not in the
+	 *         table
+	 */
+	public List<MoveStats> query(long key) {
+		long low = 0;
+		long high = entryCount;
+		while (low < high) {
+			long middle = (low + high) >>> 1;
+			if (Long.compareUnsigned(keyAt(middle), key) < 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		List<MoveStats> output = new ArrayList<MoveStats>();
+		for (long entry = low; entry < entryCount && keyAt(entry) == key; entry++) {
+			ByteBuffer segment = segments[(int) (entry >>> SEGMENT_SHIFT)];
+			int offset = (int) (entry & SEGMENT_MASK) * ENTRY_SIZE;
+			output.add(new MoveStats(segment.getShort(offset + 8) & 0xFFFF, segment.getInt(offset + 12),
+					segment.getInt(offset + 16), segment.getInt(offset + 20), segment.getInt(offset + 24),
+					segment.getShort(offset + 10) & 0xFFFF));
+		}
+		output.sort((first, second) -> Integer.compare(second.getGames(), first.getGames()));
+		return output;
+	}
+
+	public long getEntryCount() {
+		return entryCount;
+	}
+
+	/**
+	 * Returns the number of plies of each game that were counted.
+	 */
+	public int getMaxPlies() {
+		return maxPlies;
+	}
+
+	private long keyAt(long entry) {
+		return segments[(int) (entry >>> SEGMENT_SHIFT)].getLong((int) (entry & SEGMENT_MASK) * ENTRY_SIZE);
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,281 @@
+package archive;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import engine.EngineBoard;
+
+/**
+ * Builds the table read by OpeningExplorer: for the first plies of every game
+ * of a GameArchive, how often each move was played in each position, with
+ * the results and the players' average rating.
+ *
+ * Archive blocks are replayed in parallel on a fork-join pool. Each worker
+ * thread counts into its own MoveStatsMaps, one per stripe, where a position's
+ * stripe is given by the top bits of its key, so workers never share a map.
+ * The stripes are then merged across workers in parallel, each stripe sorted
+ * on its own, and written in order; since stripes cover ascending ranges of
+ * keys, the table comes out sorted.
+ *
+ * Usage: OpeningExplorerBuilder [archive table | number of random games]
+ */
+public class OpeningExplorerBuilder {
+	public static final int DEFAULT_MAX_PLIES = 24;
+	private static final int STRIPE_BITS = 6;
+	private static final int STRIPES = 1 << STRIPE_BITS;
+	private static final int INSERTION_SORT_SIZE = 16;
+
+	private final ForkJoinPool pool;
+	private final int maxPlies;
+
+	/**
+	 * Creates a builder.
+	 *
+	 * @param pool     the pool to run on
+	 * @param maxPlies the number of plies of each game to count
+	 */
+	public OpeningExplorerBuilder(ForkJoinPool pool, int maxPlies) {
+		if (maxPlies <= 0) {
+			throw new IllegalArgumentException("Plies must be positive");
+		}
+		this.pool = pool;
+		this.maxPlies = maxPlies;
+	}
+
+	/**
+	 * Counts the opening moves of every game of an archive.
+	 *
+	 * @param archive the games to count
+	 * @param output  the table file to write
+	 * @return the number of entries written
+	 * @throws IOException if a file cannot be read or written
+	 */
+	public long build(GameArchive archive, Path output) throws IOException {
+		ConcurrentLinkedQueue<MoveStatsMap[]> workerMaps = new ConcurrentLinkedQueue<MoveStatsMap[]>();
+		ThreadLocal<Worker> workers = ThreadLocal.withInitial(() -> {
+			Worker worker = new Worker();
+			workerMaps.add(worker.stripes);
+			return worker;
+		});
+		MoveStatsMap[] merged = new MoveStatsMap[STRIPES];
+		try {
+			pool.submit(() -> IntStream.range(0, archive.getBlockCount()).parallel().forEach(block -> {
+				Worker worker = workers.get();
+				try {
+					archive.readBlock(block, worker::count);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			})).get();
+			pool.submit(() -> IntStream.range(0, STRIPES).parallel().forEach(stripe -> {
+				MoveStatsMap map = new MoveStatsMap();
+				for (MoveStatsMap[] stripes : workerMaps) {
+					map.addAll(stripes[stripe]);
+					// the worker's map is no longer needed
+					stripes[stripe] = null;
+				}
+				merged[stripe] = map;
+			})).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while counting games", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof UncheckedIOException) {
+				throw ((UncheckedIOException) e.getCause()).getCause();
+			}
+			throw new IOException("Counting games failed", e.getCause());
+		}
+		long entries = 0;
+		for (MoveStatsMap map : merged) {
+			entries += map.size();
+		}
+		try (DataOutputStream writer = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(output), 1 << 16))) {
+			writer.writeInt(OpeningExplorer.MAGIC);
+			writer.writeInt(OpeningExplorer.VERSION);
+			writer.writeLong(entries);
+			writer.writeInt(maxPlies);
+			for (int stripe = 0; stripe < STRIPES; stripe++) {
+				write(writer, merged[stripe]);
+				merged[stripe] = null;
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 * Per-thread state: a board to replay games on and the maps counted into.
+	 */
+	private class Worker {
+		private final EngineBoard board = new EngineBoard();
+		private final MoveStatsMap[] stripes = new MoveStatsMap[STRIPES];
+
+		Worker() {
+			for (int stripe = 0; stripe < STRIPES; stripe++) {
+				stripes[stripe] = new MoveStatsMap();
+			}
+		}
+
+		void count(ArchivedGame game) {
+			board.loadFen(game.getStartFen() == null ? EngineBoard.START_FEN : game.getStartFen());
+			int rating = averageRating(game);
+			int plies = Math.min(maxPlies, game.getMoveCount());
+			for (int ply = 0; ply < plies; ply++) {
+				long key = board.getKey();
+				int move = game.getMove(ply);
+				stripes[(int) (key >>> (64 - STRIPE_BITS))].add(key, move, game.getResult(), rating);
+				if (!board.makeMove(move)) {
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the average of the players' ratings, or 0 if either is missing.
+	 */
+	private static int averageRating(ArchivedGame game) {
+		int white = parseRating(game.getTags().get("WhiteElo"));
+		int black = parseRating(game.getTags().get("BlackElo"));
+		return white > 0 && black > 0 ? (white + black) / 2 : 0;
+	}
+
+	private static int parseRating(String value) {
+		if (value == null || value.isEmpty() || value.length() > 4) {
+			return 0;
+		}
+		int rating = 0;
+		for (int i = 0; i < value.length(); i++) {
+			char digit = value.charAt(i);
+			if (digit < '0' || digit > '9') {
+				return 0;
+			}
+			rating = rating * 10 + digit - '0';
+		}
+		return rating;
+	}
+
+	/**
+	 * Writes the entries of one stripe, ordered by key and move.
+	 */
+	private static void write(DataOutputStream writer, MoveStatsMap map) throws IOException {
+		int[] order = new int[map.size()];
+		int count = 0;
+		for (int slot = 0; slot < map.capacity(); slot++) {
+			if (map.games[slot] != 0) {
+				order[count++] = slot;
+			}
+		}
+		sort(order, map, 0, count - 1);
+		for (int slot : order) {
+			writer.writeLong(map.keys[slot]);
+			writer.writeShort(map.moves[slot]);
+			writer.writeShort(map.ratedGames[slot] == 0 ? 0 : (int) (map.ratingSums[slot] / map.ratedGames[slot]));
+			writer.writeInt(map.games[slot]);
+			writer.writeInt(map.whiteWins[slot]);
+			writer.writeInt(map.draws[slot]);
+			writer.writeInt(map.blackWins[slot]);
+		}
+	}
+
+	private static int compare(MoveStatsMap map, int first, int second) {
+		int output = Long.compareUnsigned(map.keys[first], map.keys[second]);
+		return output != 0 ? output : Integer.compare(map.moves[first], map.moves[second]);
+	}
+
+	/**
+	 * Sorts slots by key and move, from first to last inclusive.
+	 */
+	private static void sort(int[] order, MoveStatsMap map, int first, int last) {
+		while (last - first >= INSERTION_SORT_SIZE) {
+			int pivot = order[(first + last) >>> 1];
+			int i = first - 1;
+			int j = last + 1;
+			while (true) {
+				do {
+					i++;
+				} while (compare(map, order[i], pivot) < 0);
+				do {
+					j--;
+				} while (compare(map, order[j], pivot) > 0);
+				if (i >= j) {
+					break;
+				}
+				int swap = order[i];
+				order[i] = order[j];
+				order[j] = swap;
+			}
+			if (j - first < last - j) {
+				sort(order, map, first, j);
+				first = j + 1;
+			} else {
+				sort(order, map, j + 1, last);
+				last = j;
+			}
+		}
+		for (int i = first + 1; i <= last; i++) {
+			int slot = order[i];
+			int j = i - 1;
+			while (j >= first && compare(map, order[j], slot) > 0) {
+				order[j + 1] = order[j];
+				j--;
+			}
+			order[j + 1] = slot;
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		boolean temporary = args.length < 2;
+		Path archiveFile;
+		Path tableFile;
+		if (temporary) {
+			archiveFile = PgnBenchmark.writeRandomArchive(args.length > 0 ? Integer.parseInt(args[0]) : 20_000);
+			tableFile = Files.createTempFile("games", ".oexp");
+		} else {
+			archiveFile = Paths.get(args[0]);
+			tableFile = Paths.get(args[1]);
+		}
+		try {
+			long start = System.nanoTime();
+			long entries;
+			try (GameArchive archive = new GameArchive(archiveFile)) {
+				entries = new OpeningExplorerBuilder(ForkJoinPool.commonPool(), DEFAULT_MAX_PLIES).build(archive,
+						tableFile);
+				System.out.printf("counted %d games into %d entries in %d ms%n", archive.getGameCount(), entries,
+						(System.nanoTime() - start) / 1_000_000);
+			}
+			try (OpeningExplorer explorer = new OpeningExplorer(tableFile)) {
+				long key = PositionIndex.key(EngineBoard.START_FEN);
+				List<OpeningExplorer.MoveStats> moves = explorer.query(key);
+				for (int i = 0; i < Math.min(5, moves.size()); i++) {
+					System.out.println(moves.get(i));
+				}
+				SplittableRandom random = new SplittableRandom(1);
+				int queries = 100_000;
+				long found = 0;
+				start = System.nanoTime();
+				for (int i = 0; i < queries; i++) {
+					found += explorer.query(i % 2 == 0 ? key : random.nextLong()).size();
+				}
+				System.out.printf("query: %.2f us (%d moves found)%n", (System.nanoTime() - start) / 1e3 / queries,
+						found);
+			}
+		} finally {
+			if (temporary) {
+				Files.deleteIfExists(archiveFile);
+				Files.deleteIfExists(tableFile);
+			}
+		}
+	}
+}
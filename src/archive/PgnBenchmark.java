@@ -0,0 +1,144 @@
+package archive;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import board.ChessColor;
+import engine.EngineBoard;
+
+/**
+ * Measures how fast a PgnReader reads and resolves games, in games and
+ * megabytes per second, and how much heap is in use while it does. Without a
+ * file, it first writes a file of random legal games.
+ *
+ * Usage: PgnBenchmark [file.pgn | number of random games]
+ */
+public class PgnBenchmark {
+	private static final int DEFAULT_GAMES = 20_000;
+	private static final int MAX_PLIES = 160;
+
+	public static void main(String[] args) throws IOException {
+		Path file;
+		boolean temporary = args.length == 0 || args[0].matches("\\d+");
+		if (temporary) {
+			int games = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_GAMES;
+			file = Files.createTempFile("games", ".pgn");
+			writeRandomGames(file, games, 1);
+		} else {
+			file = Paths.get(args[0]);
+		}
+		try {
+			// a first pass warms up the JIT compiler
+			try (PgnReader reader = new PgnReader(file)) {
+				reader.read(game -> {
+				});
+			}
+			long[] moves = new long[1];
+			long heap;
+			try (PgnReader reader = new PgnReader(file)) {
+				reader.read(game -> moves[0] += game.getMoveCount());
+				heap = usedHeap();
+				System.out.printf("%d games (%d invalid), %d moves, %.1f MB%n", reader.getGamesRead(),
+						reader.getInvalidGames(), moves[0], reader.getBytesRead() / 1e6);
+				double seconds = reader.getGamesRead() / reader.getGamesPerSecond();
+				System.out.printf("%.0f games/s, %.0f moves/s, %.1f MB/s%n", reader.getGamesPerSecond(),
+						moves[0] / seconds, reader.getBytesRead() / 1e6 / seconds);
+			}
+			System.out.printf("heap in use after reading: %.1f MB%n", heap / 1e6);
+		} finally {
+			if (temporary) {
+				Files.deleteIfExists(file);
+			}
+		}
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * Writes games of random legal moves, each ending in mate, stalemate or a
+	 * random number of plies.
+	 *
+	 * @param file  the file to write
+	 * @param games the number of games
+	 * @param seed  seed for the random moves
+	 * @throws IOException if the file cannot be written
+	 */
+	static void writeRandomGames(Path file, int games, long seed) throws IOException {
+		SplittableRandom random = new SplittableRandom(seed);
+		EngineBoard board = new EngineBoard();
+		int[] legal = new int[EngineBoard.MAX_MOVES];
+		int[] moves = new int[MAX_PLIES];
+		Map<String, String> tags = new LinkedHashMap<String, String>();
+		try (PgnWriter writer = new PgnWriter(Files.newBufferedWriter(file, StandardCharsets.US_ASCII))) {
+			for (int g = 1; g <= games; g++) {
+				board.loadFen(EngineBoard.START_FEN);
+				int plies = random.nextInt(20, MAX_PLIES);
+				int count = 0;
+				int legalCount = board.generateLegalMoves(legal);
+				while (count < plies && legalCount > 0) {
+					int move = legal[random.nextInt(legalCount)];
+					board.makeMove(move);
+					moves[count++] = move;
+					legalCount = board.generateLegalMoves(legal);
+				}
+				ChessColor result = ChessColor.DRAW;
+				if (legalCount == 0 && board.inCheck()) {
+					result = board.getSideToMove() == EngineBoard.WHITE ? ChessColor.BLACK : ChessColor.WHITE;
+				}
+				tags.clear();
+				tags.put("Event", "Random game " + g);
+				tags.put("Site", "?");
+				tags.put("Date", "????.??.??");
+				tags.put("Round", "-");
+				tags.put("White", "Random " + random.nextInt(1000));
+				tags.put("Black", "Random " + random.nextInt(1000));
+				tags.put("WhiteElo", String.valueOf(random.nextInt(1200, 2800)));
+				tags.put("BlackElo", String.valueOf(random.nextInt(1200, 2800)));
+				writer.writeGame(tags, null, moves, count, result);
+			}
+		}
+	}
+
+	/**
+	 * Writes games of random legal moves to a temporary archive, by way of a
+	 * temporary PGN file that is read back as an import would, for tools run
+	 * without an archive of their own.
+	 *
+	 * @param games the number of games
+	 * @return the archive file, which the caller deletes
+	 * @throws IOException if the files cannot be written
+	 */
+	static Path writeRandomArchive(int games) throws IOException {
+		Path pgn = Files.createTempFile("games", ".pgn");
+		Path archiveFile = Files.createTempFile("games", ".garc");
+		try {
+			writeRandomGames(pgn, games, 1);
+			try (PgnReader reader = new PgnReader(pgn); GameArchiveWriter writer = new GameArchiveWriter(archiveFile)) {
+				reader.read(game -> {
+					try {
+						writer.add(game);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				});
+			}
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(archiveFile);
+			throw e;
+		} finally {
+			Files.delete(pgn);
+		}
+		return archiveFile;
+	}
+}
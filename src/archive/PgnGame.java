@@ -0,0 +1,216 @@
+package archive;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import board.ChessColor;
+import engine.Move;
+import game.Turn;
+
+/**
+ * One game read by a PgnReader: its tag pairs, its moves resolved against the
+ * board, and its result. The reader fills the same PgnGame for every game, so
+ * a consumer must copy anything it wants to keep before returning.
+ *
+ * Tags are kept as raw bytes and only turned into a String when asked for.
+ * Moves are kept in the engine encoding (see Move), from which a Turn is made
+ * on request.
+ */
+public class PgnGame {
+	private long offset;
+	private int[] moves = new int[256];
+	private int moveCount;
+	private byte[] tagBytes = new byte[1024];
+	private int tagLength;
+	/**
+	 * for each tag, the start and end of its name and value in tagBytes
+	 */
+	private int[] tagBounds = new int[64];
+	private int tagCount;
+	private String startFen;
+	private ChessColor result;
+	private boolean resultKnown;
+	private String error;
+
+	/**
+	 * Empties the game before the reader fills it with the next one.
+	 */
+	void reset(long offset) {
+		this.offset = offset;
+		moveCount = 0;
+		tagLength = 0;
+		tagCount = 0;
+		startFen = null;
+		result = null;
+		resultKnown = false;
+		error = null;
+	}
+
+	void addMove(int move) {
+		if (moveCount == moves.length) {
+			moves = Arrays.copyOf(moves, moveCount * 2);
+		}
+		moves[moveCount++] = move;
+	}
+
+	/**
+	 * Starts a tag. Its name and then its value follow through addTagByte,
+	 * separated by endTagName and closed by endTag.
+	 */
+	void startTag() {
+		if (tagCount * 4 == tagBounds.length) {
+			tagBounds = Arrays.copyOf(tagBounds, tagBounds.length * 2);
+		}
+		tagBounds[tagCount * 4] = tagLength;
+	}
+
+	void endTagName() {
+		tagBounds[tagCount * 4 + 1] = tagLength;
+		tagBounds[tagCount * 4 + 2] = tagLength;
+	}
+
+	void endTag() {
+		tagBounds[tagCount * 4 + 3] = tagLength;
+		tagCount++;
+	}
+
+	void addTagByte(byte value) {
+		if (tagLength == tagBytes.length) {
+			tagBytes = Arrays.copyOf(tagBytes, tagLength * 2);
+		}
+		tagBytes[tagLength++] = value;
+	}
+
+	void setStartFen(String startFen) {
+		this.startFen = startFen;
+	}
+
+	void setResult(ChessColor result) {
+		this.result = result;
+		resultKnown = true;
+	}
+
+	boolean isResultKnown() {
+		return resultKnown;
+	}
+
+	void setError(String error) {
+		this.error = error;
+	}
+
+	/**
+	 * Returns the byte offset in the file where the game starts.
+	 */
+	public long getOffset() {
+		return offset;
+	}
+
+	/**
+	 * Returns the number of moves that were resolved. If the game has an error,
+	 * these are the moves before it.
+	 */
+	public int getMoveCount() {
+		return moveCount;
+	}
+
+	/**
+	 * Returns a move of the game in the engine encoding.
+	 *
+	 * @param ply the index of the move, from 0
+	 * @return the encoded move, see Move
+	 */
+	public int getMove(int ply) {
+		if (ply < 0 || ply >= moveCount) {
+			throw new IndexOutOfBoundsException("No move " + ply + " in a game of " + moveCount);
+		}
+		return moves[ply];
+	}
+
+	/**
+	 * Returns a move of the game as a Turn. Castling is given as the king's
+	 * move and promotions as the pawn's move.
+	 *
+	 * @param ply the index of the move, from 0
+	 * @return the move as a Turn
+	 */
+	public Turn getTurn(int ply) {
+		return Move.toTurn(getMove(ply));
+	}
+
+	/**
+	 * Returns all resolved moves of the game as Turns.
+	 */
+	public List<Turn> getTurns() {
+		List<Turn> output = new ArrayList<Turn>(moveCount);
+		for (int ply = 0; ply < moveCount; ply++) {
+			output.add(Move.toTurn(moves[ply]));
+		}
+		return output;
+	}
+
+	/**
+	 * Returns the value of a tag pair, such as "White" or "Event".
+	 *
+	 * @param name the name of the tag
+	 * @return the value of the first tag with that name, or null if there is none
+	 */
+	public String getTag(String name) {
+		for (int tag = 0; tag < tagCount; tag++) {
+			int nameStart = tagBounds[tag * 4];
+			int nameEnd = tagBounds[tag * 4 + 1];
+			if (nameEnd - nameStart != name.length()) {
+				continue;
+			}
+			boolean matches = true;
+			for (int i = 0; i < name.length() && matches; i++) {
+				matches = tagBytes[nameStart + i] == name.charAt(i);
+			}
+			if (matches) {
+				int valueStart = tagBounds[tag * 4 + 2];
+				return new String(tagBytes, valueStart, tagBounds[tag * 4 + 3] - valueStart, StandardCharsets.UTF_8);
+			}
+		}
+		return null;
+	}
+
+	public int getTagCount() {
+		return tagCount;
+	}
+
+	/**
+	 * Returns the starting position given by the game's FEN tag, or null if the
+	 * game starts from the standard position.
+	 */
+	public String getStartFen() {
+		return startFen;
+	}
+
+	/**
+	 * Returns the result of the game: the winning color, DRAW, or null if the
+	 * game has no result or is unfinished ("*").
+	 */
+	public ChessColor getResult() {
+		return result;
+	}
+
+	/**
+	 * Returns whether every move of the game was resolved.
+	 */
+	public boolean isValid() {
+		return error == null;
+	}
+
+	/**
+	 * Returns why the game could not be read in full, or null if it was.
+	 */
+	public String getError() {
+		return error;
+	}
+
+	public String toString() {
+		return "PgnGame[offset " + offset + ", " + moveCount + " moves, result " + result
+				+ (error == null ? "" : ", error: " + error) + "]";
+	}
+}
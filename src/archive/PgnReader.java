@@ -0,0 +1,491 @@
+package archive;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+import board.ChessColor;
+import engine.EngineBoard;
+import engine.Move;
+
+/**
+ * Reads games from a file in Portable Game Notation (PGN), one at a time. The
+ * file is memory-mapped a window at a time and parsed byte by byte; tags are
+ * copied into a reused PgnGame and moves are resolved from SAN against a
+ * reused EngineBoard without creating a String per token. Memory use is
+ * therefore the same whatever the size of the file.
+ *
+ * A reader may be given a range of the file, so that several readers can share
+ * one file: it skips ahead from the start of its range to the first game, and
+ * reads every game that starts before the end of its range. Games are found by
+ * their first tag line, so games without tags cannot be split this way.
+ *
+ * Moves that cannot be resolved do not stop the reader; the game is passed on
+ * with an error and the moves before it (see PgnGame.getError).
+ */
+public class PgnReader implements Closeable {
+	/**
+	 * bytes of the file mapped at a time
+	 */
+	private static final long WINDOW_SIZE = 1L << 26;
+	/**
+	 * longest movetext token kept; longer tokens are never moves
+	 */
+	private static final int MAX_TOKEN = 32;
+	/**
+	 * furthest distance searched back for the start of a line
+	 */
+	private static final int MAX_LINE_SEARCH = 4096;
+
+	private final FileChannel channel;
+	private final long fileSize;
+	private final long start;
+	private final long end;
+	private MappedByteBuffer window;
+	private long windowStart;
+	private long windowEnd;
+	private long position;
+
+	private final EngineBoard board = new EngineBoard();
+	private final int[] buffer = new int[EngineBoard.MAX_MOVES];
+	private final byte[] token = new byte[MAX_TOKEN + 1];
+	private final PgnGame game = new PgnGame();
+
+	// statistics
+	private long gamesRead;
+	private long invalidGames;
+	private long movesRead;
+	private long firstNanos;
+	private long lastNanos;
+
+	/**
+	 * Opens a reader for a whole file.
+	 *
+	 * @param file the PGN file to read
+	 * @throws IOException if the file cannot be opened
+	 */
+	public PgnReader(Path file) throws IOException {
+		this(file, 0, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Opens a reader for the games that start in a range of a file.
+	 *
+	 * @param file  the PGN file to read
+	 * @param start the offset to look for the first game from
+	 * @param end   the offset at or after which no game is started
+	 * @throws IOException if the file cannot be opened
+	 */
+	public PgnReader(Path file, long start, long end) throws IOException {
+		if (start < 0 || end < start) {
+			throw new IllegalArgumentException("Invalid range " + start + " to " + end);
+		}
+		channel = FileChannel.open(file, StandardOpenOption.READ);
+		fileSize = channel.size();
+		this.start = Math.min(start, fileSize);
+		this.end = Math.min(end, fileSize);
+		position = this.start;
+		if (position > 0) {
+			skipToGameStart();
+		}
+	}
+
+	/**
+	 * Reads every remaining game, passing each to the consumer. The PgnGame
+	 * passed is reused for the next game.
+	 *
+	 * @param consumer the consumer of the games
+	 * @return the number of games read
+	 * @throws IOException if the file cannot be read
+	 */
+	public long read(Consumer<PgnGame> consumer) throws IOException {
+		long count = 0;
+		while (next()) {
+			consumer.accept(game);
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Reads the next game into the PgnGame returned by getGame.
+	 *
+	 * @return true if a game was read, false if there are no more games
+	 * @throws IOException if the file cannot be read
+	 */
+	public boolean next() throws IOException {
+		if (firstNanos == 0) {
+			firstNanos = System.nanoTime();
+		}
+		skipBlank();
+		if (position >= end || peek() < 0) {
+			return false;
+		}
+		game.reset(position);
+		readTags();
+		startBoard();
+		readMovetext();
+		if (!game.isResultKnown()) {
+			String result = game.getTag("Result");
+			if (result != null) {
+				byte[] bytes = result.getBytes(StandardCharsets.US_ASCII);
+				if (bytes.length <= MAX_TOKEN) {
+					System.arraycopy(bytes, 0, token, 0, bytes.length);
+					setResult(bytes.length);
+				}
+			}
+		}
+		gamesRead++;
+		movesRead += game.getMoveCount();
+		if (!game.isValid()) {
+			invalidGames++;
+		}
+		lastNanos = System.nanoTime();
+		return true;
+	}
+
+	/**
+	 * Returns the game last read by next.
+	 */
+	public PgnGame getGame() {
+		return game;
+	}
+
+	/**
+	 * Returns the reader's board, in the position after the last move of the
+	 * last game read. The board is reset for the next game.
+	 */
+	EngineBoard getBoard() {
+		return board;
+	}
+
+	public long getGamesRead() {
+		return gamesRead;
+	}
+
+	/**
+	 * Returns the number of games read with a move that could not be resolved.
+	 */
+	public long getInvalidGames() {
+		return invalidGames;
+	}
+
+	public long getMovesRead() {
+		return movesRead;
+	}
+
+	/**
+	 * Returns the number of bytes of the file read so far.
+	 */
+	public long getBytesRead() {
+		return position - start;
+	}
+
+	/**
+	 * Returns the games read per second, from the first call to next until the
+	 * last game read.
+	 */
+	public double getGamesPerSecond() {
+		long elapsed = lastNanos - firstNanos;
+		return elapsed <= 0 ? 0 : gamesRead * 1e9 / elapsed;
+	}
+
+	@Override
+	public void close() throws IOException {
+		window = null;
+		channel.close();
+	}
+
+	// reading bytes
+	/**
+	 * Returns the byte at the current position, mapping the next window of the
+	 * file if needed, or -1 at the end of the file.
+	 */
+	private int peek() throws IOException {
+		if (position >= windowEnd || position < windowStart) {
+			if (position >= fileSize) {
+				return -1;
+			}
+			windowStart = position;
+			windowEnd = Math.min(fileSize, position + WINDOW_SIZE);
+			window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowEnd - windowStart);
+		}
+		return window.get((int) (position - windowStart)) & 0xFF;
+	}
+
+	private void skipLine() throws IOException {
+		int symbol;
+		while ((symbol = peek()) >= 0) {
+			position++;
+			if (symbol == '\n') {
+				return;
+			}
+		}
+	}
+
+	private void skipSpaces() throws IOException {
+		int symbol;
+		while ((symbol = peek()) == ' ' || symbol == '\t') {
+			position++;
+		}
+	}
+
+	/**
+	 * Skips whitespace and escaped lines, which start with "%".
+	 */
+	private void skipBlank() throws IOException {
+		int symbol;
+		while ((symbol = peek()) >= 0) {
+			if (symbol == '%') {
+				skipLine();
+			} else if (symbol <= ' ') {
+				position++;
+			} else {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Moves from the middle of the file to the next game: the first tag line
+	 * that does not follow another tag line.
+	 */
+	private void skipToGameStart() throws IOException {
+		boolean previousTag = lineStartsWithTag(position - 1);
+		boolean atLineStart = firstByteOfLine(position) == position;
+		if (!atLineStart) {
+			previousTag = lineStartsWithTag(position);
+			skipLine();
+		}
+		int symbol;
+		while ((symbol = peek()) >= 0) {
+			if (symbol == '[' && !previousTag) {
+				return;
+			}
+			previousTag = symbol == '[';
+			skipLine();
+		}
+	}
+
+	private boolean lineStartsWithTag(long offset) throws IOException {
+		long first = firstByteOfLine(offset);
+		if (first < 0) {
+			return false;
+		}
+		long saved = position;
+		position = first;
+		boolean tag = peek() == '[';
+		position = saved;
+		return tag;
+	}
+
+	/**
+	 * Returns the offset of the first byte of the line holding a byte, or -1 if
+	 * the line is too long to be a tag line.
+	 */
+	private long firstByteOfLine(long offset) throws IOException {
+		long from = Math.max(0, offset - MAX_LINE_SEARCH);
+		MappedByteBuffer before = channel.map(FileChannel.MapMode.READ_ONLY, from, offset - from);
+		for (long i = offset - 1; i >= from; i--) {
+			if (before.get((int) (i - from)) == '\n') {
+				return i + 1;
+			}
+		}
+		return from == 0 ? 0 : -1;
+	}
+
+	// parsing
+	private void readTags() throws IOException {
+		int symbol;
+		while (peek() == '[') {
+			position++;
+			skipSpaces();
+			game.startTag();
+			while ((symbol = peek()) > ' ' && symbol != '"' && symbol != ']') {
+				game.addTagByte((byte) symbol);
+				position++;
+			}
+			game.endTagName();
+			skipSpaces();
+			if (peek() == '"') {
+				position++;
+				while ((symbol = peek()) >= 0 && symbol != '"' && symbol != '\n') {
+					if (symbol == '\\') {
+						position++;
+						symbol = peek();
+						if (symbol < 0 || symbol == '\n') {
+							break;
+						}
+					}
+					game.addTagByte((byte) symbol);
+					position++;
+				}
+			}
+			game.endTag();
+			skipLine();
+			skipBlank();
+		}
+	}
+
+	/**
+	 * Sets up the board from the game's FEN tag, or the standard position.
+	 */
+	private void startBoard() {
+		String fen = game.getTag("FEN");
+		if (fen != null) {
+			try {
+				board.loadFen(fen);
+				game.setStartFen(fen);
+				return;
+			} catch (RuntimeException e) {
+				game.setError("Invalid FEN tag: " + fen);
+			}
+		}
+		board.loadFen(EngineBoard.START_FEN);
+	}
+
+	private void readMovetext() throws IOException {
+		int symbol;
+		while ((symbol = peek()) >= 0 && symbol != '[') {
+			if (symbol <= ' ' || symbol == ')' || symbol == '}') {
+				position++;
+			} else if (symbol == '{') {
+				skipComment();
+			} else if (symbol == ';' || symbol == '%') {
+				skipLine();
+			} else if (symbol == '(') {
+				skipVariation();
+			} else if (!readToken(readTokenBytes())) {
+				return;
+			}
+		}
+	}
+
+	private void skipComment() throws IOException {
+		int symbol;
+		while ((symbol = peek()) >= 0) {
+			position++;
+			if (symbol == '}') {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Skips a variation in parentheses, with any variations and comments inside.
+	 */
+	private void skipVariation() throws IOException {
+		int depth = 0;
+		int symbol;
+		while ((symbol = peek()) >= 0) {
+			if (symbol == '{') {
+				skipComment();
+				continue;
+			}
+			position++;
+			if (symbol == '(') {
+				depth++;
+			} else if (symbol == ')' && --depth == 0) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Copies the next token into the token buffer.
+	 *
+	 * @return the length of the token, or MAX_TOKEN + 1 if it is longer
+	 */
+	private int readTokenBytes() throws IOException {
+		int length = 0;
+		int symbol;
+		while ((symbol = peek()) > ' ' && symbol != '{' && symbol != '}' && symbol != '(' && symbol != ')'
+				&& symbol != ';' && symbol != '[') {
+			if (length <= MAX_TOKEN) {
+				token[length] = (byte) symbol;
+			}
+			length++;
+			position++;
+		}
+		return Math.min(length, MAX_TOKEN + 1);
+	}
+
+	/**
+	 * Handles a movetext token: a move number, an annotation, a move or a
+	 * result.
+	 *
+	 * @return false if the token was a result, which ends the game
+	 */
+	private boolean readToken(int length) {
+		if (setResult(length)) {
+			return false;
+		}
+		if (token[0] == '$') {
+			return true;
+		}
+		int index = 0;
+		// a move number, such as "12." or "12...", which may run into the move
+		if (token[0] >= '0' && token[0] <= '9' && !(length > 1 && token[1] == '-')) {
+			while (index < length && token[index] >= '0' && token[index] <= '9') {
+				index++;
+			}
+			while (index < length && token[index] == '.') {
+				index++;
+			}
+		} else {
+			while (index < length && token[index] == '.') {
+				index++;
+			}
+		}
+		if (index == length || !game.isValid()) {
+			return true;
+		}
+		int move = length > MAX_TOKEN ? Move.NONE : San.parse(board, token, index, length, buffer);
+		if (move == Move.NONE) {
+			game.setError("Illegal or ambiguous move "
+					+ new String(token, index, Math.min(length, MAX_TOKEN) - index, StandardCharsets.US_ASCII)
+					+ " at ply " + game.getMoveCount());
+			return true;
+		}
+		board.makeMove(move);
+		game.addMove(move);
+		return true;
+	}
+
+	/**
+	 * Sets the game's result if the token buffer holds a result.
+	 *
+	 * @return true if the token was a result
+	 */
+	private boolean setResult(int length) {
+		if (matches("1-0", length)) {
+			game.setResult(ChessColor.WHITE);
+		} else if (matches("0-1", length)) {
+			game.setResult(ChessColor.BLACK);
+		} else if (matches("1/2-1/2", length)) {
+			game.setResult(ChessColor.DRAW);
+		} else if (matches("*", length)) {
+			game.setResult(null);
+		} else {
+			return false;
+		}
+		return true;
+	}
+
+	private boolean matches(String text, int length) {
+		if (length != text.length()) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (token[i] != text.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
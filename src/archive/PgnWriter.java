@@ -0,0 +1,122 @@
+package archive;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+
+import board.ChessColor;
+import engine.EngineBoard;
+import engine.Move;
+
+/**
+ * Writes games in Portable Game Notation (PGN): tag pairs, then the moves in
+ * SAN with move numbers, wrapped to lines of at most 79 characters, then the
+ * result.
+ */
+public class PgnWriter implements Closeable {
+	private static final int LINE_LENGTH = 79;
+
+	private final Writer output;
+	private final EngineBoard board = new EngineBoard();
+	private final StringBuilder line = new StringBuilder(LINE_LENGTH + 16);
+
+	/**
+	 * Creates a writer to an output, which it closes when closed.
+	 *
+	 * @param output the output to write to
+	 */
+	public PgnWriter(Writer output) {
+		this.output = output;
+	}
+
+	/**
+	 * Writes one game.
+	 *
+	 * @param tags     tag names and values, written in iteration order; a
+	 *                 "Result" tag is added if there is none
+	 * @param startFen the starting position, or null for the standard position
+	 * @param moves    the moves of the game in the engine encoding
+	 * @param count    the number of moves
+	 * @param result   the winning color, DRAW, or null if unfinished
+	 * @throws IOException if the output cannot be written
+	 */
+	public void writeGame(Map<String, String> tags, String startFen, int[] moves, int count, ChessColor result)
+			throws IOException {
+		String resultText = resultText(result);
+		for (Map.Entry<String, String> tag : tags.entrySet()) {
+			writeTag(tag.getKey(), tag.getValue());
+		}
+		if (!tags.containsKey("Result")) {
+			writeTag("Result", resultText);
+		}
+		if (startFen != null && !tags.containsKey("FEN")) {
+			writeTag("SetUp", "1");
+			writeTag("FEN", startFen);
+		}
+		output.write('\n');
+		board.loadFen(startFen == null ? EngineBoard.START_FEN : startFen);
+		line.setLength(0);
+		for (int i = 0; i < count; i++) {
+			if (board.getSideToMove() == EngineBoard.WHITE) {
+				append(board.getFullmoveNumber() + ".");
+			} else if (i == 0) {
+				append(board.getFullmoveNumber() + "...");
+			}
+			append(San.format(board, moves[i]));
+			if (!board.makeMove(moves[i])) {
+				throw new IllegalArgumentException("Illegal move " + Move.toString(moves[i]) + " at ply " + i);
+			}
+		}
+		append(resultText);
+		output.write(line.toString());
+		output.write("\n\n");
+	}
+
+	/**
+	 * Returns the text of a result, as written after the moves.
+	 *
+	 * @param result the winning color, DRAW, or null if unfinished
+	 */
+	public static String resultText(ChessColor result) {
+		if (result == null) {
+			return "*";
+		}
+		switch (result) {
+		case WHITE:
+			return "1-0";
+		case BLACK:
+			return "0-1";
+		default:
+			return "1/2-1/2";
+		}
+	}
+
+	private void writeTag(String name, String value) throws IOException {
+		output.write('[');
+		output.write(name);
+		output.write(" \"");
+		output.write(value.replace("\\", "\\\\").replace("\"", "\\\""));
+		output.write("\"]\n");
+	}
+
+	/**
+	 * Adds a token to the current line, starting a new line if it would not fit.
+	 */
+	private void append(String text) throws IOException {
+		if (line.length() > 0 && line.length() + 1 + text.length() > LINE_LENGTH) {
+			output.write(line.toString());
+			output.write('\n');
+			line.setLength(0);
+		}
+		if (line.length() > 0) {
+			line.append(' ');
+		}
+		line.append(text);
+	}
+
+	@Override
+	public void close() throws IOException {
+		output.close();
+	}
+}
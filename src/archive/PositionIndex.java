@@ -0,0 +1,195 @@
+package archive;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import engine.EngineBoard;
+
+/**
+ * Finds the games of a GameArchive that reached a position. The index file,
+ * written by PositionIndexBuilder, holds one 16-byte record for each position
+ * of each game, sorted: the position's Zobrist key (EngineBoard.getKey), then
+ * the game id and ply packed as id << 16 | ply. The records are memory-mapped
+ * and only a sparse fence index, the key of every FENCE_INTERVAL-th record, is
+ * kept on the heap, so a lookup is a binary search over the fences and then
+ * within one stretch of records, allocating nothing.
+ *
+ * File layout, big-endian: the magic number "PIDX", a format version, the
+ * record count (8 bytes) and fence interval (4), then the records, then the
+ * fence keys.
+ */
+public class PositionIndex implements AutoCloseable {
+	static final int MAGIC = 0x50494458;
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 4 + 4 + 8 + 4;
+	static final int RECORD_SIZE = 16;
+	/**
+	 * records per mapped segment, keeping each segment under 2GB
+	 */
+	private static final int SEGMENT_SHIFT = 26;
+	private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+	/**
+	 * Receives the games found by a lookup.
+	 */
+	public interface Visitor {
+		/**
+		 * Called each time a game reached the position; a game that repeated the
+		 * position is visited once for each time.
+		 *
+		 * @param gameId the id of the game in the archive
+		 * @param ply    the number of moves made when the position was reached
+		 */
+		void visit(long gameId, int ply);
+	}
+
+	private final FileChannel channel;
+	private final long recordCount;
+	private final int fenceInterval;
+	private final long[] fences;
+	private final MappedByteBuffer[] segments;
+
+	/**
+	 * Opens an index and reads its fences.
+	 *
+	 * @param file the index file
+	 * @throws IOException if the file cannot be read or is not an index
+	 */
+	public PositionIndex(Path file) throws IOException {
+		channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			if (channel.size() < HEADER_SIZE) {
+				throw new IOException("Not a position index: " + file);
+			}
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+			if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+				throw new IOException("Not a version " + VERSION + " position index: " + file);
+			}
+			recordCount = header.getLong();
+			fenceInterval = header.getInt();
+			long fenceCount = (recordCount + fenceInterval - 1) / fenceInterval;
+			long fenceOffset = HEADER_SIZE + recordCount * RECORD_SIZE;
+			if (fenceInterval <= 0 || channel.size() != fenceOffset + fenceCount * 8) {
+				throw new IOException("Damaged or incomplete position index: " + file);
+			}
+			fences = new long[(int) fenceCount];
+			MappedByteBuffer fenceBuffer = channel.map(FileChannel.MapMode.READ_ONLY, fenceOffset, fenceCount * 8);
+			fenceBuffer.asLongBuffer().get(fences);
+			segments = new MappedByteBuffer[(int) ((recordCount + SEGMENT_MASK) >>> SEGMENT_SHIFT)];
+			for (int segment = 0; segment < segments.length; segment++) {
+				long first = (long) segment << SEGMENT_SHIFT;
+				long records = Math.min(recordCount - first, 1L << SEGMENT_SHIFT);
+				segments[segment] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + first * RECORD_SIZE,
+						records * RECORD_SIZE);
+			}
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the Zobrist key of a position given in FEN, for use with find.
+	 *
+	 * @param fen the position
+	 * @return the key of the position
+	 */
+	public static long key(String fen) {
+		return new EngineBoard(fen).getKey();
+	}
+
+	/**
+	 * Visits every game that reached a position, in order of game id and ply.
+	 *
+	 * @param key     the Zobrist key of the position, see EngineBoard.getKey
+	 * @param visitor receives each game found, once for each time it reached
+	 *                the position
+	 * @return the number of different games visited
+	 */
+	public long find(long key, Visitor visitor) {
+		long games = 0;
+		long lastGame = -1;
+		for (long record = lowerBound(key); record < recordCount && keyAt(record) == key; record++) {
+			long value = valueAt(record);
+			long gameId = value >>> 16;
+			visitor.visit(gameId, (int) (value & 0xFFFF));
+			// the records of one key are sorted by game, so repetitions are adjacent
+			if (gameId != lastGame) {
+				games++;
+				lastGame = gameId;
+			}
+		}
+		return games;
+	}
+
+	/**
+	 * Returns the number of times a position was reached.
+	 *
+	 * @param key the Zobrist key of the position, see EngineBoard.getKey
+	 * @return the number of records with that key
+	 */
+	public long count(long key) {
+		long first = lowerBound(key);
+		long record = first;
+		while (record < recordCount && keyAt(record) == key) {
+			record++;
+		}
+		return record - first;
+	}
+
+	public long getRecordCount() {
+		return recordCount;
+	}
+
+	/**
+	 * Returns the index of the first record with a key of at least the given
+	 * key, searching the fences first and then only the stretch of records
+	 * between two of them.
+	 */
+	private long lowerBound(long key) {
+		// the last fence below the key; the first matching record comes after it
+		int low = 0;
+		int high = fences.length - 1;
+		int fence = -1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			if (fences[middle] < key) {
+				fence = middle;
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		if (fence < 0) {
+			return 0;
+		}
+		long first = (long) fence * fenceInterval;
+		long last = Math.min(first + fenceInterval, recordCount);
+		while (first < last) {
+			long middle = (first + last) >>> 1;
+			if (keyAt(middle) < key) {
+				first = middle + 1;
+			} else {
+				last = middle;
+			}
+		}
+		return first;
+	}
+
+	private long keyAt(long record) {
+		return segments[(int) (record >>> SEGMENT_SHIFT)].getLong((int) (record & SEGMENT_MASK) * RECORD_SIZE);
+	}
+
+	private long valueAt(long record) {
+		return segments[(int) (record >>> SEGMENT_SHIFT)].getLong((int) (record & SEGMENT_MASK) * RECORD_SIZE + 8);
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
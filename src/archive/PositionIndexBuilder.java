@@ -0,0 +1,343 @@
+package archive;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+
+import engine.EngineBoard;
+
+/**
+ * Builds a PositionIndex from a GameArchive. Every game is replayed and a
+ * (position key, game id, ply) record emitted for each position it reaches,
+ * including the starting position. Records are collected in fixed arrays of
+ * runSize entries; each full run is sorted and written to a temporary file,
+ * and the runs are then merged into the index, with a fence taken every
+ * fenceInterval records. Heap use depends only on the run size, so archives
+ * with far more positions than fit in memory can be indexed.
+ *
+ * Usage: PositionIndexBuilder [archive index | number of random games]
+ */
+public class PositionIndexBuilder {
+	/**
+	 * default number of records sorted in memory at a time, taking 64MB
+	 */
+	public static final int DEFAULT_RUN_SIZE = 1 << 22;
+	public static final int DEFAULT_FENCE_INTERVAL = 256;
+	private static final int INSERTION_SORT_SIZE = 16;
+	private static final int STREAM_BUFFER_SIZE = 1 << 16;
+
+	private final Path temporaryDirectory;
+	private final int runSize;
+	private final int fenceInterval;
+
+	private final long[] keys;
+	private final long[] values;
+	private int runLength;
+	private final List<Path> runs = new ArrayList<Path>();
+	private final EngineBoard board = new EngineBoard();
+
+	/**
+	 * Creates a builder.
+	 *
+	 * @param temporaryDirectory the directory for the sorted runs
+	 * @param runSize            the number of records sorted in memory at a time
+	 * @param fenceInterval      the number of records between fences
+	 */
+	public PositionIndexBuilder(Path temporaryDirectory, int runSize, int fenceInterval) {
+		if (runSize <= 0 || fenceInterval <= 0) {
+			throw new IllegalArgumentException("Run size and fence interval must be positive");
+		}
+		this.temporaryDirectory = temporaryDirectory;
+		this.runSize = runSize;
+		this.fenceInterval = fenceInterval;
+		keys = new long[runSize];
+		values = new long[runSize];
+	}
+
+	/**
+	 * Indexes every game of an archive.
+	 *
+	 * @param archive the games to index
+	 * @param output  the index file to write
+	 * @return the number of records written
+	 * @throws IOException if a file cannot be read or written
+	 */
+	public long build(GameArchive archive, Path output) throws IOException {
+		runs.clear();
+		runLength = 0;
+		try {
+			for (int block = 0; block < archive.getBlockCount(); block++) {
+				archive.readBlock(block, this::replay);
+			}
+			if (runLength > 0) {
+				writeRun();
+			}
+			return merge(output);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		} finally {
+			for (Path run : runs) {
+				Files.deleteIfExists(run);
+			}
+		}
+	}
+
+	/**
+	 * Emits a record for every position of a game.
+	 */
+	private void replay(ArchivedGame game) {
+		if (game.getId() >= 1L << 47 || game.getMoveCount() > 0xFFFF) {
+			throw new IllegalArgumentException("Game " + game.getId() + " cannot be indexed");
+		}
+		board.loadFen(game.getStartFen() == null ? EngineBoard.START_FEN : game.getStartFen());
+		long id = game.getId() << 16;
+		add(board.getKey(), id);
+		for (int ply = 0; ply < game.getMoveCount(); ply++) {
+			if (!board.makeMove(game.getMove(ply))) {
+				break;
+			}
+			add(board.getKey(), id | (ply + 1));
+		}
+	}
+
+	private void add(long key, long value) {
+		keys[runLength] = key;
+		values[runLength] = value;
+		if (++runLength == runSize) {
+			try {
+				writeRun();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	private void writeRun() throws IOException {
+		sort(keys, values, 0, runLength - 1);
+		Path run = Files.createTempFile(temporaryDirectory, "positions", ".run");
+		runs.add(run);
+		try (DataOutputStream output = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(run), STREAM_BUFFER_SIZE))) {
+			for (int i = 0; i < runLength; i++) {
+				output.writeLong(keys[i]);
+				output.writeLong(values[i]);
+			}
+		}
+		runLength = 0;
+	}
+
+	/**
+	 * Merges the sorted runs into the index file.
+	 */
+	private long merge(Path output) throws IOException {
+		PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>(Math.max(1, runs.size()));
+		long[] fences = new long[64];
+		long count = 0;
+		try (DataOutputStream writer = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(output), STREAM_BUFFER_SIZE))) {
+			for (Path run : runs) {
+				RunReader reader = new RunReader(run);
+				if (reader.advance()) {
+					queue.add(reader);
+				} else {
+					reader.close();
+				}
+			}
+			writer.writeInt(PositionIndex.MAGIC);
+			writer.writeInt(PositionIndex.VERSION);
+			// the record count is filled in once known
+			writer.writeLong(0);
+			writer.writeInt(fenceInterval);
+			while (!queue.isEmpty()) {
+				RunReader reader = queue.poll();
+				if (count % fenceInterval == 0) {
+					int fence = (int) (count / fenceInterval);
+					if (fence == fences.length) {
+						fences = Arrays.copyOf(fences, fence * 2);
+					}
+					fences[fence] = reader.key;
+				}
+				writer.writeLong(reader.key);
+				writer.writeLong(reader.value);
+				count++;
+				if (reader.advance()) {
+					queue.add(reader);
+				} else {
+					reader.close();
+				}
+			}
+			for (int fence = 0; fence < (count + fenceInterval - 1) / fenceInterval; fence++) {
+				writer.writeLong(fences[fence]);
+			}
+		} finally {
+			for (RunReader reader : queue) {
+				reader.close();
+			}
+		}
+		try (FileChannel channel = FileChannel.open(output, StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.allocate(8).putLong(0, count), 8);
+		}
+		return count;
+	}
+
+	/**
+	 * Reads the records of one sorted run in order.
+	 */
+	private static class RunReader implements Comparable<RunReader> {
+		private final DataInputStream input;
+		private long key;
+		private long value;
+
+		RunReader(Path run) throws IOException {
+			input = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), STREAM_BUFFER_SIZE));
+		}
+
+		/**
+		 * Reads the next record.
+		 *
+		 * @return false at the end of the run
+		 */
+		boolean advance() throws IOException {
+			try {
+				key = input.readLong();
+			} catch (EOFException e) {
+				return false;
+			}
+			value = input.readLong();
+			return true;
+		}
+
+		void close() throws IOException {
+			input.close();
+		}
+
+		@Override
+		public int compareTo(RunReader other) {
+			return compare(key, value, other.key, other.value);
+		}
+	}
+
+	private static int compare(long key, long value, long otherKey, long otherValue) {
+		int output = Long.compare(key, otherKey);
+		return output != 0 ? output : Long.compare(value, otherValue);
+	}
+
+	/**
+	 * Sorts records by key and then value, from first to last inclusive, with a
+	 * quicksort that finishes small ranges with insertion sort.
+	 */
+	static void sort(long[] keys, long[] values, int first, int last) {
+		while (last - first >= INSERTION_SORT_SIZE) {
+			int middle = (first + last) >>> 1;
+			long pivotKey = keys[middle];
+			long pivotValue = values[middle];
+			int i = first - 1;
+			int j = last + 1;
+			while (true) {
+				do {
+					i++;
+				} while (compare(keys[i], values[i], pivotKey, pivotValue) < 0);
+				do {
+					j--;
+				} while (compare(keys[j], values[j], pivotKey, pivotValue) > 0);
+				if (i >= j) {
+					break;
+				}
+				swap(keys, values, i, j);
+			}
+			// recurse into the smaller part and loop on the larger
+			if (j - first < last - j) {
+				sort(keys, values, first, j);
+				first = j + 1;
+			} else {
+				sort(keys, values, j + 1, last);
+				last = j;
+			}
+		}
+		for (int i = first + 1; i <= last; i++) {
+			long key = keys[i];
+			long value = values[i];
+			int j = i - 1;
+			while (j >= first && compare(keys[j], values[j], key, value) > 0) {
+				keys[j + 1] = keys[j];
+				values[j + 1] = values[j];
+				j--;
+			}
+			keys[j + 1] = key;
+			values[j + 1] = value;
+		}
+	}
+
+	private static void swap(long[] keys, long[] values, int i, int j) {
+		long key = keys[i];
+		keys[i] = keys[j];
+		keys[j] = key;
+		long value = values[i];
+		values[i] = values[j];
+		values[j] = value;
+	}
+
+	public static void main(String[] args) throws IOException {
+		boolean temporary = args.length < 2;
+		Path archiveFile;
+		Path indexFile;
+		if (temporary) {
+			archiveFile = PgnBenchmark.writeRandomArchive(args.length > 0 ? Integer.parseInt(args[0]) : 20_000);
+			indexFile = Files.createTempFile("games", ".pidx");
+		} else {
+			archiveFile = Paths.get(args[0]);
+			indexFile = Paths.get(args[1]);
+		}
+		try {
+			long start = System.nanoTime();
+			long records;
+			try (GameArchive archive = new GameArchive(archiveFile)) {
+				Path directory = indexFile.toAbsolutePath().getParent();
+				records = new PositionIndexBuilder(directory, DEFAULT_RUN_SIZE, DEFAULT_FENCE_INTERVAL).build(archive,
+						indexFile);
+			}
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.printf("indexed %d positions in %.1f s, %.0f positions/s%n", records, seconds,
+					records / seconds);
+			try (PositionIndex index = new PositionIndex(indexFile)) {
+				// look up random positions reached by the games, then one no game reached
+				SplittableRandom random = new SplittableRandom(1);
+				long[] found = new long[1];
+				PositionIndex.Visitor counter = (gameId, ply) -> found[0]++;
+				String[] fens = { EngineBoard.START_FEN, "rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR b KQkq e3 0 1",
+						"8/8/8/4k3/8/8/8/4K3 w - - 0 1" };
+				for (String fen : fens) {
+					found[0] = 0;
+					long games = index.find(PositionIndex.key(fen), counter);
+					System.out.printf("%d games reached %s, %d times%n", games, fen, found[0]);
+				}
+				int lookups = 100_000;
+				start = System.nanoTime();
+				for (int i = 0; i < lookups; i++) {
+					index.count(random.nextLong());
+				}
+				System.out.printf("lookup: %.2f us%n", (System.nanoTime() - start) / 1e3 / lookups);
+			}
+		} finally {
+			if (temporary) {
+				Files.deleteIfExists(archiveFile);
+				Files.deleteIfExists(indexFile);
+			}
+		}
+	}
+}
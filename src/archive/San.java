@@ -0,0 +1,192 @@
+package archive;
+
+import engine.EngineBoard;
+import engine.Move;
+
+/**
+ * Reading and writing moves in Standard Algebraic Notation (SAN), such as
+ * "Nf3", "exd5", "O-O" or "e8=Q+", against an EngineBoard. Parsing works on raw
+ * bytes so that a reader can resolve moves without creating a String for each.
+ */
+public final class San {
+	private static final String PIECE_LETTERS = "  NBRQK";
+
+	private San() {
+	}
+
+	/**
+	 * Finds the legal move written in SAN. Check and annotation marks ("+", "#",
+	 * "!", "?") are ignored, and long algebraic forms such as "Ng1-f3" are also
+	 * accepted.
+	 *
+	 * @param board  the position the move is played in
+	 * @param text   bytes holding the move
+	 * @param start  index of the first byte of the move
+	 * @param end    index after the last byte of the move
+	 * @param buffer array of at least EngineBoard.MAX_MOVES entries to generate
+	 *               moves into
+	 * @return the move, or Move.NONE if the text is not exactly one legal move
+	 */
+	public static int parse(EngineBoard board, byte[] text, int start, int end, int[] buffer) {
+		while (end > start && isMark(text[end - 1])) {
+			end--;
+		}
+		if (end - start < 2) {
+			return Move.NONE;
+		}
+		if (text[start] == 'O' || text[start] == '0') {
+			int length = end - start;
+			if (length != 3 && length != 5) {
+				return Move.NONE;
+			}
+			return find(board, buffer, EngineBoard.KING, -1, -1, -1, length == 3 ? Move.KING_CASTLE : Move.QUEEN_CASTLE,
+					0);
+		}
+		int type = PIECE_LETTERS.indexOf(text[start]);
+		if (type > 0) {
+			start++;
+		} else {
+			type = EngineBoard.PAWN;
+		}
+		int promotion = 0;
+		int last = PIECE_LETTERS.indexOf(text[end - 1]);
+		if (type == EngineBoard.PAWN && last >= EngineBoard.KNIGHT && last <= EngineBoard.QUEEN) {
+			promotion = last;
+			end -= text[end - 2] == '=' ? 2 : 1;
+		}
+		if (end - start < 2) {
+			return Move.NONE;
+		}
+		int toFile = text[end - 2] - 'a';
+		int toRank = text[end - 1] - '1';
+		if (toFile < 0 || toFile > 7 || toRank < 0 || toRank > 7) {
+			return Move.NONE;
+		}
+		int fromFile = -1;
+		int fromRank = -1;
+		for (int i = start; i < end - 2; i++) {
+			byte symbol = text[i];
+			if (symbol >= 'a' && symbol <= 'h') {
+				fromFile = symbol - 'a';
+			} else if (symbol >= '1' && symbol <= '8') {
+				fromRank = symbol - '1';
+			} else if (symbol != 'x' && symbol != '-' && symbol != ':') {
+				return Move.NONE;
+			}
+		}
+		return find(board, buffer, type, toRank * 8 + toFile, fromFile, fromRank, -1, promotion);
+	}
+
+	private static boolean isMark(byte symbol) {
+		return symbol == '+' || symbol == '#' || symbol == '!' || symbol == '?';
+	}
+
+	/**
+	 * Returns the only legal move matching a description.
+	 *
+	 * @param type      engine piece type of the moving piece
+	 * @param to        destination square, or -1 to match any
+	 * @param fromFile  file moved from, or -1 to match any
+	 * @param fromRank  rank moved from, or -1 to match any
+	 * @param flag      move flag to match, or -1 to match any
+	 * @param promotion engine piece type promoted to, or 0 for no promotion
+	 * @return the move, or Move.NONE if no legal move or more than one matches
+	 */
+	private static int find(EngineBoard board, int[] buffer, int type, int to, int fromFile, int fromRank,
+			int flag, int promotion) {
+		int end = board.generateMoves(buffer, 0);
+		int found = Move.NONE;
+		for (int i = 0; i < end; i++) {
+			int move = buffer[i];
+			int from = Move.getFrom(move);
+			if (EngineBoard.typeOf(board.getPiece(from)) != type || (to >= 0 && Move.getTo(move) != to)
+					|| (fromFile >= 0 && (from & 7) != fromFile) || (fromRank >= 0 && (from >>> 3) != fromRank)
+					|| (flag >= 0 && Move.getFlag(move) != flag)) {
+				continue;
+			}
+			if (Move.isPromotion(move) ? Move.getPromotionType(move) != promotion : promotion != 0) {
+				continue;
+			}
+			// only moves matching the text are tried for legality
+			if (board.makeMove(move)) {
+				board.unmakeMove();
+				if (found != Move.NONE) {
+					return Move.NONE;
+				}
+				found = move;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Writes a legal move in SAN, with the file or rank of the moving piece only
+	 * where needed to tell it apart from another, and "+" or "#" after checking
+	 * and mating moves.
+	 *
+	 * @param board the position the move is played in, which is left unchanged
+	 * @param move  a legal move in the position
+	 * @return the move in SAN
+	 */
+	public static String format(EngineBoard board, int move) {
+		StringBuilder output = new StringBuilder(8);
+		int from = Move.getFrom(move);
+		int to = Move.getTo(move);
+		int type = EngineBoard.typeOf(board.getPiece(from));
+		int[] moves = new int[EngineBoard.MAX_MOVES];
+		if (Move.isCastle(move)) {
+			output.append(Move.getFlag(move) == Move.KING_CASTLE ? "O-O" : "O-O-O");
+		} else {
+			if (type == EngineBoard.PAWN) {
+				if (Move.isCapture(move)) {
+					output.append((char) ('a' + (from & 7)));
+				}
+			} else {
+				output.append(PIECE_LETTERS.charAt(type));
+				appendDisambiguation(output, board, moves, move, type);
+			}
+			if (Move.isCapture(move)) {
+				output.append('x');
+			}
+			output.append((char) ('a' + (to & 7))).append((char) ('1' + (to >>> 3)));
+			if (Move.isPromotion(move)) {
+				output.append('=').append(PIECE_LETTERS.charAt(Move.getPromotionType(move)));
+			}
+		}
+		board.makeMove(move);
+		if (board.inCheck()) {
+			output.append(board.generateLegalMoves(moves) == 0 ? '#' : '+');
+		}
+		board.unmakeMove();
+		return output.toString();
+	}
+
+	/**
+	 * Adds the file, rank or both of the moving piece if another piece of the
+	 * same type can legally move to the same square.
+	 */
+	private static void appendDisambiguation(StringBuilder output, EngineBoard board, int[] moves, int move,
+			int type) {
+		int from = Move.getFrom(move);
+		int count = board.generateLegalMoves(moves);
+		boolean ambiguous = false;
+		boolean sameFile = false;
+		boolean sameRank = false;
+		for (int i = 0; i < count; i++) {
+			int other = Move.getFrom(moves[i]);
+			if (other == from || Move.getTo(moves[i]) != Move.getTo(move)
+					|| EngineBoard.typeOf(board.getPiece(other)) != type) {
+				continue;
+			}
+			ambiguous = true;
+			sameFile |= (other & 7) == (from & 7);
+			sameRank |= (other >>> 3) == (from >>> 3);
+		}
+		if (ambiguous && (!sameFile || sameRank)) {
+			output.append((char) ('a' + (from & 7)));
+		}
+		if (sameFile) {
+			output.append((char) ('1' + (from >>> 3)));
+		}
+	}
+}
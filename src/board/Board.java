@@ -90,13 +90,17 @@ public abstract class Board {
 	 */
 	public boolean isCheckMate(ChessColor kingColor) {
 		Piece king = getKing(kingColor);
+		Piece[] threateningPieces = getThreateningArray(king.getPosition(), king.getColor().getOppositeColor());
+		// a king that is not in check cannot be in checkmate
+		if (threateningPieces.length == 0) {
+			return false;
+		}
 		// pseudocode:
 		// if king can move out of check
 		// is not checkmate, return false;
 		if (isMoveOutofCheck(king)) {
 			return false;
 		}
-		Piece[] threateningPieces = getThreateningArray(king.getPosition(), king.getColor().getOppositeColor());
 		// all following cases the king cannot move out of check
 		// get number of pieces threatening the king
 		// if the number of pieces is >= 2, is checkmate, return true
@@ -178,9 +182,12 @@ public abstract class Board {
 						int newColumn = king.getPosition().getColumn() + columnShift;
 						int newRow = king.getPosition().getRow() + rowShift;
 						Position newPosition = new Position(newColumn, newRow);
-						if (king.getPieceType().getMoveRule().isValidMove(king.getPosition(), newPosition,
-								king.getColor(), this)
-								&& !isThreatened(king.getPosition(), king.getColor().getOppositeColor())) {
+						Piece occupant = getPosition(newPosition);
+						// the king cannot move onto a piece of its own color. isValidMove checks
+						// that the new position is not threatened using a quickmove.
+						if ((occupant == null || occupant.getColor() != king.getColor())
+								&& king.getPieceType().getMoveRule().isValidMove(king.getPosition(), newPosition,
+										king.getColor(), this)) {
 							possibleMoves.add(newPosition);
 						}
 					} catch (IllegalArgumentException e) {
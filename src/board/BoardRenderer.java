@@ -0,0 +1,128 @@
+package board;
+
+import game.Position;
+import main.Constants;
+
+/**
+ * Renders a Board as text for the console, in the same layout as
+ * PlayingBoard.toString has always used. Every cell string is built once up
+ * front, and the board is written into a reused StringBuilder by looking up
+ * squares through the shared Position instances, so a render costs 64 lookups
+ * and appends.
+ * 
+ * For ANSI terminals, renderChanges writes only the squares that differ from
+ * the previous ANSI render, each preceded by a cursor positioning sequence. A
+ * BoardRenderer is not thread-safe.
+ */
+public class BoardRenderer {
+	/**
+	 * width of a cell's contents, without the '|' separator
+	 */
+	public static final int PAD_WIDTH = 3;
+
+	private static final String ESCAPE = "\u001b[";
+	private static final int EMPTY = 0;
+	private static final String[] CELLS = new String[1 + 2 * PieceType.values().length];
+	private static final String HEADER;
+	private static final String[] ROW_LABELS = new String[Constants.BOARD_ROW_NUMBER + 1];
+
+	static {
+		CELLS[EMPTY] = pad(" ");
+		for (ChessColor color : new ChessColor[] { ChessColor.WHITE, ChessColor.BLACK }) {
+			for (PieceType type : PieceType.values()) {
+				CELLS[cellCode(color, type)] = pad(color.toString().charAt(0) + type.getAbbreviatedName());
+			}
+		}
+		StringBuilder header = new StringBuilder(pad(" "));
+		for (char column = 'a'; column < 'a' + Constants.BOARD_COLUMN_NUMBER; column++) {
+			header.append(pad(column + ""));
+		}
+		HEADER = header.toString();
+		for (int row = 1; row <= Constants.BOARD_ROW_NUMBER; row++) {
+			ROW_LABELS[row] = "\n" + pad(row + "");
+		}
+	}
+
+	private final StringBuilder buffer = new StringBuilder(
+			(Constants.BOARD_ROW_NUMBER + 1) * (Constants.BOARD_COLUMN_NUMBER + 1) * (PAD_WIDTH + 1) + 16);
+	/**
+	 * cell codes of the last ANSI render, or null before the first one
+	 */
+	private int[] displayed;
+
+	/**
+	 * Pads a string to PAD_WIDTH characters, plus a '|' at the end, to form the
+	 * squares of a chess board
+	 */
+	private static String pad(String contents) {
+		return String.format("%" + PAD_WIDTH + "s|", contents);
+	}
+
+	private static int cellCode(ChessColor color, PieceType type) {
+		return 1 + color.ordinal() * PieceType.values().length + type.ordinal();
+	}
+
+	private static int cellCode(Piece piece) {
+		return piece == null ? EMPTY : cellCode(piece.getColor(), piece.getPieceType());
+	}
+
+	/**
+	 * Renders the whole board.
+	 * 
+	 * @param board the board to render
+	 * @return the board as text, with row 1 at the top
+	 */
+	public String render(Board board) {
+		buffer.setLength(0);
+		buffer.append(HEADER);
+		for (int row = 1; row <= Constants.BOARD_ROW_NUMBER; row++) {
+			buffer.append(ROW_LABELS[row]);
+			for (int column = 1; column <= Constants.BOARD_COLUMN_NUMBER; column++) {
+				buffer.append(CELLS[cellCode(board.getPosition(square(column, row)))]);
+			}
+		}
+		return buffer.toString();
+	}
+
+	/**
+	 * Renders the board for an ANSI terminal. The first call clears the screen
+	 * and draws the whole board at the top left; later calls only redraw the
+	 * squares that changed since the previous call. Either way the cursor is
+	 * left on the line below the board.
+	 * 
+	 * @param board the board to render
+	 * @return the text to write to the terminal
+	 */
+	public String renderChanges(Board board) {
+		buffer.setLength(0);
+		int squares = Constants.BOARD_COLUMN_NUMBER * Constants.BOARD_ROW_NUMBER;
+		if (displayed == null) {
+			displayed = new int[squares];
+			// render reuses the buffer, so the full board is rendered first
+			String full = render(board);
+			buffer.setLength(0);
+			buffer.append(ESCAPE).append("2J").append(ESCAPE).append("H").append(full);
+			for (int square = 0; square < squares; square++) {
+				displayed[square] = cellCode(board.getPosition(Position.fromSquareIndex(square)));
+			}
+		} else {
+			for (int square = 0; square < squares; square++) {
+				Position position = Position.fromSquareIndex(square);
+				int code = cellCode(board.getPosition(position));
+				if (code != displayed[square]) {
+					displayed[square] = code;
+					// the header is on line 1, and each cell follows the row label
+					int line = position.getRow() + 1;
+					int column = position.getColumn() * (PAD_WIDTH + 1) + 1;
+					buffer.append(ESCAPE).append(line).append(';').append(column).append('H').append(CELLS[code]);
+				}
+			}
+		}
+		buffer.append(ESCAPE).append(Constants.BOARD_ROW_NUMBER + 2).append(";1H");
+		return buffer.toString();
+	}
+
+	private static Position square(int column, int row) {
+		return Position.fromSquareIndex((row - 1) * Constants.BOARD_COLUMN_NUMBER + column - 1);
+	}
+}
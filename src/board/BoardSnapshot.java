@@ -0,0 +1,169 @@
+package board;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import game.Position;
+import game.Turn;
+import main.Constants;
+
+/**
+ * Immutable Board holding a position as 64 square codes (see
+ * PlayingBoard.toSquareCodes). Pieces are shared immutable instances, one per
+ * piece and square, so a snapshot allocates nothing but its array, and the
+ * snapshot after a move is a 64-byte copy with one piece moved.
+ * 
+ * All fields are final and never change after construction, so a snapshot can
+ * be handed to any number of threads, for example through a volatile field,
+ * and read without locks while the game it came from moves on.
+ */
+public final class BoardSnapshot extends Board {
+	private static final int SQUARES = Constants.BOARD_COLUMN_NUMBER * Constants.BOARD_ROW_NUMBER;
+	private static final PieceType[] TYPES = PieceType.values();
+	/**
+	 * shared pieces, indexed by square code and square index
+	 */
+	private static final Piece[][] PIECES = new Piece[1 + 2 * TYPES.length][SQUARES];
+
+	static {
+		for (int code = 1; code < PIECES.length; code++) {
+			ChessColor color = code > TYPES.length ? ChessColor.BLACK : ChessColor.WHITE;
+			PieceType type = TYPES[(code - 1) % TYPES.length];
+			for (int square = 0; square < SQUARES; square++) {
+				PIECES[code][square] = new FixedPiece(type, color, Position.fromSquareIndex(square));
+			}
+		}
+	}
+
+	private final byte[] squareCodes;
+	private final int ply;
+	private final int whiteKing;
+	private final int blackKing;
+
+	private BoardSnapshot(byte[] squareCodes, int ply) {
+		this.squareCodes = squareCodes;
+		this.ply = ply;
+		int white = -1;
+		int black = -1;
+		for (int square = 0; square < SQUARES; square++) {
+			Piece piece = PIECES[squareCodes[square]][square];
+			if (piece != null && piece.getPieceType() == PieceType.KING) {
+				if (piece.getColor() == ChessColor.WHITE) {
+					white = square;
+				} else {
+					black = square;
+				}
+			}
+		}
+		whiteKing = white;
+		blackKing = black;
+	}
+
+	/**
+	 * Creates a snapshot of a board.
+	 * 
+	 * @param board the board to copy
+	 * @param ply   the number of moves made to reach the position
+	 * @return snapshot of the board
+	 */
+	public static BoardSnapshot of(PlayingBoard board, int ply) {
+		return new BoardSnapshot(board.toSquareCodes(), ply);
+	}
+
+	/**
+	 * Creates the snapshot after a move, leaving this one unchanged. Like
+	 * PlayingBoard.move, no check is made that the move is allowed.
+	 * 
+	 * @param turn the move to apply
+	 * @return snapshot of the position after the move
+	 */
+	public BoardSnapshot afterMove(Turn turn) {
+		byte[] next = squareCodes.clone();
+		int from = turn.getCurrent().getSquareIndex();
+		next[turn.getProposed().getSquareIndex()] = next[from];
+		next[from] = PlayingBoard.EMPTY_SQUARE_CODE;
+		return new BoardSnapshot(next, ply + 1);
+	}
+
+	@Override
+	public Piece getPosition(Position position) {
+		return PIECES[squareCodes[position.getSquareIndex()]][position.getSquareIndex()];
+	}
+
+	@Override
+	List<Piece> getPieceList(ChessColor color) {
+		List<Piece> output = new ArrayList<Piece>(16);
+		for (int square = 0; square < SQUARES; square++) {
+			Piece piece = PIECES[squareCodes[square]][square];
+			if (piece != null && piece.getColor() == color) {
+				output.add(piece);
+			}
+		}
+		return output;
+	}
+
+	@Override
+	public Piece getKing(ChessColor color) {
+		int square = color == ChessColor.WHITE ? whiteKing : blackKing;
+		return square < 0 ? null : PIECES[squareCodes[square]][square];
+	}
+
+	/**
+	 * Returns the number of moves made to reach the position.
+	 */
+	public int getPly() {
+		return ply;
+	}
+
+	/**
+	 * Returns the color to move in the position.
+	 */
+	public ChessColor getSideToMove() {
+		return ply % 2 == 0 ? ChessColor.WHITE : ChessColor.BLACK;
+	}
+
+	/**
+	 * Returns a copy of the position's square codes.
+	 */
+	public byte[] getSquareCodes() {
+		return squareCodes.clone();
+	}
+
+	/**
+	 * Converts the snapshot to a String in the same layout as
+	 * PlayingBoard.toString.
+	 */
+	public String toString() {
+		return new BoardRenderer().render(this);
+	}
+
+	/**
+	 * Immutable piece on a fixed square.
+	 */
+	private static final class FixedPiece extends Piece {
+		private final PieceType type;
+		private final ChessColor color;
+		private final Position position;
+
+		private FixedPiece(PieceType type, ChessColor color, Position position) {
+			this.type = type;
+			this.color = color;
+			this.position = position;
+		}
+
+		@Override
+		public PieceType getPieceType() {
+			return type;
+		}
+
+		@Override
+		public ChessColor getColor() {
+			return color;
+		}
+
+		@Override
+		public Position getPosition() {
+			return position;
+		}
+	}
+}
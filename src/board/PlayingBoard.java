@@ -3,15 +3,42 @@ package board;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Random;
 
 import game.FullDetailTurn;
+import game.LegalMoveSet;
 import game.Position;
 import game.Turn;
 import main.Constants;
 
 public class PlayingBoard extends Board {
+	/**
+	 * square code of an empty square, see toSquareCodes
+	 */
+	public static final int EMPTY_SQUARE_CODE = 0;
+	/**
+	 * the FEN letter of each piece type, indexed by PieceType ordinal
+	 */
+	private static final String FEN_PIECE_LETTERS = "KQRBNP";
+	/**
+	 * random keys for hashing positions, indexed by square code and square index,
+	 * from a fixed seed so that hashes are the same in every process
+	 */
+	private static final long[][] HASH_KEYS = new long[13][64];
+	/**
+	 * key added to the hash when black is to move
+	 */
+	private static final long BLACK_TO_MOVE_KEY;
 
-	private static final int PAD_WIDTH = 3;
+	static {
+		Random random = new Random(0x6A0E_B0A2DL);
+		for (int code = EMPTY_SQUARE_CODE + 1; code < HASH_KEYS.length; code++) {
+			for (int square = 0; square < 64; square++) {
+				HASH_KEYS[code][square] = random.nextLong();
+			}
+		}
+		BLACK_TO_MOVE_KEY = random.nextLong();
+	}
 
 	private HashMap<Position, StoredPiece> board;
 	private ColorItemStorage<List<StoredPiece>> piecesInPlay;
@@ -21,6 +48,20 @@ public class PlayingBoard extends Board {
 	// every turn
 	private ColorItemStorage<Piece> kings;
 
+	/**
+	 * the renderer used by toString and toAnsiString, created by the first of
+	 * them to be called, as most boards are never printed
+	 */
+	private BoardRenderer renderer;
+	/**
+	 * the board rendered by toString, or null if a move has been made since
+	 */
+	private String rendered;
+	/**
+	 * Zobrist hash of the pieces on the board, updated with every move
+	 */
+	private long hash;
+
 	/**
 	 * Initializes a PlayingBoard with the default chess piece configuration.
 	 */
@@ -49,9 +90,183 @@ public class PlayingBoard extends Board {
 			piecesInPlay.getItem(piece.getColor()).add(piece);
 			// places the piece on the board
 			board.put(piece.getPosition(), piece);
+			hash ^= HASH_KEYS[squareCode(piece)][piece.getPosition().getSquareIndex()];
 		}
 	}
 
+	/**
+	 * Creates a PlayingBoard from square codes, as returned by toSquareCodes.
+	 * 
+	 * @param squareCodes one code per square, indexed by Position.getSquareIndex
+	 * @return PlayingBoard with the pieces given by the codes
+	 */
+	public static PlayingBoard fromSquareCodes(byte[] squareCodes) {
+		int squares = Constants.BOARD_COLUMN_NUMBER * Constants.BOARD_ROW_NUMBER;
+		if (squareCodes.length != squares) {
+			throw new IllegalArgumentException("Square codes must have one entry per square");
+		}
+		PieceType[] types = PieceType.values();
+		List<StoredPiece> pieces = new ArrayList<StoredPiece>(32);
+		int[] kingCount = new int[2];
+		for (int square = 0; square < squares; square++) {
+			int code = squareCodes[square];
+			if (code == EMPTY_SQUARE_CODE) {
+				continue;
+			}
+			if (code < 0 || code > 2 * types.length) {
+				throw new IllegalArgumentException("Invalid square code " + code);
+			}
+			ChessColor color = code > types.length ? ChessColor.BLACK : ChessColor.WHITE;
+			PieceType type = types[(code - 1) % types.length];
+			if (type == PieceType.KING) {
+				kingCount[color.ordinal()]++;
+			}
+			pieces.add(new StoredPiece(type, color, Position.fromSquareIndex(square)));
+		}
+		if (kingCount[0] != 1 || kingCount[1] != 1) {
+			throw new IllegalArgumentException("Each color must have exactly one king");
+		}
+		return new PlayingBoard(pieces);
+	}
+
+	/**
+	 * Creates a PlayingBoard from a position in Forsyth-Edwards Notation. Only
+	 * the piece placement, the first field, is read: a PlayingBoard does not
+	 * record the side to move, castling rights or en passant square, so the
+	 * fields after it are ignored.
+	 * 
+	 * @param fen the position, such as
+	 *            "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1"
+	 * @return PlayingBoard with the pieces of the position
+	 */
+	public static PlayingBoard fromFen(String fen) {
+		List<StoredPiece> pieces = new ArrayList<StoredPiece>(32);
+		int[] kingCount = new int[2];
+		int row = Constants.BOARD_ROW_NUMBER - 1;
+		int column = 0;
+		int length = fen.indexOf(' ');
+		if (length < 0) {
+			length = fen.length();
+		}
+		for (int i = 0; i < length; i++) {
+			char symbol = fen.charAt(i);
+			if (symbol == '/') {
+				if (column != Constants.BOARD_COLUMN_NUMBER) {
+					throw new IllegalArgumentException("Row " + (row + 1) + " does not have 8 squares: " + fen);
+				}
+				row--;
+				column = 0;
+			} else if (symbol >= '1' && symbol <= '8') {
+				column += symbol - '0';
+			} else {
+				int type = FEN_PIECE_LETTERS.indexOf(Character.toUpperCase(symbol));
+				if (type < 0 || row < 0 || column >= Constants.BOARD_COLUMN_NUMBER) {
+					throw new IllegalArgumentException("Invalid piece placement: " + fen);
+				}
+				ChessColor color = Character.isUpperCase(symbol) ? ChessColor.WHITE : ChessColor.BLACK;
+				PieceType pieceType = PieceType.values()[type];
+				if (pieceType == PieceType.KING) {
+					kingCount[color.ordinal()]++;
+				}
+				pieces.add(new StoredPiece(pieceType, color,
+						Position.fromSquareIndex(row * Constants.BOARD_COLUMN_NUMBER + column)));
+				column++;
+			}
+		}
+		if (row != 0 || column != Constants.BOARD_COLUMN_NUMBER) {
+			throw new IllegalArgumentException("Piece placement must have 8 rows of 8 squares: " + fen);
+		}
+		if (kingCount[0] != 1 || kingCount[1] != 1) {
+			throw new IllegalArgumentException("Each color must have exactly one king: " + fen);
+		}
+		return new PlayingBoard(pieces);
+	}
+
+	/**
+	 * Returns the position in Forsyth-Edwards Notation, with no castling rights
+	 * or en passant square, as a PlayingBoard does not record them.
+	 * 
+	 * @param sideToMove the color to move next
+	 * @return the position as a FEN, ending in " - - 0 1"
+	 */
+	public String toFen(ChessColor sideToMove) {
+		StringBuilder output = new StringBuilder(80);
+		for (int row = Constants.BOARD_ROW_NUMBER - 1; row >= 0; row--) {
+			int empty = 0;
+			for (int column = 0; column < Constants.BOARD_COLUMN_NUMBER; column++) {
+				StoredPiece piece = board
+						.get(Position.fromSquareIndex(row * Constants.BOARD_COLUMN_NUMBER + column));
+				if (piece == null) {
+					empty++;
+					continue;
+				}
+				if (empty > 0) {
+					output.append(empty);
+					empty = 0;
+				}
+				char letter = FEN_PIECE_LETTERS.charAt(piece.getPieceType().ordinal());
+				output.append(piece.getColor() == ChessColor.WHITE ? letter : Character.toLowerCase(letter));
+			}
+			if (empty > 0) {
+				output.append(empty);
+			}
+			if (row > 0) {
+				output.append('/');
+			}
+		}
+		return output.append(sideToMove == ChessColor.BLACK ? " b" : " w").append(" - - 0 1").toString();
+	}
+
+	/**
+	 * Returns the pieces on the board as one byte per square, indexed by
+	 * Position.getSquareIndex: 0 for an empty square, otherwise 1 plus the color's
+	 * ordinal times the number of piece types plus the piece type's ordinal.
+	 * 
+	 * @return array of 64 square codes
+	 */
+	public byte[] toSquareCodes() {
+		byte[] output = new byte[Constants.BOARD_COLUMN_NUMBER * Constants.BOARD_ROW_NUMBER];
+		for (StoredPiece piece : board.values()) {
+			output[piece.getPosition().getSquareIndex()] = (byte) squareCode(piece);
+		}
+		return output;
+	}
+
+	private static int squareCode(Piece piece) {
+		return 1 + piece.getColor().ordinal() * PieceType.values().length + piece.getPieceType().ordinal();
+	}
+
+	/**
+	 * Returns a 64-bit Zobrist hash of the position: the pieces on the board and
+	 * the color to move. Equal positions have equal hashes in every process, and
+	 * different positions have equal hashes only by rare chance.
+	 * 
+	 * @param sideToMove the color to move
+	 * @return hash of the position
+	 */
+	public long getHash(ChessColor sideToMove) {
+		return sideToMove == ChessColor.BLACK ? hash ^ BLACK_TO_MOVE_KEY : hash;
+	}
+
+	/**
+	 * Returns the hash that getHash would return after a turn, with the other
+	 * color to move, without making the turn.
+	 * 
+	 * @param turn a turn moving a piece on the board
+	 * @return hash of the position after the turn
+	 */
+	public long getHashAfter(Turn turn) {
+		StoredPiece moving = board.get(turn.getCurrent());
+		StoredPiece destination = board.get(turn.getProposed());
+		int code = squareCode(moving);
+		long output = hash ^ HASH_KEYS[code][turn.getCurrent().getSquareIndex()]
+				^ HASH_KEYS[code][turn.getProposed().getSquareIndex()];
+		if (destination != null) {
+			output ^= HASH_KEYS[squareCode(destination)][turn.getProposed().getSquareIndex()];
+		}
+		return moving.getColor() == ChessColor.WHITE ? output ^ BLACK_TO_MOVE_KEY : output;
+	}
+
 	/**
 	 * Moves pieces based on a turn provided by the player. PERFORMS NO VERIFICATION
 	 * OF MOVE LEGALITY WHATSOEVER.
@@ -62,8 +277,43 @@ public class PlayingBoard extends Board {
 	 */
 	public FullDetailTurn move(Turn turn) {
 		StoredPiece destination = board.get(turn.getProposed());
+		StoredPiece moving = movePiece(turn, destination);
+		// returns a move with piece information; checkmate is check with no legal
+		// moves, as ActiveGame decides it
+		ChessColor oppositeColor = moving.getColor().getOppositeColor();
+		boolean check = super.isInCheck(oppositeColor);
+		boolean checkmate = check && LegalMoveSet.generate(this, oppositeColor).isEmpty();
+		return new FullDetailTurn(turn, moving, destination, check, checkmate);
+	}
+
+	/**
+	 * Moves pieces based on a turn provided by the player, for a caller that
+	 * already knows whether the move is check or checkmate, as when the position
+	 * after it is in a LegalMoveCache. PERFORMS NO VERIFICATION OF MOVE LEGALITY
+	 * OR OF THE CHECK STATUS GIVEN.
+	 * 
+	 * @param turn      the turn to apply to the board
+	 * @param check     whether the move puts the opposing king in check
+	 * @param checkmate whether the move puts the opposing king in checkmate
+	 * @return a FullDetailTurn containing the given turn, the moving and
+	 *         destination pieces, and the check status given
+	 */
+	public FullDetailTurn move(Turn turn, boolean check, boolean checkmate) {
+		StoredPiece destination = board.get(turn.getProposed());
+		StoredPiece moving = movePiece(turn, destination);
+		return new FullDetailTurn(turn, moving, destination, check, checkmate);
+	}
+
+	/**
+	 * Moves a piece and captures the piece on its destination square, if any.
+	 * 
+	 * @return the piece moved
+	 */
+	private StoredPiece movePiece(Turn turn, StoredPiece destination) {
+		rendered = null;
 		// if the destination is not empty, capture it
 		if (destination != null) {
+			hash ^= HASH_KEYS[squareCode(destination)][turn.getProposed().getSquareIndex()];
 			capture(destination);
 		}
 		// move the piece
@@ -73,11 +323,10 @@ public class PlayingBoard extends Board {
 		moving.setPosition(turn.getProposed());
 		//sets the position on the board
 		board.put(turn.getProposed(), moving);
-		// returns a move with piece information
-		ChessColor oppositeColor = moving.getColor().getOppositeColor();
-		boolean check = super.isInCheck(oppositeColor);
-		boolean checkmate = super.isCheckMate(oppositeColor);
-		return new FullDetailTurn(turn, moving, destination, check, checkmate);
+		int code = squareCode(moving);
+		hash ^= HASH_KEYS[code][turn.getCurrent().getSquareIndex()]
+				^ HASH_KEYS[code][turn.getProposed().getSquareIndex()];
+		return moving;
 	}
 
 	/**
@@ -123,36 +372,32 @@ public class PlayingBoard extends Board {
 	// toString methods
 	/**
 	 * Converts the Board to a String for printing to the console, in such a way
-	 * that a game of chess could theoretically be played on the console.
+	 * that a game of chess could theoretically be played on the console. The
+	 * result is cached until the next move.
 	 */
 	public String toString() {
-		String output = formatSpacing(" ");
-		for (char column = 'a'; column <= 'h'; column++) {
-			output += formatSpacing(column + "");
-		}
-		for (int row = 1; row <= 8; row++) {
-			output += "\n" + formatSpacing(row + "");
-			for (int column = 1; column <= 8; column++) {
-				StoredPiece position = board.get(new Position(column, row));
-				if (board.get(new Position(column, row)) != null) {
-					output += formatSpacing(position.toStringShort());
-				} else {
-					output += formatSpacing(" ");
-				}
-			}
+		if (rendered == null) {
+			rendered = getRenderer().render(this);
 		}
-		return output;
+		return rendered;
 	}
 
 	/**
-	 * Pads a string to PAD_WIDTH characters, plus a '|' at the end, to form the
-	 * squares of a chess board
+	 * Returns the text that updates an ANSI terminal to show this board: the
+	 * whole board the first time, and afterwards only the squares changed since
+	 * the previous call.
 	 * 
-	 * @param contents the contents to pad
-	 * @return the padded string
+	 * @return ANSI text to write to the terminal
 	 */
-	private String formatSpacing(String contents) {
-		return String.format("%" + PAD_WIDTH + "s|", contents);
+	public String toAnsiString() {
+		return getRenderer().renderChanges(this);
+	}
+
+	private BoardRenderer getRenderer() {
+		if (renderer == null) {
+			renderer = new BoardRenderer();
+		}
+		return renderer;
 	}
 
 	/**
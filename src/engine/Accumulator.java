@@ -0,0 +1,143 @@
+package engine;
+
+/**
+ * First layer output of a NeuralNetwork for one position, from both colors'
+ * points of view. An Accumulator attached to an EngineBoard with
+ * setAccumulator is updated as pieces are placed and removed, so making or
+ * unmaking a move costs a few weight column additions rather than a full
+ * recomputation.
+ *
+ * Updates are applied lazily. Each placement or removal is pushed onto a
+ * pending list, and one that undoes the last pending change (as unmaking a
+ * move does) cancels it instead. The list is applied only when the position is
+ * evaluated, so moves made just to test legality cost nothing. Each
+ * Accumulator also holds the scratch buffers for the later layers, so one must
+ * not be shared between threads.
+ */
+public class Accumulator {
+	private static final int MAX_PENDING = 64;
+
+	private final NeuralNetwork network;
+	private final short[][] values;
+	/**
+	 * changes not yet applied, each piece << 7 | square << 1 | 1 if added
+	 */
+	private final int[] pending = new int[MAX_PENDING];
+	private int pendingCount;
+
+	// scratch buffers for NeuralNetwork.evaluate
+	final byte[] input;
+	final byte[] hidden1;
+	final byte[] hidden2;
+	final int[] sums;
+
+	/**
+	 * Creates an accumulator for an empty board.
+	 *
+	 * @param network the network whose weights are accumulated
+	 */
+	public Accumulator(NeuralNetwork network) {
+		this.network = network;
+		int hiddenSize = network.getHiddenSize();
+		values = new short[2][hiddenSize];
+		input = new byte[2 * hiddenSize];
+		hidden1 = new byte[network.getLayer1Size()];
+		hidden2 = new byte[network.getLayer2Size()];
+		sums = new int[Math.max(network.getLayer1Size(), network.getLayer2Size())];
+		reset();
+	}
+
+	public NeuralNetwork getNetwork() {
+		return network;
+	}
+
+	/**
+	 * Returns the accumulator half from one color's point of view.
+	 */
+	short[] getValues(int perspective) {
+		flush();
+		return values[perspective];
+	}
+
+	/**
+	 * Sets both halves to the feature biases, the value for an empty board.
+	 */
+	void reset() {
+		pendingCount = 0;
+		for (short[] half : values) {
+			System.arraycopy(network.featureBiases, 0, half, 0, half.length);
+		}
+	}
+
+	/**
+	 * Recomputes both halves from every piece on the board.
+	 *
+	 * @param board the position to accumulate
+	 */
+	public void refresh(EngineBoard board) {
+		reset();
+		for (int square = 0; square < 64; square++) {
+			int piece = board.getPiece(square);
+			if (piece != EngineBoard.EMPTY) {
+				apply(piece << 7 | square << 1 | 1);
+			}
+		}
+	}
+
+	void addPiece(int piece, int square) {
+		push(piece << 7 | square << 1 | 1);
+	}
+
+	void removePiece(int piece, int square) {
+		push(piece << 7 | square << 1);
+	}
+
+	private void push(int change) {
+		if (pendingCount > 0 && pending[pendingCount - 1] == (change ^ 1)) {
+			pendingCount--;
+			return;
+		}
+		if (pendingCount == MAX_PENDING) {
+			flush();
+		}
+		pending[pendingCount++] = change;
+	}
+
+	/**
+	 * Applies all pending changes.
+	 */
+	private void flush() {
+		for (int i = 0; i < pendingCount; i++) {
+			apply(pending[i]);
+		}
+		pendingCount = 0;
+	}
+
+	private void apply(int change) {
+		int piece = change >>> 7;
+		int square = (change >>> 1) & 63;
+		int white = NeuralNetwork.feature(EngineBoard.WHITE, piece, square);
+		int black = NeuralNetwork.feature(EngineBoard.BLACK, piece, square);
+		if ((change & 1) != 0) {
+			network.addFeature(values[EngineBoard.WHITE], white);
+			network.addFeature(values[EngineBoard.BLACK], black);
+		} else {
+			network.subtractFeature(values[EngineBoard.WHITE], white);
+			network.subtractFeature(values[EngineBoard.BLACK], black);
+		}
+	}
+
+	/**
+	 * Creates an independent copy with the same values and network.
+	 *
+	 * @return copy of the accumulator
+	 */
+	public Accumulator copy() {
+		flush();
+		Accumulator output = new Accumulator(network);
+		for (int color = 0; color < 2; color++) {
+			System.arraycopy(values[color], 0, output.values[color], 0, values[color].length);
+		}
+		return output;
+	}
+}
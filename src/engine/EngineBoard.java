@@ -0,0 +1,1020 @@
+package engine;
+
+import java.util.Arrays;
+
+import board.Board;
+import board.ChessColor;
+import board.Piece;
+import board.PieceType;
+import game.Position;
+import game.Turn;
+
+/**
+ * Compact, mutable chess position intended for search. Unlike PlayingBoard,
+ * pieces are stored as small integer codes in a 64-entry array indexed by
+ * square index (see Position.getSquareIndex), moves are encoded as ints (see
+ * Move) and every move can be taken back with unmakeMove, so that searching a
+ * position allocates no objects.
+ *
+ * Move generation is pseudo-legal; makeMove rejects moves that leave the moving
+ * side's king in check.
+ */
+public class EngineBoard {
+	// piece types, the low 3 bits of a piece code
+	public static final int PAWN = 1;
+	public static final int KNIGHT = 2;
+	public static final int BISHOP = 3;
+	public static final int ROOK = 4;
+	public static final int QUEEN = 5;
+	public static final int KING = 6;
+
+	// colors, the bit above the piece type in a piece code
+	public static final int WHITE = 0;
+	public static final int BLACK = 1;
+
+	/**
+	 * piece code of an empty square
+	 */
+	public static final int EMPTY = 0;
+	/**
+	 * en passant square value when no en passant capture is possible
+	 */
+	public static final int NO_SQUARE = -1;
+
+	// castling rights bits
+	public static final int WHITE_KINGSIDE = 1;
+	public static final int WHITE_QUEENSIDE = 2;
+	public static final int BLACK_KINGSIDE = 4;
+	public static final int BLACK_QUEENSIDE = 8;
+
+	/**
+	 * upper bound on the number of pseudo-legal moves in any position
+	 */
+	public static final int MAX_MOVES = 256;
+
+	public static final String START_FEN = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+
+	private static final String FEN_PIECES = " PNBRQK  pnbrqk";
+
+	// precomputed target squares for each square
+	static final int[][] KNIGHT_TARGETS = new int[64][];
+	static final int[][] KING_TARGETS = new int[64][];
+	/**
+	 * squares along each ray from each square, ordered outwards. Directions 0-3
+	 * are orthogonal, 4-7 are diagonal.
+	 */
+	static final int[][][] RAYS = new int[64][8][];
+	private static final int[][] DIRECTIONS = { { 1, 0 }, { -1, 0 }, { 0, 1 }, { 0, -1 }, { 1, 1 }, { 1, -1 },
+			{ -1, 1 }, { -1, -1 } };
+	/**
+	 * castling rights kept when a piece moves from or to each square
+	 */
+	private static final int[] CASTLING_MASK = new int[64];
+
+	static {
+		int[][] knightSteps = { { 1, 2 }, { 2, 1 }, { 2, -1 }, { 1, -2 }, { -1, -2 }, { -2, -1 }, { -2, 1 }, { -1, 2 } };
+		for (int square = 0; square < 64; square++) {
+			KNIGHT_TARGETS[square] = stepTargets(square, knightSteps);
+			KING_TARGETS[square] = stepTargets(square, DIRECTIONS);
+			for (int direction = 0; direction < 8; direction++) {
+				RAYS[square][direction] = rayTargets(square, DIRECTIONS[direction]);
+			}
+		}
+		Arrays.fill(CASTLING_MASK, 0xF);
+		CASTLING_MASK[0] &= ~WHITE_QUEENSIDE;
+		CASTLING_MASK[4] &= ~(WHITE_KINGSIDE | WHITE_QUEENSIDE);
+		CASTLING_MASK[7] &= ~WHITE_KINGSIDE;
+		CASTLING_MASK[56] &= ~BLACK_QUEENSIDE;
+		CASTLING_MASK[60] &= ~(BLACK_KINGSIDE | BLACK_QUEENSIDE);
+		CASTLING_MASK[63] &= ~BLACK_KINGSIDE;
+	}
+
+	private final int[] squares = new int[64];
+	private final int[] kingSquare = new int[2];
+	private final int[] pieceCount = new int[16];
+	private int sideToMove;
+	private int castlingRights;
+	private int enPassantSquare;
+	private int halfmoveClock;
+	private int fullmoveNumber;
+	private long key;
+	/**
+	 * Zobrist hash of the pawns only, used to cache pawn structure evaluation
+	 */
+	private long pawnKey;
+	/**
+	 * neural network accumulator kept up to date with the pieces, or null
+	 */
+	private Accumulator accumulator;
+
+	// undo stack, one entry per move made
+	private int ply;
+	private int[] undoMove = new int[256];
+	private int[] undoCaptured = new int[256];
+	private int[] undoCastling = new int[256];
+	private int[] undoEnPassant = new int[256];
+	private int[] undoHalfmove = new int[256];
+	private long[] undoKey = new long[256];
+
+	/**
+	 * Creates an EngineBoard with the standard starting position.
+	 */
+	public EngineBoard() {
+		this(START_FEN);
+	}
+
+	/**
+	 * Creates an EngineBoard from a position in Forsyth-Edwards Notation.
+	 *
+	 * @param fen the position to load
+	 */
+	public EngineBoard(String fen) {
+		loadFen(fen);
+	}
+
+	/**
+	 * Creates an EngineBoard holding the same pieces as another Board. Boards do
+	 * not record castling rights or en passant squares, so neither is available
+	 * in the created position.
+	 *
+	 * @param board      the board to copy
+	 * @param sideToMove the color to move next
+	 * @return EngineBoard with the same pieces as the given board
+	 */
+	public static EngineBoard fromBoard(Board board, ChessColor sideToMove) {
+		EngineBoard output = new EngineBoard();
+		output.clear();
+		for (int square = 0; square < 64; square++) {
+			Piece piece = board.getPosition(Position.fromSquareIndex(square));
+			if (piece != null) {
+				output.putPiece(square, toPieceCode(piece.getPieceType(), piece.getColor()));
+			}
+		}
+		output.sideToMove = toColorCode(sideToMove);
+		output.key = output.computeKey();
+		return output;
+	}
+
+	/**
+	 * Returns whether a Board has a pawn on the first or last rank. The game lets
+	 * a pawn reach the last rank without promoting, which an EngineBoard cannot
+	 * represent, so such a board cannot be searched.
+	 *
+	 * @param board the board to check
+	 * @return true if a pawn stands on the first or last rank
+	 */
+	public static boolean hasPawnOnBackRank(Board board) {
+		for (int column = 1; column <= 8; column++) {
+			for (int row = 1; row <= 8; row += 7) {
+				Piece piece = board.getPosition(new Position(column, row));
+				if (piece != null && piece.getPieceType() == PieceType.PAWN) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Creates an independent copy of this board, including its move history.
+	 *
+	 * @return copy of the board
+	 */
+	public EngineBoard copy() {
+		EngineBoard output = new EngineBoard();
+		System.arraycopy(squares, 0, output.squares, 0, 64);
+		System.arraycopy(kingSquare, 0, output.kingSquare, 0, 2);
+		System.arraycopy(pieceCount, 0, output.pieceCount, 0, 16);
+		output.sideToMove = sideToMove;
+		output.castlingRights = castlingRights;
+		output.enPassantSquare = enPassantSquare;
+		output.halfmoveClock = halfmoveClock;
+		output.fullmoveNumber = fullmoveNumber;
+		output.key = key;
+		output.pawnKey = pawnKey;
+		output.ply = ply;
+		output.undoMove = undoMove.clone();
+		output.undoCaptured = undoCaptured.clone();
+		output.undoCastling = undoCastling.clone();
+		output.undoEnPassant = undoEnPassant.clone();
+		output.undoHalfmove = undoHalfmove.clone();
+		output.undoKey = undoKey.clone();
+		output.accumulator = accumulator == null ? null : accumulator.copy();
+		return output;
+	}
+
+	// piece code helpers
+	public static int makePiece(int color, int type) {
+		return (color << 3) | type;
+	}
+
+	public static int colorOf(int piece) {
+		return piece >>> 3;
+	}
+
+	public static int typeOf(int piece) {
+		return piece & 7;
+	}
+
+	/**
+	 * Converts a PieceType and ChessColor to an engine piece code.
+	 */
+	public static int toPieceCode(PieceType type, ChessColor color) {
+		int engineType;
+		switch (type) {
+		case PAWN:
+			engineType = PAWN;
+			break;
+		case KNIGHT:
+			engineType = KNIGHT;
+			break;
+		case BISHOP:
+			engineType = BISHOP;
+			break;
+		case ROOK:
+			engineType = ROOK;
+			break;
+		case QUEEN:
+			engineType = QUEEN;
+			break;
+		default:
+			engineType = KING;
+		}
+		return makePiece(toColorCode(color), engineType);
+	}
+
+	/**
+	 * Converts an engine piece code to its PieceType.
+	 */
+	public static PieceType toPieceType(int piece) {
+		switch (typeOf(piece)) {
+		case PAWN:
+			return PieceType.PAWN;
+		case KNIGHT:
+			return PieceType.KNIGHT;
+		case BISHOP:
+			return PieceType.BISHOP;
+		case ROOK:
+			return PieceType.ROOK;
+		case QUEEN:
+			return PieceType.QUEEN;
+		case KING:
+			return PieceType.KING;
+		default:
+			throw new IllegalArgumentException("No piece type for empty square");
+		}
+	}
+
+	public static int toColorCode(ChessColor color) {
+		switch (color) {
+		case WHITE:
+			return WHITE;
+		case BLACK:
+			return BLACK;
+		default:
+			throw new IllegalArgumentException("Invalid piece color");
+		}
+	}
+
+	public static ChessColor toChessColor(int color) {
+		return color == WHITE ? ChessColor.WHITE : ChessColor.BLACK;
+	}
+
+	// accessors
+	public int getPiece(int square) {
+		return squares[square];
+	}
+
+	public int getSideToMove() {
+		return sideToMove;
+	}
+
+	public int getCastlingRights() {
+		return castlingRights;
+	}
+
+	public int getEnPassantSquare() {
+		return enPassantSquare;
+	}
+
+	public int getHalfmoveClock() {
+		return halfmoveClock;
+	}
+
+	public int getFullmoveNumber() {
+		return fullmoveNumber;
+	}
+
+	/**
+	 * Returns the Zobrist hash of the position, including side to move, castling
+	 * rights and en passant square.
+	 */
+	public long getKey() {
+		return key;
+	}
+
+	/**
+	 * Returns the Zobrist hash of the pawns of both colors, ignoring all other
+	 * pieces and state. It only changes when a pawn moves, is captured or
+	 * promotes.
+	 */
+	public long getPawnKey() {
+		return pawnKey;
+	}
+
+	public Accumulator getAccumulator() {
+		return accumulator;
+	}
+
+	/**
+	 * Attaches a neural network accumulator to the board. It is refreshed from
+	 * the current position and then updated each time a piece is placed or
+	 * removed, including while moves are unmade. Copies of the board get their
+	 * own copy of the accumulator.
+	 *
+	 * @param accumulator the accumulator to keep up to date, or null to detach
+	 *                    the current one
+	 */
+	public void setAccumulator(Accumulator accumulator) {
+		this.accumulator = accumulator;
+		if (accumulator != null) {
+			accumulator.refresh(this);
+		}
+	}
+
+	public int getKingSquare(int color) {
+		return kingSquare[color];
+	}
+
+	/**
+	 * Returns the number of pieces on the board with the given piece code.
+	 */
+	public int getPieceCount(int piece) {
+		return pieceCount[piece];
+	}
+
+	/**
+	 * Returns the number of moves currently made on this board that can be taken
+	 * back.
+	 */
+	public int getPly() {
+		return ply;
+	}
+
+	/**
+	 * Whether the color has any pieces other than pawns and the king. Used to
+	 * guard against zugzwang, where passing would be better than any move.
+	 */
+	public boolean hasNonPawnMaterial(int color) {
+		int base = color << 3;
+		return pieceCount[base | KNIGHT] + pieceCount[base | BISHOP] + pieceCount[base | ROOK]
+				+ pieceCount[base | QUEEN] > 0;
+	}
+
+	/**
+	 * Whether the side to move is in check.
+	 */
+	public boolean inCheck() {
+		return isSquareAttacked(kingSquare[sideToMove], sideToMove ^ 1);
+	}
+
+	/**
+	 * Whether the current position has occurred before since the last capture or
+	 * pawn move, counting only positions reached on this board.
+	 */
+	public boolean isRepetition() {
+		int earliest = Math.max(0, ply - halfmoveClock);
+		for (int i = ply - 2; i >= earliest; i -= 2) {
+			if (undoKey[i] == key) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Checks if a square is attacked by any piece of the given color.
+	 *
+	 * @param square    the square index to check
+	 * @param byColor   the color of the attacking pieces
+	 * @return true if a piece of byColor attacks the square
+	 */
+	public boolean isSquareAttacked(int square, int byColor) {
+		int base = byColor << 3;
+		int file = square & 7;
+		// pawns attack diagonally forwards, so look diagonally backwards from the
+		// square
+		int pawn = base | PAWN;
+		if (byColor == WHITE) {
+			if (square >= 8) {
+				if (file > 0 && squares[square - 9] == pawn) {
+					return true;
+				}
+				if (file < 7 && squares[square - 7] == pawn) {
+					return true;
+				}
+			}
+		} else if (square < 56) {
+			if (file > 0 && squares[square + 7] == pawn) {
+				return true;
+			}
+			if (file < 7 && squares[square + 9] == pawn) {
+				return true;
+			}
+		}
+		int knight = base | KNIGHT;
+		for (int target : KNIGHT_TARGETS[square]) {
+			if (squares[target] == knight) {
+				return true;
+			}
+		}
+		int king = base | KING;
+		for (int target : KING_TARGETS[square]) {
+			if (squares[target] == king) {
+				return true;
+			}
+		}
+		int queen = base | QUEEN;
+		int rook = base | ROOK;
+		int bishop = base | BISHOP;
+		for (int direction = 0; direction < 8; direction++) {
+			int slider = direction < 4 ? rook : bishop;
+			for (int target : RAYS[square][direction]) {
+				int piece = squares[target];
+				if (piece != EMPTY) {
+					if (piece == slider || piece == queen) {
+						return true;
+					}
+					break;
+				}
+			}
+		}
+		return false;
+	}
+
+	// move generation
+	/**
+	 * Writes all pseudo-legal moves for the side to move into the array, starting
+	 * at the given index.
+	 *
+	 * @param moves array to write the moves into
+	 * @param start index of the first move written
+	 * @return index after the last move written
+	 */
+	public int generateMoves(int[] moves, int start) {
+		return generate(moves, start, false);
+	}
+
+	/**
+	 * Writes pseudo-legal captures and queen promotions for the side to move into
+	 * the array, starting at the given index. Used by quiescence search.
+	 *
+	 * @param moves array to write the moves into
+	 * @param start index of the first move written
+	 * @return index after the last move written
+	 */
+	public int generateCaptures(int[] moves, int start) {
+		return generate(moves, start, true);
+	}
+
+	/**
+	 * Writes all legal moves for the side to move into the array.
+	 *
+	 * @param moves array of at least MAX_MOVES entries
+	 * @return number of legal moves written
+	 */
+	public int generateLegalMoves(int[] moves) {
+		int end = generateMoves(moves, 0);
+		int count = 0;
+		for (int i = 0; i < end; i++) {
+			if (makeMove(moves[i])) {
+				unmakeMove();
+				moves[count++] = moves[i];
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Finds the legal move matching a Turn. Promotions are resolved to a queen.
+	 *
+	 * @param turn the turn to find
+	 * @return the matching move, or Move.NONE if the turn is not a legal move
+	 */
+	public int findMove(Turn turn) {
+		int from = turn.getCurrent().getSquareIndex();
+		int to = turn.getProposed().getSquareIndex();
+		int[] moves = new int[MAX_MOVES];
+		int count = generateLegalMoves(moves);
+		int found = Move.NONE;
+		for (int i = 0; i < count; i++) {
+			int move = moves[i];
+			if (Move.getFrom(move) == from && Move.getTo(move) == to) {
+				if (!Move.isPromotion(move) || Move.getPromotionType(move) == QUEEN) {
+					return move;
+				}
+				found = move;
+			}
+		}
+		return found;
+	}
+
+	private int generate(int[] moves, int index, boolean capturesOnly) {
+		int us = sideToMove;
+		int them = us ^ 1;
+		for (int from = 0; from < 64; from++) {
+			int piece = squares[from];
+			if (piece == EMPTY || colorOf(piece) != us) {
+				continue;
+			}
+			switch (typeOf(piece)) {
+			case PAWN:
+				index = generatePawnMoves(moves, index, from, us, capturesOnly);
+				break;
+			case KNIGHT:
+				index = generateStepMoves(moves, index, from, KNIGHT_TARGETS[from], them, capturesOnly);
+				break;
+			case KING:
+				index = generateStepMoves(moves, index, from, KING_TARGETS[from], them, capturesOnly);
+				if (!capturesOnly) {
+					index = generateCastlingMoves(moves, index, us);
+				}
+				break;
+			case BISHOP:
+				index = generateSlidingMoves(moves, index, from, 4, 8, them, capturesOnly);
+				break;
+			case ROOK:
+				index = generateSlidingMoves(moves, index, from, 0, 4, them, capturesOnly);
+				break;
+			case QUEEN:
+				index = generateSlidingMoves(moves, index, from, 0, 8, them, capturesOnly);
+				break;
+			default:
+				break;
+			}
+		}
+		return index;
+	}
+
+	private int generatePawnMoves(int[] moves, int index, int from, int us, boolean capturesOnly) {
+		int forward = us == WHITE ? 8 : -8;
+		int to = from + forward;
+		// pawns that reached the last row without promoting cannot move
+		if (to < 0 || to >= 64) {
+			return index;
+		}
+		int rank = from >>> 3;
+		boolean promotes = to < 8 || to >= 56;
+		if (squares[to] == EMPTY) {
+			if (promotes) {
+				moves[index++] = Move.encode(from, to, Move.QUEEN_PROMOTION);
+				if (!capturesOnly) {
+					moves[index++] = Move.encode(from, to, Move.KNIGHT_PROMOTION);
+					moves[index++] = Move.encode(from, to, Move.ROOK_PROMOTION);
+					moves[index++] = Move.encode(from, to, Move.BISHOP_PROMOTION);
+				}
+			} else if (!capturesOnly) {
+				moves[index++] = Move.encode(from, to, Move.QUIET);
+				boolean startRow = us == WHITE ? rank == 1 : rank == 6;
+				if (startRow && squares[to + forward] == EMPTY) {
+					moves[index++] = Move.encode(from, to + forward, Move.DOUBLE_PAWN_PUSH);
+				}
+			}
+		}
+		int file = from & 7;
+		for (int side = -1; side <= 1; side += 2) {
+			if ((side < 0 && file == 0) || (side > 0 && file == 7)) {
+				continue;
+			}
+			int target = to + side;
+			int captured = squares[target];
+			if (captured != EMPTY && colorOf(captured) != us) {
+				if (promotes) {
+					moves[index++] = Move.encode(from, target, Move.QUEEN_PROMOTION_CAPTURE);
+					moves[index++] = Move.encode(from, target, Move.KNIGHT_PROMOTION_CAPTURE);
+					moves[index++] = Move.encode(from, target, Move.ROOK_PROMOTION_CAPTURE);
+					moves[index++] = Move.encode(from, target, Move.BISHOP_PROMOTION_CAPTURE);
+				} else {
+					moves[index++] = Move.encode(from, target, Move.CAPTURE);
+				}
+			} else if (target == enPassantSquare) {
+				moves[index++] = Move.encode(from, target, Move.EN_PASSANT);
+			}
+		}
+		return index;
+	}
+
+	private int generateStepMoves(int[] moves, int index, int from, int[] targets, int them,
+			boolean capturesOnly) {
+		for (int to : targets) {
+			int captured = squares[to];
+			if (captured == EMPTY) {
+				if (!capturesOnly) {
+					moves[index++] = Move.encode(from, to, Move.QUIET);
+				}
+			} else if (colorOf(captured) == them) {
+				moves[index++] = Move.encode(from, to, Move.CAPTURE);
+			}
+		}
+		return index;
+	}
+
+	private int generateSlidingMoves(int[] moves, int index, int from, int firstDirection, int lastDirection,
+			int them, boolean capturesOnly) {
+		for (int direction = firstDirection; direction < lastDirection; direction++) {
+			for (int to : RAYS[from][direction]) {
+				int captured = squares[to];
+				if (captured == EMPTY) {
+					if (!capturesOnly) {
+						moves[index++] = Move.encode(from, to, Move.QUIET);
+					}
+				} else {
+					if (colorOf(captured) == them) {
+						moves[index++] = Move.encode(from, to, Move.CAPTURE);
+					}
+					break;
+				}
+			}
+		}
+		return index;
+	}
+
+	private int generateCastlingMoves(int[] moves, int index, int us) {
+		int kingside = us == WHITE ? WHITE_KINGSIDE : BLACK_KINGSIDE;
+		int queenside = us == WHITE ? WHITE_QUEENSIDE : BLACK_QUEENSIDE;
+		if ((castlingRights & (kingside | queenside)) == 0) {
+			return index;
+		}
+		int kingFrom = us == WHITE ? 4 : 60;
+		int them = us ^ 1;
+		if (squares[kingFrom] != makePiece(us, KING) || isSquareAttacked(kingFrom, them)) {
+			return index;
+		}
+		// the king may not pass through an attacked square; the destination is
+		// checked by makeMove like any other move
+		if ((castlingRights & kingside) != 0 && squares[kingFrom + 1] == EMPTY && squares[kingFrom + 2] == EMPTY
+				&& squares[kingFrom + 3] == makePiece(us, ROOK) && !isSquareAttacked(kingFrom + 1, them)) {
+			moves[index++] = Move.encode(kingFrom, kingFrom + 2, Move.KING_CASTLE);
+		}
+		if ((castlingRights & queenside) != 0 && squares[kingFrom - 1] == EMPTY && squares[kingFrom - 2] == EMPTY
+				&& squares[kingFrom - 3] == EMPTY && squares[kingFrom - 4] == makePiece(us, ROOK)
+				&& !isSquareAttacked(kingFrom - 1, them)) {
+			moves[index++] = Move.encode(kingFrom, kingFrom - 2, Move.QUEEN_CASTLE);
+		}
+		return index;
+	}
+
+	// making and unmaking moves
+	/**
+	 * Makes a pseudo-legal move. If the move would leave the moving side's king in
+	 * check it is taken back immediately and false is returned.
+	 *
+	 * @param move the move to make
+	 * @return true if the move was legal and has been made
+	 */
+	public boolean makeMove(int move) {
+		int from = Move.getFrom(move);
+		int to = Move.getTo(move);
+		int flag = Move.getFlag(move);
+		int us = sideToMove;
+		int piece = squares[from];
+		int captured = flag == Move.EN_PASSANT ? squares[to ^ 8] : squares[to];
+
+		pushUndo(move, captured);
+		key ^= Zobrist.CASTLING[castlingRights];
+		if (enPassantSquare != NO_SQUARE) {
+			key ^= Zobrist.EN_PASSANT_FILE[enPassantSquare & 7];
+		}
+
+		if (flag == Move.EN_PASSANT) {
+			removePiece(to ^ 8);
+		} else if (captured != EMPTY) {
+			removePiece(to);
+		}
+		removePiece(from);
+		putPiece(to, Move.isPromotion(move) ? makePiece(us, Move.getPromotionType(move)) : piece);
+		if (flag == Move.KING_CASTLE) {
+			putPiece(from + 1, removePiece(from + 3));
+		} else if (flag == Move.QUEEN_CASTLE) {
+			putPiece(from - 1, removePiece(from - 4));
+		}
+
+		castlingRights &= CASTLING_MASK[from] & CASTLING_MASK[to];
+		enPassantSquare = flag == Move.DOUBLE_PAWN_PUSH ? (from + to) >>> 1 : NO_SQUARE;
+		if (typeOf(piece) == PAWN || captured != EMPTY) {
+			halfmoveClock = 0;
+		} else {
+			halfmoveClock++;
+		}
+		if (us == BLACK) {
+			fullmoveNumber++;
+		}
+		key ^= Zobrist.CASTLING[castlingRights];
+		if (enPassantSquare != NO_SQUARE) {
+			key ^= Zobrist.EN_PASSANT_FILE[enPassantSquare & 7];
+		}
+		sideToMove = us ^ 1;
+		key ^= Zobrist.BLACK_TO_MOVE;
+
+		if (isSquareAttacked(kingSquare[us], us ^ 1)) {
+			unmakeMove();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Takes back the last move made with makeMove.
+	 */
+	public void unmakeMove() {
+		ply--;
+		int move = undoMove[ply];
+		int captured = undoCaptured[ply];
+		int from = Move.getFrom(move);
+		int to = Move.getTo(move);
+		int flag = Move.getFlag(move);
+		sideToMove ^= 1;
+		int us = sideToMove;
+		if (us == BLACK) {
+			fullmoveNumber--;
+		}
+
+		if (flag == Move.KING_CASTLE) {
+			putPiece(from + 3, removePiece(from + 1));
+		} else if (flag == Move.QUEEN_CASTLE) {
+			putPiece(from - 4, removePiece(from - 1));
+		}
+		int piece = removePiece(to);
+		putPiece(from, Move.isPromotion(move) ? makePiece(us, PAWN) : piece);
+		if (flag == Move.EN_PASSANT) {
+			putPiece(to ^ 8, captured);
+		} else if (captured != EMPTY) {
+			putPiece(to, captured);
+		}
+
+		castlingRights = undoCastling[ply];
+		enPassantSquare = undoEnPassant[ply];
+		halfmoveClock = undoHalfmove[ply];
+		key = undoKey[ply];
+	}
+
+	/**
+	 * Passes the turn to the other side without moving a piece. Used by null-move
+	 * pruning; must be taken back with unmakeNullMove.
+	 */
+	public void makeNullMove() {
+		pushUndo(Move.NONE, EMPTY);
+		if (enPassantSquare != NO_SQUARE) {
+			key ^= Zobrist.EN_PASSANT_FILE[enPassantSquare & 7];
+			enPassantSquare = NO_SQUARE;
+		}
+		// positions before a null move cannot repeat positions after it
+		halfmoveClock = 0;
+		sideToMove ^= 1;
+		key ^= Zobrist.BLACK_TO_MOVE;
+	}
+
+	/**
+	 * Takes back a move made with makeNullMove.
+	 */
+	public void unmakeNullMove() {
+		ply--;
+		sideToMove ^= 1;
+		enPassantSquare = undoEnPassant[ply];
+		halfmoveClock = undoHalfmove[ply];
+		key = undoKey[ply];
+	}
+
+	private void pushUndo(int move, int captured) {
+		if (ply == undoMove.length) {
+			int length = ply * 2;
+			undoMove = Arrays.copyOf(undoMove, length);
+			undoCaptured = Arrays.copyOf(undoCaptured, length);
+			undoCastling = Arrays.copyOf(undoCastling, length);
+			undoEnPassant = Arrays.copyOf(undoEnPassant, length);
+			undoHalfmove = Arrays.copyOf(undoHalfmove, length);
+			undoKey = Arrays.copyOf(undoKey, length);
+		}
+		undoMove[ply] = move;
+		undoCaptured[ply] = captured;
+		undoCastling[ply] = castlingRights;
+		undoEnPassant[ply] = enPassantSquare;
+		undoHalfmove[ply] = halfmoveClock;
+		undoKey[ply] = key;
+		ply++;
+	}
+
+	/**
+	 * Places a piece on an empty square, updating the hash and piece counts.
+	 */
+	private void putPiece(int square, int piece) {
+		squares[square] = piece;
+		pieceCount[piece]++;
+		key ^= Zobrist.PIECE_SQUARE[piece][square];
+		if (typeOf(piece) == KING) {
+			kingSquare[colorOf(piece)] = square;
+		} else if (typeOf(piece) == PAWN) {
+			pawnKey ^= Zobrist.PIECE_SQUARE[piece][square];
+		}
+		if (accumulator != null) {
+			accumulator.addPiece(piece, square);
+		}
+	}
+
+	/**
+	 * Removes the piece on a square, updating the hash and piece counts.
+	 *
+	 * @return the piece removed
+	 */
+	private int removePiece(int square) {
+		int piece = squares[square];
+		squares[square] = EMPTY;
+		pieceCount[piece]--;
+		key ^= Zobrist.PIECE_SQUARE[piece][square];
+		if (typeOf(piece) == PAWN) {
+			pawnKey ^= Zobrist.PIECE_SQUARE[piece][square];
+		}
+		if (accumulator != null) {
+			accumulator.removePiece(piece, square);
+		}
+		return piece;
+	}
+
+	/**
+	 * Replaces the position with the given pieces, with no castling rights or en
+	 * passant square. Used to set up tablebase positions without going through
+	 * FEN.
+	 *
+	 * @param pieces     engine piece code of each piece
+	 * @param squares    square of each piece
+	 * @param sideToMove the color to move next
+	 */
+	void setPieces(int[] pieces, int[] squares, int sideToMove) {
+		clear();
+		for (int i = 0; i < pieces.length; i++) {
+			putPiece(squares[i], pieces[i]);
+		}
+		this.sideToMove = sideToMove;
+		key = computeKey();
+	}
+
+	// FEN
+	private void clear() {
+		Arrays.fill(squares, EMPTY);
+		Arrays.fill(pieceCount, 0);
+		sideToMove = WHITE;
+		castlingRights = 0;
+		enPassantSquare = NO_SQUARE;
+		halfmoveClock = 0;
+		fullmoveNumber = 1;
+		key = 0;
+		pawnKey = 0;
+		ply = 0;
+		if (accumulator != null) {
+			accumulator.reset();
+		}
+	}
+
+	/**
+	 * Replaces the position with one given in Forsyth-Edwards Notation. The move
+	 * counters may be left out.
+	 *
+	 * @param fen the position to load
+	 */
+	public void loadFen(String fen) {
+		String[] fields = fen.trim().split("\\s+");
+		if (fields.length < 4) {
+			throw new IllegalArgumentException("FEN needs at least four fields: " + fen);
+		}
+		clear();
+		int row = 7;
+		int column = 0;
+		for (int i = 0; i < fields[0].length(); i++) {
+			char symbol = fields[0].charAt(i);
+			if (symbol == '/') {
+				row--;
+				column = 0;
+			} else if (symbol >= '1' && symbol <= '8') {
+				column += symbol - '0';
+			} else {
+				int piece = FEN_PIECES.indexOf(symbol);
+				if (piece <= 0 || row < 0 || column > 7) {
+					throw new IllegalArgumentException("Invalid FEN piece placement: " + fields[0]);
+				}
+				putPiece(row * 8 + column, piece);
+				column++;
+			}
+		}
+		if (pieceCount[makePiece(WHITE, KING)] != 1 || pieceCount[makePiece(BLACK, KING)] != 1) {
+			throw new IllegalArgumentException("FEN must have exactly one king of each color: " + fen);
+		}
+		sideToMove = fields[1].equals("b") ? BLACK : WHITE;
+		for (int i = 0; i < fields[2].length(); i++) {
+			int right = "KQkq".indexOf(fields[2].charAt(i));
+			if (right >= 0) {
+				castlingRights |= 1 << right;
+			}
+		}
+		if (!fields[3].equals("-")) {
+			enPassantSquare = new Position(fields[3]).getSquareIndex();
+		}
+		if (fields.length > 5) {
+			halfmoveClock = Integer.parseInt(fields[4]);
+			fullmoveNumber = Integer.parseInt(fields[5]);
+		}
+		key = computeKey();
+	}
+
+	/**
+	 * Returns the position in Forsyth-Edwards Notation.
+	 */
+	public String toFen() {
+		StringBuilder output = new StringBuilder(90);
+		for (int row = 7; row >= 0; row--) {
+			int empty = 0;
+			for (int column = 0; column < 8; column++) {
+				int piece = squares[row * 8 + column];
+				if (piece == EMPTY) {
+					empty++;
+				} else {
+					if (empty > 0) {
+						output.append(empty);
+						empty = 0;
+					}
+					output.append(FEN_PIECES.charAt(piece));
+				}
+			}
+			if (empty > 0) {
+				output.append(empty);
+			}
+			if (row > 0) {
+				output.append('/');
+			}
+		}
+		output.append(sideToMove == WHITE ? " w " : " b ");
+		if (castlingRights == 0) {
+			output.append('-');
+		}
+		for (int right = 0; right < 4; right++) {
+			if ((castlingRights & (1 << right)) != 0) {
+				output.append("KQkq".charAt(right));
+			}
+		}
+		output.append(' ');
+		output.append(enPassantSquare == NO_SQUARE ? "-"
+				: Position.fromSquareIndex(enPassantSquare).getAlgebraicNotation());
+		output.append(' ').append(halfmoveClock).append(' ').append(fullmoveNumber);
+		return output.toString();
+	}
+
+	/**
+	 * Computes the Zobrist hash of the position from scratch.
+	 */
+	private long computeKey() {
+		long output = 0;
+		for (int square = 0; square < 64; square++) {
+			if (squares[square] != EMPTY) {
+				output ^= Zobrist.PIECE_SQUARE[squares[square]][square];
+			}
+		}
+		output ^= Zobrist.CASTLING[castlingRights];
+		if (enPassantSquare != NO_SQUARE) {
+			output ^= Zobrist.EN_PASSANT_FILE[enPassantSquare & 7];
+		}
+		if (sideToMove == BLACK) {
+			output ^= Zobrist.BLACK_TO_MOVE;
+		}
+		return output;
+	}
+
+	public String toString() {
+		return toFen();
+	}
+
+	// table initialization
+	private static int[] stepTargets(int square, int[][] steps) {
+		int[] targets = new int[steps.length];
+		int count = 0;
+		for (int[] step : steps) {
+			int column = (square & 7) + step[0];
+			int row = (square >>> 3) + step[1];
+			if (column >= 0 && column < 8 && row >= 0 && row < 8) {
+				targets[count++] = row * 8 + column;
+			}
+		}
+		return Arrays.copyOf(targets, count);
+	}
+
+	private static int[] rayTargets(int square, int[] direction) {
+		int[] targets = new int[7];
+		int count = 0;
+		int column = (square & 7) + direction[0];
+		int row = (square >>> 3) + direction[1];
+		while (column >= 0 && column < 8 && row >= 0 && row < 8) {
+			targets[count++] = row * 8 + column;
+			column += direction[0];
+			row += direction[1];
+		}
+		return Arrays.copyOf(targets, count);
+	}
+}
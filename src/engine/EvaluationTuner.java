@@ -0,0 +1,523 @@
+package engine;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+
+/**
+ * Tunes EvaluationWeights by the Texel method: the static evaluation of each
+ * of a large set of positions, with no search, is turned into an expected
+ * score by a sigmoid, and the weights are moved to reduce the mean squared
+ * difference from the results of the games the positions were taken from.
+ *
+ * The evaluation is a sum of weights times counts (how many pieces of a type,
+ * whether a piece stands on a square, how many doubled pawns), so the
+ * gradient of the error is found exactly in one pass over the positions. Each
+ * epoch is one such pass, split into ranges of positions handled in parallel
+ * on a fork-join pool, followed by an Adam step on every weight.
+ *
+ * Positions are packed into primitive arrays of 25 bytes each: the occupied
+ * squares as a 64-bit set, the piece on each occupied square in four bits,
+ * and the result. A position file holds one position per line, a FEN
+ * followed by the result as "1-0", "1/2-1/2" or "0-1", or as 1.0, 0.5 or 0.0,
+ * optionally quoted, bracketed or followed by a semicolon as in EPD files.
+ *
+ * Usage: EvaluationTuner [positions [weights [epochs]] | number of self-play games]
+ */
+public class EvaluationTuner {
+	/**
+	 * number of positions handled by one task
+	 */
+	private static final int CHUNK_SIZE = 1 << 13;
+	private static final double BETA1 = 0.9;
+	private static final double BETA2 = 0.999;
+	private static final double EPSILON = 1e-8;
+
+	private final ForkJoinPool pool;
+	/**
+	 * for each position, the occupied squares and then the pieces on them
+	 */
+	private long[] positions = new long[3 * 1024];
+	/**
+	 * for each position, the result for white: 0 for a loss, 1 for a draw and 2
+	 * for a win
+	 */
+	private byte[] results = new byte[1024];
+	private int count;
+	/**
+	 * scale of the sigmoid turning centipawns into an expected score
+	 */
+	private double scale = 1;
+
+	/**
+	 * Creates a tuner with no positions.
+	 *
+	 * @param pool the pool to run passes on
+	 */
+	public EvaluationTuner(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Adds a position.
+	 *
+	 * @param board  the position
+	 * @param result the result of the game for white: 1 for a win, 0.5 for a
+	 *               draw and 0 for a loss
+	 */
+	public void add(EngineBoard board, double result) {
+		if (result != 0 && result != 0.5 && result != 1) {
+			throw new IllegalArgumentException("Result must be 0, 0.5 or 1: " + result);
+		}
+		if (count == results.length) {
+			results = Arrays.copyOf(results, count * 2);
+			positions = Arrays.copyOf(positions, count * 6);
+		}
+		long occupied = 0;
+		long low = 0;
+		long high = 0;
+		int pieces = 0;
+		for (int square = 0; square < 64; square++) {
+			int piece = board.getPiece(square);
+			if (piece == EngineBoard.EMPTY) {
+				continue;
+			}
+			if (pieces == 32) {
+				throw new IllegalArgumentException("More than 32 pieces: " + board.toFen());
+			}
+			occupied |= 1L << square;
+			if (pieces < 16) {
+				low |= (long) piece << (pieces * 4);
+			} else {
+				high |= (long) piece << ((pieces - 16) * 4);
+			}
+			pieces++;
+		}
+		positions[count * 3] = occupied;
+		positions[count * 3 + 1] = low;
+		positions[count * 3 + 2] = high;
+		results[count] = (byte) (result * 2);
+		count++;
+	}
+
+	/**
+	 * Adds the positions of a position file. Lines without a readable position
+	 * and result are skipped.
+	 *
+	 * @param file the file to read
+	 * @return the number of positions added
+	 * @throws IOException if the file cannot be read
+	 */
+	public int load(Path file) throws IOException {
+		EngineBoard board = new EngineBoard();
+		int added = 0;
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.trim().split("\\s+");
+				if (fields.length < 5) {
+					continue;
+				}
+				double result = parseResult(fields[fields.length - 1]);
+				if (Double.isNaN(result)) {
+					continue;
+				}
+				try {
+					board.loadFen(fields[0] + " " + fields[1] + " " + fields[2] + " " + fields[3]);
+				} catch (IllegalArgumentException e) {
+					continue;
+				}
+				add(board, result);
+				added++;
+			}
+		}
+		return added;
+	}
+
+	/**
+	 * Reads a result, or returns NaN if the text is not one.
+	 */
+	private static double parseResult(String text) {
+		switch (text.replaceAll("[\"\\[\\];]", "")) {
+		case "1-0":
+		case "1.0":
+		case "1":
+			return 1;
+		case "1/2-1/2":
+		case "0.5":
+			return 0.5;
+		case "0-1":
+		case "0.0":
+		case "0":
+			return 0;
+		default:
+			return Double.NaN;
+		}
+	}
+
+	public int getPositionCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the scale of the sigmoid: a position evaluated at x centipawns is
+	 * expected to score 1 / (1 + 10^(-scale * x / 400)) for white.
+	 */
+	public double getScale() {
+		return scale;
+	}
+
+	/**
+	 * Sets the scale of the sigmoid to the one that best fits the results with
+	 * the given weights, which is kept while tuning so that the weights stay in
+	 * centipawns.
+	 *
+	 * @param weights the weights to fit the scale for
+	 * @return the mean squared error at the chosen scale
+	 */
+	public double fitScale(EvaluationWeights weights) {
+		double[] values = toDoubles(weights);
+		double low = 0.05;
+		double high = 5;
+		// golden section search, the error being unimodal in the scale
+		double ratio = (Math.sqrt(5) - 1) / 2;
+		for (int step = 0; step < 30; step++) {
+			double left = high - ratio * (high - low);
+			double right = low + ratio * (high - low);
+			scale = left;
+			double leftError = pass(values, false)[EvaluationWeights.COUNT];
+			scale = right;
+			double rightError = pass(values, false)[EvaluationWeights.COUNT];
+			if (leftError < rightError) {
+				high = right;
+			} else {
+				low = left;
+			}
+		}
+		scale = (low + high) / 2;
+		return pass(values, false)[EvaluationWeights.COUNT];
+	}
+
+	/**
+	 * Returns the mean squared error of the weights over all positions.
+	 */
+	public double error(EvaluationWeights weights) {
+		return pass(toDoubles(weights), false)[EvaluationWeights.COUNT];
+	}
+
+	/**
+	 * Tunes weights by gradient descent.
+	 *
+	 * @param start        the weights to start from
+	 * @param epochs       the number of passes over the positions
+	 * @param learningRate the largest change of a weight in one epoch, in
+	 *                     centipawns
+	 * @param progress     told of the result of each epoch
+	 * @return the tuned weights, rounded to whole centipawns
+	 */
+	public EvaluationWeights tune(EvaluationWeights start, int epochs, double learningRate,
+			Consumer<Epoch> progress) {
+		if (count == 0) {
+			throw new IllegalStateException("No positions to tune on");
+		}
+		double[] values = toDoubles(start);
+		double[] firstMoment = new double[EvaluationWeights.COUNT];
+		double[] secondMoment = new double[EvaluationWeights.COUNT];
+		for (int epoch = 1; epoch <= epochs; epoch++) {
+			long begin = System.nanoTime();
+			double[] gradient = pass(values, true);
+			double correction1 = 1 - Math.pow(BETA1, epoch);
+			double correction2 = 1 - Math.pow(BETA2, epoch);
+			for (int i = 0; i < EvaluationWeights.COUNT; i++) {
+				firstMoment[i] = BETA1 * firstMoment[i] + (1 - BETA1) * gradient[i];
+				secondMoment[i] = BETA2 * secondMoment[i] + (1 - BETA2) * gradient[i] * gradient[i];
+				values[i] -= learningRate * (firstMoment[i] / correction1)
+						/ (Math.sqrt(secondMoment[i] / correction2) + EPSILON);
+			}
+			long elapsed = System.nanoTime() - begin;
+			progress.accept(new Epoch(epoch, gradient[EvaluationWeights.COUNT], count * 1e9 / elapsed));
+		}
+		int[] rounded = new int[EvaluationWeights.COUNT];
+		for (int i = 0; i < rounded.length; i++) {
+			rounded[i] = (int) Math.round(values[i]);
+		}
+		return new EvaluationWeights(rounded);
+	}
+
+	private static double[] toDoubles(EvaluationWeights weights) {
+		double[] output = new double[EvaluationWeights.COUNT];
+		for (int i = 0; i < output.length; i++) {
+			output[i] = weights.get(i);
+		}
+		return output;
+	}
+
+	/**
+	 * Runs one pass over every position.
+	 *
+	 * @return the mean gradient of the error for each weight if asked for,
+	 *         followed by the mean squared error
+	 */
+	private double[] pass(double[] weights, boolean gradient) {
+		double[] output = pool.invoke(new PassTask(weights, gradient, 0, count));
+		for (int i = 0; i < output.length; i++) {
+			output[i] /= count;
+		}
+		return output;
+	}
+
+	/**
+	 * Sums the error and its gradient over a range of positions, splitting the
+	 * range in two until it is no larger than the chunk size.
+	 */
+	private class PassTask extends RecursiveTask<double[]> {
+		private static final long serialVersionUID = 1L;
+		private final double[] weights;
+		private final boolean gradient;
+		private final int start;
+		private final int end;
+
+		PassTask(double[] weights, boolean gradient, int start, int end) {
+			this.weights = weights;
+			this.gradient = gradient;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected double[] compute() {
+			if (end - start > CHUNK_SIZE) {
+				int middle = start + (end - start) / 2;
+				PassTask right = new PassTask(weights, gradient, middle, end);
+				right.fork();
+				double[] output = new PassTask(weights, gradient, start, middle).compute();
+				double[] other = right.join();
+				for (int i = 0; i < output.length; i++) {
+					output[i] += other[i];
+				}
+				return output;
+			}
+			double[] output = new double[EvaluationWeights.COUNT + 1];
+			Features features = new Features();
+			double factor = scale * Math.log(10) / 400;
+			for (int position = start; position < end; position++) {
+				features.read(positions, position);
+				double evaluation = 0;
+				for (int i = 0; i < features.count; i++) {
+					evaluation += weights[features.indexes[i]] * features.counts[i];
+				}
+				double expected = 1 / (1 + Math.exp(-factor * evaluation));
+				double difference = expected - results[position] / 2.0;
+				output[EvaluationWeights.COUNT] += difference * difference;
+				if (gradient) {
+					double slope = 2 * difference * expected * (1 - expected) * factor;
+					for (int i = 0; i < features.count; i++) {
+						output[features.indexes[i]] += slope * features.counts[i];
+					}
+				}
+			}
+			return output;
+		}
+	}
+
+	/**
+	 * The terms of the evaluation of one position from white's point of view,
+	 * as the index of each weight that applies and how many times it counts,
+	 * negative for black. They match what Evaluator and PawnTable add up.
+	 */
+	static class Features {
+		final int[] indexes = new int[128];
+		final int[] counts = new int[128];
+		int count;
+
+		/**
+		 * Reads the terms of a packed position.
+		 */
+		void read(long[] positions, int position) {
+			count = 0;
+			long occupied = positions[position * 3];
+			int[] kings = new int[2];
+			long[] pawns = new long[2];
+			int piece = 0;
+			for (long remaining = occupied; remaining != 0; remaining &= remaining - 1) {
+				int square = Long.numberOfTrailingZeros(remaining);
+				long word = positions[position * 3 + 1 + (piece >>> 4)];
+				int code = (int) (word >>> ((piece & 15) * 4)) & 15;
+				piece++;
+				int type = EngineBoard.typeOf(code);
+				int color = EngineBoard.colorOf(code);
+				int sign = color == EngineBoard.WHITE ? 1 : -1;
+				if (type != EngineBoard.KING) {
+					add(EvaluationWeights.MATERIAL + type, sign);
+				} else {
+					kings[color] = square;
+				}
+				if (type == EngineBoard.PAWN) {
+					pawns[color] |= 1L << square;
+				}
+				add(EvaluationWeights.PIECE_SQUARE + type * 64 + (color == EngineBoard.WHITE ? square ^ 56 : square),
+						sign);
+			}
+			for (int color = EngineBoard.WHITE; color <= EngineBoard.BLACK; color++) {
+				int sign = color == EngineBoard.WHITE ? 1 : -1;
+				long own = pawns[color];
+				for (int file = 0; file < 8; file++) {
+					int onFile = Long.bitCount(own & PawnTable.FILE_MASKS[file]);
+					if (onFile > 1) {
+						add(EvaluationWeights.DOUBLED_PAWN, sign * (onFile - 1));
+					}
+					if (onFile > 0 && (own & PawnTable.ADJACENT_FILE_MASKS[file]) == 0) {
+						add(EvaluationWeights.ISOLATED_PAWN, sign * onFile);
+					}
+				}
+				for (long remaining = own; remaining != 0; remaining &= remaining - 1) {
+					int square = Long.numberOfTrailingZeros(remaining);
+					if ((pawns[color ^ 1] & PawnTable.PASSED_MASKS[color][square]) == 0) {
+						int row = square >>> 3;
+						add(EvaluationWeights.PASSED_PAWN + (color == EngineBoard.WHITE ? row : 7 - row), sign);
+					}
+				}
+				add(EvaluationWeights.SHIELD_NEAR,
+						sign * Long.bitCount(own & PawnTable.SHIELD_NEAR_MASKS[color][kings[color]]));
+				add(EvaluationWeights.SHIELD_FAR,
+						sign * Long.bitCount(own & PawnTable.SHIELD_FAR_MASKS[color][kings[color]]));
+			}
+		}
+
+		private void add(int index, int times) {
+			if (times != 0) {
+				indexes[count] = index;
+				counts[count] = times;
+				count++;
+			}
+		}
+	}
+
+	/**
+	 * The outcome of one epoch of tuning.
+	 */
+	public static class Epoch {
+		private final int number;
+		private final double error;
+		private final double positionsPerSecond;
+
+		Epoch(int number, double error, double positionsPerSecond) {
+			this.number = number;
+			this.error = error;
+			this.positionsPerSecond = positionsPerSecond;
+		}
+
+		public int getNumber() {
+			return number;
+		}
+
+		/**
+		 * Returns the mean squared error over all positions at the start of the
+		 * epoch.
+		 */
+		public double getError() {
+			return error;
+		}
+
+		public double getPositionsPerSecond() {
+			return positionsPerSecond;
+		}
+
+		public String toString() {
+			return String.format("epoch %d: error %.6f, %.0f positions/s", number, error, positionsPerSecond);
+		}
+	}
+
+	/**
+	 * Writes a position file of positions from games the engine plays against
+	 * itself at a low depth after a few random moves, for trying the tuner
+	 * without a file of real games.
+	 */
+	static void writeSelfPlayPositions(Path file, int games, long seed) throws IOException {
+		Random random = new Random(seed);
+		TranspositionTable table = new TranspositionTable(16);
+		Evaluator evaluator = new Evaluator();
+		int[] moves = new int[EngineBoard.MAX_MOVES];
+		try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			StringBuilder fens = new StringBuilder();
+			for (int game = 0; game < games; game++) {
+				EngineBoard board = new EngineBoard();
+				Search search = new Search(board, new SearchOptions(), evaluator, table);
+				fens.setLength(0);
+				String result = "1/2-1/2";
+				for (int ply = 0; ply < 300; ply++) {
+					int legal = board.generateLegalMoves(moves);
+					if (legal == 0) {
+						if (board.inCheck()) {
+							result = board.getSideToMove() == EngineBoard.WHITE ? "0-1" : "1-0";
+						}
+						break;
+					}
+					if (board.isRepetition() || board.getHalfmoveClock() >= 100) {
+						break;
+					}
+					if (ply >= 8 && !board.inCheck()) {
+						fens.append(board.toFen()).append('\n');
+					}
+					board.makeMove(ply < 8 ? moves[random.nextInt(legal)] : search.search(2).getBestMove());
+				}
+				for (String fen : fens.toString().split("\n")) {
+					if (!fen.isEmpty()) {
+						writer.write(fen + " " + result + "\n");
+					}
+				}
+			}
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		boolean temporary = args.length == 0 || args[0].matches("\\d+");
+		Path positionFile = temporary ? Files.createTempFile("positions", ".epd") : Paths.get(args[0]);
+		Path weightFile = !temporary && args.length > 1 ? Paths.get(args[1])
+				: Files.createTempFile("weights", ".eval");
+		int epochs = !temporary && args.length > 2 ? Integer.parseInt(args[2]) : 100;
+		try {
+			if (temporary) {
+				long start = System.nanoTime();
+				writeSelfPlayPositions(positionFile, args.length > 0 ? Integer.parseInt(args[0]) : 300, 1);
+				System.out.printf("wrote self-play positions in %d ms%n", (System.nanoTime() - start) / 1_000_000);
+			}
+			ForkJoinPool pool = ForkJoinPool.commonPool();
+			EvaluationTuner tuner = new EvaluationTuner(pool);
+			long start = System.nanoTime();
+			int loaded = tuner.load(positionFile);
+			System.out.printf("loaded %d positions in %d ms%n", loaded, (System.nanoTime() - start) / 1_000_000);
+			double error = tuner.fitScale(EvaluationWeights.DEFAULT);
+			System.out.printf("scale %.3f, error %.6f with default weights, %d threads%n", tuner.getScale(), error,
+					pool.getParallelism());
+			EvaluationWeights tuned = tuner.tune(EvaluationWeights.DEFAULT, epochs, 1, epoch -> {
+				if (epoch.getNumber() % 10 == 0 || epoch.getNumber() == 1) {
+					System.out.println(epoch);
+				}
+			});
+			System.out.printf("error %.6f with tuned weights%n", tuner.error(tuned));
+			tuned.save(weightFile.toString());
+			Evaluator evaluator = new Evaluator(EvaluationWeights.load(weightFile.toString()));
+			EngineBoard board = new EngineBoard();
+			System.out.println("start position: " + evaluator.evaluate(board) + " tuned, "
+					+ new Evaluator().evaluate(board) + " default");
+			System.out.println(tuned);
+		} finally {
+			if (temporary) {
+				Files.deleteIfExists(positionFile);
+			}
+			if (temporary || args.length < 2) {
+				Files.deleteIfExists(weightFile);
+			}
+		}
+	}
+}
@@ -0,0 +1,239 @@
+package engine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * The weights of the hand-written evaluation used by Evaluator and PawnTable,
+ * in centipawns: the material value of each piece type, a piece-square table
+ * for each type, and the pawn structure and king shield terms. The weights are
+ * kept as one array so that EvaluationTuner can treat them as a vector; the
+ * constants below give the index of each term in it.
+ *
+ * Piece-square tables are written from white's point of view with the 8th
+ * row first, so that they read like a board: entry 0 is a8 for white and a1
+ * for black.
+ *
+ * Weight file format, all values big-endian: the magic number "EVAL", a
+ * format version, the number of weights, then each weight as an int.
+ *
+ * EvaluationWeights are immutable and may be shared between threads.
+ */
+public class EvaluationWeights {
+	/**
+	 * index of the material value of each piece type, indexed by engine type
+	 */
+	public static final int MATERIAL = 0;
+	/**
+	 * index of the piece-square table of each piece type: PIECE_SQUARE + type *
+	 * 64 + entry
+	 */
+	public static final int PIECE_SQUARE = MATERIAL + 7;
+	public static final int DOUBLED_PAWN = PIECE_SQUARE + 7 * 64;
+	public static final int ISOLATED_PAWN = DOUBLED_PAWN + 1;
+	/**
+	 * index of the passed pawn bonus, for each number of rows advanced from its
+	 * own side
+	 */
+	public static final int PASSED_PAWN = ISOLATED_PAWN + 1;
+	public static final int SHIELD_NEAR = PASSED_PAWN + 8;
+	public static final int SHIELD_FAR = SHIELD_NEAR + 1;
+	/**
+	 * the number of weights
+	 */
+	public static final int COUNT = SHIELD_FAR + 1;
+
+	private static final int MAGIC = 0x4556414C;
+	private static final int VERSION = 1;
+
+	private static final int[] PAWN_TABLE = {
+			 0,  0,  0,  0,  0,  0,  0,  0,
+			50, 50, 50, 50, 50, 50, 50, 50,
+			10, 10, 20, 30, 30, 20, 10, 10,
+			 5,  5, 10, 25, 25, 10,  5,  5,
+			 0,  0,  0, 20, 20,  0,  0,  0,
+			 5, -5,-10,  0,  0,-10, -5,  5,
+			 5, 10, 10,-20,-20, 10, 10,  5,
+			 0,  0,  0,  0,  0,  0,  0,  0 };
+	private static final int[] KNIGHT_TABLE = {
+			-50,-40,-30,-30,-30,-30,-40,-50,
+			-40,-20,  0,  0,  0,  0,-20,-40,
+			-30,  0, 10, 15, 15, 10,  0,-30,
+			-30,  5, 15, 20, 20, 15,  5,-30,
+			-30,  0, 15, 20, 20, 15,  0,-30,
+			-30,  5, 10, 15, 15, 10,  5,-30,
+			-40,-20,  0,  5,  5,  0,-20,-40,
+			-50,-40,-30,-30,-30,-30,-40,-50 };
+	private static final int[] BISHOP_TABLE = {
+			-20,-10,-10,-10,-10,-10,-10,-20,
+			-10,  0,  0,  0,  0,  0,  0,-10,
+			-10,  0,  5, 10, 10,  5,  0,-10,
+			-10,  5,  5, 10, 10,  5,  5,-10,
+			-10,  0, 10, 10, 10, 10,  0,-10,
+			-10, 10, 10, 10, 10, 10, 10,-10,
+			-10,  5,  0,  0,  0,  0,  5,-10,
+			-20,-10,-10,-10,-10,-10,-10,-20 };
+	private static final int[] ROOK_TABLE = {
+			 0,  0,  0,  0,  0,  0,  0,  0,
+			 5, 10, 10, 10, 10, 10, 10,  5,
+			-5,  0,  0,  0,  0,  0,  0, -5,
+			-5,  0,  0,  0,  0,  0,  0, -5,
+			-5,  0,  0,  0,  0,  0,  0, -5,
+			-5,  0,  0,  0,  0,  0,  0, -5,
+			-5,  0,  0,  0,  0,  0,  0, -5,
+			 0,  0,  0,  5,  5,  0,  0,  0 };
+	private static final int[] QUEEN_TABLE = {
+			-20,-10,-10, -5, -5,-10,-10,-20,
+			-10,  0,  0,  0,  0,  0,  0,-10,
+			-10,  0,  5,  5,  5,  5,  0,-10,
+			 -5,  0,  5,  5,  5,  5,  0, -5,
+			  0,  0,  5,  5,  5,  5,  0, -5,
+			-10,  5,  5,  5,  5,  5,  0,-10,
+			-10,  0,  5,  0,  0,  0,  0,-10,
+			-20,-10,-10, -5, -5,-10,-10,-20 };
+	private static final int[] KING_TABLE = {
+			-30,-40,-40,-50,-50,-40,-40,-30,
+			-30,-40,-40,-50,-50,-40,-40,-30,
+			-30,-40,-40,-50,-50,-40,-40,-30,
+			-30,-40,-40,-50,-50,-40,-40,-30,
+			-20,-30,-30,-40,-40,-30,-30,-20,
+			-10,-20,-20,-20,-20,-20,-20,-10,
+			 20, 20,  0,  0,  0,  0, 20, 20,
+			 20, 30, 10,  0,  0, 10, 30, 20 };
+	private static final int[][] TABLES = { null, PAWN_TABLE, KNIGHT_TABLE, BISHOP_TABLE, ROOK_TABLE, QUEEN_TABLE,
+			KING_TABLE };
+
+	/**
+	 * the hand-written weights the engine uses unless others are loaded
+	 */
+	public static final EvaluationWeights DEFAULT = createDefault();
+
+	private final int[] values;
+	/**
+	 * material and piece-square value of each engine piece code on each square,
+	 * positive for white pieces and negative for black ones
+	 */
+	final int[][] pieceSquare = new int[16][64];
+
+	/**
+	 * Creates weights from a vector of COUNT values, laid out as given by the
+	 * index constants.
+	 *
+	 * @param values the weights, which are copied
+	 */
+	public EvaluationWeights(int[] values) {
+		if (values.length != COUNT) {
+			throw new IllegalArgumentException("Expected " + COUNT + " weights, not " + values.length);
+		}
+		this.values = values.clone();
+		for (int type = EngineBoard.PAWN; type <= EngineBoard.KING; type++) {
+			int white = EngineBoard.makePiece(EngineBoard.WHITE, type);
+			int black = EngineBoard.makePiece(EngineBoard.BLACK, type);
+			for (int square = 0; square < 64; square++) {
+				pieceSquare[white][square] = values[MATERIAL + type] + values[PIECE_SQUARE + type * 64 + (square ^ 56)];
+				pieceSquare[black][square] = -(values[MATERIAL + type] + values[PIECE_SQUARE + type * 64 + square]);
+			}
+		}
+	}
+
+	private static EvaluationWeights createDefault() {
+		int[] values = new int[COUNT];
+		for (int type = EngineBoard.PAWN; type <= EngineBoard.KING; type++) {
+			values[MATERIAL + type] = Evaluator.PIECE_VALUES[type];
+			System.arraycopy(TABLES[type], 0, values, PIECE_SQUARE + type * 64, 64);
+		}
+		values[DOUBLED_PAWN] = -12;
+		values[ISOLATED_PAWN] = -15;
+		System.arraycopy(new int[] { 0, 5, 10, 20, 35, 60, 100, 0 }, 0, values, PASSED_PAWN, 8);
+		values[SHIELD_NEAR] = 10;
+		values[SHIELD_FAR] = 5;
+		return new EvaluationWeights(values);
+	}
+
+	/**
+	 * Returns one weight.
+	 *
+	 * @param index the index of the weight, see the index constants
+	 */
+	public int get(int index) {
+		return values[index];
+	}
+
+	/**
+	 * Returns a copy of all the weights.
+	 */
+	public int[] getValues() {
+		return values.clone();
+	}
+
+	/**
+	 * Loads weights from a weight file.
+	 *
+	 * @param path the file to load
+	 * @return the weights stored in the file
+	 * @throws IOException if the file cannot be read or is not a weight file
+	 */
+	public static EvaluationWeights load(String path) throws IOException {
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+			if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+				throw new IOException("Not a version " + VERSION + " evaluation weight file: " + path);
+			}
+			int count = input.readInt();
+			if (count != COUNT) {
+				throw new IOException("Expected " + COUNT + " weights in " + path + ", found " + count);
+			}
+			int[] values = new int[COUNT];
+			for (int i = 0; i < COUNT; i++) {
+				values[i] = input.readInt();
+			}
+			return new EvaluationWeights(values);
+		}
+	}
+
+	/**
+	 * Writes the weights to a file that load can read.
+	 *
+	 * @param path the file to write
+	 * @throws IOException if the file cannot be written
+	 */
+	public void save(String path) throws IOException {
+		try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)))) {
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			output.writeInt(COUNT);
+			for (int value : values) {
+				output.writeInt(value);
+			}
+		}
+	}
+
+	/**
+	 * Returns the weights as text: the material values, each piece-square table
+	 * as a board, then the pawn terms.
+	 */
+	public String toString() {
+		StringBuilder output = new StringBuilder("material");
+		for (int type = EngineBoard.PAWN; type <= EngineBoard.QUEEN; type++) {
+			output.append(' ').append(EngineBoard.toPieceType(type)).append(' ').append(values[MATERIAL + type]);
+		}
+		for (int type = EngineBoard.PAWN; type <= EngineBoard.KING; type++) {
+			output.append('\n').append(EngineBoard.toPieceType(type));
+			for (int entry = 0; entry < 64; entry++) {
+				output.append(entry % 8 == 0 ? "\n" : " ")
+						.append(String.format("%4d", values[PIECE_SQUARE + type * 64 + entry]));
+			}
+		}
+		output.append("\ndoubled ").append(values[DOUBLED_PAWN]).append(" isolated ").append(values[ISOLATED_PAWN])
+				.append(" passed");
+		for (int row = 0; row < 8; row++) {
+			output.append(' ').append(values[PASSED_PAWN + row]);
+		}
+		return output.append(" shield ").append(values[SHIELD_NEAR]).append(' ').append(values[SHIELD_FAR])
+				.toString();
+	}
+}
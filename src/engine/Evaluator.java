@@ -0,0 +1,74 @@
+package engine;
+
+/**
+ * Static evaluation of an EngineBoard from material, piece-square tables and
+ * pawn structure, with the weights given by EvaluationWeights. Scores are in
+ * centipawns from the point of view of the side to move.
+ *
+ * Pawn structure terms are cached in a PawnTable, so an Evaluator should not be
+ * shared between threads.
+ */
+public class Evaluator {
+	/**
+	 * default material value of each engine piece type, indexed by type, also
+	 * used to order captures in the search
+	 */
+	static final int[] PIECE_VALUES = { 0, 100, 320, 330, 500, 900, 0 };
+
+	private static final int DEFAULT_PAWN_TABLE_ENTRIES = 1 << 13;
+
+	private final PawnTable pawnTable;
+	private final int[][] pieceSquare;
+
+	/**
+	 * Creates an Evaluator with the default weights and a pawn table of 8192
+	 * entries.
+	 */
+	public Evaluator() {
+		this(EvaluationWeights.DEFAULT);
+	}
+
+	/**
+	 * Creates an Evaluator with a pawn table of 8192 entries.
+	 *
+	 * @param weights the weights to evaluate with
+	 */
+	public Evaluator(EvaluationWeights weights) {
+		this(new PawnTable(DEFAULT_PAWN_TABLE_ENTRIES, weights));
+	}
+
+	/**
+	 * Creates an Evaluator that caches pawn structure in the given table, and
+	 * uses the same weights as the table.
+	 *
+	 * @param pawnTable the table to cache pawn structure evaluations in
+	 */
+	public Evaluator(PawnTable pawnTable) {
+		this.pawnTable = pawnTable;
+		pieceSquare = pawnTable.getWeights().pieceSquare;
+	}
+
+	/**
+	 * Returns the pawn table, for its hit and miss counts.
+	 */
+	public PawnTable getPawnTable() {
+		return pawnTable;
+	}
+
+	/**
+	 * Evaluates the position.
+	 *
+	 * @param board the position to evaluate
+	 * @return score in centipawns, positive if the side to move is better
+	 */
+	public int evaluate(EngineBoard board) {
+		int score = pawnTable.evaluate(board);
+		for (int square = 0; square < 64; square++) {
+			int piece = board.getPiece(square);
+			if (piece != EngineBoard.EMPTY) {
+				score += pieceSquare[piece][square];
+			}
+		}
+		return board.getSideToMove() == EngineBoard.WHITE ? score : -score;
+	}
+}
@@ -0,0 +1,86 @@
+package engine;
+
+/**
+ * Result of a MateSolver search: whether a mate was proven, and if so the
+ * number of moves to mate and the mating line.
+ */
+public class MateResult {
+	/**
+	 * Outcome of a mate search.
+	 */
+	public enum Status {
+		/**
+		 * a forced mate was found
+		 */
+		PROVEN,
+		/**
+		 * there is no forced mate by checking moves within the number of moves
+		 * searched
+		 */
+		DISPROVEN,
+		/**
+		 * the node budget ran out before the search was decided
+		 */
+		UNKNOWN;
+	}
+
+	private final Status status;
+	private final int mateInMoves;
+	private final int[] line;
+	private final long nodes;
+
+	/**
+	 * Creates a new MateResult.
+	 *
+	 * @param status      the outcome of the search
+	 * @param mateInMoves the number of attacking moves to mate, or 0 if not
+	 *                    proven
+	 * @param line        the moves of the mate, starting with the attacker's
+	 *                    first move
+	 * @param nodes       the number of nodes expanded
+	 */
+	public MateResult(Status status, int mateInMoves, int[] line, long nodes) {
+		this.status = status;
+		this.mateInMoves = mateInMoves;
+		this.line = line;
+		this.nodes = nodes;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public boolean isProven() {
+		return status == Status.PROVEN;
+	}
+
+	/**
+	 * Returns the number of attacking moves to mate, counting the mating move.
+	 */
+	public int getMateInMoves() {
+		return mateInMoves;
+	}
+
+	public int[] getLine() {
+		return line.clone();
+	}
+
+	public long getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * Returns the result as a String, in the format "mate in 2: d1d8 e8d8 ...
+	 * (1200 nodes)"
+	 */
+	public String toString() {
+		if (status != Status.PROVEN) {
+			return status.toString().toLowerCase() + " (" + nodes + " nodes)";
+		}
+		String output = "mate in " + mateInMoves + ":";
+		for (int move : line) {
+			output += " " + Move.toString(move);
+		}
+		return output + " (" + nodes + " nodes)";
+	}
+}
@@ -0,0 +1,372 @@
+package engine;
+
+import board.Board;
+import board.ChessColor;
+
+/**
+ * Proves forced checkmates with depth-first proof-number search (df-pn). The
+ * attacking side may only play checking moves and the defending side may play
+ * any legal move, which keeps the tree far narrower than an alpha-beta search.
+ * A node is proven when the defender is in check with no legal moves, the same
+ * condition tested by Board.isCheckMate.
+ *
+ * Proof and disproof numbers are kept in a small fixed-size hash table rather
+ * than a full transposition table. While a node is being expanded, the numbers
+ * of its children are also kept in arrays for its ply, so a child whose entry
+ * is overwritten keeps the numbers its last search returned instead of being
+ * searched again from the start; the table only gives the starting numbers of
+ * children not yet searched.
+ *
+ * A position from a Board is searched under the game's rules, which have no
+ * castling, en passant or promotion: the attacker never plays those moves, and
+ * a defender who could push a pawn to the last rank, which the game allows but
+ * the engine cannot play without promoting, is taken to escape.
+ */
+public class MateSolver {
+	/**
+	 * proof or disproof number of a node that is decided
+	 */
+	private static final int INFINITY = 1 << 28;
+	private static final int DEFAULT_TABLE_ENTRIES = 1 << 16;
+
+	// hash table of proof numbers, indexed by position key and remaining depth
+	private final long[] tableKeys;
+	private final int[] tablePhi;
+	private final int[] tableDelta;
+	private final byte[] tableDepth;
+	private final int tableMask;
+
+	private final EngineBoard board;
+	private final long maxNodes;
+	/**
+	 * whether only moves the game allows are searched, for positions from a
+	 * Board
+	 */
+	private final boolean gameRules;
+	/**
+	 * node count at which searchNode stops, maxNodes except while a proven line
+	 * is being extracted
+	 */
+	private long nodeLimit;
+	private final int[][] moves = new int[Search.MAX_PLY][EngineBoard.MAX_MOVES];
+	private final long[][] childKeys = new long[Search.MAX_PLY][EngineBoard.MAX_MOVES];
+	// proof and disproof numbers of the children of the node being expanded at
+	// each ply
+	private final int[][] childPhi = new int[Search.MAX_PLY][EngineBoard.MAX_MOVES];
+	private final int[][] childDelta = new int[Search.MAX_PLY][EngineBoard.MAX_MOVES];
+	private long nodes;
+
+	/**
+	 * Creates a solver for the position with a default table of 65536 entries.
+	 *
+	 * @param board    the position to solve, with the attacking side to move
+	 * @param maxNodes the maximum number of nodes to expand, or 0 for no limit
+	 */
+	public MateSolver(EngineBoard board, long maxNodes) {
+		this(board, maxNodes, DEFAULT_TABLE_ENTRIES);
+	}
+
+	/**
+	 * Creates a solver for the position.
+	 *
+	 * @param board        the position to solve, with the attacking side to move
+	 * @param maxNodes     the maximum number of nodes to expand, or 0 for no
+	 *                     limit
+	 * @param tableEntries the number of hash table entries, rounded down to a
+	 *                     power of two; each takes 17 bytes
+	 */
+	public MateSolver(EngineBoard board, long maxNodes, int tableEntries) {
+		this(board, maxNodes, tableEntries, false);
+	}
+
+	private MateSolver(EngineBoard board, long maxNodes, int tableEntries, boolean gameRules) {
+		int entries = Integer.highestOneBit(Math.max(2, tableEntries));
+		this.board = board;
+		this.maxNodes = maxNodes > 0 ? maxNodes : Long.MAX_VALUE;
+		this.gameRules = gameRules;
+		tableKeys = new long[entries];
+		tablePhi = new int[entries];
+		tableDelta = new int[entries];
+		tableDepth = new byte[entries];
+		tableMask = entries - 1;
+	}
+
+	/**
+	 * Searches for a mate by the side to move on a Board under the game's rules,
+	 * and confirms any mate found by replaying it as quickmoves on that board:
+	 * every attacking move must give check (Board.isInCheck) and the final
+	 * position must pass Board.isCheckMate. A board with a pawn on the first or
+	 * last rank cannot be searched, and gives an UNKNOWN result.
+	 *
+	 * @param board    the board to solve
+	 * @param attacker the color to move, which is trying to give mate
+	 * @param maxMoves the largest number of attacking moves to search for
+	 * @param maxNodes the maximum number of nodes to expand, or 0 for no limit
+	 * @return the result of the search
+	 */
+	public static MateResult solve(Board board, ChessColor attacker, int maxMoves, long maxNodes) {
+		if (EngineBoard.hasPawnOnBackRank(board)) {
+			return new MateResult(MateResult.Status.UNKNOWN, 0, new int[0], 0);
+		}
+		MateResult result = new MateSolver(EngineBoard.fromBoard(board, attacker), maxNodes,
+				DEFAULT_TABLE_ENTRIES, true).solve(maxMoves);
+		if (result.isProven() && !confirmOnBoard(board, attacker, result.getLine())) {
+			throw new IllegalStateException("Mating line not confirmed by the board: " + result);
+		}
+		return result;
+	}
+
+	/**
+	 * Searches for the shortest mate by the side to move of at most maxMoves
+	 * moves, trying each number of moves in turn.
+	 *
+	 * @param maxMoves the largest number of attacking moves to search for
+	 * @return the result of the search
+	 */
+	public MateResult solve(int maxMoves) {
+		nodes = 0;
+		nodeLimit = maxNodes;
+		int maxPlies = Math.min(2 * maxMoves - 1, Search.MAX_PLY - 1);
+		for (int plies = 1; plies <= maxPlies; plies += 2) {
+			int[] values = searchNode(INFINITY, INFINITY, plies, 0);
+			if (values[0] == 0) {
+				int[] line = extractLine(plies);
+				return new MateResult(MateResult.Status.PROVEN, (plies + 1) / 2, line, nodes);
+			}
+			if (nodes >= maxNodes) {
+				return new MateResult(MateResult.Status.UNKNOWN, 0, new int[0], nodes);
+			}
+		}
+		return new MateResult(MateResult.Status.DISPROVEN, 0, new int[0], nodes);
+	}
+
+	/**
+	 * Expands a node until its proof or disproof number reaches a threshold. The
+	 * numbers are expressed from the point of view of the side to move: phi is
+	 * the effort to prove the side to move wins, delta the effort to prove it
+	 * loses. For the attacker, winning means giving mate within the remaining
+	 * plies; for the defender it means avoiding it.
+	 *
+	 * @param thresholdPhi   stop once phi reaches this value
+	 * @param thresholdDelta stop once delta reaches this value
+	 * @param plies          the plies remaining to give mate in
+	 * @param ply            distance from the root
+	 * @return {phi, delta} of the node
+	 */
+	private int[] searchNode(int thresholdPhi, int thresholdDelta, int plies, int ply) {
+		nodes++;
+		if (plies == 0) {
+			// the attacker has made its last move, so the defender must be mated now
+			boolean mated = board.inCheck() && !hasLegalMove(moves[ply]);
+			int[] values = mated ? new int[] { INFINITY, 0 } : new int[] { 0, INFINITY };
+			store(board.getKey(), plies, values[0], values[1]);
+			return values;
+		}
+		boolean attacker = (ply & 1) == 0;
+		int[] plyMoves = moves[ply];
+		long[] plyKeys = childKeys[ply];
+		int childCount = generateChildren(attacker, plyMoves, plyKeys);
+		if (childCount < 0) {
+			// the defender has a move the search cannot follow
+			store(board.getKey(), plies, 0, INFINITY);
+			return new int[] { 0, INFINITY };
+		}
+		if (childCount == 0) {
+			// a defender with no moves is mated if in check and escapes if not; an
+			// attacker with no checking moves has failed
+			boolean sideToMoveWins = !attacker && !board.inCheck();
+			int[] values = sideToMoveWins ? new int[] { 0, INFINITY } : new int[] { INFINITY, 0 };
+			store(board.getKey(), plies, values[0], values[1]);
+			return values;
+		}
+
+		int[] plyPhi = childPhi[ply];
+		int[] plyDelta = childDelta[ply];
+		for (int i = 0; i < childCount; i++) {
+			int entry = probe(plyKeys[i], plies - 1);
+			plyPhi[i] = entry < 0 ? 1 : tablePhi[entry];
+			plyDelta[i] = entry < 0 ? 1 : tableDelta[entry];
+		}
+
+		while (true) {
+			// phi is the smallest delta of the children, delta the sum of their phi
+			int phi = INFINITY;
+			int delta = 0;
+			int best = -1;
+			int secondDelta = INFINITY;
+			int bestPhi = 0;
+			for (int i = 0; i < childCount; i++) {
+				delta = Math.min(INFINITY, delta + plyPhi[i]);
+				if (plyDelta[i] < phi) {
+					secondDelta = phi;
+					phi = plyDelta[i];
+					best = i;
+					bestPhi = plyPhi[i];
+				} else if (plyDelta[i] < secondDelta) {
+					secondDelta = plyDelta[i];
+				}
+			}
+			if (phi >= thresholdPhi || delta >= thresholdDelta || nodes >= nodeLimit) {
+				store(board.getKey(), plies, phi, delta);
+				return new int[] { phi, delta };
+			}
+			int childThresholdPhi = Math.min(INFINITY, thresholdDelta - delta + bestPhi);
+			int childThresholdDelta = Math.min(thresholdPhi, secondDelta + 1);
+			board.makeMove(plyMoves[best]);
+			if (board.isRepetition()) {
+				// a repeated position is a draw, which is a win for the defender
+				boolean defenderToMove = attacker;
+				plyPhi[best] = defenderToMove ? 0 : INFINITY;
+				plyDelta[best] = defenderToMove ? INFINITY : 0;
+				store(board.getKey(), plies - 1, plyPhi[best], plyDelta[best]);
+			} else {
+				int[] values = searchNode(childThresholdPhi, childThresholdDelta, plies - 1, ply + 1);
+				plyPhi[best] = values[0];
+				plyDelta[best] = values[1];
+			}
+			board.unmakeMove();
+		}
+	}
+
+	/**
+	 * Writes the moves to search from the current node and the keys of the
+	 * positions they lead to: every legal move for the defender and only checking
+	 * moves for the attacker. Under the game's rules castling and en passant are
+	 * left out, and so are the attacker's promotions.
+	 *
+	 * @return the number of children, or -1 if the defender has a promotion under
+	 *         the game's rules, which it would play as a pawn move to the last
+	 *         rank
+	 */
+	private int generateChildren(boolean attacker, int[] plyMoves, long[] plyKeys) {
+		int end = board.generateMoves(plyMoves, 0);
+		int count = 0;
+		for (int i = 0; i < end; i++) {
+			int move = plyMoves[i];
+			if (gameRules && !Move.isGameMove(move) && (attacker || !Move.isPromotion(move))) {
+				continue;
+			}
+			if (!board.makeMove(move)) {
+				continue;
+			}
+			if (gameRules && !Move.isGameMove(move)) {
+				board.unmakeMove();
+				return -1;
+			}
+			if (!attacker || board.inCheck()) {
+				plyMoves[count] = move;
+				plyKeys[count] = board.getKey();
+				count++;
+			}
+			board.unmakeMove();
+		}
+		return count;
+	}
+
+	private boolean hasLegalMove(int[] buffer) {
+		int end = board.generateMoves(buffer, 0);
+		for (int i = 0; i < end; i++) {
+			// a promotion stands for the game's pawn move to the last rank
+			if (gameRules && !Move.isGameMove(buffer[i]) && !Move.isPromotion(buffer[i])) {
+				continue;
+			}
+			if (board.makeMove(buffer[i])) {
+				board.unmakeMove();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Follows proven moves from the root to build the mating line. The
+	 * attacker's move is a child the table holds as proven if there is one;
+	 * otherwise children are searched again, in order, until one is proven, with
+	 * no node limit, as the root being proven means one of them is.
+	 */
+	private int[] extractLine(int plies) {
+		nodeLimit = Long.MAX_VALUE;
+		int[] line = new int[plies];
+		int length = 0;
+		for (int ply = 0; ply < plies; ply++) {
+			boolean attacker = (ply & 1) == 0;
+			int[] plyMoves = moves[ply];
+			long[] plyKeys = childKeys[ply];
+			int childCount = generateChildren(attacker, plyMoves, plyKeys);
+			if (childCount <= 0) {
+				break;
+			}
+			// any defender move will do, as all of them lose
+			int chosen = attacker ? -1 : 0;
+			for (int i = 0; i < childCount && chosen < 0; i++) {
+				int entry = probe(plyKeys[i], plies - ply - 1);
+				if (entry >= 0 && tableDelta[entry] == 0) {
+					chosen = i;
+				}
+			}
+			for (int i = 0; i < childCount && chosen < 0; i++) {
+				board.makeMove(plyMoves[i]);
+				int[] values = searchNode(INFINITY, INFINITY, plies - ply - 1, ply + 1);
+				board.unmakeMove();
+				// the attacker needs a child the defender loses
+				if (values[1] == 0) {
+					chosen = i;
+				}
+			}
+			if (chosen < 0) {
+				break;
+			}
+			line[length++] = plyMoves[chosen];
+			board.makeMove(plyMoves[chosen]);
+		}
+		for (int i = 0; i < length; i++) {
+			board.unmakeMove();
+		}
+		int[] output = new int[length];
+		System.arraycopy(line, 0, output, 0, length);
+		return output;
+	}
+
+	// hash table
+	private int index(long key, int plies) {
+		return (int) (key ^ (plies * 0x9E3779B97F4A7C15L)) & tableMask;
+	}
+
+	/**
+	 * Finds the table entry for a position and remaining depth.
+	 *
+	 * @return the index of the entry, or -1 if it is not stored
+	 */
+	private int probe(long key, int plies) {
+		int index = index(key, plies);
+		return tableKeys[index] == key && tableDepth[index] == plies ? index : -1;
+	}
+
+	private void store(long key, int plies, int phi, int delta) {
+		int index = index(key, plies);
+		tableKeys[index] = key;
+		tableDepth[index] = (byte) plies;
+		tablePhi[index] = phi;
+		tableDelta[index] = delta;
+	}
+
+	/**
+	 * Replays a mating line on a Board as a chain of quickmoves, checking each
+	 * attacking move gives check and the final position is checkmate. Every move
+	 * must be one the game allows.
+	 */
+	private static boolean confirmOnBoard(Board board, ChessColor attacker, int[] line) {
+		ChessColor defender = attacker.getOppositeColor();
+		Board current = board;
+		for (int i = 0; i < line.length; i++) {
+			if (!Move.isGameMove(line[i])) {
+				return false;
+			}
+			current = current.getQuickMove(Move.toTurn(line[i]));
+			if ((i & 1) == 0 && !current.isInCheck(defender)) {
+				return false;
+			}
+		}
+		return current.isCheckMate(defender);
+	}
+}
@@ -0,0 +1,77 @@
+package engine;
+
+/**
+ * Result of a MonteCarloSearch: the chosen move, its estimated win chance and
+ * the number of playouts each thread performed.
+ */
+public class MonteCarloResult {
+	private final int bestMove;
+	private final int winPercent;
+	private final long[] playoutsPerThread;
+	private final long elapsedMillis;
+
+	/**
+	 * Creates a new MonteCarloResult.
+	 *
+	 * @param bestMove          the chosen move, or Move.NONE if there are no
+	 *                          legal moves
+	 * @param winPercent        the estimated chance that the move wins, counting
+	 *                          draws as half, from 0 to 100
+	 * @param playoutsPerThread the playouts performed by each thread
+	 * @param elapsedMillis     the time taken by the search
+	 */
+	public MonteCarloResult(int bestMove, int winPercent, long[] playoutsPerThread, long elapsedMillis) {
+		this.bestMove = bestMove;
+		this.winPercent = winPercent;
+		this.playoutsPerThread = playoutsPerThread;
+		this.elapsedMillis = elapsedMillis;
+	}
+
+	public int getBestMove() {
+		return bestMove;
+	}
+
+	public int getWinPercent() {
+		return winPercent;
+	}
+
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+
+	/**
+	 * Returns the total number of playouts over all threads.
+	 */
+	public long getPlayouts() {
+		long total = 0;
+		for (long playouts : playoutsPerThread) {
+			total += playouts;
+		}
+		return total;
+	}
+
+	/**
+	 * Returns the playout rate of each thread, in playouts per second.
+	 */
+	public double[] getPlayoutsPerSecondPerThread() {
+		double[] output = new double[playoutsPerThread.length];
+		for (int i = 0; i < output.length; i++) {
+			output[i] = playoutsPerThread[i] * 1000.0 / Math.max(1, elapsedMillis);
+		}
+		return output;
+	}
+
+	/**
+	 * Returns the result as a String, in the format "e2e4 win 54% playouts 80000
+	 * time 1000ms per thread [20000/s, 20000/s, ...]"
+	 */
+	public String toString() {
+		String output = Move.toString(bestMove) + " win " + winPercent + "% playouts " + getPlayouts() + " time "
+				+ elapsedMillis + "ms per thread [";
+		double[] rates = getPlayoutsPerSecondPerThread();
+		for (int i = 0; i < rates.length; i++) {
+			output += (i > 0 ? ", " : "") + Math.round(rates[i]) + "/s";
+		}
+		return output + "]";
+	}
+}
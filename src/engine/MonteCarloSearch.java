@@ -0,0 +1,465 @@
+package engine;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import board.Board;
+import board.ChessColor;
+
+/**
+ * Monte Carlo tree search over an EngineBoard. Several threads grow one shared
+ * tree: each selects a path by UCT, expands the leaf, plays a fast random game
+ * from it and backs the result up the path. Tree nodes are updated only with
+ * atomic operations, so no locks are taken. While a thread is below a node it
+ * adds a virtual loss to it, steering the other threads down different paths.
+ *
+ * Playouts use the engine's pseudo-legal move generator with a light policy
+ * that favors captures, rather than testing candidate moves with
+ * MoveRule.isValidMove.
+ *
+ * An EngineBoard is searched under full chess rules. A search of a Board keeps
+ * to the game's rules instead, which have no castling, en passant or
+ * promotion. A pawn move to the last rank is left out of such a search, as the
+ * game lets the pawn stay a pawn there and an EngineBoard cannot represent it.
+ */
+public class MonteCarloSearch {
+	/**
+	 * values are stored as integers, with a win worth VALUE_SCALE
+	 */
+	private static final int VALUE_SCALE = 1000;
+	private static final int DRAW_VALUE = VALUE_SCALE / 2;
+	/**
+	 * number of losses added to a node while a thread is searching below it
+	 */
+	private static final int VIRTUAL_LOSS = 3;
+	/**
+	 * length after which a playout is stopped and the position evaluated
+	 */
+	private static final int MAX_PLAYOUT_PLIES = 32;
+	/**
+	 * chance that a playout move is chosen from the captures only
+	 */
+	private static final double CAPTURE_BIAS = 0.5;
+	/**
+	 * centipawn scale of the logistic mapping an evaluation to a win chance
+	 */
+	private static final double EVALUATION_SCALE = 400.0;
+	private static final double DEFAULT_EXPLORATION = 1.4;
+
+	private final EngineBoard rootBoard;
+	private final int threadCount;
+	private final double exploration;
+	/**
+	 * whether only moves the game allows are played, for positions from a Board
+	 */
+	private final boolean gameRules;
+
+	private volatile boolean stopped;
+
+	/**
+	 * Creates a search over the position using one thread per available core.
+	 *
+	 * @param board the position to search, which is not modified
+	 */
+	public MonteCarloSearch(EngineBoard board) {
+		this(board, Runtime.getRuntime().availableProcessors(), DEFAULT_EXPLORATION);
+	}
+
+	/**
+	 * Creates a search over the position.
+	 *
+	 * @param board       the position to search, which is not modified
+	 * @param threadCount the number of threads performing playouts
+	 * @param exploration the UCT exploration constant; higher values spread the
+	 *                    playouts more evenly over the moves
+	 */
+	public MonteCarloSearch(EngineBoard board, int threadCount, double exploration) {
+		this(board, threadCount, exploration, false);
+	}
+
+	/**
+	 * Creates a search over a Board under the game's rules using one thread per
+	 * available core.
+	 *
+	 * @param board      the position to search, which is not modified
+	 * @param sideToMove the color to move
+	 * @throws IllegalArgumentException if a pawn stands on the first or last rank
+	 */
+	public MonteCarloSearch(Board board, ChessColor sideToMove) {
+		this(board, sideToMove, Runtime.getRuntime().availableProcessors(), DEFAULT_EXPLORATION);
+	}
+
+	/**
+	 * Creates a search over a Board under the game's rules.
+	 *
+	 * @param board       the position to search, which is not modified
+	 * @param sideToMove  the color to move
+	 * @param threadCount the number of threads performing playouts
+	 * @param exploration the UCT exploration constant; higher values spread the
+	 *                    playouts more evenly over the moves
+	 * @throws IllegalArgumentException if a pawn stands on the first or last rank
+	 */
+	public MonteCarloSearch(Board board, ChessColor sideToMove, int threadCount, double exploration) {
+		this(toEngineBoard(board, sideToMove), threadCount, exploration, true);
+	}
+
+	private MonteCarloSearch(EngineBoard board, int threadCount, double exploration, boolean gameRules) {
+		if (threadCount < 1) {
+			throw new IllegalArgumentException("At least one thread is required");
+		}
+		this.rootBoard = board;
+		this.threadCount = threadCount;
+		this.exploration = exploration;
+		this.gameRules = gameRules;
+	}
+
+	private static EngineBoard toEngineBoard(Board board, ChessColor sideToMove) {
+		if (EngineBoard.hasPawnOnBackRank(board)) {
+			throw new IllegalArgumentException("A pawn on the first or last rank cannot be searched");
+		}
+		return EngineBoard.fromBoard(board, sideToMove);
+	}
+
+	/**
+	 * Searches until the playout budget or the time limit runs out and returns
+	 * the move played most often.
+	 *
+	 * @param maxPlayouts the total number of playouts over all threads, or 0 for
+	 *                    no limit
+	 * @param timeMillis  the time limit in milliseconds, or 0 for no limit
+	 * @return the chosen move and playout statistics
+	 */
+	public MonteCarloResult search(long maxPlayouts, long timeMillis) {
+		return search(maxPlayouts, timeMillis, 0, new SplittableRandom());
+	}
+
+	/**
+	 * Searches until the playout budget or the time limit runs out. With a
+	 * temperature above zero the move is sampled in proportion to its playout
+	 * count raised to 1 / temperature, giving varied play between games; at zero
+	 * the move played most often is always chosen.
+	 *
+	 * @param maxPlayouts the total number of playouts over all threads, or 0 for
+	 *                    no limit
+	 * @param timeMillis  the time limit in milliseconds, or 0 for no limit
+	 * @param temperature how strongly to vary the chosen move
+	 * @param random      source of randomness for choosing the move
+	 * @return the chosen move and playout statistics
+	 */
+	public MonteCarloResult search(long maxPlayouts, long timeMillis, double temperature, SplittableRandom random) {
+		if (maxPlayouts <= 0 && timeMillis <= 0) {
+			throw new IllegalArgumentException("A playout budget or time limit is required");
+		}
+		Node root = new Node(Move.NONE);
+		EngineBoard rootCopy = rootBoard.copy();
+		int[] moveBuffer = new int[EngineBoard.MAX_MOVES];
+		if (!root.expand(rootCopy, moveBuffer, gameRules)) {
+			// no legal moves, nothing to search
+			return new MonteCarloResult(Move.NONE, 0, new long[threadCount], 0);
+		}
+
+		long start = System.currentTimeMillis();
+		long deadline = timeMillis > 0 ? start + timeMillis : Long.MAX_VALUE;
+		long perThreadBudget = maxPlayouts > 0 ? Math.max(1, maxPlayouts / threadCount) : Long.MAX_VALUE;
+		long[] playouts = new long[threadCount];
+		stopped = false;
+		Thread[] workers = new Thread[threadCount];
+		for (int i = 0; i < threadCount; i++) {
+			final int index = i;
+			final long seed = random.nextLong();
+			workers[i] = new Thread(() -> {
+				Worker worker = new Worker(root, rootBoard.copy(), seed);
+				while (!stopped && playouts[index] < perThreadBudget) {
+					worker.playout();
+					playouts[index]++;
+					if ((playouts[index] & 63) == 0 && System.currentTimeMillis() >= deadline) {
+						break;
+					}
+				}
+			}, "mcts-" + i);
+			workers[i].start();
+		}
+		for (Thread worker : workers) {
+			try {
+				worker.join();
+			} catch (InterruptedException e) {
+				stopped = true;
+				Thread.currentThread().interrupt();
+			}
+		}
+		long elapsed = System.currentTimeMillis() - start;
+
+		Node chosen = chooseChild(root, temperature, random);
+		int winChance = chosen.visits > 0 ? (int) (chosen.value / chosen.visits) : DRAW_VALUE;
+		return new MonteCarloResult(chosen.move, winChance * 100 / VALUE_SCALE, playouts, elapsed);
+	}
+
+	/**
+	 * Stops a search running on another thread.
+	 */
+	public void stop() {
+		stopped = true;
+	}
+
+	/**
+	 * Chooses the move to play from the root's children by playout count.
+	 */
+	private Node chooseChild(Node root, double temperature, SplittableRandom random) {
+		Node[] children = root.children;
+		Node best = children[0];
+		for (Node child : children) {
+			if (child.visits > best.visits) {
+				best = child;
+			}
+		}
+		if (temperature <= 0) {
+			return best;
+		}
+		double[] weights = new double[children.length];
+		double total = 0;
+		for (int i = 0; i < children.length; i++) {
+			// relative to the best count, so that large counts cannot overflow
+			weights[i] = Math.pow((double) children[i].visits / Math.max(1, best.visits), 1.0 / temperature);
+			total += weights[i];
+		}
+		double target = random.nextDouble() * total;
+		for (int i = 0; i < children.length; i++) {
+			target -= weights[i];
+			if (target <= 0) {
+				return children[i];
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Performs playouts for one thread, with its own copy of the board.
+	 */
+	private class Worker {
+		private final Node root;
+		private final EngineBoard board;
+		private final SplittableRandom random;
+		private final Evaluator evaluator = new Evaluator();
+		private final int[] moves = new int[EngineBoard.MAX_MOVES];
+		private final int[] captures = new int[EngineBoard.MAX_MOVES];
+		private final Node[] path = new Node[Search.MAX_PLY + MAX_PLAYOUT_PLIES];
+
+		Worker(Node root, EngineBoard board, long seed) {
+			this.root = root;
+			this.board = board;
+			this.random = new SplittableRandom(seed);
+		}
+
+		/**
+		 * Selects, expands, plays out and backs up once.
+		 */
+		void playout() {
+			int startPly = board.getPly();
+			int length = 0;
+			Node node = root;
+			// selection
+			Node[] children = node.children;
+			while (children != null && children.length > 0 && length < path.length - 1) {
+				node = select(node, children);
+				node.addVirtualLoss();
+				path[length++] = node;
+				board.makeMove(node.move);
+				children = node.children;
+			}
+			// expansion of a leaf that has been visited before
+			if (children == null && node.visits > 0 && node.expand(board, moves, gameRules)) {
+				children = node.children;
+				node = children[random.nextInt(children.length)];
+				node.addVirtualLoss();
+				path[length++] = node;
+				board.makeMove(node.move);
+				children = node.children;
+			}
+			// simulation, scored for the side to move at the leaf
+			int result;
+			if (children != null && children.length == 0) {
+				result = board.inCheck() ? 0 : DRAW_VALUE;
+			} else {
+				result = simulate();
+			}
+			while (board.getPly() > startPly) {
+				board.unmakeMove();
+			}
+			// backpropagation, each node scored for the side that moved into it
+			for (int i = length - 1; i >= 0; i--) {
+				result = VALUE_SCALE - result;
+				path[i].removeVirtualLoss();
+				path[i].update(result);
+			}
+			root.update(VALUE_SCALE - result);
+		}
+
+		/**
+		 * Selects the child with the highest upper confidence bound, counting
+		 * virtual losses as visits that were lost.
+		 */
+		private Node select(Node parent, Node[] children) {
+			double logVisits = Math.log(Math.max(1, parent.visits + parent.virtualLoss));
+			Node best = null;
+			double bestScore = Double.NEGATIVE_INFINITY;
+			for (Node child : children) {
+				int visits = child.visits + child.virtualLoss;
+				double score;
+				if (visits == 0) {
+					// unvisited children first, in random order
+					score = Double.MAX_VALUE * random.nextDouble();
+				} else {
+					score = (double) child.value / (VALUE_SCALE * (double) visits)
+							+ exploration * Math.sqrt(logVisits / visits);
+				}
+				if (score > bestScore) {
+					bestScore = score;
+					best = child;
+				}
+			}
+			return best;
+		}
+
+		/**
+		 * Plays random moves from the current position until the game ends or the
+		 * playout limit is reached.
+		 *
+		 * @return value of the final position for the side to move at the start
+		 */
+		private int simulate() {
+			int startColor = board.getSideToMove();
+			int startPly = board.getPly();
+			int result = -1;
+			for (int ply = 0; ply < MAX_PLAYOUT_PLIES; ply++) {
+				if (board.getHalfmoveClock() >= 100 || board.isRepetition()) {
+					result = DRAW_VALUE;
+					break;
+				}
+				if (!playRandomMove()) {
+					// no legal move: checkmate is a loss for the side to move
+					result = board.inCheck() ? 0 : DRAW_VALUE;
+					break;
+				}
+			}
+			if (result < 0) {
+				double winChance = 1 / (1 + Math.exp(-evaluator.evaluate(board) / EVALUATION_SCALE));
+				result = (int) (winChance * VALUE_SCALE);
+			}
+			if (board.getSideToMove() != startColor) {
+				result = VALUE_SCALE - result;
+			}
+			while (board.getPly() > startPly) {
+				board.unmakeMove();
+			}
+			return result;
+		}
+
+		/**
+		 * Makes a random legal move, preferring captures.
+		 *
+		 * @return false if there is no legal move
+		 */
+		private boolean playRandomMove() {
+			if (random.nextDouble() < CAPTURE_BIAS) {
+				int captureCount = board.generateCaptures(captures, 0);
+				if (makeRandomMove(captures, captureCount)) {
+					return true;
+				}
+			}
+			return makeRandomMove(moves, board.generateMoves(moves, 0));
+		}
+
+		/**
+		 * Tries the moves in random order until one is legal, removing illegal
+		 * moves, and under the game's rules moves the game does not allow, as they
+		 * are found.
+		 */
+		private boolean makeRandomMove(int[] candidates, int count) {
+			while (count > 0) {
+				int index = random.nextInt(count);
+				if ((!gameRules || Move.isGameMove(candidates[index])) && board.makeMove(candidates[index])) {
+					return true;
+				}
+				candidates[index] = candidates[--count];
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Node of the shared search tree. Children are published once with a
+	 * compare-and-set; statistics are updated with atomic adds.
+	 */
+	static final class Node {
+		private static final AtomicReferenceFieldUpdater<Node, Node[]> CHILDREN = AtomicReferenceFieldUpdater
+				.newUpdater(Node.class, Node[].class, "children");
+		private static final AtomicIntegerFieldUpdater<Node> VISITS = AtomicIntegerFieldUpdater
+				.newUpdater(Node.class, "visits");
+		private static final AtomicIntegerFieldUpdater<Node> VIRTUAL_LOSSES = AtomicIntegerFieldUpdater
+				.newUpdater(Node.class, "virtualLoss");
+		private static final AtomicLongFieldUpdater<Node> VALUE = AtomicLongFieldUpdater.newUpdater(Node.class,
+				"value");
+
+		/**
+		 * the move leading to this node
+		 */
+		final int move;
+		/**
+		 * null until expanded, empty if the position has no legal moves
+		 */
+		volatile Node[] children;
+		volatile int visits;
+		volatile int virtualLoss;
+		/**
+		 * sum of playout results for the side that made the move
+		 */
+		volatile long value;
+
+		Node(int move) {
+			this.move = move;
+		}
+
+		/**
+		 * Creates the children of the node from the legal moves on the board, unless
+		 * another thread has already done so.
+		 *
+		 * @param gameRules whether to leave out moves the game does not allow
+		 * @return true if the node has at least one child
+		 */
+		boolean expand(EngineBoard board, int[] moveBuffer, boolean gameRules) {
+			if (children == null) {
+				int end = board.generateLegalMoves(moveBuffer);
+				int count = 0;
+				for (int i = 0; i < end; i++) {
+					if (!gameRules || Move.isGameMove(moveBuffer[i])) {
+						moveBuffer[count++] = moveBuffer[i];
+					}
+				}
+				Node[] created = new Node[count];
+				for (int i = 0; i < count; i++) {
+					created[i] = new Node(moveBuffer[i]);
+				}
+				CHILDREN.compareAndSet(this, null, created);
+			}
+			return children.length > 0;
+		}
+
+		void addVirtualLoss() {
+			VIRTUAL_LOSSES.addAndGet(this, VIRTUAL_LOSS);
+		}
+
+		void removeVirtualLoss() {
+			VIRTUAL_LOSSES.addAndGet(this, -VIRTUAL_LOSS);
+		}
+
+		/**
+		 * Records the result of a playout through this node.
+		 */
+		void update(int result) {
+			VALUE.addAndGet(this, result);
+			VISITS.incrementAndGet(this);
+		}
+	}
+}
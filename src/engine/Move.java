@@ -0,0 +1,127 @@
+package engine;
+
+import game.Position;
+import game.Turn;
+
+/**
+ * Static helpers for the compact move encoding used by the engine. A move is
+ * stored in the low 16 bits of an int: 6 bits for the from square, 6 bits for
+ * the to square and 4 bits of flags describing the kind of move. Square indices
+ * are those returned by Position.getSquareIndex.
+ *
+ * The value 0 (a1 to a1) can never be a real move, and is used as NONE.
+ */
+public final class Move {
+	/**
+	 * stands in for "no move"
+	 */
+	public static final int NONE = 0;
+
+	// move flags, stored in the top 4 bits of the move
+	public static final int QUIET = 0;
+	public static final int DOUBLE_PAWN_PUSH = 1;
+	public static final int KING_CASTLE = 2;
+	public static final int QUEEN_CASTLE = 3;
+	public static final int CAPTURE = 4;
+	public static final int EN_PASSANT = 5;
+	public static final int KNIGHT_PROMOTION = 8;
+	public static final int BISHOP_PROMOTION = 9;
+	public static final int ROOK_PROMOTION = 10;
+	public static final int QUEEN_PROMOTION = 11;
+	public static final int KNIGHT_PROMOTION_CAPTURE = 12;
+	public static final int BISHOP_PROMOTION_CAPTURE = 13;
+	public static final int ROOK_PROMOTION_CAPTURE = 14;
+	public static final int QUEEN_PROMOTION_CAPTURE = 15;
+
+	private static final int SQUARE_MASK = 0x3F;
+	private static final int TO_SHIFT = 6;
+	private static final int FLAG_SHIFT = 12;
+	private static final int CAPTURE_BIT = 4;
+	private static final int PROMOTION_BIT = 8;
+
+	private Move() {
+	}
+
+	/**
+	 * Encodes a move.
+	 *
+	 * @param from the square index the piece moves from
+	 * @param to   the square index the piece moves to
+	 * @param flag one of the flag constants of this class
+	 * @return the encoded move
+	 */
+	public static int encode(int from, int to, int flag) {
+		return from | (to << TO_SHIFT) | (flag << FLAG_SHIFT);
+	}
+
+	public static int getFrom(int move) {
+		return move & SQUARE_MASK;
+	}
+
+	public static int getTo(int move) {
+		return (move >>> TO_SHIFT) & SQUARE_MASK;
+	}
+
+	public static int getFlag(int move) {
+		return (move >>> FLAG_SHIFT) & 0xF;
+	}
+
+	/**
+	 * Whether the move removes an opposing piece, including en passant.
+	 */
+	public static boolean isCapture(int move) {
+		return (getFlag(move) & CAPTURE_BIT) != 0;
+	}
+
+	public static boolean isPromotion(int move) {
+		return (getFlag(move) & PROMOTION_BIT) != 0;
+	}
+
+	public static boolean isCastle(int move) {
+		int flag = getFlag(move);
+		return flag == KING_CASTLE || flag == QUEEN_CASTLE;
+	}
+
+	/**
+	 * Whether the game allows the move. The game has no castling, en passant or
+	 * promotion, so a search of a position from a Board plays only these moves.
+	 */
+	public static boolean isGameMove(int move) {
+		return !isPromotion(move) && !isCastle(move) && getFlag(move) != EN_PASSANT;
+	}
+
+	/**
+	 * Returns the engine piece type a promotion move promotes to.
+	 *
+	 * @param move a promotion move
+	 * @return EngineBoard.KNIGHT, BISHOP, ROOK or QUEEN
+	 */
+	public static int getPromotionType(int move) {
+		return EngineBoard.KNIGHT + (getFlag(move) & 3);
+	}
+
+	/**
+	 * Converts the move to a Turn, dropping the flags.
+	 *
+	 * @param move the move to convert
+	 * @return Turn with the from and to positions of the move
+	 */
+	public static Turn toTurn(int move) {
+		return new Turn(Position.fromSquareIndex(getFrom(move)), Position.fromSquareIndex(getTo(move)));
+	}
+
+	/**
+	 * Returns the move in coordinate notation, such as "e2e4" or "e7e8q".
+	 */
+	public static String toString(int move) {
+		if (move == NONE) {
+			return "0000";
+		}
+		String output = Position.fromSquareIndex(getFrom(move)).getAlgebraicNotation()
+				+ Position.fromSquareIndex(getTo(move)).getAlgebraicNotation();
+		if (isPromotion(move)) {
+			output += "nbrq".charAt(getFlag(move) & 3);
+		}
+		return output;
+	}
+}
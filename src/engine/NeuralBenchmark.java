@@ -0,0 +1,91 @@
+package engine;
+
+import java.io.IOException;
+import java.util.SplittableRandom;
+
+/**
+ * Measures NeuralNetwork evaluation speed in evaluations per second, updating
+ * the accumulator incrementally through make and unmake and, for comparison,
+ * refreshing it from the whole board before every evaluation. The time spent
+ * choosing and making the moves alone is measured too, and subtracted.
+ *
+ * Usage: NeuralBenchmark [weight file]. Without a weight file a network of
+ * random weights with 256 hidden units is used.
+ */
+public class NeuralBenchmark {
+	private static final int EVALUATIONS = 500_000;
+	private static final int WALK_LENGTH = 40;
+
+	public static void main(String[] args) throws IOException {
+		NeuralNetwork network = args.length > 0 ? NeuralNetwork.load(args[0])
+				: NeuralNetwork.random(256, 32, 32, 1);
+		System.out.println("hidden size " + network.getHiddenSize() + ", dense layers "
+				+ (NeuralNetwork.isVectorized() ? "on the Vector API" : "scalar"));
+		// the first runs warm up the JIT compiler
+		for (int round = 0; round < 2; round++) {
+			run(network, false, false, EVALUATIONS / 4);
+			run(network, true, true, EVALUATIONS / 4);
+			run(network, true, false, EVALUATIONS / 4);
+		}
+		long moves = run(network, false, false, EVALUATIONS);
+		System.out.printf("%-12s %6d ms%n", "moves only", moves / 1_000_000);
+		report("incremental", run(network, true, true, EVALUATIONS) - moves);
+		report("refresh", run(network, true, false, EVALUATIONS) - moves);
+	}
+
+	/**
+	 * Plays random walks from the starting position, evaluating after every
+	 * move, and unmakes each walk once it reaches its length or a position with
+	 * no legal moves.
+	 *
+	 * @param evaluate    whether to evaluate at all, or only make moves
+	 * @param incremental whether the accumulator is attached to the board or
+	 *                    refreshed before each evaluation
+	 * @return elapsed nanoseconds
+	 */
+	private static long run(NeuralNetwork network, boolean evaluate, boolean incremental, int evaluations) {
+		EngineBoard board = new EngineBoard();
+		Accumulator accumulator = new Accumulator(network);
+		if (evaluate && incremental) {
+			board.setAccumulator(accumulator);
+		}
+		SplittableRandom random = new SplittableRandom(7);
+		int[] moves = new int[EngineBoard.MAX_MOVES];
+		long checksum = 0;
+		long start = System.nanoTime();
+		int done = 0;
+		while (done < evaluations) {
+			int made = 0;
+			while (made < WALK_LENGTH && done < evaluations) {
+				int count = board.generateLegalMoves(moves);
+				if (count == 0) {
+					break;
+				}
+				board.makeMove(moves[random.nextInt(count)]);
+				made++;
+				done++;
+				if (!evaluate) {
+					continue;
+				}
+				if (!incremental) {
+					accumulator.refresh(board);
+				}
+				checksum += network.evaluate(accumulator, board.getSideToMove());
+			}
+			for (int i = 0; i < made; i++) {
+				board.unmakeMove();
+			}
+		}
+		long elapsed = System.nanoTime() - start;
+		if (checksum == Long.MIN_VALUE) {
+			// keeps the evaluations from being optimized away
+			System.out.println(checksum);
+		}
+		return elapsed;
+	}
+
+	private static void report(String name, long elapsedNanos) {
+		long perSecond = EVALUATIONS * 1_000_000_000L / Math.max(1, elapsedNanos);
+		System.out.printf("%-12s %6d ms %8d evals/s%n", name, elapsedNanos / 1_000_000, perSecond);
+	}
+}
@@ -0,0 +1,38 @@
+package engine;
+
+/**
+ * Evaluator that scores positions with a NeuralNetwork instead of hand-written
+ * terms. The first time it sees a board it attaches an Accumulator for its
+ * network, after which the board keeps the accumulator up to date through its
+ * moves and each evaluation only runs the small layers after it. Like
+ * Evaluator, a NeuralEvaluator is not thread-safe; each search thread should
+ * use its own board.
+ */
+public class NeuralEvaluator extends Evaluator {
+	private final NeuralNetwork network;
+
+	/**
+	 * Creates an evaluator for a network.
+	 *
+	 * @param network the network to evaluate with
+	 */
+	public NeuralEvaluator(NeuralNetwork network) {
+		// the network scores pawn structure itself, so the pawn table is unused
+		super(new PawnTable(1));
+		this.network = network;
+	}
+
+	public NeuralNetwork getNetwork() {
+		return network;
+	}
+
+	@Override
+	public int evaluate(EngineBoard board) {
+		Accumulator accumulator = board.getAccumulator();
+		if (accumulator == null || accumulator.getNetwork() != network) {
+			accumulator = new Accumulator(network);
+			board.setAccumulator(accumulator);
+		}
+		return network.evaluate(accumulator, board.getSideToMove());
+	}
+}
@@ -0,0 +1,380 @@
+package engine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.SplittableRandom;
+
+/**
+ * Quantized weights of an efficiently updatable neural evaluation (NNUE).
+ *
+ * The first layer maps each (piece, square) feature to a column of 16-bit
+ * weights. Its output, the accumulator, is kept up to date by adding and
+ * subtracting columns as pieces move (see Accumulator), once from white's point
+ * of view and once from black's. The two halves, side to move first, pass
+ * through a clipped ReLU into two small 8-bit layers and a single output.
+ *
+ * Weight file format, all values big-endian: the magic number "NNUE", a format
+ * version, the hidden, first and second layer sizes, then the feature weights
+ * and biases (int16), each dense layer's weights (int8, all outputs for the
+ * first input, then for the second and so on) and biases (int32), and the
+ * output weights (int8) and bias (int32).
+ *
+ * The dense layers run on the Vector API (see VectorDenseKernel, in the
+ * separately compiled src-vector source root) when that class was built and
+ * the jdk.incubator.vector module is present, and on plain loops otherwise.
+ */
+public class NeuralNetwork {
+	/**
+	 * number of input features from one point of view: 12 pieces on 64 squares
+	 */
+	public static final int FEATURES = 12 * 64;
+
+	private static final int MAGIC = 0x4E4E5545;
+	private static final int VERSION = 1;
+	/**
+	 * largest value passed on by the clipped ReLU, the 8-bit range of the inputs
+	 * to the next layer
+	 */
+	private static final int CLIP = 127;
+	/**
+	 * right shift applied to dense layer sums before clipping
+	 */
+	private static final int LAYER_SHIFT = 6;
+	/**
+	 * divisor turning the output sum into centipawns
+	 */
+	private static final int OUTPUT_SCALE = 16;
+	/**
+	 * largest accumulator size accepted from a weight file
+	 */
+	private static final int MAX_HIDDEN_SIZE = 4096;
+	/**
+	 * largest dense layer size accepted from a weight file
+	 */
+	private static final int MAX_LAYER_SIZE = 1024;
+	private static final String VECTOR_MODULE = "jdk.incubator.vector";
+	/**
+	 * the Vector API kernel, named rather than referred to so that this class
+	 * compiles and loads without the module or the src-vector source root
+	 */
+	private static final String VECTOR_KERNEL = "engine.VectorDenseKernel";
+	private static final DenseKernel DENSE_KERNEL = loadDenseKernel();
+
+	private final int hiddenSize;
+	private final int layer1Size;
+	private final int layer2Size;
+	final short[] featureWeights;
+	final short[] featureBiases;
+	private final byte[] layer1Weights;
+	private final int[] layer1Biases;
+	private final byte[] layer2Weights;
+	private final int[] layer2Biases;
+	private final byte[] outputWeights;
+	private final int outputBias;
+
+	private NeuralNetwork(int hiddenSize, int layer1Size, int layer2Size, short[] featureWeights,
+			short[] featureBiases, byte[] layer1Weights, int[] layer1Biases, byte[] layer2Weights, int[] layer2Biases,
+			byte[] outputWeights, int outputBias) {
+		this.hiddenSize = hiddenSize;
+		this.layer1Size = layer1Size;
+		this.layer2Size = layer2Size;
+		this.featureWeights = featureWeights;
+		this.featureBiases = featureBiases;
+		this.layer1Weights = layer1Weights;
+		this.layer1Biases = layer1Biases;
+		this.layer2Weights = layer2Weights;
+		this.layer2Biases = layer2Biases;
+		this.outputWeights = outputWeights;
+		this.outputBias = outputBias;
+	}
+
+	/**
+	 * Creates a network with small random weights, for measuring speed and for
+	 * testing without a trained weight file.
+	 *
+	 * @param hiddenSize the accumulator size for each point of view
+	 * @param layer1Size the size of the first dense layer
+	 * @param layer2Size the size of the second dense layer
+	 * @param seed       seed for the random weights
+	 * @return network with random weights
+	 */
+	public static NeuralNetwork random(int hiddenSize, int layer1Size, int layer2Size, long seed) {
+		SplittableRandom random = new SplittableRandom(seed);
+		short[] featureWeights = new short[FEATURES * hiddenSize];
+		for (int i = 0; i < featureWeights.length; i++) {
+			featureWeights[i] = (short) random.nextInt(-8, 9);
+		}
+		short[] featureBiases = new short[hiddenSize];
+		for (int i = 0; i < hiddenSize; i++) {
+			featureBiases[i] = (short) random.nextInt(0, 32);
+		}
+		return new NeuralNetwork(hiddenSize, layer1Size, layer2Size, featureWeights, featureBiases,
+				randomBytes(random, 2 * hiddenSize * layer1Size), new int[layer1Size],
+				randomBytes(random, layer1Size * layer2Size), new int[layer2Size], randomBytes(random, layer2Size), 0);
+	}
+
+	private static byte[] randomBytes(SplittableRandom random, int length) {
+		byte[] output = new byte[length];
+		for (int i = 0; i < length; i++) {
+			output[i] = (byte) random.nextInt(-16, 17);
+		}
+		return output;
+	}
+
+	/**
+	 * Loads a network from a weight file.
+	 *
+	 * @param path the file to load
+	 * @return the network stored in the file
+	 * @throws IOException if the file cannot be read or is not a weight file
+	 */
+	public static NeuralNetwork load(String path) throws IOException {
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+			if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+				throw new IOException("Not a version " + VERSION + " weight file: " + path);
+			}
+			int hiddenSize = input.readInt();
+			int layer1Size = input.readInt();
+			int layer2Size = input.readInt();
+			if (hiddenSize <= 0 || hiddenSize > MAX_HIDDEN_SIZE || layer1Size <= 0 || layer1Size > MAX_LAYER_SIZE
+					|| layer2Size <= 0 || layer2Size > MAX_LAYER_SIZE) {
+				throw new IOException("Invalid layer sizes in weight file: " + path);
+			}
+			// checked before any array is allocated, so a damaged header cannot ask
+			// for more memory than the file could fill
+			long expected = fileLength(hiddenSize, layer1Size, layer2Size);
+			long actual = new File(path).length();
+			if (actual != expected) {
+				throw new IOException("Weight file " + path + " should be " + expected + " bytes for its layer sizes, not "
+						+ actual);
+			}
+			short[] featureWeights = readShorts(input, FEATURES * hiddenSize);
+			short[] featureBiases = readShorts(input, hiddenSize);
+			byte[] layer1Weights = readBytes(input, 2 * hiddenSize * layer1Size);
+			int[] layer1Biases = readInts(input, layer1Size);
+			byte[] layer2Weights = readBytes(input, layer1Size * layer2Size);
+			int[] layer2Biases = readInts(input, layer2Size);
+			byte[] outputWeights = readBytes(input, layer2Size);
+			int outputBias = input.readInt();
+			return new NeuralNetwork(hiddenSize, layer1Size, layer2Size, featureWeights, featureBiases, layer1Weights,
+					layer1Biases, layer2Weights, layer2Biases, outputWeights, outputBias);
+		}
+	}
+
+	/**
+	 * Returns the size in bytes of a weight file holding layers of these sizes.
+	 */
+	private static long fileLength(long hiddenSize, long layer1Size, long layer2Size) {
+		return 5 * Integer.BYTES + 2 * (FEATURES * hiddenSize + hiddenSize) + 2 * hiddenSize * layer1Size
+				+ Integer.BYTES * layer1Size + layer1Size * layer2Size + Integer.BYTES * layer2Size + layer2Size
+				+ Integer.BYTES;
+	}
+
+	/**
+	 * Writes the network to a weight file that load can read.
+	 *
+	 * @param path the file to write
+	 * @throws IOException if the file cannot be written
+	 */
+	public void save(String path) throws IOException {
+		try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)))) {
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			output.writeInt(hiddenSize);
+			output.writeInt(layer1Size);
+			output.writeInt(layer2Size);
+			for (short value : featureWeights) {
+				output.writeShort(value);
+			}
+			for (short value : featureBiases) {
+				output.writeShort(value);
+			}
+			output.write(layer1Weights);
+			for (int value : layer1Biases) {
+				output.writeInt(value);
+			}
+			output.write(layer2Weights);
+			for (int value : layer2Biases) {
+				output.writeInt(value);
+			}
+			output.write(outputWeights);
+			output.writeInt(outputBias);
+		}
+	}
+
+	private static short[] readShorts(DataInputStream input, int length) throws IOException {
+		short[] output = new short[length];
+		for (int i = 0; i < length; i++) {
+			output[i] = input.readShort();
+		}
+		return output;
+	}
+
+	private static byte[] readBytes(DataInputStream input, int length) throws IOException {
+		byte[] output = new byte[length];
+		input.readFully(output);
+		return output;
+	}
+
+	private static int[] readInts(DataInputStream input, int length) throws IOException {
+		int[] output = new int[length];
+		for (int i = 0; i < length; i++) {
+			output[i] = input.readInt();
+		}
+		return output;
+	}
+
+	public int getHiddenSize() {
+		return hiddenSize;
+	}
+
+	/**
+	 * Returns the input feature for a piece on a square, from the point of view
+	 * of one color. From black's point of view the board is flipped and the
+	 * colors swapped, so both points of view share the same weights.
+	 *
+	 * @param perspective the color whose point of view is used
+	 * @param piece       the engine piece code
+	 * @param square      the square index of the piece
+	 * @return feature index, from 0 to FEATURES - 1
+	 */
+	static int feature(int perspective, int piece, int square) {
+		int relativeColor = EngineBoard.colorOf(piece) ^ perspective;
+		int relativeSquare = perspective == EngineBoard.WHITE ? square : square ^ 56;
+		return ((relativeColor * 6) + EngineBoard.typeOf(piece) - 1) * 64 + relativeSquare;
+	}
+
+	/**
+	 * Adds a feature's weight column to an accumulator half.
+	 */
+	void addFeature(short[] values, int feature) {
+		int offset = feature * hiddenSize;
+		for (int i = 0; i < hiddenSize; i++) {
+			values[i] += featureWeights[offset + i];
+		}
+	}
+
+	/**
+	 * Subtracts a feature's weight column from an accumulator half.
+	 */
+	void subtractFeature(short[] values, int feature) {
+		int offset = feature * hiddenSize;
+		for (int i = 0; i < hiddenSize; i++) {
+			values[i] -= featureWeights[offset + i];
+		}
+	}
+
+	/**
+	 * Runs the layers after the accumulator.
+	 *
+	 * @param accumulator the up to date accumulator of the position
+	 * @param sideToMove  the color to move, whose half goes first
+	 * @return score in centipawns, positive if the side to move is better
+	 */
+	int evaluate(Accumulator accumulator, int sideToMove) {
+		byte[] input = accumulator.input;
+		clip(accumulator.getValues(sideToMove), input, 0);
+		clip(accumulator.getValues(sideToMove ^ 1), input, hiddenSize);
+		byte[] hidden1 = accumulator.hidden1;
+		byte[] hidden2 = accumulator.hidden2;
+		DENSE_KERNEL.dense(input, layer1Weights, layer1Biases, accumulator.sums, hidden1);
+		DENSE_KERNEL.dense(hidden1, layer2Weights, layer2Biases, accumulator.sums, hidden2);
+		int sum = outputBias;
+		for (int i = 0; i < hidden2.length; i++) {
+			sum += hidden2[i] * outputWeights[i];
+		}
+		return sum / OUTPUT_SCALE;
+	}
+
+	/**
+	 * Clipped ReLU of an accumulator half into 8-bit inputs.
+	 */
+	private void clip(short[] values, byte[] output, int offset) {
+		for (int i = 0; i < hiddenSize; i++) {
+			output[offset + i] = (byte) Math.min(Math.max(values[i], 0), CLIP);
+		}
+	}
+
+	/**
+	 * A dense 8-bit layer followed by a clipped ReLU. Weights are stored one
+	 * column of outputs per input, so each nonzero input adds a scaled column to
+	 * the 32-bit sums; inputs zeroed by the previous clipped ReLU are skipped.
+	 */
+	interface DenseKernel {
+		/**
+		 * Runs one layer.
+		 *
+		 * @param input   the 8-bit inputs
+		 * @param weights the weights, all outputs of the first input first
+		 * @param biases  the bias of each output
+		 * @param sums    scratch space of at least output.length ints
+		 * @param output  the 8-bit outputs to write
+		 */
+		void dense(byte[] input, byte[] weights, int[] biases, int[] sums, byte[] output);
+	}
+
+	/**
+	 * Returns the Vector API kernel if its module is present and it can be
+	 * loaded, and the scalar one otherwise.
+	 */
+	private static DenseKernel loadDenseKernel() {
+		if (ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent()) {
+			try {
+				return (DenseKernel) Class.forName(VECTOR_KERNEL).getDeclaredConstructor().newInstance();
+			} catch (ReflectiveOperationException | LinkageError e) {
+				// src-vector was not built, so the scalar loops are used
+			}
+		}
+		return NeuralNetwork::dense;
+	}
+
+	/**
+	 * Returns whether the dense layers run on the Vector API.
+	 */
+	static boolean isVectorized() {
+		return DENSE_KERNEL.getClass().getName().equals(VECTOR_KERNEL);
+	}
+
+	/**
+	 * The scalar dense layer, written as a simple loop the JIT compiler can
+	 * vectorize by itself.
+	 */
+	private static void dense(byte[] input, byte[] weights, int[] biases, int[] sums, byte[] output) {
+		int outputs = output.length;
+		System.arraycopy(biases, 0, sums, 0, outputs);
+		for (int i = 0; i < input.length; i++) {
+			int value = input[i];
+			if (value == 0) {
+				continue;
+			}
+			int offset = i * outputs;
+			for (int j = 0; j < outputs; j++) {
+				sums[j] += value * weights[offset + j];
+			}
+		}
+		clipSums(sums, output);
+	}
+
+	/**
+	 * Clipped ReLU of the 32-bit sums of a dense layer into its 8-bit outputs.
+	 */
+	static void clipSums(int[] sums, byte[] output) {
+		for (int j = 0; j < output.length; j++) {
+			output[j] = (byte) Math.min(Math.max(sums[j] >> LAYER_SHIFT, 0), CLIP);
+		}
+	}
+
+	int getLayer1Size() {
+		return layer1Size;
+	}
+
+	int getLayer2Size() {
+		return layer2Size;
+	}
+}
@@ -0,0 +1,223 @@
+package engine;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+/**
+ * Opening book in the Polyglot file layout, read through a memory map. The
+ * file is a sequence of 16-byte big-endian entries, sorted by key as unsigned
+ * numbers: the position key (8 bytes), the move (2), its weight (2) and a
+ * learning value (4, unused). Moves use the Polyglot encoding: the to file and
+ * row in bits 0-5, the from file and row in bits 6-11 and the promotion piece
+ * (1 knight to 4 queen) in bits 12-14, with castling written as the king
+ * taking its own rook.
+ *
+ * Keys are Polyglot's own position keys (see getKey), hashed with its
+ * published random numbers rather than this engine's Zobrist keys, so books
+ * made by other Polyglot tools can be read and books built by
+ * OpeningBookBuilder can be used by other programs.
+ *
+ * Probing is a binary search for the position's first entry, allocating
+ * nothing. An OpeningBook may be used by many threads at once.
+ */
+public class OpeningBook implements AutoCloseable {
+	public static final int ENTRY_SIZE = 16;
+
+	private final FileChannel channel;
+	private final MappedByteBuffer entries;
+	private final int entryCount;
+
+	/**
+	 * Opens a book.
+	 *
+	 * @param file the book file
+	 * @throws IOException if the file cannot be read or is not a book
+	 */
+	public OpeningBook(Path file) throws IOException {
+		channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			if (size % ENTRY_SIZE != 0 || size > Integer.MAX_VALUE) {
+				throw new IOException("Not an opening book: " + file);
+			}
+			entryCount = (int) (size / ENTRY_SIZE);
+			entries = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	public int getEntryCount() {
+		return entryCount;
+	}
+
+	/**
+	 * Finds the book moves for a position that are legal in it.
+	 *
+	 * @param board   the position
+	 * @param moves   array to write the moves into, in the engine encoding
+	 * @param weights array to write the weight of each move into
+	 * @return the number of moves written
+	 */
+	public int probe(EngineBoard board, int[] moves, int[] weights) {
+		long key = getKey(board);
+		int count = 0;
+		int[] legal = null;
+		int legalCount = 0;
+		for (int entry = firstEntry(key); entry < entryCount && keyAt(entry) == key && count < moves.length; entry++) {
+			if (legal == null) {
+				legal = new int[EngineBoard.MAX_MOVES];
+				legalCount = board.generateLegalMoves(legal);
+			}
+			int move = fromPolyglot(entries.getShort(entry * ENTRY_SIZE + 8) & 0xFFFF, legal, legalCount);
+			if (move != Move.NONE) {
+				moves[count] = move;
+				weights[count] = entries.getShort(entry * ENTRY_SIZE + 10) & 0xFFFF;
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Chooses a book move at random, each with a chance proportional to its
+	 * weight.
+	 *
+	 * @param board  the position
+	 * @param random source of the choice
+	 * @return the move in the engine encoding, or Move.NONE if the position is
+	 *         not in the book
+	 */
+	public int chooseMove(EngineBoard board, Random random) {
+		int[] moves = new int[EngineBoard.MAX_MOVES];
+		int[] weights = new int[EngineBoard.MAX_MOVES];
+		int count = probe(board, moves, weights);
+		long total = 0;
+		for (int i = 0; i < count; i++) {
+			total += weights[i];
+		}
+		if (total == 0) {
+			return count == 0 ? Move.NONE : moves[random.nextInt(count)];
+		}
+		long choice = (long) (random.nextDouble() * total);
+		for (int i = 0; i < count; i++) {
+			choice -= weights[i];
+			if (choice < 0) {
+				return moves[i];
+			}
+		}
+		return moves[count - 1];
+	}
+
+	/**
+	 * Returns the Polyglot key of a position: the random numbers of its pieces
+	 * on their squares, of its castling rights, of the en passant file if a pawn
+	 * of the side to move can capture en passant, and of white to move, all
+	 * combined by exclusive or.
+	 *
+	 * @param board the position
+	 * @return the key, as used in Polyglot books
+	 */
+	public static long getKey(EngineBoard board) {
+		long[] random = PolyglotRandom.RANDOM64;
+		long key = 0;
+		for (int square = 0; square < 64; square++) {
+			int piece = board.getPiece(square);
+			if (piece != EngineBoard.EMPTY) {
+				int kind = 2 * (EngineBoard.typeOf(piece) - EngineBoard.PAWN)
+						+ (EngineBoard.colorOf(piece) == EngineBoard.WHITE ? 1 : 0);
+				key ^= random[64 * kind + square];
+			}
+		}
+		int castling = board.getCastlingRights();
+		for (int right = 0; right < 4; right++) {
+			if ((castling & (1 << right)) != 0) {
+				key ^= random[PolyglotRandom.CASTLING + right];
+			}
+		}
+		int enPassant = board.getEnPassantSquare();
+		if (enPassant != EngineBoard.NO_SQUARE) {
+			// the capturing pawn stands beside the pawn that just moved two squares
+			int side = board.getSideToMove();
+			int file = enPassant & 7;
+			int row = side == EngineBoard.WHITE ? 4 : 3;
+			int pawn = EngineBoard.makePiece(side, EngineBoard.PAWN);
+			if (file > 0 && board.getPiece(row * 8 + file - 1) == pawn
+					|| file < 7 && board.getPiece(row * 8 + file + 1) == pawn) {
+				key ^= random[PolyglotRandom.EN_PASSANT + file];
+			}
+		}
+		if (board.getSideToMove() == EngineBoard.WHITE) {
+			key ^= random[PolyglotRandom.TURN];
+		}
+		return key;
+	}
+
+	/**
+	 * Returns the first entry with a key of at least the given key, comparing
+	 * keys as unsigned numbers as Polyglot does.
+	 */
+	private int firstEntry(long key) {
+		int low = 0;
+		int high = entryCount;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (Long.compareUnsigned(keyAt(middle), key) < 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private long keyAt(int entry) {
+		return entries.getLong(entry * ENTRY_SIZE);
+	}
+
+	/**
+	 * Encodes a move for a book entry.
+	 *
+	 * @param move a move in the engine encoding
+	 * @return the move in the Polyglot encoding
+	 */
+	public static int toPolyglot(int move) {
+		int from = Move.getFrom(move);
+		int to = Move.getTo(move);
+		if (Move.getFlag(move) == Move.KING_CASTLE) {
+			to = from + 3;
+		} else if (Move.getFlag(move) == Move.QUEEN_CASTLE) {
+			to = from - 4;
+		}
+		// file and row in three bits each is the square index
+		int output = to | (from << 6);
+		if (Move.isPromotion(move)) {
+			output |= (Move.getPromotionType(move) - EngineBoard.PAWN) << 12;
+		}
+		return output;
+	}
+
+	/**
+	 * Finds the legal move matching a move in the Polyglot encoding.
+	 *
+	 * @return the move in the engine encoding, or Move.NONE if it is not legal
+	 */
+	private static int fromPolyglot(int polyglot, int[] legal, int legalCount) {
+		for (int i = 0; i < legalCount; i++) {
+			if (toPolyglot(legal[i]) == polyglot) {
+				return legal[i];
+			}
+		}
+		return Move.NONE;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
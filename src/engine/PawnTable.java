@@ -0,0 +1,217 @@
+package engine;
+
+/**
+ * Fixed-size cache of pawn structure evaluations, indexed by
+ * EngineBoard.getPawnKey. Pawn structure changes far less often than the rest
+ * of the position, so most evaluations in a search find their pawn terms here
+ * instead of computing them.
+ *
+ * Each entry holds the doubled, isolated and passed pawn score together with
+ * the pawns of each color as 64-bit sets, from which king pawn shields are
+ * counted cheaply. The weights of these terms come from EvaluationWeights. A
+ * PawnTable is not thread-safe.
+ */
+public class PawnTable {
+	static final long[] FILE_MASKS = new long[8];
+	static final long[] ADJACENT_FILE_MASKS = new long[8];
+	/**
+	 * squares that must be free of enemy pawns for a pawn to be passed, indexed
+	 * by color and square
+	 */
+	static final long[][] PASSED_MASKS = new long[2][64];
+	/**
+	 * squares one and two rows in front of a king on its first row, indexed by
+	 * color and square
+	 */
+	static final long[][] SHIELD_NEAR_MASKS = new long[2][64];
+	static final long[][] SHIELD_FAR_MASKS = new long[2][64];
+
+	static {
+		for (int file = 0; file < 8; file++) {
+			FILE_MASKS[file] = 0x0101010101010101L << file;
+		}
+		for (int file = 0; file < 8; file++) {
+			ADJACENT_FILE_MASKS[file] = (file > 0 ? FILE_MASKS[file - 1] : 0) | (file < 7 ? FILE_MASKS[file + 1] : 0);
+		}
+		for (int square = 0; square < 64; square++) {
+			int file = square & 7;
+			int row = square >>> 3;
+			long files = FILE_MASKS[file] | ADJACENT_FILE_MASKS[file];
+			for (int other = 0; other < 64; other++) {
+				int otherRow = other >>> 3;
+				if ((files & (1L << other)) == 0) {
+					continue;
+				}
+				if (otherRow > row) {
+					PASSED_MASKS[EngineBoard.WHITE][square] |= 1L << other;
+				}
+				if (otherRow < row) {
+					PASSED_MASKS[EngineBoard.BLACK][square] |= 1L << other;
+				}
+				if (row == 0 && otherRow == 1 || row == 7 && otherRow == 6) {
+					SHIELD_NEAR_MASKS[row == 0 ? EngineBoard.WHITE : EngineBoard.BLACK][square] |= 1L << other;
+				}
+				if (row == 0 && otherRow == 2 || row == 7 && otherRow == 5) {
+					SHIELD_FAR_MASKS[row == 0 ? EngineBoard.WHITE : EngineBoard.BLACK][square] |= 1L << other;
+				}
+			}
+		}
+	}
+
+	private final EvaluationWeights weights;
+	// pawn structure weights, in centipawns
+	private final int doubledPawn;
+	private final int isolatedPawn;
+	/**
+	 * bonus for a passed pawn, indexed by rows advanced from its own side
+	 */
+	private final int[] passedPawn = new int[8];
+	private final int shieldNear;
+	private final int shieldFar;
+
+	private final long[] keys;
+	private final int[] scores;
+	private final long[] whitePawns;
+	private final long[] blackPawns;
+	private final int mask;
+
+	private long hits;
+	private long misses;
+
+	/**
+	 * Creates a table with a number of entries, rounded down to a power of two,
+	 * for the default weights. Each entry takes 28 bytes.
+	 *
+	 * @param entries the number of entries
+	 */
+	public PawnTable(int entries) {
+		this(entries, EvaluationWeights.DEFAULT);
+	}
+
+	/**
+	 * Creates a table with a number of entries, rounded down to a power of two.
+	 * Each entry takes 28 bytes.
+	 *
+	 * @param entries the number of entries
+	 * @param weights the weights of the pawn terms
+	 */
+	public PawnTable(int entries, EvaluationWeights weights) {
+		this.weights = weights;
+		doubledPawn = weights.get(EvaluationWeights.DOUBLED_PAWN);
+		isolatedPawn = weights.get(EvaluationWeights.ISOLATED_PAWN);
+		for (int row = 0; row < 8; row++) {
+			passedPawn[row] = weights.get(EvaluationWeights.PASSED_PAWN + row);
+		}
+		shieldNear = weights.get(EvaluationWeights.SHIELD_NEAR);
+		shieldFar = weights.get(EvaluationWeights.SHIELD_FAR);
+		int size = Integer.highestOneBit(Math.max(1, entries));
+		keys = new long[size];
+		scores = new int[size];
+		whitePawns = new long[size];
+		blackPawns = new long[size];
+		mask = size - 1;
+		// a key of zero, no pawns at all, must not match an empty entry by accident
+		keys[0] = -1;
+	}
+
+	/**
+	 * Evaluates the pawn structure and king pawn shields of the position,
+	 * computing the pawn terms only if they are not cached.
+	 *
+	 * @param board the position to evaluate
+	 * @return score in centipawns, positive if white is better
+	 */
+	public int evaluate(EngineBoard board) {
+		long key = board.getPawnKey();
+		int index = (int) key & mask;
+		if (keys[index] == key) {
+			hits++;
+		} else {
+			misses++;
+			fill(index, key, board);
+		}
+		long white = whitePawns[index];
+		long black = blackPawns[index];
+		return scores[index] + shield(white, board.getKingSquare(EngineBoard.WHITE), EngineBoard.WHITE)
+				- shield(black, board.getKingSquare(EngineBoard.BLACK), EngineBoard.BLACK);
+	}
+
+	public EvaluationWeights getWeights() {
+		return weights;
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Returns the fraction of lookups that were found in the table.
+	 */
+	public double getHitRate() {
+		long total = hits + misses;
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	public void clearStatistics() {
+		hits = 0;
+		misses = 0;
+	}
+
+	/**
+	 * Computes and stores the pawn terms for the position.
+	 */
+	private void fill(int index, long key, EngineBoard board) {
+		int whitePawn = EngineBoard.makePiece(EngineBoard.WHITE, EngineBoard.PAWN);
+		int blackPawn = EngineBoard.makePiece(EngineBoard.BLACK, EngineBoard.PAWN);
+		long white = 0;
+		long black = 0;
+		for (int square = 0; square < 64; square++) {
+			int piece = board.getPiece(square);
+			if (piece == whitePawn) {
+				white |= 1L << square;
+			} else if (piece == blackPawn) {
+				black |= 1L << square;
+			}
+		}
+		keys[index] = key;
+		whitePawns[index] = white;
+		blackPawns[index] = black;
+		scores[index] = structure(white, black, EngineBoard.WHITE) - structure(black, white, EngineBoard.BLACK);
+	}
+
+	/**
+	 * Scores doubled, isolated and passed pawns of one color.
+	 */
+	private int structure(long own, long enemy, int color) {
+		int score = 0;
+		for (int file = 0; file < 8; file++) {
+			int count = Long.bitCount(own & FILE_MASKS[file]);
+			if (count > 1) {
+				score += doubledPawn * (count - 1);
+			}
+			if (count > 0 && (own & ADJACENT_FILE_MASKS[file]) == 0) {
+				score += isolatedPawn * count;
+			}
+		}
+		for (long pawns = own; pawns != 0; pawns &= pawns - 1) {
+			int square = Long.numberOfTrailingZeros(pawns);
+			if ((enemy & PASSED_MASKS[color][square]) == 0) {
+				int row = square >>> 3;
+				score += passedPawn[color == EngineBoard.WHITE ? row : 7 - row];
+			}
+		}
+		return score;
+	}
+
+	/**
+	 * Scores the pawns sheltering a king on its first row.
+	 */
+	private int shield(long own, int kingSquare, int color) {
+		return shieldNear * Long.bitCount(own & SHIELD_NEAR_MASKS[color][kingSquare])
+				+ shieldFar * Long.bitCount(own & SHIELD_FAR_MASKS[color][kingSquare]);
+	}
+}
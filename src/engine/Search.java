@@ -0,0 +1,502 @@
+package engine;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Iterative deepening alpha-beta search over an EngineBoard. Uses principal
+ * variation search with a transposition table, quiescence search over captures
+ * and killer/history move ordering, plus the selective techniques switched by
+ * SearchOptions: null-move pruning, late move reductions, reverse futility
+ * pruning, futility pruning and check extensions.
+ *
+ * A Search object is not thread-safe; it searches the board it was created with,
+ * leaving it unchanged once the search returns.
+ */
+public class Search {
+	/**
+	 * score of being checkmated at the root; mate in n plies scores MATE - n
+	 */
+	public static final int MATE = 30000;
+	/**
+	 * scores at least this far from zero are forced mates
+	 */
+	public static final int MATE_BOUND = MATE - 1000;
+	public static final int MAX_PLY = 128;
+
+	private static final int INFINITY = 32000;
+	private static final int DEFAULT_TABLE_MEGABYTES = 16;
+
+	// selective search parameters
+	private static final int NULL_MOVE_MIN_DEPTH = 3;
+	private static final int REVERSE_FUTILITY_MAX_DEPTH = 3;
+	private static final int REVERSE_FUTILITY_MARGIN = 120;
+	private static final int[] FUTILITY_MARGINS = { 0, 200, 350 };
+	private static final int LMR_MIN_DEPTH = 3;
+	/**
+	 * number of moves searched at full depth before reductions start
+	 */
+	private static final int LMR_FULL_DEPTH_MOVES = 3;
+	/**
+	 * depth reduction indexed by remaining depth and move number, growing with
+	 * the logarithm of both
+	 */
+	private static final int[][] LMR_REDUCTIONS = new int[64][64];
+
+	static {
+		for (int depth = 1; depth < 64; depth++) {
+			for (int moveNumber = 1; moveNumber < 64; moveNumber++) {
+				LMR_REDUCTIONS[depth][moveNumber] = (int) (0.75 + Math.log(depth) * Math.log(moveNumber) / 2.25);
+			}
+		}
+	}
+
+	// move ordering scores
+	private static final int TABLE_MOVE_SCORE = 1 << 30;
+	private static final int CAPTURE_SCORE = 1 << 28;
+	private static final int FIRST_KILLER_SCORE = 1 << 27;
+	private static final int SECOND_KILLER_SCORE = FIRST_KILLER_SCORE - 1;
+
+	private final EngineBoard board;
+	private final SearchOptions options;
+	private final Evaluator evaluator;
+	private final TranspositionTable table;
+	private OpeningBook book;
+	private Random bookRandom;
+	private Tablebase[] tablebases;
+
+	private final int[][] moves = new int[MAX_PLY][EngineBoard.MAX_MOVES];
+	private final int[][] moveScores = new int[MAX_PLY][EngineBoard.MAX_MOVES];
+	private final int[][] killers = new int[MAX_PLY][2];
+	private final int[][] history = new int[64][64];
+	private final int[][] principalVariation = new int[MAX_PLY][MAX_PLY];
+	private final int[] principalVariationLength = new int[MAX_PLY];
+
+	private long nodes;
+	private long deadline;
+	private long nodeLimit;
+	private boolean stopped;
+
+	/**
+	 * Creates a Search over the board with every selective technique enabled.
+	 *
+	 * @param board the position to search
+	 */
+	public Search(EngineBoard board) {
+		this(board, new SearchOptions(), new Evaluator(), new TranspositionTable(DEFAULT_TABLE_MEGABYTES));
+	}
+
+	/**
+	 * Creates a Search over the board.
+	 *
+	 * @param board     the position to search
+	 * @param options   the selective techniques to use
+	 * @param evaluator evaluation used at the leaves
+	 * @param table     transposition table, which may be shared by successive
+	 *                  searches
+	 */
+	public Search(EngineBoard board, SearchOptions options, Evaluator evaluator, TranspositionTable table) {
+		this.board = board;
+		this.options = options;
+		this.evaluator = evaluator;
+		this.table = table;
+	}
+
+	/**
+	 * Searches the position with iterative deepening until the depth is reached,
+	 * the time runs out or the node limit is reached. The result of the last
+	 * completed iteration is returned. If an opening book is set and holds the
+	 * position, a book move is returned instead without searching, and likewise
+	 * the best move of the tablebases if they hold the position.
+	 *
+	 * @param maxDepth   the deepest iteration to search
+	 * @param timeMillis the time limit in milliseconds, or 0 for no limit
+	 * @param maxNodes   the node limit, or 0 for no limit
+	 * @return the best move and statistics of the search
+	 */
+	public SearchResult search(int maxDepth, long timeMillis, long maxNodes) {
+		long start = System.currentTimeMillis();
+		if (book != null) {
+			int bookMove = book.chooseMove(board, bookRandom);
+			if (bookMove != Move.NONE) {
+				return new SearchResult(bookMove, 0, 0, new int[] { bookMove }, 0, System.currentTimeMillis() - start);
+			}
+		}
+		if (tablebases != null) {
+			int tableMove = Tablebase.bestMove(tablebases, board);
+			if (tableMove != Move.NONE) {
+				return new SearchResult(tableMove, Tablebase.probe(tablebases, board), 0, new int[] { tableMove }, 0,
+						System.currentTimeMillis() - start);
+			}
+		}
+		deadline = timeMillis > 0 ? start + timeMillis : Long.MAX_VALUE;
+		nodeLimit = maxNodes > 0 ? maxNodes : Long.MAX_VALUE;
+		nodes = 0;
+		stopped = false;
+		clearHeuristics();
+
+		int bestMove = Move.NONE;
+		int bestScore = 0;
+		int completedDepth = 0;
+		int[] line = new int[0];
+		for (int depth = 1; depth <= Math.min(maxDepth, MAX_PLY - 1); depth++) {
+			int score = search(depth, -INFINITY, INFINITY, 0, false);
+			// an interrupted iteration is only used if it found a move at all
+			if (stopped && bestMove != Move.NONE) {
+				break;
+			}
+			if (principalVariationLength[0] > 0) {
+				bestMove = principalVariation[0][0];
+				line = new int[principalVariationLength[0]];
+				System.arraycopy(principalVariation[0], 0, line, 0, line.length);
+			}
+			bestScore = score;
+			completedDepth = depth;
+			if (stopped || Math.abs(score) >= MATE_BOUND) {
+				break;
+			}
+		}
+		return new SearchResult(bestMove, bestScore, completedDepth, line, nodes,
+				System.currentTimeMillis() - start);
+	}
+
+	/**
+	 * Sets an opening book to consult before searching. While the position is in
+	 * the book, search returns a book move, chosen by weight, at depth 0 without
+	 * searching.
+	 *
+	 * @param book   the book, or null to always search
+	 * @param random source of the choice between book moves
+	 */
+	public void setOpeningBook(OpeningBook book, Random random) {
+		this.book = book;
+		bookRandom = random;
+	}
+
+	/**
+	 * Sets endgame tablebases to consult before searching. When they hold the
+	 * position and every position after it, search returns the move that mates
+	 * soonest, keeps a draw or resists longest, at depth 0 without searching.
+	 *
+	 * @param tablebases the tables, or null to always search
+	 */
+	public void setTablebases(Tablebase... tablebases) {
+		this.tablebases = tablebases;
+	}
+
+	/**
+	 * Searches the position to a fixed depth with no time limit.
+	 */
+	public SearchResult search(int depth) {
+		return search(depth, 0, 0);
+	}
+
+	/**
+	 * Returns the number of positions searched by the current or last search.
+	 */
+	public long getNodes() {
+		return nodes;
+	}
+
+	private void clearHeuristics() {
+		for (int[] pair : killers) {
+			pair[0] = Move.NONE;
+			pair[1] = Move.NONE;
+		}
+		for (int[] row : history) {
+			Arrays.fill(row, 0);
+		}
+	}
+
+	private int search(int depth, int alpha, int beta, int ply, boolean afterNullMove) {
+		principalVariationLength[ply] = 0;
+		if ((nodes & 1023) == 0 && (System.currentTimeMillis() >= deadline || nodes >= nodeLimit)) {
+			stopped = true;
+		}
+		if (stopped) {
+			return 0;
+		}
+		boolean inCheck = board.inCheck();
+		if (inCheck && options.isCheckExtensions()) {
+			depth++;
+		}
+		if (depth <= 0 || ply >= MAX_PLY - 1) {
+			return quiescence(alpha, beta, ply);
+		}
+		nodes++;
+		boolean rootNode = ply == 0;
+		boolean pvNode = beta - alpha > 1;
+		if (!rootNode && (board.isRepetition() || board.getHalfmoveClock() >= 100)) {
+			return 0;
+		}
+
+		// transposition table cutoff
+		long entry = table.probe(board.getKey());
+		int tableMove = Move.NONE;
+		if (entry != 0) {
+			tableMove = TranspositionTable.getMove(entry);
+			if (!pvNode && TranspositionTable.getDepth(entry) >= depth) {
+				int score = fromTableScore(TranspositionTable.getScore(entry), ply);
+				int bound = TranspositionTable.getBound(entry);
+				if (bound == TranspositionTable.EXACT || (bound == TranspositionTable.LOWER_BOUND && score >= beta)
+						|| (bound == TranspositionTable.UPPER_BOUND && score <= alpha)) {
+					return score;
+				}
+			}
+		}
+
+		int staticEval = inCheck ? -INFINITY : evaluator.evaluate(board);
+
+		// reverse futility pruning: far enough above beta that a quiet move is
+		// unlikely to lose it all
+		if (options.isReverseFutilityPruning() && !pvNode && !inCheck && depth <= REVERSE_FUTILITY_MAX_DEPTH
+				&& Math.abs(beta) < MATE_BOUND && staticEval - REVERSE_FUTILITY_MARGIN * depth >= beta) {
+			return staticEval - REVERSE_FUTILITY_MARGIN * depth;
+		}
+
+		// null-move pruning: if passing still fails high, a real move will too,
+		// except in zugzwang, which is guarded against by requiring pieces
+		if (options.isNullMovePruning() && !pvNode && !inCheck && !afterNullMove && depth >= NULL_MOVE_MIN_DEPTH
+				&& staticEval >= beta && board.hasNonPawnMaterial(board.getSideToMove())) {
+			int reduction = 2 + depth / 4;
+			board.makeNullMove();
+			int score = -search(depth - 1 - reduction, -beta, -beta + 1, ply + 1, true);
+			board.unmakeNullMove();
+			if (stopped) {
+				return 0;
+			}
+			if (score >= beta) {
+				// mate scores found after passing are not proven
+				return score >= MATE_BOUND ? beta : score;
+			}
+		}
+
+		// futility pruning: quiet moves cannot raise the score to alpha
+		boolean futile = options.isFutilityPruning() && !pvNode && !inCheck && depth < FUTILITY_MARGINS.length
+				&& Math.abs(alpha) < MATE_BOUND && staticEval + FUTILITY_MARGINS[depth] <= alpha;
+
+		int[] plyMoves = moves[ply];
+		int moveCount = board.generateMoves(plyMoves, 0);
+		scoreMoves(ply, moveCount, tableMove);
+
+		int originalAlpha = alpha;
+		int bestScore = -INFINITY;
+		int bestMove = Move.NONE;
+		int legalMoves = 0;
+		for (int i = 0; i < moveCount; i++) {
+			int move = nextMove(ply, i, moveCount);
+			if (!board.makeMove(move)) {
+				continue;
+			}
+			legalMoves++;
+			boolean quiet = !Move.isCapture(move) && !Move.isPromotion(move);
+			boolean givesCheck = board.inCheck();
+			if (futile && legalMoves > 1 && quiet && !givesCheck) {
+				board.unmakeMove();
+				continue;
+			}
+
+			int newDepth = depth - 1;
+			int score;
+			if (legalMoves == 1) {
+				score = -search(newDepth, -beta, -alpha, ply + 1, false);
+			} else {
+				int reduction = 0;
+				if (options.isLateMoveReductions() && depth >= LMR_MIN_DEPTH && legalMoves > LMR_FULL_DEPTH_MOVES
+						&& quiet && !inCheck && !givesCheck && !isKiller(ply, move)) {
+					reduction = LMR_REDUCTIONS[Math.min(depth, 63)][Math.min(legalMoves, 63)];
+					if (pvNode) {
+						reduction--;
+					}
+					reduction = Math.max(0, Math.min(reduction, newDepth - 1));
+				}
+				score = -search(newDepth - reduction, -alpha - 1, -alpha, ply + 1, false);
+				if (score > alpha && reduction > 0) {
+					score = -search(newDepth, -alpha - 1, -alpha, ply + 1, false);
+				}
+				if (score > alpha && score < beta) {
+					score = -search(newDepth, -beta, -alpha, ply + 1, false);
+				}
+			}
+			board.unmakeMove();
+			if (stopped) {
+				return 0;
+			}
+
+			if (score > bestScore) {
+				bestScore = score;
+				bestMove = move;
+				if (score > alpha) {
+					alpha = score;
+					updatePrincipalVariation(ply, move);
+					if (alpha >= beta) {
+						if (quiet) {
+							storeKiller(ply, move);
+							history[Move.getFrom(move)][Move.getTo(move)] += depth * depth;
+						}
+						break;
+					}
+				}
+			}
+		}
+
+		if (legalMoves == 0) {
+			return inCheck ? -MATE + ply : 0;
+		}
+		// every move was pruned as futile
+		if (bestMove == Move.NONE) {
+			return alpha;
+		}
+		int bound = bestScore >= beta ? TranspositionTable.LOWER_BOUND
+				: bestScore > originalAlpha ? TranspositionTable.EXACT : TranspositionTable.UPPER_BOUND;
+		table.store(board.getKey(), bestMove, toTableScore(bestScore, ply), depth, bound);
+		return bestScore;
+	}
+
+	/**
+	 * Searches captures until the position is quiet, so that the static
+	 * evaluation is not taken in the middle of an exchange. When in check, all
+	 * moves are searched.
+	 */
+	private int quiescence(int alpha, int beta, int ply) {
+		principalVariationLength[ply] = 0;
+		if ((nodes & 1023) == 0 && (System.currentTimeMillis() >= deadline || nodes >= nodeLimit)) {
+			stopped = true;
+		}
+		if (stopped) {
+			return 0;
+		}
+		nodes++;
+		boolean inCheck = board.inCheck();
+		if (ply >= MAX_PLY - 1) {
+			return inCheck ? 0 : evaluator.evaluate(board);
+		}
+		int bestScore = -INFINITY;
+		if (!inCheck) {
+			bestScore = evaluator.evaluate(board);
+			if (bestScore >= beta) {
+				return bestScore;
+			}
+			alpha = Math.max(alpha, bestScore);
+		}
+		int[] plyMoves = moves[ply];
+		int moveCount = inCheck ? board.generateMoves(plyMoves, 0) : board.generateCaptures(plyMoves, 0);
+		scoreMoves(ply, moveCount, Move.NONE);
+		int legalMoves = 0;
+		for (int i = 0; i < moveCount; i++) {
+			int move = nextMove(ply, i, moveCount);
+			if (!board.makeMove(move)) {
+				continue;
+			}
+			legalMoves++;
+			int score = -quiescence(-beta, -alpha, ply + 1);
+			board.unmakeMove();
+			if (stopped) {
+				return 0;
+			}
+			if (score > bestScore) {
+				bestScore = score;
+				if (score > alpha) {
+					alpha = score;
+					updatePrincipalVariation(ply, move);
+					if (alpha >= beta) {
+						break;
+					}
+				}
+			}
+		}
+		if (inCheck && legalMoves == 0) {
+			return -MATE + ply;
+		}
+		return bestScore;
+	}
+
+	// move ordering
+	/**
+	 * Scores the generated moves at a ply: the table move first, then captures by
+	 * most valuable victim and least valuable attacker, then killers, then quiet
+	 * moves by history.
+	 */
+	private void scoreMoves(int ply, int moveCount, int tableMove) {
+		int[] plyMoves = moves[ply];
+		int[] scores = moveScores[ply];
+		for (int i = 0; i < moveCount; i++) {
+			int move = plyMoves[i];
+			if (move == tableMove) {
+				scores[i] = TABLE_MOVE_SCORE;
+			} else if (Move.isCapture(move) || Move.isPromotion(move)) {
+				int victim = Move.getFlag(move) == Move.EN_PASSANT ? EngineBoard.PAWN
+						: EngineBoard.typeOf(board.getPiece(Move.getTo(move)));
+				int attacker = EngineBoard.typeOf(board.getPiece(Move.getFrom(move)));
+				int promotion = Move.isPromotion(move) ? Evaluator.PIECE_VALUES[Move.getPromotionType(move)] : 0;
+				scores[i] = CAPTURE_SCORE + Evaluator.PIECE_VALUES[victim] * 16 + promotion - attacker;
+			} else if (move == killers[ply][0]) {
+				scores[i] = FIRST_KILLER_SCORE;
+			} else if (move == killers[ply][1]) {
+				scores[i] = SECOND_KILLER_SCORE;
+			} else {
+				scores[i] = history[Move.getFrom(move)][Move.getTo(move)];
+			}
+		}
+	}
+
+	/**
+	 * Selects the highest scored move from index onwards, swapping it into index.
+	 */
+	private int nextMove(int ply, int index, int moveCount) {
+		int[] plyMoves = moves[ply];
+		int[] scores = moveScores[ply];
+		int best = index;
+		for (int i = index + 1; i < moveCount; i++) {
+			if (scores[i] > scores[best]) {
+				best = i;
+			}
+		}
+		int move = plyMoves[best];
+		plyMoves[best] = plyMoves[index];
+		plyMoves[index] = move;
+		int score = scores[best];
+		scores[best] = scores[index];
+		scores[index] = score;
+		return move;
+	}
+
+	private boolean isKiller(int ply, int move) {
+		return move == killers[ply][0] || move == killers[ply][1];
+	}
+
+	private void storeKiller(int ply, int move) {
+		if (killers[ply][0] != move) {
+			killers[ply][1] = killers[ply][0];
+			killers[ply][0] = move;
+		}
+	}
+
+	private void updatePrincipalVariation(int ply, int move) {
+		principalVariation[ply][0] = move;
+		int childLength = principalVariationLength[ply + 1];
+		System.arraycopy(principalVariation[ply + 1], 0, principalVariation[ply], 1, childLength);
+		principalVariationLength[ply] = childLength + 1;
+	}
+
+	// mate scores are stored relative to the position, not the root
+	private static int toTableScore(int score, int ply) {
+		if (score >= MATE_BOUND) {
+			return score + ply;
+		}
+		if (score <= -MATE_BOUND) {
+			return score - ply;
+		}
+		return score;
+	}
+
+	private static int fromTableScore(int score, int ply) {
+		if (score >= MATE_BOUND) {
+			return score - ply;
+		}
+		if (score <= -MATE_BOUND) {
+			return score + ply;
+		}
+		return score;
+	}
+}
@@ -0,0 +1,74 @@
+package engine;
+
+/**
+ * Measures time-to-depth of Search over a fixed suite of positions, once with
+ * no selective techniques, once with each technique on its own and once with
+ * all of them. Tactical positions carry a known best move, and the number of
+ * them solved is reported for each configuration so that any loss of tactical
+ * accuracy is visible.
+ *
+ * Usage: SearchBenchmark [depth]
+ */
+public class SearchBenchmark {
+	private static final int DEFAULT_DEPTH = 7;
+	private static final int TABLE_MEGABYTES = 16;
+
+	/**
+	 * Suite positions, as FEN and the expected best move in coordinate notation
+	 * (null for positions only used for timing)
+	 */
+	private static final String[][] SUITE = {
+			{ EngineBoard.START_FEN, null },
+			{ "r1bqkb1r/pppp1ppp/2n2n2/4p3/2B1P3/5N2/PPPP1PPP/RNBQK2R w KQkq - 4 4", null },
+			{ "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1", null },
+			{ "r1bq1rk1/pp2bppp/2n1pn2/2pp4/3P4/2PBPN2/PP1N1PPP/R1BQK2R w KQ - 0 8", null },
+			{ "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1", null },
+			{ "r1bqkbnr/pppp1ppp/2n5/4p3/2B1P3/5Q2/PPPP1PPP/RNB1K1NR w KQkq - 0 1", "f3f7" },
+			{ "6k1/5ppp/8/8/8/8/5PPP/3R2K1 w - - 0 1", "d1d8" },
+			{ "4k3/8/8/3q4/8/8/8/3QK3 w - - 0 1", "d1d5" },
+			{ "k7/8/1K6/8/8/8/8/7R w - - 0 1", "h1h8" },
+			{ "r5k1/5ppp/8/8/8/8/5PPP/R5K1 w - - 0 1", "a1a8" } };
+
+	public static void main(String[] args) {
+		int depth = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_DEPTH;
+		SearchOptions[] configurations = {
+				new SearchOptions(false, false, false, false, false),
+				new SearchOptions(true, false, false, false, false),
+				new SearchOptions(false, true, false, false, false),
+				new SearchOptions(false, false, true, false, false),
+				new SearchOptions(false, false, false, true, false),
+				new SearchOptions(false, false, false, false, true),
+				new SearchOptions() };
+		System.out.println("depth " + depth + ", " + SUITE.length + " positions");
+		System.out.println(String.format("%-20s %10s %12s %8s", "techniques", "time (ms)", "nodes", "solved"));
+		for (SearchOptions options : configurations) {
+			runSuite(options, depth);
+		}
+	}
+
+	/**
+	 * Searches every suite position to the depth and prints the totals.
+	 */
+	private static void runSuite(SearchOptions options, int depth) {
+		long totalMillis = 0;
+		long totalNodes = 0;
+		int solved = 0;
+		int tactical = 0;
+		for (String[] entry : SUITE) {
+			EngineBoard board = new EngineBoard(entry[0]);
+			// a fresh table for each position, so that results do not depend on order
+			Search search = new Search(board, options, new Evaluator(), new TranspositionTable(TABLE_MEGABYTES));
+			SearchResult result = search.search(depth);
+			totalMillis += result.getElapsedMillis();
+			totalNodes += result.getNodes();
+			if (entry[1] != null) {
+				tactical++;
+				if (Move.toString(result.getBestMove()).equals(entry[1])) {
+					solved++;
+				}
+			}
+		}
+		System.out.println(String.format("%-20s %10d %12d %5d/%d", options, totalMillis, totalNodes, solved,
+				tactical));
+	}
+}
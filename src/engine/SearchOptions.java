@@ -0,0 +1,110 @@
+package engine;
+
+/**
+ * Switches for the selective search techniques used by Search. All techniques
+ * are enabled by default; each can be turned off on its own, for example to
+ * measure its effect with SearchBenchmark.
+ */
+public class SearchOptions {
+	/**
+	 * Whether null-move pruning is used: the side to move passes, and if a reduced
+	 * search still fails high the node is cut off. Never used when the side to
+	 * move has only pawns, where passing may be better than any move (zugzwang).
+	 */
+	private boolean nullMovePruning = true;
+	/**
+	 * Whether quiet moves ordered late are first searched to a reduced depth
+	 */
+	private boolean lateMoveReductions = true;
+	/**
+	 * Whether nodes near the leaves whose static evaluation is far above beta are
+	 * cut off without searching
+	 */
+	private boolean reverseFutilityPruning = true;
+	/**
+	 * Whether quiet moves near the leaves are skipped when the static evaluation
+	 * is far below alpha
+	 */
+	private boolean futilityPruning = true;
+	/**
+	 * Whether nodes where the side to move is in check are searched one ply deeper
+	 */
+	private boolean checkExtensions = true;
+
+	/**
+	 * Creates options with every technique enabled.
+	 */
+	public SearchOptions() {
+	}
+
+	/**
+	 * Creates options with each technique enabled or disabled.
+	 *
+	 * @param nullMovePruning        whether to use null-move pruning
+	 * @param lateMoveReductions     whether to use late move reductions
+	 * @param reverseFutilityPruning whether to use reverse futility pruning
+	 * @param futilityPruning        whether to use futility pruning
+	 * @param checkExtensions        whether to use check extensions
+	 */
+	public SearchOptions(boolean nullMovePruning, boolean lateMoveReductions, boolean reverseFutilityPruning,
+			boolean futilityPruning, boolean checkExtensions) {
+		this.nullMovePruning = nullMovePruning;
+		this.lateMoveReductions = lateMoveReductions;
+		this.reverseFutilityPruning = reverseFutilityPruning;
+		this.futilityPruning = futilityPruning;
+		this.checkExtensions = checkExtensions;
+	}
+
+	public boolean isNullMovePruning() {
+		return nullMovePruning;
+	}
+
+	public void setNullMovePruning(boolean nullMovePruning) {
+		this.nullMovePruning = nullMovePruning;
+	}
+
+	public boolean isLateMoveReductions() {
+		return lateMoveReductions;
+	}
+
+	public void setLateMoveReductions(boolean lateMoveReductions) {
+		this.lateMoveReductions = lateMoveReductions;
+	}
+
+	public boolean isReverseFutilityPruning() {
+		return reverseFutilityPruning;
+	}
+
+	public void setReverseFutilityPruning(boolean reverseFutilityPruning) {
+		this.reverseFutilityPruning = reverseFutilityPruning;
+	}
+
+	public boolean isFutilityPruning() {
+		return futilityPruning;
+	}
+
+	public void setFutilityPruning(boolean futilityPruning) {
+		this.futilityPruning = futilityPruning;
+	}
+
+	public boolean isCheckExtensions() {
+		return checkExtensions;
+	}
+
+	public void setCheckExtensions(boolean checkExtensions) {
+		this.checkExtensions = checkExtensions;
+	}
+
+	/**
+	 * Returns the enabled techniques as a short String, such as "NM LMR RFP FP CE".
+	 */
+	public String toString() {
+		String output = "";
+		output += nullMovePruning ? "NM " : "";
+		output += lateMoveReductions ? "LMR " : "";
+		output += reverseFutilityPruning ? "RFP " : "";
+		output += futilityPruning ? "FP " : "";
+		output += checkExtensions ? "CE " : "";
+		return output.isEmpty() ? "none" : output.trim();
+	}
+}
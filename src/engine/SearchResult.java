@@ -0,0 +1,79 @@
+package engine;
+
+/**
+ * Result of a search: the best move, its score, the principal variation and
+ * statistics on the work done.
+ */
+public class SearchResult {
+	private final int bestMove;
+	private final int score;
+	private final int depth;
+	private final int[] principalVariation;
+	private final long nodes;
+	private final long elapsedMillis;
+
+	/**
+	 * Creates a new SearchResult.
+	 *
+	 * @param bestMove           the best move found, or Move.NONE if there are no
+	 *                           legal moves
+	 * @param score              score of the best move in centipawns, from the
+	 *                           point of view of the side to move
+	 * @param depth              the last depth completed
+	 * @param principalVariation the expected line of play, starting with bestMove
+	 * @param nodes              the number of positions searched
+	 * @param elapsedMillis      the time taken by the search
+	 */
+	public SearchResult(int bestMove, int score, int depth, int[] principalVariation, long nodes,
+			long elapsedMillis) {
+		this.bestMove = bestMove;
+		this.score = score;
+		this.depth = depth;
+		this.principalVariation = principalVariation;
+		this.nodes = nodes;
+		this.elapsedMillis = elapsedMillis;
+	}
+
+	public int getBestMove() {
+		return bestMove;
+	}
+
+	public int getScore() {
+		return score;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	public int[] getPrincipalVariation() {
+		return principalVariation.clone();
+	}
+
+	public long getNodes() {
+		return nodes;
+	}
+
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+
+	/**
+	 * Whether the score is a forced mate for either side.
+	 */
+	public boolean isMateScore() {
+		return Math.abs(score) >= Search.MATE_BOUND;
+	}
+
+	/**
+	 * Returns the result as a String, in the format "depth 6 score 35 nodes 12000
+	 * time 40ms pv e2e4 e7e5"
+	 */
+	public String toString() {
+		String output = "depth " + depth + " score " + score + " nodes " + nodes + " time " + elapsedMillis + "ms pv";
+		for (int move : principalVariation) {
+			output += " " + Move.toString(move);
+		}
+		return output;
+	}
+}
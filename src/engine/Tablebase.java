@@ -0,0 +1,445 @@
+package engine;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Endgame tablebase for one set of material, such as KQK or KBNK: the
+ * distance to mate of every position in which one side has its king and the
+ * given pieces and the other side has a lone king. Tables are made by
+ * TablebaseGenerator and read through a memory map.
+ *
+ * Positions are stored with the stronger side as white; a position with the
+ * stronger side black is probed with the board flipped. Symmetry reduces the
+ * number of positions stored: without pawns the white king is moved into the
+ * a1-d1-d4 triangle by mirroring and flipping the board (10 squares), and
+ * with pawns it is moved onto files a to d by mirroring (32 squares). The
+ * index is then the king's slot, the square of each further piece in turn and
+ * the side to move. Each position takes one byte: 0 for a draw, 255 for an
+ * illegal position, and otherwise one more than the number of plies to mate.
+ * An even number of plies means the side to move is mated, an odd number that
+ * it mates.
+ *
+ * File format, all values big-endian: the magic number "TBAS", a format
+ * version, the material as a UTF string, then one byte per position.
+ *
+ * A Tablebase may be probed by many threads at once.
+ */
+public class Tablebase implements AutoCloseable {
+	/**
+	 * returned by probe for a position that no table holds
+	 */
+	public static final int NOT_FOUND = Integer.MIN_VALUE;
+
+	private static final int MAGIC = 0x54424153;
+	private static final int VERSION = 1;
+	private static final String PIECE_LETTERS = " PNBRQK";
+	static final int DRAW = 0;
+	static final int ILLEGAL = 255;
+
+	/**
+	 * squares of the white king for tables without pawns, the a1-d1-d4 triangle
+	 */
+	private static final int[] TRIANGLE_SQUARES = { 0, 1, 2, 3, 9, 10, 11, 18, 19, 27 };
+	/**
+	 * squares of the white king for tables with pawns, files a to d
+	 */
+	private static final int[] HALF_SQUARES = new int[32];
+	private static final int[] TRIANGLE_INDEX = new int[64];
+	private static final int[] HALF_INDEX = new int[64];
+
+	static {
+		Arrays.fill(TRIANGLE_INDEX, -1);
+		Arrays.fill(HALF_INDEX, -1);
+		for (int slot = 0; slot < TRIANGLE_SQUARES.length; slot++) {
+			TRIANGLE_INDEX[TRIANGLE_SQUARES[slot]] = slot;
+		}
+		for (int slot = 0; slot < HALF_SQUARES.length; slot++) {
+			HALF_SQUARES[slot] = (slot >>> 2) * 8 + (slot & 3);
+			HALF_INDEX[HALF_SQUARES[slot]] = slot;
+		}
+	}
+
+	private final String material;
+	/**
+	 * engine piece types of the stronger side's pieces other than its king
+	 */
+	private final int[] types;
+	private final boolean pawns;
+	private final int size;
+	private final ByteBuffer values;
+	private final FileChannel channel;
+
+	/**
+	 * Opens a table file.
+	 *
+	 * @param file the table to open
+	 * @throws IOException if the file cannot be read or is not a table
+	 */
+	public Tablebase(Path file) throws IOException {
+		channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (mapped.remaining() < 10 || mapped.getInt() != MAGIC || mapped.getInt() != VERSION) {
+				throw new IOException("Not a version " + VERSION + " tablebase: " + file);
+			}
+			byte[] name = new byte[mapped.getShort() & 0xFFFF];
+			mapped.get(name);
+			types = parseMaterial(new String(name, StandardCharsets.UTF_8));
+			material = materialName(types);
+			pawns = hasPawns(types);
+			size = size(types);
+			if (mapped.remaining() != size) {
+				throw new IOException("Tablebase " + file + " should hold " + size + " positions");
+			}
+			values = mapped.slice();
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Creates a table held in memory, as made by TablebaseGenerator.
+	 */
+	Tablebase(int[] types, byte[] values) {
+		this.types = types.clone();
+		material = materialName(types);
+		pawns = hasPawns(types);
+		size = size(types);
+		if (values.length != size) {
+			throw new IllegalArgumentException(material + " needs " + size + " positions, not " + values.length);
+		}
+		this.values = ByteBuffer.wrap(values);
+		channel = null;
+	}
+
+	/**
+	 * Returns the engine piece types of the stronger side's pieces other than its
+	 * king, strongest first, for a material name such as "KBNK".
+	 *
+	 * @param material the pieces of the stronger side, then the lone king
+	 * @return the piece types
+	 */
+	static int[] parseMaterial(String material) {
+		int length = material.length();
+		if (length < 3 || length > 5 || material.charAt(0) != 'K' || material.charAt(length - 1) != 'K') {
+			throw new IllegalArgumentException("Material must be a king, one to three pieces and a king: " + material);
+		}
+		int[] types = new int[length - 2];
+		for (int i = 0; i < types.length; i++) {
+			int type = PIECE_LETTERS.indexOf(material.charAt(i + 1));
+			if (type < EngineBoard.PAWN || type > EngineBoard.QUEEN) {
+				throw new IllegalArgumentException("Unknown piece in material " + material);
+			}
+			types[i] = type;
+		}
+		Arrays.sort(types);
+		for (int i = 0; i < types.length / 2; i++) {
+			int swap = types[i];
+			types[i] = types[types.length - 1 - i];
+			types[types.length - 1 - i] = swap;
+		}
+		return types;
+	}
+
+	/**
+	 * Returns the material name for piece types, strongest first.
+	 */
+	static String materialName(int[] types) {
+		StringBuilder output = new StringBuilder("K");
+		for (int type : types) {
+			output.append(PIECE_LETTERS.charAt(type));
+		}
+		return output.append('K').toString();
+	}
+
+	/**
+	 * Returns whether a king and the given pieces can never mate a lone king: no
+	 * pieces, or a single bishop or knight.
+	 */
+	static boolean isDrawn(int[] types) {
+		return types.length == 0
+				|| (types.length == 1 && (types[0] == EngineBoard.BISHOP || types[0] == EngineBoard.KNIGHT));
+	}
+
+	private static boolean hasPawns(int[] types) {
+		for (int type : types) {
+			if (type == EngineBoard.PAWN) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the number of positions in the table of a material set.
+	 */
+	static int size(int[] types) {
+		long size = (long) (hasPawns(types) ? HALF_SQUARES.length : TRIANGLE_SQUARES.length) << (6 * (types.length + 1))
+				<< 1;
+		if (size > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Too many positions for one table: " + materialName(types));
+		}
+		return (int) size;
+	}
+
+	public String getMaterial() {
+		return material;
+	}
+
+	/**
+	 * Returns the number of positions in the table, including illegal ones.
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	int[] getTypes() {
+		return types.clone();
+	}
+
+	/**
+	 * Returns the stored byte of a position.
+	 */
+	int getValue(int index) {
+		return values.get(index) & 0xFF;
+	}
+
+	/**
+	 * Returns the index of a position, with the stronger side as white.
+	 *
+	 * @param squares    the squares of the white king, the black king and then
+	 *                   the further pieces in the order of the material
+	 * @param sideToMove the color to move
+	 * @return index of the position in the table
+	 */
+	int index(int[] squares, int sideToMove) {
+		int king = squares[0];
+		int flip = (king & 7) > 3 ? 7 : 0;
+		boolean transpose = false;
+		if (!pawns) {
+			if ((king >>> 3) > 3) {
+				flip |= 56;
+			}
+			int flipped = king ^ flip;
+			transpose = (flipped >>> 3) > (flipped & 7);
+		}
+		int index = (pawns ? HALF_INDEX : TRIANGLE_INDEX)[transform(king, flip, transpose)];
+		for (int i = 1; i < squares.length; i++) {
+			index = (index << 6) | transform(squares[i], flip, transpose);
+		}
+		return (index << 1) | sideToMove;
+	}
+
+	private static int transform(int square, int flip, boolean transpose) {
+		square ^= flip;
+		return transpose ? ((square & 7) << 3) | (square >>> 3) : square;
+	}
+
+	/**
+	 * Finds the squares of the position at an index, the reverse of index.
+	 *
+	 * @param index   index of the position
+	 * @param squares array to write the squares into, one per piece
+	 * @return the color to move
+	 */
+	int squares(int index, int[] squares) {
+		int sideToMove = index & 1;
+		index >>>= 1;
+		for (int i = squares.length - 1; i > 0; i--) {
+			squares[i] = index & 63;
+			index >>>= 6;
+		}
+		squares[0] = (pawns ? HALF_SQUARES : TRIANGLE_SQUARES)[index];
+		return sideToMove;
+	}
+
+	/**
+	 * Returns the stored byte of a position on a board, or -1 if the board does
+	 * not have this table's material.
+	 */
+	int probeValue(EngineBoard board) {
+		if (board.getCastlingRights() != 0) {
+			return -1;
+		}
+		int strong = board.getPieceCount(EngineBoard.makePiece(EngineBoard.WHITE, types[0])) > 0
+				? EngineBoard.WHITE
+				: EngineBoard.BLACK;
+		int weak = strong ^ 1;
+		for (int type = EngineBoard.PAWN; type <= EngineBoard.QUEEN; type++) {
+			if (board.getPieceCount(EngineBoard.makePiece(weak, type)) != 0) {
+				return -1;
+			}
+		}
+		// the position is read with the stronger side as white
+		int flip = strong == EngineBoard.WHITE ? 0 : 56;
+		int[] squares = new int[types.length + 2];
+		Arrays.fill(squares, -1);
+		squares[0] = board.getKingSquare(strong) ^ flip;
+		squares[1] = board.getKingSquare(weak) ^ flip;
+		int placed = 0;
+		for (int square = 0; square < 64; square++) {
+			int piece = board.getPiece(square);
+			if (piece == EngineBoard.EMPTY || EngineBoard.colorOf(piece) != strong
+					|| EngineBoard.typeOf(piece) == EngineBoard.KING) {
+				continue;
+			}
+			int slot = 0;
+			while (slot < types.length && (types[slot] != EngineBoard.typeOf(piece) || squares[slot + 2] >= 0)) {
+				slot++;
+			}
+			if (slot == types.length) {
+				return -1;
+			}
+			squares[slot + 2] = square ^ flip;
+			placed++;
+		}
+		if (placed != types.length) {
+			return -1;
+		}
+		return getValue(index(squares, board.getSideToMove() == strong ? EngineBoard.WHITE : EngineBoard.BLACK));
+	}
+
+	/**
+	 * Returns the score of a position on a board, if it has this table's
+	 * material.
+	 *
+	 * @param board the position to probe
+	 * @return Search.MATE minus the plies to mate if the side to move mates, the
+	 *         negative of that if it is mated, 0 for a draw, or NOT_FOUND if the
+	 *         board does not have this table's material
+	 */
+	public int probe(EngineBoard board) {
+		int value = probeValue(board);
+		return value < 0 || value == ILLEGAL ? NOT_FOUND : toScore(value);
+	}
+
+	/**
+	 * Probes a position in whichever table has its material. Positions with only
+	 * the kings and at most one bishop or knight are drawn without a table.
+	 *
+	 * @param tables the tables to look in
+	 * @param board  the position to probe
+	 * @return the score as returned by probe(EngineBoard), or NOT_FOUND if no
+	 *         table has the material
+	 */
+	public static int probe(Tablebase[] tables, EngineBoard board) {
+		int minors = 0;
+		int others = 0;
+		for (int color = EngineBoard.WHITE; color <= EngineBoard.BLACK; color++) {
+			minors += board.getPieceCount(EngineBoard.makePiece(color, EngineBoard.KNIGHT))
+					+ board.getPieceCount(EngineBoard.makePiece(color, EngineBoard.BISHOP));
+			others += board.getPieceCount(EngineBoard.makePiece(color, EngineBoard.PAWN))
+					+ board.getPieceCount(EngineBoard.makePiece(color, EngineBoard.ROOK))
+					+ board.getPieceCount(EngineBoard.makePiece(color, EngineBoard.QUEEN));
+		}
+		if (others == 0 && minors <= 1) {
+			return 0;
+		}
+		for (Tablebase table : tables) {
+			int score = table.probe(board);
+			if (score != NOT_FOUND) {
+				return score;
+			}
+		}
+		return NOT_FOUND;
+	}
+
+	/**
+	 * Returns the best move in a position held by the tables: the quickest mate
+	 * when winning, a move keeping the draw when drawn, and the longest defence
+	 * when lost.
+	 *
+	 * @param tables the tables to look in
+	 * @param board  the position, which is left unchanged
+	 * @return the best move, or Move.NONE if the tables do not hold the position
+	 *         and every position after it, or there are no legal moves
+	 */
+	public static int bestMove(Tablebase[] tables, EngineBoard board) {
+		if (probe(tables, board) == NOT_FOUND) {
+			return Move.NONE;
+		}
+		int[] moves = new int[EngineBoard.MAX_MOVES];
+		int count = board.generateLegalMoves(moves);
+		int bestMove = Move.NONE;
+		int bestScore = Integer.MIN_VALUE;
+		for (int i = 0; i < count; i++) {
+			board.makeMove(moves[i]);
+			int score = probe(tables, board);
+			board.unmakeMove();
+			if (score == NOT_FOUND) {
+				return Move.NONE;
+			}
+			if (-score > bestScore) {
+				bestScore = -score;
+				bestMove = moves[i];
+			}
+		}
+		return bestMove;
+	}
+
+	/**
+	 * Converts a stored byte, other than ILLEGAL, to a score.
+	 */
+	static int toScore(int value) {
+		if (value == DRAW) {
+			return 0;
+		}
+		int plies = value - 1;
+		return (plies & 1) != 0 ? Search.MATE - plies : -(Search.MATE - plies);
+	}
+
+	/**
+	 * Converts a score returned by probe to the byte stored for it.
+	 */
+	static int toValue(int score) {
+		if (score == 0) {
+			return DRAW;
+		}
+		return (score > 0 ? Search.MATE - score : Search.MATE + score) + 1;
+	}
+
+	/**
+	 * Writes the table to a file that the Tablebase(Path) constructor can open.
+	 *
+	 * @param file the file to write
+	 * @throws IOException if the file cannot be written
+	 */
+	public void save(Path file) throws IOException {
+		try (DataOutputStream output = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			output.writeUTF(material);
+			byte[] buffer = new byte[1 << 16];
+			ByteBuffer source = values.duplicate();
+			source.clear();
+			while (source.hasRemaining()) {
+				int length = Math.min(buffer.length, source.remaining());
+				source.get(buffer, 0, length);
+				output.write(buffer, 0, length);
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (channel != null) {
+			channel.close();
+		}
+	}
+
+	public String toString() {
+		return "Tablebase[" + material + ", " + size + " positions]";
+	}
+}
@@ -0,0 +1,507 @@
+package engine;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import board.PieceType;
+import board.PlayingBoard;
+
+/**
+ * Generates Tablebases by retrograde analysis. Every position of a material
+ * set is first classified as illegal, checkmated, stalemated or undecided.
+ * Checkmate is being in check with no legal moves, and each one found is
+ * confirmed by Board.isCheckMate on a PlayingBoard holding the same pieces.
+ * Passes then follow, alternating between the two outcomes: pass n, when odd,
+ * marks the undecided positions with a move to a position that is mated in
+ * n - 1 plies, and when even, the positions whose moves all lead to positions
+ * that mate, the slowest in n - 1 plies. Positions still undecided once two
+ * passes in a row change nothing are draws.
+ *
+ * A pass only looks again at the positions that can reach a position decided
+ * in the pass before, found by taking moves back, and at the positions with a
+ * capture or promotion, which lead into another table. The positions are split
+ * into ranges handled in parallel on a fork-join pool. A worker only writes
+ * the byte of the position it is looking at, and a pass only acts on bytes
+ * decided in earlier passes, so the result does not depend on the order the
+ * work is done in.
+ *
+ * Usage: TablebaseGenerator [directory [material ...]]
+ */
+public class TablebaseGenerator {
+	/**
+	 * the tables made when no material is given
+	 */
+	public static final String[] DEFAULT_MATERIALS = { "KQK", "KRK", "KPK", "KBNK" };
+	/**
+	 * number of positions handled by one task
+	 */
+	private static final int CHUNK_SIZE = 1 << 14;
+
+	private final ForkJoinPool pool;
+	/**
+	 * tables made so far by material name, which later tables may lead into
+	 */
+	private final Map<String, Tablebase> tables = new LinkedHashMap<String, Tablebase>();
+
+	/**
+	 * Creates a generator.
+	 *
+	 * @param pool the pool to run passes on
+	 */
+	public TablebaseGenerator(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Generates the table of a material set, after generating the tables that
+	 * its captures and promotions lead into if they have not been already.
+	 *
+	 * @param material the stronger side's king and pieces, then the lone king,
+	 *                 such as "KBNK"
+	 * @return the table, held in memory
+	 */
+	public Tablebase generate(String material) {
+		int[] types = Tablebase.parseMaterial(material);
+		String name = Tablebase.materialName(types);
+		Tablebase table = tables.get(name);
+		if (table != null) {
+			return table;
+		}
+		for (int i = 0; i < types.length; i++) {
+			generateReduced(types, i, 0);
+			if (types[i] == EngineBoard.PAWN) {
+				for (int promotion = EngineBoard.KNIGHT; promotion <= EngineBoard.QUEEN; promotion++) {
+					generateReduced(types, i, promotion);
+				}
+			}
+		}
+		table = new Generation(types).run();
+		tables.put(name, table);
+		return table;
+	}
+
+	/**
+	 * Generates the table reached when a piece is captured, if type is 0, or
+	 * promotes to a piece of that type, unless the material left cannot mate.
+	 */
+	private void generateReduced(int[] types, int piece, int type) {
+		int[] reduced = new int[type == 0 ? types.length - 1 : types.length];
+		for (int i = 0, j = 0; i < types.length; i++) {
+			if (i != piece) {
+				reduced[j++] = types[i];
+			} else if (type != 0) {
+				reduced[j++] = type;
+			}
+		}
+		if (!Tablebase.isDrawn(reduced)) {
+			generate(Tablebase.materialName(reduced));
+		}
+	}
+
+	/**
+	 * The state of generating one table.
+	 */
+	private final class Generation {
+		/**
+		 * engine piece code of each piece: the white king, the black king, then
+		 * the white pieces of the material
+		 */
+		private final int[] pieces;
+		private final byte[] values;
+		private final Tablebase table;
+		/**
+		 * 1 for each position with a move leaving the table
+		 */
+		private final byte[] exits;
+		/**
+		 * 1 for each position to look at in the current pass, and in the next
+		 */
+		private byte[] pending;
+		private byte[] nextPending;
+		/**
+		 * the tables that moves leaving this one lead into
+		 */
+		private final Tablebase[] others;
+		private boolean pawns;
+
+		Generation(int[] types) {
+			pieces = new int[types.length + 2];
+			pieces[0] = EngineBoard.makePiece(EngineBoard.WHITE, EngineBoard.KING);
+			pieces[1] = EngineBoard.makePiece(EngineBoard.BLACK, EngineBoard.KING);
+			for (int i = 0; i < types.length; i++) {
+				pieces[i + 2] = EngineBoard.makePiece(EngineBoard.WHITE, types[i]);
+				pawns |= types[i] == EngineBoard.PAWN;
+			}
+			values = new byte[Tablebase.size(types)];
+			table = new Tablebase(types, values);
+			exits = new byte[values.length];
+			pending = new byte[values.length];
+			nextPending = new byte[values.length];
+			others = tables.values().toArray(new Tablebase[0]);
+		}
+
+		Tablebase run() {
+			int longestExit = pool.invoke(new PassTask(this, 0, values.length, 0));
+			int quietPasses = 0;
+			for (int pass = 1; quietPasses < 2 || pass <= longestExit + 1; pass++) {
+				if (pass >= Tablebase.ILLEGAL - 1) {
+					throw new IllegalStateException("Mates too long to store in " + table.getMaterial());
+				}
+				byte[] swap = pending;
+				pending = nextPending;
+				nextPending = swap;
+				Arrays.fill(nextPending, (byte) 0);
+				int decided = pool.invoke(new PassTask(this, 0, values.length, pass));
+				quietPasses = decided == 0 ? quietPasses + 1 : 0;
+			}
+			return table;
+		}
+	}
+
+	/**
+	 * Runs a pass over a range of positions, splitting the range in two until it
+	 * is no larger than the chunk size. Pass 0 classifies the positions and
+	 * returns the longest mate, in plies, that a move leaving the table leads
+	 * to; later passes return the number of positions decided.
+	 */
+	private static class PassTask extends RecursiveTask<Integer> {
+		private static final long serialVersionUID = 1L;
+		private final Generation generation;
+		private final int start;
+		private final int end;
+		private final int pass;
+
+		PassTask(Generation generation, int start, int end, int pass) {
+			this.generation = generation;
+			this.start = start;
+			this.end = end;
+			this.pass = pass;
+		}
+
+		@Override
+		protected Integer compute() {
+			if (end - start > CHUNK_SIZE) {
+				int middle = start + (end - start) / 2;
+				PassTask right = new PassTask(generation, middle, end, pass);
+				right.fork();
+				int left = new PassTask(generation, start, middle, pass).compute();
+				return pass == 0 ? Math.max(left, right.join()) : left + right.join();
+			}
+			Worker worker = new Worker(generation);
+			int output = 0;
+			for (int index = start; index < end; index++) {
+				if (pass == 0) {
+					output = Math.max(output, worker.classify(index));
+				} else if ((generation.pending[index] | generation.exits[index]) != 0
+						&& generation.values[index] == Tablebase.DRAW && worker.decide(index, pass)) {
+					output++;
+				}
+			}
+			return output;
+		}
+	}
+
+	/**
+	 * Looks at positions of one table, with its own board and buffers.
+	 */
+	private static class Worker {
+		private final Generation generation;
+		private final Tablebase table;
+		private final byte[] values;
+		private final int[] pieces;
+		private final EngineBoard board = new EngineBoard();
+		private final int[] moves = new int[EngineBoard.MAX_MOVES];
+		private final int[] squares;
+		private final int[] child;
+		private int sideToMove;
+
+		Worker(Generation generation) {
+			this.generation = generation;
+			table = generation.table;
+			values = generation.values;
+			pieces = generation.pieces;
+			squares = new int[pieces.length];
+			child = new int[pieces.length];
+		}
+
+		/**
+		 * Sets up the position at an index on the board.
+		 *
+		 * @return false if the position is illegal: two pieces on one square, a
+		 *         pawn on the first or last rank, or the side not to move in check
+		 */
+		private boolean setUp(int index) {
+			sideToMove = table.squares(index, squares);
+			long occupied = 0;
+			for (int i = 0; i < squares.length; i++) {
+				long bit = 1L << squares[i];
+				int rank = squares[i] >>> 3;
+				if ((occupied & bit) != 0
+						|| (EngineBoard.typeOf(pieces[i]) == EngineBoard.PAWN && (rank == 0 || rank == 7))) {
+					return false;
+				}
+				occupied |= bit;
+			}
+			board.setPieces(pieces, squares, sideToMove);
+			return !board.isSquareAttacked(board.getKingSquare(sideToMove ^ 1), sideToMove);
+		}
+
+		/**
+		 * Classifies a position for pass 0.
+		 *
+		 * @return the longest mate in plies after a move leaving the table, or 0
+		 */
+		int classify(int index) {
+			if (!setUp(index)) {
+				values[index] = (byte) Tablebase.ILLEGAL;
+				return 0;
+			}
+			int count = board.generateMoves(moves, 0);
+			int legal = 0;
+			int longestExit = 0;
+			for (int i = 0; i < count; i++) {
+				if (!board.makeMove(moves[i])) {
+					continue;
+				}
+				legal++;
+				if (leavesTable(moves[i])) {
+					generation.exits[index] = 1;
+					longestExit = Math.max(longestExit, exitValue() - 1);
+				}
+				board.unmakeMove();
+			}
+			if (legal == 0 && board.inCheck()) {
+				confirmCheckmate();
+				values[index] = 1;
+				markPredecessors();
+			}
+			return longestExit;
+		}
+
+		/**
+		 * Decides an undecided position in a pass, if it can be.
+		 *
+		 * @return true if the position was decided
+		 */
+		boolean decide(int index, int pass) {
+			setUp(index);
+			boolean winning = (pass & 1) != 0;
+			int count = board.generateMoves(moves, 0);
+			int legal = 0;
+			int slowest = 0;
+			for (int i = 0; i < count; i++) {
+				if (!board.makeMove(moves[i])) {
+					continue;
+				}
+				legal++;
+				int value = leavesTable(moves[i]) ? exitValue() : childValue(moves[i]);
+				board.unmakeMove();
+				if (winning && value == pass) {
+					// a move to a position mated in pass - 1 plies
+					values[index] = (byte) (pass + 1);
+					markPredecessors();
+					return true;
+				}
+				if (!winning) {
+					if (value == Tablebase.DRAW || (value & 1) != 0) {
+						// a move to a draw, an undecided position or one that is mated
+						return false;
+					}
+					slowest = Math.max(slowest, value);
+				}
+			}
+			if (winning || legal == 0 || slowest != pass) {
+				return false;
+			}
+			values[index] = (byte) (pass + 1);
+			markPredecessors();
+			return true;
+		}
+
+		private static boolean leavesTable(int move) {
+			return Move.isCapture(move) || Move.isPromotion(move);
+		}
+
+		/**
+		 * Returns the byte of the position after a move staying in the table.
+		 */
+		private int childValue(int move) {
+			int from = Move.getFrom(move);
+			for (int i = 0; i < squares.length; i++) {
+				child[i] = squares[i] == from ? Move.getTo(move) : squares[i];
+			}
+			return values[table.index(child, sideToMove ^ 1)] & 0xFF;
+		}
+
+		/**
+		 * Returns the byte for the position on the board, which has left the
+		 * table, from the table it has moved into.
+		 */
+		private int exitValue() {
+			int score = Tablebase.probe(generation.others, board);
+			if (score == Tablebase.NOT_FOUND) {
+				throw new IllegalStateException("No table for " + board.toFen());
+			}
+			return Tablebase.toValue(score);
+		}
+
+		/**
+		 * Marks for the next pass every position of the table from which a move
+		 * without a capture or promotion leads to the current one.
+		 */
+		private void markPredecessors() {
+			int mover = sideToMove ^ 1;
+			System.arraycopy(squares, 0, child, 0, squares.length);
+			for (int i = 0; i < pieces.length; i++) {
+				if (EngineBoard.colorOf(pieces[i]) != mover) {
+					continue;
+				}
+				int to = squares[i];
+				switch (EngineBoard.typeOf(pieces[i])) {
+				case EngineBoard.PAWN:
+					if ((to >>> 3) >= 2 && board.getPiece(to - 8) == EngineBoard.EMPTY) {
+						mark(i, to - 8, mover);
+						if ((to >>> 3) == 3 && board.getPiece(to - 16) == EngineBoard.EMPTY) {
+							mark(i, to - 16, mover);
+						}
+					}
+					break;
+				case EngineBoard.KNIGHT:
+					markSteps(i, EngineBoard.KNIGHT_TARGETS[to], mover);
+					break;
+				case EngineBoard.KING:
+					markSteps(i, EngineBoard.KING_TARGETS[to], mover);
+					break;
+				default:
+					int type = EngineBoard.typeOf(pieces[i]);
+					int first = type == EngineBoard.BISHOP ? 4 : 0;
+					int last = type == EngineBoard.ROOK ? 3 : 7;
+					for (int direction = first; direction <= last; direction++) {
+						for (int from : EngineBoard.RAYS[to][direction]) {
+							if (board.getPiece(from) != EngineBoard.EMPTY) {
+								break;
+							}
+							mark(i, from, mover);
+						}
+					}
+				}
+			}
+		}
+
+		private void markSteps(int piece, int[] targets, int mover) {
+			for (int from : targets) {
+				if (board.getPiece(from) == EngineBoard.EMPTY) {
+					mark(piece, from, mover);
+				}
+			}
+		}
+
+		private void mark(int piece, int from, int mover) {
+			child[piece] = from;
+			generation.nextPending[table.index(child, mover)] = 1;
+			if (!generation.pawns) {
+				// with the white king on the a1-h8 diagonal a position is stored twice,
+				// once mirrored in the diagonal
+				for (int i = 0; i < child.length; i++) {
+					child[i] = ((child[i] & 7) << 3) | (child[i] >>> 3);
+				}
+				generation.nextPending[table.index(child, mover)] = 1;
+				System.arraycopy(squares, 0, child, 0, squares.length);
+			}
+			child[piece] = squares[piece];
+		}
+
+		/**
+		 * Checks a checkmate found on the board against Board.isCheckMate.
+		 */
+		private void confirmCheckmate() {
+			byte[] squareCodes = new byte[64];
+			int types = PieceType.values().length;
+			for (int i = 0; i < pieces.length; i++) {
+				squareCodes[squares[i]] = (byte) (1
+						+ EngineBoard.toChessColor(EngineBoard.colorOf(pieces[i])).ordinal() * types
+						+ EngineBoard.toPieceType(pieces[i]).ordinal());
+			}
+			if (!PlayingBoard.fromSquareCodes(squareCodes).isCheckMate(EngineBoard.toChessColor(sideToMove))) {
+				throw new IllegalStateException("Checkmate not confirmed by the board: " + board.toFen());
+			}
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		boolean temporary = args.length == 0;
+		Path directory = temporary ? Files.createTempDirectory("tablebases") : Paths.get(args[0]);
+		String[] materials = args.length > 1 ? Arrays.copyOfRange(args, 1, args.length) : DEFAULT_MATERIALS;
+		Files.createDirectories(directory);
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		TablebaseGenerator generator = new TablebaseGenerator(pool);
+		try {
+			for (String material : materials) {
+				long start = System.nanoTime();
+				Tablebase table = generator.generate(material);
+				long elapsed = System.nanoTime() - start;
+				int[] counts = new int[4];
+				int longest = 0;
+				for (int index = 0; index < table.getSize(); index++) {
+					int value = table.getValue(index);
+					if (value == Tablebase.ILLEGAL) {
+						counts[3]++;
+					} else if (value == Tablebase.DRAW) {
+						counts[2]++;
+					} else {
+						counts[value & 1]++;
+						longest = Math.max(longest, value - 1);
+					}
+				}
+				Path file = directory.resolve(table.getMaterial() + ".tb");
+				table.save(file);
+				System.out.printf("%s: %d positions in %d ms on %d threads, %d won, %d lost, %d drawn, %d illegal, "
+						+ "longest mate %d plies%n", table.getMaterial(), table.getSize(), elapsed / 1_000_000,
+						pool.getParallelism(), counts[0], counts[1], counts[2], counts[3], longest);
+			}
+			// plays out a position from the mapped files
+			Tablebase[] opened = new Tablebase[materials.length];
+			for (int i = 0; i < materials.length; i++) {
+				opened[i] = new Tablebase(
+						directory.resolve(Tablebase.materialName(Tablebase.parseMaterial(materials[i])) + ".tb"));
+			}
+			try {
+				EngineBoard board = new EngineBoard("8/8/8/4k3/8/8/8/KBN5 w - - 0 1");
+				int score = Tablebase.probe(opened, board);
+				if (score != Tablebase.NOT_FOUND) {
+					StringBuilder line = new StringBuilder(board.toFen() + ": " + score + "\n ");
+					long start = System.nanoTime();
+					int plies = 0;
+					int move;
+					while (plies < Tablebase.ILLEGAL && (move = Tablebase.bestMove(opened, board)) != Move.NONE) {
+						line.append(' ').append(Move.toString(move));
+						board.makeMove(move);
+						plies++;
+					}
+					System.out.println(line);
+					System.out.printf("%d plies, %.1f us per move%n", plies,
+							(System.nanoTime() - start) / 1e3 / Math.max(1, plies));
+				}
+			} finally {
+				for (Tablebase table : opened) {
+					table.close();
+				}
+			}
+		} finally {
+			if (temporary) {
+				for (String material : materials) {
+					Files.deleteIfExists(
+							directory.resolve(Tablebase.materialName(Tablebase.parseMaterial(material)) + ".tb"));
+				}
+				Files.deleteIfExists(directory);
+			}
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package engine;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-size hash table of search results, indexed by position hash. Each entry
+ * is packed into two longs: the full key, and the move, score, depth and bound
+ * type. Entries are always replaced.
+ */
+public class TranspositionTable {
+	// bound types stored with each score
+	public static final int EXACT = 0;
+	public static final int LOWER_BOUND = 1;
+	public static final int UPPER_BOUND = 2;
+
+	/**
+	 * set in every stored entry, so that a stored entry is never 0
+	 */
+	private static final long VALID = 1L << 42;
+
+	private final long[] keys;
+	private final long[] entries;
+	private final int mask;
+
+	/**
+	 * Creates a table with a power of two number of entries that fits in the
+	 * given size.
+	 *
+	 * @param sizeMegabytes the maximum memory used by the table
+	 */
+	public TranspositionTable(int sizeMegabytes) {
+		long entryCount = Long.highestOneBit(Math.max(1L, sizeMegabytes * 1024L * 1024L / 16));
+		keys = new long[(int) entryCount];
+		entries = new long[(int) entryCount];
+		mask = (int) entryCount - 1;
+	}
+
+	/**
+	 * Stores a search result.
+	 *
+	 * @param key   hash of the position
+	 * @param move  best move found, or Move.NONE
+	 * @param score score of the position, in the same form as Search
+	 * @param depth depth the position was searched to
+	 * @param bound EXACT, LOWER_BOUND or UPPER_BOUND
+	 */
+	public void store(long key, int move, int score, int depth, int bound) {
+		int index = (int) key & mask;
+		keys[index] = key;
+		entries[index] = (move & 0xFFFFL) | ((score & 0xFFFFL) << 16) | ((depth & 0xFFL) << 32)
+				| ((long) bound << 40) | VALID;
+	}
+
+	/**
+	 * Returns the packed entry for a position, or 0 if there is none. Use the
+	 * static accessors to unpack it.
+	 *
+	 * @param key hash of the position
+	 * @return packed entry, or 0 if the position is not stored
+	 */
+	public long probe(long key) {
+		int index = (int) key & mask;
+		return keys[index] == key ? entries[index] : 0;
+	}
+
+	public void clear() {
+		Arrays.fill(keys, 0);
+		Arrays.fill(entries, 0);
+	}
+
+	public static int getMove(long entry) {
+		return (int) (entry & 0xFFFF);
+	}
+
+	public static int getScore(long entry) {
+		return (short) (entry >>> 16);
+	}
+
+	public static int getDepth(long entry) {
+		return (int) ((entry >>> 32) & 0xFF);
+	}
+
+	public static int getBound(long entry) {
+		return (int) ((entry >>> 40) & 0x3);
+	}
+}
@@ -0,0 +1,48 @@
+package engine;
+
+import java.util.Random;
+
+/**
+ * Random keys for Zobrist hashing of positions. The keys are generated from a
+ * fixed seed so that hashes are stable between runs and can be stored.
+ */
+final class Zobrist {
+	/**
+	 * keys indexed by engine piece code and square index
+	 */
+	static final long[][] PIECE_SQUARE = new long[16][64];
+	/**
+	 * keys indexed by the castling rights bit set
+	 */
+	static final long[] CASTLING = new long[16];
+	/**
+	 * keys indexed by the file of the en passant square
+	 */
+	static final long[] EN_PASSANT_FILE = new long[8];
+	/**
+	 * key toggled when black is to move
+	 */
+	static final long BLACK_TO_MOVE;
+
+	private static final long SEED = 0x5EED_C4E5_5L;
+
+	static {
+		Random random = new Random(SEED);
+		for (int piece = 0; piece < PIECE_SQUARE.length; piece++) {
+			for (int square = 0; square < 64; square++) {
+				PIECE_SQUARE[piece][square] = random.nextLong();
+			}
+		}
+		for (int i = 0; i < CASTLING.length; i++) {
+			CASTLING[i] = random.nextLong();
+		}
+		CASTLING[0] = 0;
+		for (int i = 0; i < EN_PASSANT_FILE.length; i++) {
+			EN_PASSANT_FILE[i] = random.nextLong();
+		}
+		BLACK_TO_MOVE = random.nextLong();
+	}
+
+	private Zobrist() {
+	}
+}
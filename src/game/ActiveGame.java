@@ -1,26 +1,141 @@
 package game;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import board.BoardSnapshot;
 import board.ChessColor;
-import board.Piece;
 import board.PlayingBoard;
 import board.QuickMoveBoard;
-import moveRules.MoveRule;
 
 public class ActiveGame {
+	/**
+	 * plies between the checkpoints of the history index
+	 */
+	public static final int DEFAULT_CHECKPOINT_INTERVAL = 16;
+
 	private PlayingBoard gameBoard;
 	private ChessColor movingColor;
-	// TODO add storage for the game, remove following variables
+	private final MoveHistory history;
+	private HistoryIndex historyIndex;
+	/**
+	 * immutable copy of the current position, replaced after every move so that
+	 * other threads can read it without locks
+	 */
+	private volatile BoardSnapshot snapshot;
+	/**
+	 * legal moves of the player to move, found once after each move; empty once
+	 * the game is finished
+	 */
+	private LegalMoveSet legalMoves;
+	/**
+	 * legal moves and check status of positions, usually shared with other games
+	 */
+	private final LegalMoveCache moveCache;
+	// state that could be found from the history, kept for quick access
 	private int turnNumber;
 	private boolean gameFinished;
 	private ChessColor winner;
+	private FullDetailTurn lastTurn;
+	private final List<GameListener> listeners = new ArrayList<GameListener>();
 
 	public ActiveGame() {
+		this(LegalMoveCache.SHARED);
+	}
+
+	/**
+	 * Creates a game in the starting position that finds legal moves through a
+	 * cache other than the shared one.
+	 * 
+	 * @param moveCache the cache of legal moves to use
+	 */
+	public ActiveGame(LegalMoveCache moveCache) {
 		gameBoard = new PlayingBoard();
+		history = new MoveHistory();
+		snapshot = BoardSnapshot.of(gameBoard, 0);
 		movingColor = ChessColor.WHITE;
+		this.moveCache = moveCache;
 
 		turnNumber = 1;
 		gameFinished = false;
 		winner = null;
+		legalMoves = findLegalMoves();
+	}
+
+	/**
+	 * Creates a game in progress from a saved position and its move history. The
+	 * player to move and the turn number follow from the number of moves.
+	 * 
+	 * @param gameBoard the current position
+	 * @param history   the moves that led to the position
+	 * @param moveCache the cache of legal moves to use
+	 */
+	private ActiveGame(PlayingBoard gameBoard, MoveHistory history, LegalMoveCache moveCache) {
+		this.gameBoard = gameBoard;
+		this.history = history;
+		snapshot = BoardSnapshot.of(gameBoard, history.size());
+		movingColor = history.size() % 2 == 0 ? ChessColor.WHITE : ChessColor.BLACK;
+		turnNumber = history.size() / 2 + 1;
+		this.moveCache = moveCache;
+		gameFinished = false;
+		winner = null;
+		legalMoves = findLegalMoves();
+	}
+
+	/**
+	 * Returns the legal moves of the player to move, from the cache if the
+	 * position is in it, and otherwise found and added to the cache.
+	 */
+	private LegalMoveSet findLegalMoves() {
+		long hash = gameBoard.getHash(movingColor);
+		LegalMoveCache.Entry entry = moveCache.get(hash);
+		if (entry == null) {
+			entry = addEntry(hash, movingColor);
+		}
+		return entry.getMoves();
+	}
+
+	/**
+	 * Finds the legal moves and check status of the current position and adds
+	 * them to the cache. The legal moves are the only judge of the end of the
+	 * game: a player in check without legal moves is checkmated, and one not in
+	 * check without legal moves is stalemated.
+	 * 
+	 * @param hash  the position's hash
+	 * @param color the color to move
+	 * @return the entry added
+	 */
+	private LegalMoveCache.Entry addEntry(long hash, ChessColor color) {
+		boolean check = gameBoard.isInCheck(color);
+		LegalMoveSet moves = LegalMoveSet.generate(gameBoard, color);
+		return moveCache.put(hash, moves, check, check && moves.isEmpty());
+	}
+
+	/**
+	 * Restores a game in progress saved with getSquareCodes and the encoded moves
+	 * of its history, without replaying the moves. The game finds legal moves
+	 * through the shared cache.
+	 * 
+	 * @param squareCodes the position, as given by getSquareCodes
+	 * @param moves       the moves of the game, as given by MoveHistory.toArray
+	 * @return the restored game
+	 */
+	public static ActiveGame restore(byte[] squareCodes, short[] moves) {
+		return restore(squareCodes, moves, LegalMoveCache.SHARED);
+	}
+
+	/**
+	 * Restores a game in progress saved with getSquareCodes and the encoded moves
+	 * of its history, without replaying the moves, finding legal moves through a
+	 * cache other than the shared one.
+	 * 
+	 * @param squareCodes the position, as given by getSquareCodes
+	 * @param moves       the moves of the game, as given by MoveHistory.toArray
+	 * @param moveCache   the cache of legal moves to use
+	 * @return the restored game
+	 */
+	public static ActiveGame restore(byte[] squareCodes, short[] moves, LegalMoveCache moveCache) {
+		return new ActiveGame(PlayingBoard.fromSquareCodes(squareCodes), MoveHistory.fromArray(moves), moveCache);
 	}
 
 	/**
@@ -32,29 +147,50 @@ public class ActiveGame {
 	 *         able to be applied
 	 */
 	public boolean move(Turn turn) {
-		Piece moving = gameBoard.getPosition(turn.getCurrent());
-		Piece destination = gameBoard.getPosition(turn.getProposed());
 		// returns false if the move does not exist, the move is not a valid pattern, or
-		// the move is illegal (puts own king in check)
-		if (!isExistingMove(turn, moving, destination) || !isValidPattern(turn, moving, destination)
-				) {//|| !isLegalMove(turn, moving, destination)) {
+		// the move is illegal (puts own king in check), all of which were checked when
+		// the legal moves were found
+		if (gameFinished || !legalMoves.contains(turn)) {
 			return false;
 		}
-		// the move is now known to be allowed, perform it
-		FullDetailTurn fullTurn = gameBoard.move(turn);
-		System.out.println(fullTurn);
+		// the move is now known to be allowed, perform it. If the position after it
+		// is in the cache, so is whether it is check or checkmate; otherwise the
+		// position's legal moves are found once, deciding both, and added to the
+		// cache.
+		long nextHash = gameBoard.getHashAfter(turn);
+		LegalMoveCache.Entry next = moveCache.get(nextHash);
+		FullDetailTurn fullTurn;
+		if (next != null) {
+			fullTurn = gameBoard.move(turn, next.isCheck(), next.isCheckmate());
+		} else {
+			FullDetailTurn moved = gameBoard.move(turn, false, false);
+			next = addEntry(nextHash, movingColor.getOppositeColor());
+			fullTurn = new FullDetailTurn(moved, next.isCheck(), next.isCheckmate());
+		}
+		lastTurn = fullTurn;
+		history.add(turn);
+		snapshot = snapshot.afterMove(turn);
+		for (GameListener listener : listeners) {
+			listener.onMove(fullTurn);
+		}
 		// if the move is checkmate, end the game
 		if (fullTurn.isCheckmate()) {
-			gameFinished = true;
-			winner = fullTurn.getPiece().getColor();
+			for (GameListener listener : listeners) {
+				listener.onCheckmate(fullTurn, movingColor);
+			}
+			finish(fullTurn.getPiece().getColor());
 		}
 		// otherwise, if the game has reached 50 moves for both players, end the game
 		else if (turnNumber == 50 && movingColor == ChessColor.BLACK) {
-			gameFinished = true;
-			winner = ChessColor.DRAW;
+			finish(ChessColor.DRAW);
 		}
 		// if the game is not over, prepare for the next turn
 		else {
+			if (fullTurn.isCheck()) {
+				for (GameListener listener : listeners) {
+					listener.onCheck(fullTurn, movingColor.getOppositeColor());
+				}
+			}
 			// if black has moved, that means that the player of both colors has moved their
 			// piece. Therefore, a turn has occurred for both players and the turn number
 			// can be incremented.
@@ -62,10 +198,127 @@ public class ActiveGame {
 				turnNumber++;
 			}
 			movingColor = movingColor.getOppositeColor();
+			legalMoves = next.getMoves();
+			// a player with no legal moves who is not in check is stalemated
+			if (legalMoves.isEmpty() && !fullTurn.isCheck()) {
+				finish(ChessColor.DRAW);
+			}
 		}
 		return true;
 	}
 
+	/**
+	 * Returns the most recent turn applied to the game.
+	 * 
+	 * @return the last turn, or null if no move has been made
+	 */
+	public FullDetailTurn getLastTurn() {
+		return lastTurn;
+	}
+
+	/**
+	 * Returns the legal moves of the player to move, which are found once after
+	 * each move. The set is empty once the game is finished.
+	 * 
+	 * @return the legal moves in the current position
+	 */
+	public LegalMoveSet getLegalMoves() {
+		return legalMoves;
+	}
+
+	/**
+	 * Returns an immutable copy of the current position. Unlike the rest of the
+	 * game, this method may be called from any thread while moves are being
+	 * made; the snapshot returned is always a consistent position.
+	 * 
+	 * @return snapshot of the current position
+	 */
+	public BoardSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Returns an index for looking up the position after any ply of the game,
+	 * with a checkpoint every DEFAULT_CHECKPOINT_INTERVAL plies.
+	 * 
+	 * @return the game's history index
+	 */
+	public HistoryIndex getHistoryIndex() {
+		if (historyIndex == null) {
+			historyIndex = new HistoryIndex(history, DEFAULT_CHECKPOINT_INTERVAL);
+		}
+		return historyIndex;
+	}
+
+	/**
+	 * Returns the pieces on the board as one byte per square, as described by
+	 * PlayingBoard.toSquareCodes.
+	 * 
+	 * @return array of 64 square codes
+	 */
+	public byte[] getSquareCodes() {
+		return gameBoard.toSquareCodes();
+	}
+
+	/**
+	 * Returns the moves of the game so far. The history is read-only, and grows
+	 * as moves are made.
+	 * 
+	 * @return the game's move history
+	 */
+	public MoveHistory getHistory() {
+		return history;
+	}
+
+	/**
+	 * Ends the game with a resignation, making the other color the winner.
+	 * Throws an UnsupportedOperationException if the game is already finished.
+	 * 
+	 * @param resigning the color of the player resigning
+	 */
+	public void resign(ChessColor resigning) {
+		if (gameFinished) {
+			throw new UnsupportedOperationException("Game already finished");
+		}
+		if (resigning == ChessColor.DRAW) {
+			throw new IllegalArgumentException("Only a player can resign");
+		}
+		finish(resigning.getOppositeColor());
+	}
+
+	/**
+	 * Adds a listener to be told of moves, checks and the end of the game. With
+	 * no listeners, applying a move does no I/O at all.
+	 * 
+	 * @param listener the listener to add
+	 */
+	public void addListener(GameListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Removes a listener added with addListener.
+	 * 
+	 * @param listener the listener to remove
+	 */
+	public void removeListener(GameListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Ends the game and tells the listeners.
+	 * 
+	 * @param winner the winning color, or DRAW
+	 */
+	private void finish(ChessColor winner) {
+		gameFinished = true;
+		legalMoves = LegalMoveSet.EMPTY;
+		this.winner = winner;
+		for (GameListener listener : listeners) {
+			listener.onGameEnd(winner);
+		}
+	}
+
 	/**
 	 * Gets the color of the player currently making a move
 	 * 
@@ -108,44 +361,4 @@ public class ActiveGame {
 	public String getBoardString() {
 		return gameBoard.toString();
 	}
-
-	/**
-	 * Checks if a move exists. A move exists if the moving piece exists, is of the
-	 * color of the moving player, and does not capture a same colored piece.
-	 * 
-	 * @param turn        the turn being tested
-	 * @param moving      the piece moving
-	 * @param destination the piece at the position being moved to
-	 * @return true if the move exists, false otherwise.
-	 */
-	private boolean isExistingMove(Turn turn, Piece moving, Piece destination) {
-		// checks if there is a movable piece at that position, of the color that is
-		// currently taking a turn
-		if (moving == null || !moving.getColor().equals(movingColor)) {
-			return false;
-		}
-		// checks if the destination is of the same color as the moving piece, which
-		// would be illegal
-		if (destination != null && destination.getColor().equals(movingColor)) {
-			return false;
-		}
-		return true;
-	}
-
-	/**
-	 * Checks if a move is a valid move pattern.
-	 * 
-	 * @param turn        the turn being checked
-	 * @param moving      the piece moving on that turn
-	 * @param destination the piece at the destination position
-	 * @return true if the move is a valid pattern, false if it is not a valid
-	 *         pattern
-	 */
-	private boolean isValidPattern(Turn turn, Piece moving, Piece destination) {
-		// gets the MoveRule to use, move rule if destination is null and capture rule
-		// if there is apiece at the destination.
-		MoveRule moveRule = (destination == null) ? moving.getPieceType().getMoveRule()
-				: moving.getPieceType().getCaptureRule();
-		return moveRule.isValidMove(turn.getCurrent(), turn.getProposed(), movingColor, gameBoard);
-	}
 }
@@ -0,0 +1,189 @@
+package game;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import board.ChessColor;
+
+/**
+ * GameListener that writes one line per event to a Writer on a background
+ * thread. Events are formatted on the game's thread and placed in a bounded
+ * queue; the writer thread takes them in batches, writing each batch and then
+ * flushing once. The game never waits for I/O: if the queue is full the event
+ * is dropped and counted instead.
+ * 
+ * Lines are "move &lt;turn&gt;", "check &lt;color&gt;", "checkmate &lt;winner&gt;"
+ * and "end &lt;winner&gt;". The writer itself listens to one game; to share one
+ * writer between several games, add a listener from listenerFor to each game
+ * instead, whose lines start with the game's label.
+ */
+public class AsyncGameEventWriter implements GameListener, Closeable {
+	private static final int BATCH_SIZE = 256;
+	private static final String STOP = new String("stop");
+	/**
+	 * longest time close waits for the queued events to be written
+	 */
+	private static final long CLOSE_TIMEOUT_MILLIS = 10_000;
+	private static final long CLOSE_POLL_MILLIS = 100;
+
+	private final Writer output;
+	private final BlockingQueue<String> queue;
+	private final Thread thread;
+	private final AtomicLong dropped = new AtomicLong();
+	private volatile IOException failure;
+
+	/**
+	 * Creates a writer and starts its background thread.
+	 * 
+	 * @param output   where to write events
+	 * @param capacity the most events waiting to be written
+	 */
+	public AsyncGameEventWriter(Writer output, int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be positive");
+		}
+		this.output = output;
+		queue = new ArrayBlockingQueue<>(capacity);
+		thread = new Thread(this::run, "game-event-writer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@Override
+	public void onMove(FullDetailTurn turn) {
+		submit("move " + turn);
+	}
+
+	@Override
+	public void onCheck(FullDetailTurn turn, ChessColor checked) {
+		submit("check " + checked);
+	}
+
+	@Override
+	public void onCheckmate(FullDetailTurn turn, ChessColor winner) {
+		submit("checkmate " + winner);
+	}
+
+	@Override
+	public void onGameEnd(ChessColor winner) {
+		submit("end " + winner);
+	}
+
+	/**
+	 * Returns a listener for one of several games sharing this writer. Its lines
+	 * are those of the writer, preceded by the label and a space.
+	 * 
+	 * @param label the game's label, such as its id, without line breaks
+	 * @return the listener, to add to the game
+	 */
+	public GameListener listenerFor(String label) {
+		if (label.indexOf('\n') >= 0 || label.indexOf('\r') >= 0) {
+			throw new IllegalArgumentException("label must be on one line");
+		}
+		String prefix = label + " ";
+		return new GameListener() {
+			@Override
+			public void onMove(FullDetailTurn turn) {
+				submit(prefix + "move " + turn);
+			}
+
+			@Override
+			public void onCheck(FullDetailTurn turn, ChessColor checked) {
+				submit(prefix + "check " + checked);
+			}
+
+			@Override
+			public void onCheckmate(FullDetailTurn turn, ChessColor winner) {
+				submit(prefix + "checkmate " + winner);
+			}
+
+			@Override
+			public void onGameEnd(ChessColor winner) {
+				submit(prefix + "end " + winner);
+			}
+		};
+	}
+
+	/**
+	 * Returns the number of events dropped because the queue was full.
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	/**
+	 * Returns the exception that stopped the writer thread, or null if writing
+	 * has not failed.
+	 */
+	public IOException getFailure() {
+		return failure;
+	}
+
+	private void submit(String event) {
+		if (!queue.offer(event)) {
+			dropped.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Writes the events already queued, then stops the writer thread. The
+	 * underlying Writer is flushed but not closed. Waits at most
+	 * CLOSE_TIMEOUT_MILLIS; if the calling thread is interrupted it stops
+	 * waiting and keeps its interrupt status.
+	 * 
+	 * @throws IOException the exception that stopped the writer thread, or one
+	 *                     saying the thread did not finish in time
+	 */
+	@Override
+	public void close() throws IOException {
+		long deadline = System.currentTimeMillis() + CLOSE_TIMEOUT_MILLIS;
+		try {
+			// the thread stops taking events if writing fails, so only wait for room
+			// while it runs
+			boolean stopping = false;
+			while (!stopping && thread.isAlive() && System.currentTimeMillis() < deadline) {
+				stopping = queue.offer(STOP, CLOSE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+			}
+			thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (failure != null) {
+			throw failure;
+		}
+		if (thread.isAlive()) {
+			throw new IOException("Event writer did not finish within " + CLOSE_TIMEOUT_MILLIS + " ms");
+		}
+	}
+
+	private void run() {
+		List<String> batch = new ArrayList<>(BATCH_SIZE);
+		try {
+			while (true) {
+				batch.add(queue.take());
+				queue.drainTo(batch, BATCH_SIZE - 1);
+				for (String event : batch) {
+					if (event == STOP) {
+						output.flush();
+						return;
+					}
+					output.write(event);
+					output.write(System.lineSeparator());
+				}
+				output.flush();
+				batch.clear();
+			}
+		} catch (IOException e) {
+			failure = e;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
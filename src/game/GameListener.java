@@ -0,0 +1,50 @@
+package game;
+
+import board.ChessColor;
+
+/**
+ * Receives the events of an ActiveGame. Listeners are called on the thread
+ * applying the move, before ActiveGame.move returns, so they should hand any
+ * slow work such as I/O to another thread, as AsyncGameEventWriter does. Each
+ * method does nothing by default.
+ * 
+ * @see ActiveGame#addListener(GameListener)
+ */
+public interface GameListener {
+	/**
+	 * Called after every move applied to the game.
+	 * 
+	 * @param turn the move, with the pieces involved
+	 */
+	default void onMove(FullDetailTurn turn) {
+	}
+
+	/**
+	 * Called after a move that puts the opposing king in check but not
+	 * checkmate, following onMove.
+	 * 
+	 * @param turn    the checking move
+	 * @param checked the color whose king is in check
+	 */
+	default void onCheck(FullDetailTurn turn, ChessColor checked) {
+	}
+
+	/**
+	 * Called after a checkmating move, following onMove and before onGameEnd.
+	 * 
+	 * @param turn   the checkmating move
+	 * @param winner the color giving checkmate
+	 */
+	default void onCheckmate(FullDetailTurn turn, ChessColor winner) {
+	}
+
+	/**
+	 * Called once when the game finishes, by checkmate, stalemate, the move
+	 * limit or a resignation.
+	 * 
+	 * @param winner the winning color, or DRAW after a stalemate or the move
+	 *               limit
+	 */
+	default void onGameEnd(ChessColor winner) {
+	}
+}
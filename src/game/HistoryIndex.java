@@ -0,0 +1,218 @@
+package game;
+
+import java.util.Arrays;
+
+import board.PlayingBoard;
+
+/**
+ * Random access to every position of a game. The board is stored, as 64
+ * square codes (see PlayingBoard.toSquareCodes), every interval plies; any
+ * other position is found by copying the nearest earlier checkpoint and
+ * applying at most interval - 1 moves from the MoveHistory. A larger interval
+ * uses less memory, 64 bytes per checkpoint, at the cost of more moves per
+ * seek.
+ * 
+ * Moves are applied directly to the square codes, which the rules allow as
+ * each move only moves one piece, so no check detection is repeated.
+ * Checkpoints are added lazily as the history grows. A HistoryIndex is not
+ * thread-safe.
+ */
+public class HistoryIndex {
+	private static final byte[] START = new PlayingBoard().toSquareCodes();
+	private static final int SQUARE_MASK = 0x3F;
+
+	private final MoveHistory history;
+	private final int interval;
+	private byte[][] checkpoints = new byte[16][];
+	private int checkpointCount;
+
+	/**
+	 * Creates an index over a history.
+	 * 
+	 * @param history  the moves of the game, which may keep growing
+	 * @param interval the number of plies between checkpoints
+	 */
+	public HistoryIndex(MoveHistory history, int interval) {
+		if (interval < 1) {
+			throw new IllegalArgumentException("interval must be positive");
+		}
+		this.history = history;
+		this.interval = interval;
+		checkpoints[0] = START;
+		checkpointCount = 1;
+	}
+
+	public int getInterval() {
+		return interval;
+	}
+
+	/**
+	 * Returns the position after a number of plies.
+	 * 
+	 * @param ply the number of moves made, from 0 for the starting position to
+	 *            the length of the history
+	 * @return the position's 64 square codes, a new array
+	 */
+	public byte[] getSquareCodes(int ply) {
+		byte[] output = new byte[START.length];
+		copyPosition(ply, output);
+		return output;
+	}
+
+	/**
+	 * Returns the position after a number of plies as a board.
+	 * 
+	 * @param ply the number of moves made
+	 * @return new PlayingBoard holding the position
+	 */
+	public PlayingBoard getBoard(int ply) {
+		return PlayingBoard.fromSquareCodes(getSquareCodes(ply));
+	}
+
+	/**
+	 * Creates a cursor for stepping through the game.
+	 * 
+	 * @param ply the ply to start at
+	 * @return cursor at that ply
+	 */
+	public Cursor cursor(int ply) {
+		return new Cursor(ply);
+	}
+
+	/**
+	 * Writes the position after ply moves into an array: the nearest earlier
+	 * checkpoint, then the moves after it.
+	 */
+	private void copyPosition(int ply, byte[] output) {
+		if (ply < 0 || ply > history.size()) {
+			throw new IndexOutOfBoundsException("ply " + ply + " of " + history.size());
+		}
+		int checkpoint = ply / interval;
+		extendCheckpoints(checkpoint);
+		System.arraycopy(checkpoints[checkpoint], 0, output, 0, output.length);
+		for (int i = checkpoint * interval; i < ply; i++) {
+			apply(output, history.getMove(i));
+		}
+	}
+
+	/**
+	 * Adds checkpoints up to the given checkpoint number.
+	 */
+	private void extendCheckpoints(int checkpoint) {
+		while (checkpointCount <= checkpoint) {
+			byte[] next = checkpoints[checkpointCount - 1].clone();
+			int start = (checkpointCount - 1) * interval;
+			for (int i = start; i < start + interval; i++) {
+				apply(next, history.getMove(i));
+			}
+			if (checkpointCount == checkpoints.length) {
+				checkpoints = Arrays.copyOf(checkpoints, checkpointCount * 2);
+			}
+			checkpoints[checkpointCount++] = next;
+		}
+	}
+
+	/**
+	 * Applies an encoded move, see MoveHistory.encode, to square codes.
+	 */
+	private static void apply(byte[] squareCodes, short move) {
+		int from = move & SQUARE_MASK;
+		int to = move >>> 6 & SQUARE_MASK;
+		squareCodes[to] = squareCodes[from];
+		squareCodes[from] = PlayingBoard.EMPTY_SQUARE_CODE;
+	}
+
+	/**
+	 * A position in the game that can step forward and backward. Stepping
+	 * forward applies one move. Stepping backward into a block between two
+	 * checkpoints fills in every position of that block at once, after which
+	 * further backward steps within the block are copies, so both directions
+	 * cost O(1) amortized.
+	 */
+	public class Cursor {
+		private final byte[] squareCodes = new byte[START.length];
+		private int ply;
+		/**
+		 * positions of the cached block, indexed by ply minus blockStart
+		 */
+		private final byte[][] block = new byte[interval][START.length];
+		private int blockStart = -1;
+		/**
+		 * ply after the last position in the cached block
+		 */
+		private int blockEnd;
+
+		private Cursor(int ply) {
+			seek(ply);
+		}
+
+		public int getPly() {
+			return ply;
+		}
+
+		/**
+		 * Returns the current position. The array is updated in place as the
+		 * cursor moves.
+		 */
+		public byte[] getSquareCodes() {
+			return squareCodes;
+		}
+
+		/**
+		 * Moves to any ply, costing at most interval - 1 moves.
+		 * 
+		 * @param ply the ply to move to
+		 */
+		public void seek(int ply) {
+			copyPosition(ply, squareCodes);
+			this.ply = ply;
+		}
+
+		/**
+		 * Steps forward one ply.
+		 * 
+		 * @return false if already at the end of the history
+		 */
+		public boolean forward() {
+			if (ply >= history.size()) {
+				return false;
+			}
+			apply(squareCodes, history.getMove(ply));
+			ply++;
+			return true;
+		}
+
+		/**
+		 * Steps back one ply.
+		 * 
+		 * @return false if already at the starting position
+		 */
+		public boolean backward() {
+			if (ply == 0) {
+				return false;
+			}
+			ply--;
+			int start = ply / interval * interval;
+			if (start != blockStart || ply >= blockEnd) {
+				fillBlock(start);
+			}
+			System.arraycopy(block[ply - start], 0, squareCodes, 0, squareCodes.length);
+			return true;
+		}
+
+		/**
+		 * Fills the block cache with every position from a checkpoint up to the
+		 * next one.
+		 */
+		private void fillBlock(int start) {
+			copyPosition(start, block[0]);
+			int end = Math.min(start + interval, history.size() + 1);
+			for (int i = start + 1; i < end; i++) {
+				System.arraycopy(block[i - start - 1], 0, block[i - start], 0, START.length);
+				apply(block[i - start], history.getMove(i - 1));
+			}
+			blockStart = start;
+			blockEnd = end;
+		}
+	}
+}
@@ -0,0 +1,237 @@
+package game;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A size-bounded cache of the legal moves and check status of positions, keyed
+ * by PlayingBoard.getHash and shared by every game in the process. Most games
+ * pass through the same opening positions, so a game usually finds the moves
+ * of its next position already found by another game instead of running the
+ * move rules again.
+ *
+ * The table is set-associative: the hash selects a set of 8 entries, and when
+ * the set is full the entry replaced is chosen by the CLOCK algorithm. Each
+ * entry has a referenced bit, set when it is found; the set's hand sweeps over
+ * the entries, clearing the bits that are set, and stops at the first entry
+ * whose bit is clear. New entries start unreferenced, so positions seen once
+ * are replaced before positions seen again.
+ *
+ * Lookups take no lock, as entries are immutable apart from their referenced
+ * bit and are published through an atomic array; adding an entry locks one of
+ * 64 locks, chosen by set. Hashes are compared without the position they came
+ * from, so two positions sharing a 64-bit hash, which is very unlikely, would
+ * share an entry.
+ */
+public final class LegalMoveCache {
+	/**
+	 * entries in the shared cache; each takes about 600 bytes, mostly for its
+	 * legal move set
+	 */
+	public static final int DEFAULT_CAPACITY = 1 << 15;
+	/**
+	 * the cache used by every ActiveGame not given another
+	 */
+	public static final LegalMoveCache SHARED = new LegalMoveCache(DEFAULT_CAPACITY);
+
+	private static final int WAYS = 8;
+	private static final int STRIPES = 64;
+
+	private final AtomicReferenceArray<Entry> entries;
+	/**
+	 * position of the CLOCK hand within each set, guarded by the set's lock
+	 */
+	private final byte[] hands;
+	private final Object[] locks = new Object[STRIPES];
+	private final int setMask;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * Creates an empty cache.
+	 *
+	 * @param capacity the most entries held, rounded down to a power of two of
+	 *                 at least 8
+	 */
+	public LegalMoveCache(int capacity) {
+		if (capacity < WAYS) {
+			throw new IllegalArgumentException("Capacity must be at least " + WAYS);
+		}
+		int sets = Integer.highestOneBit(capacity / WAYS);
+		entries = new AtomicReferenceArray<Entry>(sets * WAYS);
+		hands = new byte[sets];
+		setMask = sets - 1;
+		for (int i = 0; i < STRIPES; i++) {
+			locks[i] = new Object();
+		}
+	}
+
+	/**
+	 * Finds the entry of a position.
+	 *
+	 * @param hash the position's hash, as given by PlayingBoard.getHash
+	 * @return the entry, or null if the position is not in the cache
+	 */
+	public Entry get(long hash) {
+		int start = ((int) hash & setMask) * WAYS;
+		for (int i = start; i < start + WAYS; i++) {
+			Entry entry = entries.get(i);
+			if (entry != null && entry.hash == hash) {
+				// written only when clear, so that popular entries are not written by
+				// every thread that reads them
+				if (!entry.referenced) {
+					entry.referenced = true;
+				}
+				hits.increment();
+				return entry;
+			}
+		}
+		misses.increment();
+		return null;
+	}
+
+	/**
+	 * Adds the entry of a position, replacing the entry of the same position if
+	 * another thread added it first, or otherwise an entry chosen by CLOCK.
+	 *
+	 * @param hash      the position's hash, as given by PlayingBoard.getHash
+	 * @param moves     the legal moves of the color to move
+	 * @param check     whether the color to move is in check
+	 * @param checkmate whether the color to move is checkmated
+	 * @return the entry added
+	 */
+	public Entry put(long hash, LegalMoveSet moves, boolean check, boolean checkmate) {
+		Entry added = new Entry(hash, moves, check, checkmate);
+		int set = (int) hash & setMask;
+		int start = set * WAYS;
+		synchronized (locks[set & (STRIPES - 1)]) {
+			for (int i = start; i < start + WAYS; i++) {
+				Entry entry = entries.get(i);
+				if (entry == null || entry.hash == hash) {
+					entries.set(i, added);
+					return added;
+				}
+			}
+			int hand = hands[set];
+			Entry entry;
+			while ((entry = entries.get(start + hand)).referenced) {
+				entry.referenced = false;
+				hand = (hand + 1) % WAYS;
+			}
+			entries.set(start + hand, added);
+			hands[set] = (byte) ((hand + 1) % WAYS);
+		}
+		evictions.increment();
+		return added;
+	}
+
+	/**
+	 * Removes every entry. The counts of hits, misses and evictions are kept.
+	 */
+	public void clear() {
+		for (int i = 0; i < entries.length(); i++) {
+			entries.set(i, null);
+		}
+	}
+
+	/**
+	 * Returns the most entries the cache holds.
+	 */
+	public int getCapacity() {
+		return entries.length();
+	}
+
+	/**
+	 * Returns the number of entries held, counted by looking at every entry.
+	 */
+	public int getSize() {
+		int output = 0;
+		for (int i = 0; i < entries.length(); i++) {
+			if (entries.get(i) != null) {
+				output++;
+			}
+		}
+		return output;
+	}
+
+	/**
+	 * Returns the number of lookups that found their position.
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Returns the number of lookups that did not find their position.
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Returns the number of entries replaced to make room for others. Many
+	 * evictions with a low hit ratio mean the cache is too small for the
+	 * positions being played.
+	 */
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	/**
+	 * Returns the fraction of lookups that found their position, or 0 before the
+	 * first lookup.
+	 */
+	public double getHitRatio() {
+		long found = hits.sum();
+		long total = found + misses.sum();
+		return total == 0 ? 0 : (double) found / total;
+	}
+
+	public String toString() {
+		return String.format("%d/%d entries, %d hits, %d misses, %.1f%% hit ratio, %d evictions", getSize(),
+				getCapacity(), getHits(), getMisses(), getHitRatio() * 100, getEvictions());
+	}
+
+	/**
+	 * The legal moves and check status of one position.
+	 */
+	public static final class Entry {
+		private final long hash;
+		private final LegalMoveSet moves;
+		private final boolean check;
+		private final boolean checkmate;
+		/**
+		 * whether the entry has been found since the CLOCK hand last passed it
+		 */
+		private volatile boolean referenced;
+
+		private Entry(long hash, LegalMoveSet moves, boolean check, boolean checkmate) {
+			this.hash = hash;
+			this.moves = moves;
+			this.check = check;
+			this.checkmate = checkmate;
+		}
+
+		/**
+		 * Returns the legal moves of the color to move.
+		 */
+		public LegalMoveSet getMoves() {
+			return moves;
+		}
+
+		/**
+		 * Returns whether the color to move is in check.
+		 */
+		public boolean isCheck() {
+			return check;
+		}
+
+		/**
+		 * Returns whether the color to move is checkmated.
+		 */
+		public boolean isCheckmate() {
+			return checkmate;
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package game;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import board.Board;
+import board.ChessColor;
+import board.Piece;
+import main.Constants;
+import moveRules.MoveRule;
+
+/**
+ * The legal moves of one color in one position, as a 64-bit set of
+ * destination squares for each starting square. Building the set runs the move
+ * rules once for every possible move; afterwards checking whether a move is
+ * legal is a single bit test.
+ */
+public final class LegalMoveSet {
+	private static final int SQUARES = Constants.BOARD_COLUMN_NUMBER * Constants.BOARD_ROW_NUMBER;
+
+	/**
+	 * set with no moves
+	 */
+	public static final LegalMoveSet EMPTY = new LegalMoveSet();
+
+	/**
+	 * destination squares, indexed by starting square
+	 */
+	private final long[] destinations = new long[SQUARES];
+	private final int size;
+
+	private LegalMoveSet() {
+		size = 0;
+	}
+
+	private LegalMoveSet(Board board, ChessColor color) {
+		int count = 0;
+		for (int from = 0; from < SQUARES; from++) {
+			Position current = Position.fromSquareIndex(from);
+			Piece moving = board.getPosition(current);
+			if (moving == null || moving.getColor() != color) {
+				continue;
+			}
+			long targets = 0;
+			for (int to = 0; to < SQUARES; to++) {
+				Position proposed = Position.fromSquareIndex(to);
+				Piece destination = board.getPosition(proposed);
+				if (destination != null && destination.getColor() == color) {
+					continue;
+				}
+				// the move rule if the destination is empty, the capture rule otherwise
+				MoveRule moveRule = (destination == null) ? moving.getPieceType().getMoveRule()
+						: moving.getPieceType().getCaptureRule();
+				if (moveRule.isValidMove(current, proposed, color, board)) {
+					targets |= 1L << to;
+				}
+			}
+			destinations[from] = targets;
+			count += Long.bitCount(targets);
+		}
+		size = count;
+	}
+
+	/**
+	 * Finds every legal move of a color on a board.
+	 * 
+	 * @param board the position to find the moves in
+	 * @param color the color to move
+	 * @return the set of legal moves
+	 */
+	public static LegalMoveSet generate(Board board, ChessColor color) {
+		return new LegalMoveSet(board, color);
+	}
+
+	/**
+	 * Returns whether a turn is one of the legal moves.
+	 * 
+	 * @param turn the turn to look for
+	 * @return true if the turn is legal
+	 */
+	public boolean contains(Turn turn) {
+		return contains(turn.getCurrent().getSquareIndex(), turn.getProposed().getSquareIndex());
+	}
+
+	/**
+	 * Returns whether the move between two square indexes is one of the legal
+	 * moves.
+	 * 
+	 * @param from the square index moved from
+	 * @param to   the square index moved to
+	 * @return true if the move is legal
+	 */
+	public boolean contains(int from, int to) {
+		return (destinations[from] & (1L << to)) != 0;
+	}
+
+	/**
+	 * Returns the number of legal moves.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns whether there are no legal moves, which is checkmate if the king is
+	 * in check and stalemate otherwise.
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Returns the legal moves as turns, ordered by starting square and then by
+	 * destination square.
+	 * 
+	 * @return list of the legal moves
+	 */
+	public List<Turn> getTurns() {
+		List<Turn> output = new ArrayList<Turn>(size);
+		for (int from = 0; from < SQUARES; from++) {
+			for (long targets = destinations[from]; targets != 0; targets &= targets - 1) {
+				output.add(new Turn(Position.fromSquareIndex(from),
+						Position.fromSquareIndex(Long.numberOfTrailingZeros(targets))));
+			}
+		}
+		return output;
+	}
+}
@@ -0,0 +1,143 @@
+package game;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import board.PlayingBoard;
+
+/**
+ * The moves of a game, each stored as 16 bits in a growable short array: the
+ * start square in bits 0-5, the end square in bits 6-11 and flags in bits
+ * 12-15, so a full game of 100 plies takes 200 bytes. Squares are numbered by
+ * Position.getSquareIndex. The flags are reserved for moves that move more
+ * than one piece or change a piece, which the rules do not yet include, and
+ * are always 0.
+ * 
+ * Only the moves are stored. Captures, checks and checkmates are found again by
+ * replaying the moves from the starting position when a FullDetailTurn is
+ * asked for.
+ */
+public class MoveHistory {
+	private static final int INITIAL_CAPACITY = 64;
+	private static final int SQUARE_MASK = 0x3F;
+
+	private short[] moves = new short[INITIAL_CAPACITY];
+	private int size;
+
+	/**
+	 * Encodes a turn as 16 bits.
+	 * 
+	 * @param turn the turn to encode
+	 * @return the encoded move
+	 */
+	public static short encode(Turn turn) {
+		return (short) (turn.getCurrent().getSquareIndex() | turn.getProposed().getSquareIndex() << 6);
+	}
+
+	/**
+	 * Decodes a move encoded by encode.
+	 * 
+	 * @param move the encoded move
+	 * @return the turn, using the shared Position instances
+	 */
+	public static Turn decode(short move) {
+		return new Turn(Position.fromSquareIndex(move & SQUARE_MASK), Position.fromSquareIndex(move >>> 6 & SQUARE_MASK));
+	}
+
+	/**
+	 * Creates a history holding encoded moves.
+	 * 
+	 * @param moves the encoded moves, as given by toArray
+	 * @return the history
+	 */
+	static MoveHistory fromArray(short[] moves) {
+		MoveHistory output = new MoveHistory();
+		output.moves = Arrays.copyOf(moves, Math.max(INITIAL_CAPACITY, moves.length));
+		output.size = moves.length;
+		return output;
+	}
+
+	/**
+	 * Appends a move. Only ActiveGame records moves.
+	 * 
+	 * @param turn the move made
+	 */
+	void add(Turn turn) {
+		if (size == moves.length) {
+			moves = Arrays.copyOf(moves, size * 2);
+		}
+		moves[size++] = encode(turn);
+	}
+
+	/**
+	 * Returns the number of plies played.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the encoded move of a ply.
+	 * 
+	 * @param ply the ply, from 0 for white's first move
+	 * @return the move as 16 bits
+	 */
+	public short getMove(int ply) {
+		checkPly(ply);
+		return moves[ply];
+	}
+
+	/**
+	 * Returns the move of a ply, without piece details.
+	 * 
+	 * @param ply the ply, from 0 for white's first move
+	 * @return the move
+	 */
+	public Turn getTurn(int ply) {
+		return decode(getMove(ply));
+	}
+
+	/**
+	 * Returns the move of a ply with its pieces, check and checkmate, replaying
+	 * the game up to that ply.
+	 * 
+	 * @param ply the ply, from 0 for white's first move
+	 * @return the move with full details
+	 */
+	public FullDetailTurn getFullDetailTurn(int ply) {
+		checkPly(ply);
+		PlayingBoard board = new PlayingBoard();
+		for (int i = 0; i < ply; i++) {
+			board.move(decode(moves[i]));
+		}
+		return board.move(decode(moves[ply]));
+	}
+
+	/**
+	 * Returns every move with full details, replaying the game once.
+	 * 
+	 * @return list of the moves in order
+	 */
+	public List<FullDetailTurn> getFullDetailTurns() {
+		List<FullDetailTurn> output = new ArrayList<FullDetailTurn>(size);
+		PlayingBoard board = new PlayingBoard();
+		for (int i = 0; i < size; i++) {
+			output.add(board.move(decode(moves[i])));
+		}
+		return output;
+	}
+
+	/**
+	 * Returns a copy of the encoded moves.
+	 */
+	public short[] toArray() {
+		return Arrays.copyOf(moves, size);
+	}
+
+	private void checkPly(int ply) {
+		if (ply < 0 || ply >= size) {
+			throw new IndexOutOfBoundsException("ply " + ply + " of " + size);
+		}
+	}
+}
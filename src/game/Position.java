@@ -13,6 +13,21 @@ import main.Constants;
  */
 public final class Position {
 
+	/**
+	 * Shared instances of every Position on the board, indexed by square index
+	 */
+	private static final Position[] SQUARES = new Position[Constants.BOARD_COLUMN_NUMBER
+			* Constants.BOARD_ROW_NUMBER];
+
+	static {
+		for (int row = 1; row <= Constants.BOARD_ROW_NUMBER; row++) {
+			for (int column = 1; column <= Constants.BOARD_COLUMN_NUMBER; column++) {
+				Position position = new Position(column, row);
+				SQUARES[position.getSquareIndex()] = position;
+			}
+		}
+	}
+
 	private final int column;
 	private final int row;
 
@@ -92,6 +107,28 @@ public final class Position {
 		return row;
 	}
 
+	/**
+	 * Returns the 0-based square index of the Position, counting from a1 (0)
+	 * across each row to h8 (63).
+	 * 
+	 * @return square index of the Position
+	 */
+	public final int getSquareIndex() {
+		return (row - 1) * Constants.BOARD_COLUMN_NUMBER + (column - 1);
+	}
+
+	/**
+	 * Returns the Position for a 0-based square index, as given by
+	 * getSquareIndex. Positions are immutable, so a shared instance is returned
+	 * rather than allocating a new one.
+	 * 
+	 * @param squareIndex the square index, from 0 (a1) to 63 (h8)
+	 * @return Position at that square index
+	 */
+	public static Position fromSquareIndex(int squareIndex) {
+		return SQUARES[squareIndex];
+	}
+
 	/**
 	 * Returns the chess algebraic notation form of the Position.
 	 * 
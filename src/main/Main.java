@@ -1,14 +1,28 @@
 package main;
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.Scanner;
 
 import game.ActiveGame;
+import game.FullDetailTurn;
+import game.GameListener;
 import game.Position;
 import game.Turn;
+import server.GameServer;
 
 public class Main {
-	public static void main(String[] args) {
-		playGame();
+	/**
+	 * Plays a game on the console, or with the argument "--server", an optional
+	 * port number and an optional journal file, hosts games over TCP instead.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length > 0 && args[0].equals("--server")) {
+			int port = args.length > 1 ? Integer.parseInt(args[1]) : GameServer.DEFAULT_PORT;
+			GameServer.serve(port, args.length > 2 ? Paths.get(args[2]) : null);
+		} else {
+			playGame();
+		}
 	}
 
 	/**
@@ -17,6 +31,13 @@ public class Main {
 	public static void playGame() {
 		Scanner console = new Scanner(System.in);
 		ActiveGame game = new ActiveGame();
+		// prints each move in algebraic notation as it is made
+		game.addListener(new GameListener() {
+			@Override
+			public void onMove(FullDetailTurn turn) {
+				System.out.println(turn);
+			}
+		});
 		System.out.println(game.getBoardString());
 		// plays game until it is finished
 		while (!game.isFinished()) {
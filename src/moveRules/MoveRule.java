@@ -2,6 +2,8 @@ package moveRules;
 
 import board.Board;
 import board.ChessColor;
+import board.Piece;
+import board.PieceType;
 import game.Position;
 import game.Turn;
 
@@ -66,6 +68,13 @@ public abstract class MoveRule {
 		if (!isValidPieceMove(current, proposed, color, board)) {
 			return false;
 		}
+		// a piece attacking the king gives check even if it is pinned, so a capture of
+		// the king is not itself tested for check, which would look for threats on a
+		// board without that king
+		Piece captured = board.getPosition(proposed);
+		if (captured != null && captured.getPieceType() == PieceType.KING) {
+			return true;
+		}
 		// verifies that the same color king is not put in check
 		Board quickMoveBoard = board.getQuickMove(new Turn(current, proposed));
 		return !quickMoveBoard.isInCheck(color);
@@ -97,8 +97,8 @@ class StandardMoveRule extends MoveRule {
 		 * all other cases are illegal, and therefore do not need to be considered
 		 * Negative cases not included, so takes absolute value
 		 */
-		columnDifference = Math.abs(rowDifference);
-		rowDifference = Math.abs(columnDifference);
+		columnDifference = Math.abs(columnDifference);
+		rowDifference = Math.abs(rowDifference);
 		return Math.max(columnDifference, rowDifference);
 	}
 	
@@ -0,0 +1,61 @@
+package server;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs GameActors on a fixed pool of carrier threads. An actor with mail is
+ * scheduled once; a carrier thread then processes up to batchSize of its
+ * messages in a row, keeping that game's state in one core's cache, before
+ * rescheduling it behind the other actors waiting for a turn.
+ */
+public class ActorScheduler {
+	private final ExecutorService carriers;
+	private final int batchSize;
+	private final AtomicLong batches = new AtomicLong();
+	private final AtomicLong messages = new AtomicLong();
+
+	/**
+	 * Creates a scheduler.
+	 * 
+	 * @param threads   the number of carrier threads
+	 * @param batchSize the most messages of one actor processed before moving on
+	 *                  to another
+	 */
+	public ActorScheduler(int threads, int batchSize) {
+		if (threads < 1 || batchSize < 1) {
+			throw new IllegalArgumentException("threads and batchSize must be positive");
+		}
+		this.batchSize = batchSize;
+		carriers = Executors.newFixedThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable, "game-actor");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Queues an actor to have its mailbox drained. Called by the actor, at most
+	 * once until the drain has run.
+	 */
+	void schedule(GameActor actor) {
+		carriers.execute(() -> messages.addAndGet(actor.drain(batchSize)));
+		batches.incrementAndGet();
+	}
+
+	/**
+	 * Returns the average number of messages processed per batch.
+	 */
+	public double getAverageBatchSize() {
+		long count = batches.get();
+		return count == 0 ? 0 : (double) messages.get() / count;
+	}
+
+	/**
+	 * Stops the carrier threads after the batches already scheduled.
+	 */
+	public void shutdown() {
+		carriers.shutdown();
+	}
+}
@@ -0,0 +1,325 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import game.Position;
+import game.Turn;
+
+/**
+ * Serves one client of a GameServer. The protocol is one command per line, each
+ * answered by a line starting with "OK" or "ERR":
+ * 
+ * <pre>
+ * create                 OK &lt;id&gt;
+ * move &lt;id&gt; &lt;from&gt; &lt;to&gt;  OK &lt;status&gt;, for example "move 1 e2 e4"
+ * board &lt;id&gt;             OK &lt;status&gt;, then the board and a line holding "."
+ * resign &lt;id&gt;            OK &lt;status&gt;, resigning for the player to move
+ * watch &lt;id&gt;             OK, then the game's SpectatorFeed messages until it ends
+ * unwatch                OK, stopping the messages of the game watched
+ * quit                   OK, then the connection is closed
+ * </pre>
+ * 
+ * Spectator messages are written by a separate task while commands are still
+ * read and answered, so a client may keep playing or watch another game, which
+ * replaces the first; the replies are told apart from the messages by their
+ * first word. The stream stops when the client disconnects or the connection
+ * is closed.
+ * 
+ * A command for a game whose mailbox is full, or sent while the server is
+ * shutting down, is answered with "ERR busy", and a command that fails inside
+ * the game with "ERR internal".
+ * 
+ * A connection holds only a fixed-size line buffer and an output buffer, so
+ * its memory does not depend on what the client sends: longer lines are
+ * rejected, and clients that neither send commands nor watch a game are
+ * disconnected when idle.
+ */
+class Connection implements Runnable {
+	private static final int MAX_LINE_LENGTH = 128;
+	private static final int BUFFER_SIZE = 512;
+	private static final int IDLE_TIMEOUT_MILLIS = 10 * 60 * 1000;
+
+	private final GameServer server;
+	private final Socket socket;
+	private final byte[] line = new byte[MAX_LINE_LENGTH];
+	private final StringBuilder reply = new StringBuilder();
+	/**
+	 * game to stream to the client once the reply has been sent, or null
+	 */
+	private GameSession watching;
+	/**
+	 * the subscription being streamed to the client, or null; cancelled to stop
+	 * the stream
+	 */
+	private Subscription streamed;
+
+	Connection(GameServer server, Socket socket) {
+		this.server = server;
+		this.socket = socket;
+	}
+
+	@Override
+	public void run() {
+		try (Socket client = socket) {
+			client.setSoTimeout(IDLE_TIMEOUT_MILLIS);
+			client.setTcpNoDelay(true);
+			InputStream input = new BufferedInputStream(client.getInputStream(), BUFFER_SIZE);
+			OutputStream output = client.getOutputStream();
+			boolean open = true;
+			while (open) {
+				int length = readCommand(input);
+				if (length < 0) {
+					break;
+				}
+				reply.setLength(0);
+				if (length > MAX_LINE_LENGTH) {
+					reply.append("ERR line too long\n");
+				} else {
+					open = handle(new String(line, 0, length, StandardCharsets.US_ASCII).trim());
+				}
+				synchronized (output) {
+					output.write(reply.toString().getBytes(StandardCharsets.US_ASCII));
+					output.flush();
+				}
+				if (watching != null) {
+					startStream(watching, output);
+					watching = null;
+				}
+			}
+		} catch (SocketTimeoutException e) {
+			// idle client, the socket is closed
+		} catch (IOException e) {
+			// client disconnected
+		} finally {
+			stopStream();
+		}
+	}
+
+	/**
+	 * Reads the next command line. A read timeout disconnects the client only
+	 * if it is not watching a game, as spectators may send nothing for longer.
+	 * 
+	 * @return as readLine
+	 * @throws SocketTimeoutException if an idle client sent nothing in time
+	 */
+	private int readCommand(InputStream input) throws IOException {
+		while (true) {
+			try {
+				return readLine(input);
+			} catch (SocketTimeoutException e) {
+				Subscription subscription = streamed;
+				if (subscription == null || subscription.isCancelled()) {
+					throw e;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads a line into the line buffer. Characters beyond the buffer are
+	 * skipped.
+	 * 
+	 * @return the length of the line, more than MAX_LINE_LENGTH if it was too
+	 *         long, or -1 at the end of the stream
+	 */
+	private int readLine(InputStream input) throws IOException {
+		int length = 0;
+		int next;
+		while ((next = input.read()) != '\n') {
+			if (next < 0) {
+				return length == 0 ? -1 : Math.min(length, MAX_LINE_LENGTH + 1);
+			}
+			if (next != '\r' && length++ < MAX_LINE_LENGTH) {
+				line[length - 1] = (byte) next;
+			}
+		}
+		return Math.min(length, MAX_LINE_LENGTH + 1);
+	}
+
+	/**
+	 * Carries out a command and writes the answer into the reply.
+	 * 
+	 * @param command the command line, trimmed
+	 * @return false if the connection should be closed
+	 */
+	private boolean handle(String command) {
+		String[] words = command.split("\\s+");
+		switch (words[0]) {
+		case "create":
+			GameSession created;
+			try {
+				created = server.createGame();
+			} catch (RuntimeException e) {
+				// the journal failed or is closed
+				System.err.println("create failed: " + e);
+				reply.append("ERR internal\n");
+				return true;
+			}
+			if (created == null) {
+				reply.append("ERR server full\n");
+			} else {
+				reply.append("OK ").append(created.getId()).append('\n');
+			}
+			return true;
+		case "move":
+			if (words.length != 4) {
+				reply.append("ERR usage: move <id> <from> <to>\n");
+				return true;
+			}
+			GameSession moving = findGame(words[1]);
+			Turn turn = parseTurn(words[2], words[3]);
+			if (moving == null) {
+				reply.append("ERR no such game\n");
+			} else if (turn == null) {
+				reply.append("ERR invalid position\n");
+			} else {
+				replyWith(moving.move(turn), "ERR invalid move");
+				server.removeIfFinished(moving);
+			}
+			return true;
+		case "board":
+			GameSession shown = words.length == 2 ? findGame(words[1]) : null;
+			if (shown == null) {
+				reply.append("ERR no such game\n");
+			} else if (replyWith(shown.getStatusAndBoard(), null)) {
+				reply.append(".\n");
+			}
+			return true;
+		case "resign":
+			GameSession resigning = words.length == 2 ? findGame(words[1]) : null;
+			if (resigning == null) {
+				reply.append("ERR no such game\n");
+			} else {
+				replyWith(resigning.resign(), "ERR game finished");
+				server.removeIfFinished(resigning);
+			}
+			return true;
+		case "watch":
+			watching = words.length == 2 ? findGame(words[1]) : null;
+			reply.append(watching == null ? "ERR no such game\n" : "OK\n");
+			return true;
+		case "unwatch":
+			stopStream();
+			reply.append("OK\n");
+			return true;
+		case "quit":
+			reply.append("OK\n");
+			return false;
+		default:
+			reply.append("ERR unknown command\n");
+			return true;
+		}
+	}
+
+	/**
+	 * Starts copying a game's spectator messages to the client on one of the
+	 * server's connection threads, stopping any stream already running.
+	 */
+	private void startStream(GameSession session, OutputStream output) {
+		stopStream();
+		Subscription subscription = session.watch();
+		streamed = subscription;
+		try {
+			server.execute(() -> stream(subscription, output));
+		} catch (RejectedExecutionException e) {
+			// the server is closing
+			subscription.cancel();
+		}
+	}
+
+	private void stopStream() {
+		if (streamed != null) {
+			streamed.cancel();
+			streamed = null;
+		}
+	}
+
+	/**
+	 * Copies spectator messages to the client until the game ends or the
+	 * subscription is cancelled. Each message is written whole, between the
+	 * replies to commands.
+	 */
+	private static void stream(Subscription subscription, OutputStream output) {
+		WritableByteChannel channel = Channels.newChannel(output);
+		try {
+			ByteBuffer message;
+			while ((message = subscription.take()) != null) {
+				synchronized (output) {
+					while (message.hasRemaining()) {
+						channel.write(message);
+					}
+					output.flush();
+				}
+			}
+		} catch (IOException e) {
+			// client disconnected, which the command loop also sees
+		} finally {
+			subscription.cancel();
+		}
+	}
+
+	/**
+	 * Waits for a game request and writes its answer into the reply: "OK" and
+	 * the result, the refusal if the result is null, "ERR busy" if the game's
+	 * mailbox was full or the server is shutting down, or "ERR internal" if the
+	 * request failed.
+	 * 
+	 * @return true if the reply starts with "OK"
+	 */
+	private boolean replyWith(CompletableFuture<String> request, String refusal) {
+		String result;
+		try {
+			result = request.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RejectedExecutionException) {
+				reply.append("ERR busy\n");
+			} else {
+				System.err.println("request failed: " + e.getCause());
+				reply.append("ERR internal\n");
+			}
+			return false;
+		}
+		if (result == null) {
+			reply.append(refusal).append('\n');
+			return false;
+		}
+		reply.append("OK ").append(result).append('\n');
+		return true;
+	}
+
+	private GameSession findGame(String id) {
+		try {
+			return server.getGame(Long.parseLong(id));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Parses two squares in algebraic notation into a Turn.
+	 * 
+	 * @return the turn, or null if either square is not on the board
+	 */
+	private static Turn parseTurn(String from, String to) {
+		if (from.length() != 2 || to.length() != 2) {
+			return null;
+		}
+		try {
+			return new Turn(new Position(from), new Position(to));
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+}
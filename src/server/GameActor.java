@@ -0,0 +1,150 @@
+package server;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import game.ActiveGame;
+
+/**
+ * Owns an ActiveGame and runs every request for it one at a time on an
+ * ActorScheduler carrier thread. Requests wait in a mailbox, and the actor is
+ * scheduled whenever its mailbox goes from empty to non-empty, so moves, board
+ * queries and history reads for one game are serialized without locks, and a
+ * burst of requests is handled in batches by a single thread.
+ *
+ * A mailbox holds at most mailboxLimit requests; further requests fail
+ * immediately with a RejectedExecutionException so that clients flooding one
+ * game are pushed back instead of growing the queue without bound.
+ */
+public class GameActor {
+	private final ActiveGame game;
+	private final ActorScheduler scheduler;
+	private final int mailboxLimit;
+	private final ConcurrentLinkedQueue<Message<?>> mailbox = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger pending = new AtomicInteger();
+	/**
+	 * true from the moment the actor is handed to the scheduler until its drain
+	 * finishes, so that only one carrier thread runs it at a time
+	 */
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+
+	/**
+	 * Creates an actor owning a game.
+	 * 
+	 * @param game         the game, which must not be used elsewhere afterwards
+	 * @param scheduler    the scheduler to run on
+	 * @param mailboxLimit the most requests waiting at once
+	 */
+	public GameActor(ActiveGame game, ActorScheduler scheduler, int mailboxLimit) {
+		if (mailboxLimit < 1) {
+			throw new IllegalArgumentException("mailboxLimit must be positive");
+		}
+		this.game = game;
+		this.scheduler = scheduler;
+		this.mailboxLimit = mailboxLimit;
+	}
+
+	/**
+	 * Queues a request to run against the game.
+	 * 
+	 * @param request the request, run on a carrier thread
+	 * @return future completed with the request's result, or exceptionally with
+	 *         a RejectedExecutionException if the mailbox is full or the
+	 *         scheduler has shut down, or with whatever exception or error the
+	 *         request threw
+	 */
+	public <T> CompletableFuture<T> ask(Function<ActiveGame, T> request) {
+		CompletableFuture<T> result = new CompletableFuture<>();
+		if (pending.incrementAndGet() > mailboxLimit) {
+			pending.decrementAndGet();
+			result.completeExceptionally(new RejectedExecutionException("mailbox full"));
+			return result;
+		}
+		mailbox.add(new Message<T>(request, result));
+		schedule();
+		return result;
+	}
+
+	public int getMailboxSize() {
+		return pending.get();
+	}
+
+	/**
+	 * Processes up to batchSize requests, then reschedules the actor if more are
+	 * waiting.
+	 * 
+	 * @return the number of requests processed
+	 */
+	int drain(int batchSize) {
+		int processed = 0;
+		try {
+			Message<?> message;
+			while (processed < batchSize && (message = mailbox.poll()) != null) {
+				pending.decrementAndGet();
+				message.run();
+				processed++;
+			}
+		} finally {
+			// cleared even if a request escaped, so that later requests still run
+			scheduled.set(false);
+			// a request added after the last poll may have seen scheduled still set
+			if (!mailbox.isEmpty()) {
+				schedule();
+			}
+		}
+		return processed;
+	}
+
+	/**
+	 * Hands the actor to the scheduler unless it is already scheduled. If the
+	 * scheduler has shut down, every waiting request is failed instead and the
+	 * actor is left unscheduled, so that no request waits for a drain that will
+	 * never run.
+	 */
+	private void schedule() {
+		while (scheduled.compareAndSet(false, true)) {
+			try {
+				scheduler.schedule(this);
+				return;
+			} catch (RejectedExecutionException e) {
+				Message<?> message;
+				while ((message = mailbox.poll()) != null) {
+					pending.decrementAndGet();
+					message.result.completeExceptionally(e);
+				}
+				scheduled.set(false);
+				// a request added after the last poll may have seen scheduled still set
+				if (mailbox.isEmpty()) {
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * A request waiting in the mailbox and the future of its result.
+	 */
+	private class Message<T> {
+		private final Function<ActiveGame, T> request;
+		private final CompletableFuture<T> result;
+
+		private Message(Function<ActiveGame, T> request, CompletableFuture<T> result) {
+			this.request = request;
+			this.result = result;
+		}
+
+		private void run() {
+			try {
+				result.complete(request.apply(game));
+			} catch (Throwable e) {
+				// errors too, such as a StackOverflowError, so the caller is never left
+				// waiting
+				result.completeExceptionally(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,324 @@
+package server;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import game.ActiveGame;
+import storage.GameJournal;
+
+/**
+ * Hosts many games over TCP on the local machine. Each connection is served by
+ * its own thread, a virtual thread when the JVM supports them (Java 21 and
+ * later) and a pooled platform thread otherwise, so blocking reads cost little
+ * and thousands of clients can be connected at once.
+ *
+ * Games are kept in a concurrent map by id and are independent of the
+ * connection that created them, so each player of a game may use their own
+ * connection. Each game is owned by a GameActor; connection threads only queue
+ * requests, which a small pool of carrier threads processes. Finished games
+ * are removed once the move or resignation that ended them has been reported,
+ * and games nobody has sent a request for in idleGameMillis are abandoned and
+ * removed by a background sweep, so that games clients leave do not fill the
+ * server. See Connection for the protocol.
+ */
+public class GameServer implements AutoCloseable {
+	public static final int DEFAULT_PORT = 5050;
+	public static final int DEFAULT_MAX_GAMES = 100_000;
+	public static final int DEFAULT_MAILBOX_LIMIT = 64;
+	public static final long DEFAULT_IDLE_GAME_MILLIS = 30 * 60 * 1000;
+	/**
+	 * longest time between sweeps for idle games
+	 */
+	private static final long MAX_SWEEP_INTERVAL_MILLIS = 60 * 1000;
+	private static final int SPECTATOR_QUEUE_CAPACITY = 32;
+	private static final int ACTOR_BATCH_SIZE = 16;
+	private static final int DEFAULT_SNAPSHOT_INTERVAL = 32;
+
+	private final ServerSocket serverSocket;
+	private final ExecutorService executor;
+	private final ActorScheduler scheduler;
+	private final ScheduledExecutorService sweeper;
+	private final int maxGames;
+	private final long idleGameNanos;
+	private final int mailboxLimit;
+	private final GameJournal journal;
+	private final ConcurrentHashMap<Long, GameSession> games = new ConcurrentHashMap<>();
+	/**
+	 * games hosted plus slots reserved by createGame, never more than maxGames
+	 * apart from recovered games
+	 */
+	private final AtomicInteger gameCount = new AtomicInteger();
+	private final AtomicLong nextId = new AtomicLong(1);
+
+	/**
+	 * Opens a server socket on the loopback address. Connections are not
+	 * accepted until run is called.
+	 * 
+	 * @param port     the port to listen on, or 0 for any free port
+	 * @param maxGames the largest number of games in progress at once
+	 * @throws IOException if the socket cannot be opened
+	 */
+	public GameServer(int port, int maxGames) throws IOException {
+		this(port, maxGames, DEFAULT_MAILBOX_LIMIT, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Opens a server socket on the loopback address. Connections are not
+	 * accepted until run is called.
+	 * 
+	 * @param port          the port to listen on, or 0 for any free port
+	 * @param maxGames      the largest number of games in progress at once
+	 * @param mailboxLimit  the most requests waiting for one game before further
+	 *                      requests are refused
+	 * @param actorThreads  the number of carrier threads running game actors
+	 * @throws IOException if the socket cannot be opened
+	 */
+	public GameServer(int port, int maxGames, int mailboxLimit, int actorThreads) throws IOException {
+		this(port, maxGames, mailboxLimit, actorThreads, null);
+	}
+
+	/**
+	 * Opens a server socket on the loopback address, hosting the games recovered
+	 * by a journal and journaling every new game. Connections are not accepted
+	 * until run is called.
+	 * 
+	 * @param port          the port to listen on, or 0 for any free port
+	 * @param maxGames      the largest number of games in progress at once
+	 * @param mailboxLimit  the most requests waiting for one game before further
+	 *                      requests are refused
+	 * @param actorThreads  the number of carrier threads running game actors
+	 * @param journal       the journal to keep games in, or null to keep them
+	 *                      only in memory
+	 * @throws IOException if the socket cannot be opened
+	 */
+	public GameServer(int port, int maxGames, int mailboxLimit, int actorThreads, GameJournal journal)
+			throws IOException {
+		this(port, maxGames, mailboxLimit, actorThreads, journal, DEFAULT_IDLE_GAME_MILLIS);
+	}
+
+	/**
+	 * Opens a server socket on the loopback address, hosting the games recovered
+	 * by a journal and journaling every new game. Connections are not accepted
+	 * until run is called.
+	 * 
+	 * @param port            the port to listen on, or 0 for any free port
+	 * @param maxGames        the largest number of games in progress at once
+	 * @param mailboxLimit    the most requests waiting for one game before
+	 *                        further requests are refused
+	 * @param actorThreads    the number of carrier threads running game actors
+	 * @param journal         the journal to keep games in, or null to keep them
+	 *                        only in memory
+	 * @param idleGameMillis  the time without requests after which a game is
+	 *                        abandoned
+	 * @throws IOException if the socket cannot be opened
+	 */
+	public GameServer(int port, int maxGames, int mailboxLimit, int actorThreads, GameJournal journal,
+			long idleGameMillis) throws IOException {
+		if (maxGames < 1) {
+			throw new IllegalArgumentException("maxGames must be positive");
+		}
+		if (idleGameMillis < 1) {
+			throw new IllegalArgumentException("idleGameMillis must be positive");
+		}
+		this.maxGames = maxGames;
+		idleGameNanos = TimeUnit.MILLISECONDS.toNanos(idleGameMillis);
+		this.mailboxLimit = mailboxLimit;
+		this.journal = journal;
+		scheduler = new ActorScheduler(actorThreads, ACTOR_BATCH_SIZE);
+		if (journal != null) {
+			for (Map.Entry<Long, ActiveGame> entry : journal.getRecoveredGames().entrySet()) {
+				long id = entry.getKey();
+				games.put(id, new GameSession(id, entry.getValue(), scheduler, mailboxLimit, SPECTATOR_QUEUE_CAPACITY));
+				nextId.set(Math.max(nextId.get(), id + 1));
+			}
+			gameCount.set(games.size());
+		}
+		serverSocket = new ServerSocket(port, 0, InetAddress.getLoopbackAddress());
+		executor = newConnectionExecutor();
+		sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "game-sweeper");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long interval = Math.min(idleGameMillis, MAX_SWEEP_INTERVAL_MILLIS);
+		sweeper.scheduleWithFixedDelay(this::abandonIdleGames, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Creates the executor connections run on: one virtual thread per task if
+	 * Executors.newVirtualThreadPerTaskExecutor exists, looked up by reflection
+	 * so the server still builds and runs on older JVMs, and a cached thread pool
+	 * otherwise.
+	 */
+	private static ExecutorService newConnectionExecutor() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (ReflectiveOperationException | UnsupportedOperationException e) {
+			// no virtual threads, or only as a disabled preview feature
+			return Executors.newCachedThreadPool();
+		}
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	public int getGameCount() {
+		return gameCount.get();
+	}
+
+	public ActorScheduler getScheduler() {
+		return scheduler;
+	}
+
+	/**
+	 * Accepts connections until the server is closed.
+	 */
+	public void run() {
+		while (!serverSocket.isClosed()) {
+			try {
+				Socket socket = serverSocket.accept();
+				executor.execute(new Connection(this, socket));
+			} catch (IOException e) {
+				if (!serverSocket.isClosed()) {
+					System.err.println("accept failed: " + e.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stops accepting connections and closes the connection threads' executor,
+	 * actor scheduler and idle game sweep. Connections already open are served
+	 * until their clients disconnect, but their requests are refused. The
+	 * journal, if any, is left open for its owner to close.
+	 */
+	@Override
+	public void close() throws IOException {
+		serverSocket.close();
+		sweeper.shutdown();
+		executor.shutdown();
+		scheduler.shutdown();
+	}
+
+	/**
+	 * Runs a task for a connection, such as streaming a game to a spectator, on
+	 * a connection thread.
+	 * 
+	 * @throws RejectedExecutionException if the server has been closed
+	 */
+	void execute(Runnable task) {
+		executor.execute(task);
+	}
+
+	/**
+	 * Creates a new game.
+	 * 
+	 * @return the session of the new game, or null if the server already hosts
+	 *         the largest allowed number of games
+	 * @throws RuntimeException if the journal cannot record the game, in which
+	 *                          case its slot is released
+	 */
+	GameSession createGame() {
+		// reserve the slot first, so that concurrent creates cannot overfill
+		if (gameCount.incrementAndGet() > maxGames) {
+			gameCount.decrementAndGet();
+			return null;
+		}
+		long id = nextId.getAndIncrement();
+		ActiveGame game = new ActiveGame();
+		if (journal != null) {
+			try {
+				journal.attach(id, game);
+			} catch (RuntimeException e) {
+				gameCount.decrementAndGet();
+				throw e;
+			}
+		}
+		GameSession session = new GameSession(id, game, scheduler, mailboxLimit, SPECTATOR_QUEUE_CAPACITY);
+		games.put(session.getId(), session);
+		return session;
+	}
+
+	GameSession getGame(long id) {
+		return games.get(id);
+	}
+
+	/**
+	 * Removes a game once it is finished.
+	 */
+	void removeIfFinished(GameSession session) {
+		if (session.isFinished() && games.remove(session.getId(), session)) {
+			gameCount.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Abandons and removes every game without a request in idleGameMillis. A
+	 * journaled game is forgotten by the journal once its actor has abandoned
+	 * it, after any moves still waiting in its mailbox.
+	 */
+	void abandonIdleGames() {
+		long now = System.nanoTime();
+		for (GameSession session : games.values()) {
+			if (now - session.getLastActivity() < idleGameNanos || !games.remove(session.getId(), session)) {
+				continue;
+			}
+			gameCount.decrementAndGet();
+			session.abandon().whenComplete((abandoned, failure) -> {
+				if (journal != null && !Boolean.FALSE.equals(abandoned)) {
+					journal.detach(session.getId());
+				}
+			});
+		}
+	}
+
+	/**
+	 * Runs a server until the process is stopped.
+	 * 
+	 * @param args optional port number, then optional journal file
+	 * @throws IOException if the socket or journal cannot be opened
+	 */
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		serve(port, args.length > 1 ? Paths.get(args[1]) : null);
+	}
+
+	/**
+	 * Runs a server until the process is stopped.
+	 * 
+	 * @param port        the port to listen on
+	 * @param journalFile file for a durable journal of the games, or null to
+	 *                    keep games only in memory
+	 * @throws IOException if the socket or journal cannot be opened
+	 */
+	public static void serve(int port, Path journalFile) throws IOException {
+		GameJournal journal = journalFile == null ? null
+				: new GameJournal(journalFile, DEFAULT_SNAPSHOT_INTERVAL, true);
+		try (GameServer server = new GameServer(port, DEFAULT_MAX_GAMES, DEFAULT_MAILBOX_LIMIT,
+				Runtime.getRuntime().availableProcessors(), journal)) {
+			System.out.println("listening on port " + server.getPort() + ", " + server.getGameCount()
+					+ " games recovered");
+			server.run();
+		} finally {
+			if (journal != null) {
+				journal.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,155 @@
+package server;
+
+import java.util.concurrent.CompletableFuture;
+
+import board.ChessColor;
+import game.ActiveGame;
+import game.Turn;
+
+/**
+ * A game hosted by the GameServer. The ActiveGame is owned by a GameActor, so
+ * every request is queued to the game's mailbox and answered through a future;
+ * requests for one game are serialized while different games never contend
+ * with each other. Moves are published to spectators through a SpectatorFeed.
+ *
+ * A session records when it was last asked for anything, so that the server
+ * can abandon games their players have left.
+ */
+public class GameSession {
+	private final long id;
+	private final GameActor actor;
+	private final SpectatorFeed feed;
+	private volatile boolean finished;
+	private volatile long lastActivity = System.nanoTime();
+
+	/**
+	 * Creates a session holding a game.
+	 * 
+	 * @param id           the identifier clients use to refer to the game
+	 * @param game         the game, new or in progress, which must not be used
+	 *                     elsewhere afterwards
+	 * @param scheduler    the scheduler the game's actor runs on
+	 * @param mailboxLimit the most requests waiting for the game at once
+	 * @param feedCapacity the most messages queued for one spectator
+	 */
+	public GameSession(long id, ActiveGame game, ActorScheduler scheduler, int mailboxLimit, int feedCapacity) {
+		this.id = id;
+		feed = new SpectatorFeed(feedCapacity, game.getSquareCodes(), game.getHistory().size());
+		actor = new GameActor(game, scheduler, mailboxLimit);
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	/**
+	 * Starts watching the game's moves.
+	 * 
+	 * @return the new subscription, starting with a snapshot of the position
+	 */
+	public Subscription watch() {
+		lastActivity = System.nanoTime();
+		return feed.subscribe();
+	}
+
+	/**
+	 * Applies a turn for the player to move.
+	 * 
+	 * @param turn the turn to apply
+	 * @return future of the game status after the move, or of null if the move is
+	 *         not allowed or the game is over
+	 */
+	public CompletableFuture<String> move(Turn turn) {
+		lastActivity = System.nanoTime();
+		return actor.ask(game -> {
+			if (finished || game.isFinished() || !game.move(turn)) {
+				return null;
+			}
+			feed.publish(game.getLastTurn());
+			return getStatus(game);
+		});
+	}
+
+	/**
+	 * Resigns the game for the player to move.
+	 * 
+	 * @return future of the game status afterwards, or of null if the game was
+	 *         already finished
+	 */
+	public CompletableFuture<String> resign() {
+		lastActivity = System.nanoTime();
+		return actor.ask(game -> {
+			if (finished || game.isFinished()) {
+				return null;
+			}
+			game.resign(game.getCurrentPlayer());
+			return getStatus(game);
+		});
+	}
+
+	/**
+	 * Returns the game status and, on the following lines, the board.
+	 * 
+	 * @return future of the status and board
+	 */
+	public CompletableFuture<String> getStatusAndBoard() {
+		lastActivity = System.nanoTime();
+		return actor.ask(game -> getStatus(game) + "\n" + game.getBoardString());
+	}
+
+	/**
+	 * Ends the game without a result, for a game its players have left. Later
+	 * moves and resignations are refused, and spectators are sent "abandoned"
+	 * as the final status.
+	 *
+	 * @return future completed once the game has been abandoned, or with false
+	 *         if it had already finished
+	 */
+	public CompletableFuture<Boolean> abandon() {
+		return actor.ask(game -> {
+			if (finished) {
+				return false;
+			}
+			finished = true;
+			feed.finish("abandoned");
+			return true;
+		});
+	}
+
+	/**
+	 * Returns the time of the last request for the game, as given by
+	 * System.nanoTime.
+	 */
+	public long getLastActivity() {
+		return lastActivity;
+	}
+
+	/**
+	 * Returns whether the game had finished or been abandoned when its last
+	 * request completed.
+	 */
+	public boolean isFinished() {
+		return finished;
+	}
+
+	/**
+	 * Returns the state of the game: the color to move while the game is in
+	 * progress, otherwise the winner followed by "wins", "draw", or "abandoned".
+	 * Runs on the actor's thread.
+	 */
+	private String getStatus(ActiveGame game) {
+		if (finished && !game.isFinished()) {
+			return "abandoned";
+		}
+		if (!game.isFinished()) {
+			return game.getCurrentPlayer() + " to move";
+		}
+		ChessColor winner = game.getWinner();
+		String status = winner == ChessColor.DRAW ? "draw" : winner + " wins";
+		if (!finished) {
+			finished = true;
+			feed.finish(status);
+		}
+		return status;
+	}
+}
@@ -0,0 +1,181 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import board.PlayingBoard;
+import game.FullDetailTurn;
+import game.Position;
+
+/**
+ * Broadcasts the moves of one game to its spectators. Each move is encoded
+ * once, as a short line, into a read-only buffer that every Subscription
+ * shares, rather than sending each spectator the full board after every move.
+ * 
+ * Messages, all ASCII lines:
+ * 
+ * <pre>
+ * S &lt;seq&gt; &lt;squares&gt; &lt;w|b&gt;   snapshot: 64 characters from a1 to h8, row by
+ *                             row, with FEN piece letters and '.' for empty
+ *                             squares, and the color to move
+ * D &lt;seq&gt; &lt;from&gt;&lt;to&gt;[x][+|#] a move, for example "D 5 f1c4" or "D 7 d8h4#"
+ * E &lt;status&gt;                  the game is over
+ * </pre>
+ * 
+ * The sequence number counts moves, so a spectator can tell that the deltas
+ * following a snapshot continue from it. New spectators first receive a
+ * snapshot. The feed keeps its own copy of the squares, updated from each
+ * move, so it never touches the game itself. Moves and the end of the game are
+ * published by the game's actor; subscribing may happen on any thread.
+ */
+public class SpectatorFeed {
+	/**
+	 * marker queued to wake a spectator whose subscription was cancelled
+	 */
+	static final ByteBuffer CANCELLED = ByteBuffer.allocate(0);
+	/**
+	 * FEN letters indexed by square code minus one, white pieces then black in
+	 * PieceType order
+	 */
+	private static final String PIECE_LETTERS = "KQRBNPkqrbnp";
+	private static final String START_SQUARES = "RNBQKBNRPPPPPPPP" + "................................"
+			+ "pppppppprnbqkbnr";
+
+	private final int subscriberCapacity;
+	private final char[] squares = START_SQUARES.toCharArray();
+	private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+	private boolean whiteToMove = true;
+	private long sequence;
+	/**
+	 * snapshot of the current position, or null until one is needed
+	 */
+	private ByteBuffer snapshot;
+	private ByteBuffer end;
+
+	/**
+	 * Creates a feed for a game in the starting position.
+	 * 
+	 * @param subscriberCapacity the most messages queued for one spectator
+	 */
+	public SpectatorFeed(int subscriberCapacity) {
+		// room for a snapshot, the end message and the cancellation marker
+		if (subscriberCapacity < 3) {
+			throw new IllegalArgumentException("subscriberCapacity must be at least 3");
+		}
+		this.subscriberCapacity = subscriberCapacity;
+	}
+
+	/**
+	 * Creates a feed for a game in progress.
+	 * 
+	 * @param subscriberCapacity the most messages queued for one spectator
+	 * @param squareCodes        the current position, as given by
+	 *                           ActiveGame.getSquareCodes
+	 * @param ply                the number of moves made so far
+	 */
+	public SpectatorFeed(int subscriberCapacity, byte[] squareCodes, int ply) {
+		this(subscriberCapacity);
+		for (int square = 0; square < squares.length; square++) {
+			int code = squareCodes[square];
+			squares[square] = code == PlayingBoard.EMPTY_SQUARE_CODE ? '.' : PIECE_LETTERS.charAt(code - 1);
+		}
+		sequence = ply;
+		whiteToMove = ply % 2 == 0;
+	}
+
+	/**
+	 * Starts watching the game. The first message is a snapshot of the current
+	 * position, or the end message if the game is already over.
+	 * 
+	 * @return the new subscription
+	 */
+	public synchronized Subscription subscribe() {
+		Subscription subscription = new Subscription(this, subscriberCapacity);
+		subscription.offer(snapshot());
+		if (end != null) {
+			subscription.finish(end);
+		} else {
+			subscriptions.add(subscription);
+		}
+		return subscription;
+	}
+
+	void unsubscribe(Subscription subscription) {
+		subscriptions.remove(subscription);
+	}
+
+	public int getSubscriberCount() {
+		return subscriptions.size();
+	}
+
+	/**
+	 * Publishes a move to every spectator.
+	 * 
+	 * @param turn the move just made
+	 */
+	public synchronized void publish(FullDetailTurn turn) {
+		int from = turn.getCurrent().getSquareIndex();
+		int to = turn.getProposed().getSquareIndex();
+		squares[to] = squares[from];
+		squares[from] = '.';
+		whiteToMove = !whiteToMove;
+		sequence++;
+		snapshot = null;
+		StringBuilder delta = new StringBuilder(24);
+		delta.append("D ").append(sequence).append(' ');
+		delta.append(turn.getCurrent().getAlgebraicNotation()).append(turn.getProposed().getAlgebraicNotation());
+		if (turn.isCapture()) {
+			delta.append('x');
+		}
+		if (turn.isCheckmate()) {
+			delta.append('#');
+		} else if (turn.isCheck()) {
+			delta.append('+');
+		}
+		broadcast(encode(delta.append('\n')));
+	}
+
+	/**
+	 * Publishes the end of the game and closes every subscription.
+	 * 
+	 * @param status the final status, such as "white wins"
+	 */
+	public synchronized void finish(String status) {
+		end = encode(new StringBuilder("E ").append(status).append('\n'));
+		for (Subscription subscription : subscriptions) {
+			subscription.finish(end);
+		}
+		subscriptions.clear();
+	}
+
+	/**
+	 * Returns the snapshot of the current position, encoding it if it has not
+	 * been since the last move. Called while holding the feed's lock.
+	 */
+	ByteBuffer snapshot() {
+		if (snapshot == null) {
+			StringBuilder output = new StringBuilder(80);
+			output.append("S ").append(sequence).append(' ').append(squares);
+			output.append(whiteToMove ? " w\n" : " b\n");
+			snapshot = encode(output);
+		}
+		return snapshot;
+	}
+
+	static boolean isSnapshot(ByteBuffer message) {
+		return message.limit() > 0 && message.get(0) == 'S';
+	}
+
+	private void broadcast(ByteBuffer message) {
+		for (Subscription subscription : subscriptions) {
+			if (!subscription.offer(message)) {
+				subscriptions.remove(subscription);
+			}
+		}
+	}
+
+	private static ByteBuffer encode(CharSequence message) {
+		return ByteBuffer.wrap(message.toString().getBytes(StandardCharsets.US_ASCII)).asReadOnlyBuffer();
+	}
+}
@@ -0,0 +1,122 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * One spectator's view of a SpectatorFeed: a bounded queue of encoded
+ * messages, each a read-only view of a buffer shared with every other
+ * spectator. If the queue fills up the spectator has fallen behind, and its
+ * queued moves are replaced by a single snapshot of the current position. If
+ * it is still behind when the next overflow comes, the subscription is
+ * dropped.
+ */
+public class Subscription {
+	private final SpectatorFeed feed;
+	private final BlockingQueue<ByteBuffer> queue;
+	/**
+	 * true while a snapshot queued after an overflow has not yet been taken
+	 */
+	private boolean resyncPending;
+	private volatile boolean cancelled;
+	private volatile int coalesced;
+
+	Subscription(SpectatorFeed feed, int capacity) {
+		this.feed = feed;
+		queue = new ArrayBlockingQueue<>(capacity);
+	}
+
+	/**
+	 * Waits for the next message: a snapshot, a move, or the end of the game.
+	 * 
+	 * @return the message, or null after the end of the game, once the
+	 *         subscription has been cancelled or dropped, or if the waiting thread
+	 *         is interrupted
+	 */
+	public ByteBuffer take() {
+		if (cancelled && queue.isEmpty()) {
+			return null;
+		}
+		try {
+			ByteBuffer message = queue.take();
+			if (message == SpectatorFeed.CANCELLED) {
+				return null;
+			}
+			synchronized (feed) {
+				if (SpectatorFeed.isSnapshot(message)) {
+					resyncPending = false;
+				}
+			}
+			return message.duplicate();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+	}
+
+	/**
+	 * Stops receiving messages. A thread waiting in take returns null.
+	 */
+	public void cancel() {
+		feed.unsubscribe(this);
+		close();
+	}
+
+	/**
+	 * Returns how many times queued moves were replaced by a snapshot because
+	 * the spectator fell behind.
+	 */
+	public int getCoalescedCount() {
+		return coalesced;
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Queues a message without blocking. Called by the feed while holding its
+	 * lock.
+	 * 
+	 * @return false if the spectator was too slow and has been dropped
+	 */
+	boolean offer(ByteBuffer message) {
+		if (queue.offer(message)) {
+			return true;
+		}
+		if (resyncPending) {
+			close();
+			return false;
+		}
+		queue.clear();
+		coalesced++;
+		resyncPending = true;
+		queue.offer(feed.snapshot());
+		return true;
+	}
+
+	/**
+	 * Queues the final message of a finished game, then closes the
+	 * subscription. If there is no room for it, the queued moves are replaced by
+	 * a snapshot of the final position, as on an overflow, so that the spectator
+	 * does not miss the moves that ended the game. Called by the feed while
+	 * holding its lock.
+	 */
+	void finish(ByteBuffer message) {
+		if (queue.remainingCapacity() < 2) {
+			queue.clear();
+			coalesced++;
+			queue.offer(feed.snapshot());
+		}
+		queue.offer(message);
+		queue.offer(SpectatorFeed.CANCELLED);
+		cancelled = true;
+	}
+
+	private void close() {
+		cancelled = true;
+		queue.clear();
+		queue.offer(SpectatorFeed.CANCELLED);
+	}
+}
@@ -0,0 +1,411 @@
+package storage;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import board.ChessColor;
+import game.ActiveGame;
+import game.FullDetailTurn;
+import game.GameListener;
+import game.MoveHistory;
+
+/**
+ * Append-only journal that makes ActiveGames survive a crash. Each attached
+ * game's accepted moves are appended as 11-byte records, and every
+ * snapshotInterval moves the game's board and full move history are appended as
+ * a snapshot. When the game ends an end record is appended and the game is
+ * forgotten.
+ * 
+ * Records are collected in memory and written through a FileChannel. In durable
+ * mode a move is only accepted once its record has been forced to disk, and
+ * the writes use group commit: the first waiting thread writes and forces
+ * everything appended so far, while the others wait for it, so moves of many
+ * games arriving together share one fsync.
+ * 
+ * Opening a journal recovers its games by restoring each game's last snapshot
+ * and replaying the moves after it. The journal is then compacted to one
+ * snapshot per game. Records are framed as type (1 byte), game id (8), payload
+ * length (2), payload and a CRC32 (4); a torn record at the end of the file
+ * ends recovery.
+ */
+public class GameJournal implements AutoCloseable {
+	private static final byte CREATE = 'C';
+	private static final byte MOVE = 'M';
+	private static final byte SNAPSHOT = 'S';
+	private static final byte END = 'E';
+	private static final int HEADER_SIZE = 1 + 8 + 2;
+	private static final int CHECKSUM_SIZE = 4;
+	private static final int SQUARES = 64;
+	/**
+	 * pending bytes that make a non-durable journal write them out
+	 */
+	private static final int WRITE_THRESHOLD = 64 * 1024;
+
+	private final Path file;
+	private final FileChannel channel;
+	private final int snapshotInterval;
+	private final boolean durable;
+	private final Map<Long, ActiveGame> recovered;
+	private final CRC32 checksum = new CRC32();
+
+	// guarded by this
+	private ByteBuffer pending = ByteBuffer.allocate(WRITE_THRESHOLD * 2);
+	private ByteBuffer spare = ByteBuffer.allocate(WRITE_THRESHOLD * 2);
+	private long appendedRecords;
+	private long writtenRecords;
+	private long forcedRecords;
+	private long forces;
+	private boolean writing;
+	private boolean closed;
+
+	/**
+	 * Opens a journal, recovering the games in it.
+	 * 
+	 * @param file             the journal file, created if it does not exist
+	 * @param snapshotInterval the number of moves of a game between snapshots
+	 * @param durable          whether each move waits until it is on disk
+	 * @throws IOException if the file cannot be read or written
+	 */
+	public GameJournal(Path file, int snapshotInterval, boolean durable) throws IOException {
+		if (snapshotInterval < 1) {
+			throw new IllegalArgumentException("snapshotInterval must be positive");
+		}
+		this.file = file;
+		this.snapshotInterval = snapshotInterval;
+		this.durable = durable;
+		Map<Long, RecoveredGame> games = Files.exists(file) ? readJournal(file)
+				: new LinkedHashMap<Long, RecoveredGame>();
+		Map<Long, ActiveGame> restored = new LinkedHashMap<Long, ActiveGame>();
+		for (Map.Entry<Long, RecoveredGame> entry : games.entrySet()) {
+			restored.put(entry.getKey(), entry.getValue().restore());
+		}
+		recovered = Collections.unmodifiableMap(restored);
+		compact(restored);
+		channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		for (Map.Entry<Long, ActiveGame> entry : restored.entrySet()) {
+			entry.getValue().addListener(new JournalListener(entry.getKey(), entry.getValue()));
+		}
+	}
+
+	/**
+	 * Returns the games recovered when the journal was opened, by id. They are
+	 * already attached to the journal.
+	 */
+	public Map<Long, ActiveGame> getRecoveredGames() {
+		return recovered;
+	}
+
+	/**
+	 * Starts journaling a game. Its current state is recorded, then every move
+	 * made on it.
+	 * 
+	 * @param id   the game's identifier, unique within the journal
+	 * @param game the game
+	 */
+	public void attach(long id, ActiveGame game) {
+		long record = game.getHistory().size() == 0 ? append(CREATE, id, null) : appendSnapshot(id, game);
+		commit(record);
+		game.addListener(new JournalListener(id, game));
+	}
+
+	/**
+	 * Forgets a game that is left unfinished, so that it is not recovered. The
+	 * game's moves are still journaled, so no more may be made on it.
+	 * 
+	 * @param id the game's identifier
+	 */
+	public void detach(long id) {
+		commit(append(END, id, null));
+	}
+
+	/**
+	 * Returns the number of times the file has been forced to disk, for
+	 * comparing with the number of moves journaled.
+	 */
+	public synchronized long getForceCount() {
+		return forces;
+	}
+
+	/**
+	 * Writes and forces everything appended, then closes the file.
+	 */
+	@Override
+	public void close() throws IOException {
+		long last;
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			last = appendedRecords;
+		}
+		sync(last, true);
+		synchronized (this) {
+			closed = true;
+		}
+		channel.close();
+	}
+
+	/**
+	 * Appends a record.
+	 * 
+	 * @return the sequence number of the record, for commit
+	 */
+	private synchronized long append(byte type, long id, byte[] payload) {
+		if (closed) {
+			throw new IllegalStateException("Journal closed");
+		}
+		int length = payload == null ? 0 : payload.length;
+		int size = HEADER_SIZE + length + CHECKSUM_SIZE;
+		if (pending.remaining() < size) {
+			ByteBuffer larger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + size));
+			pending.flip();
+			larger.put(pending);
+			pending = larger;
+		}
+		int start = pending.position();
+		pending.put(type).putLong(id).putShort((short) length);
+		if (payload != null) {
+			pending.put(payload);
+		}
+		checksum.reset();
+		checksum.update(pending.array(), start, HEADER_SIZE + length);
+		pending.putInt((int) checksum.getValue());
+		return ++appendedRecords;
+	}
+
+	private long appendMove(long id, FullDetailTurn turn) {
+		short move = MoveHistory.encode(turn);
+		return append(MOVE, id, new byte[] { (byte) (move >> 8), (byte) move });
+	}
+
+	private long appendSnapshot(long id, ActiveGame game) {
+		return append(SNAPSHOT, id, snapshot(game));
+	}
+
+	/**
+	 * Encodes a game as its 64 square codes followed by its encoded moves.
+	 */
+	private static byte[] snapshot(ActiveGame game) {
+		short[] moves = game.getHistory().toArray();
+		ByteBuffer output = ByteBuffer.allocate(SQUARES + 2 * moves.length);
+		output.put(game.getSquareCodes());
+		output.asShortBuffer().put(moves);
+		return output.array();
+	}
+
+	/**
+	 * Makes a record as safe as the journal's mode requires: forced to disk if
+	 * durable, otherwise only written once enough records are pending.
+	 */
+	private void commit(long record) {
+		try {
+			if (durable) {
+				sync(record, true);
+			} else {
+				boolean full;
+				synchronized (this) {
+					full = pending.position() >= WRITE_THRESHOLD;
+				}
+				if (full) {
+					sync(record, false);
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Waits until a record has been written, and forced if asked. The first
+	 * thread to find no write in progress writes every pending record for all
+	 * waiting threads.
+	 */
+	private void sync(long record, boolean force) throws IOException {
+		ByteBuffer batch;
+		long batchEnd;
+		synchronized (this) {
+			while (true) {
+				if ((force ? forcedRecords : writtenRecords) >= record) {
+					return;
+				}
+				if (!writing) {
+					break;
+				}
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted waiting for the journal");
+				}
+			}
+			writing = true;
+			batch = pending;
+			pending = spare;
+			batchEnd = appendedRecords;
+		}
+		boolean succeeded = false;
+		try {
+			batch.flip();
+			while (batch.hasRemaining()) {
+				channel.write(batch);
+			}
+			if (force) {
+				channel.force(false);
+			}
+			succeeded = true;
+		} finally {
+			synchronized (this) {
+				writing = false;
+				batch.clear();
+				spare = batch;
+				if (succeeded) {
+					writtenRecords = batchEnd;
+					if (force) {
+						forcedRecords = batchEnd;
+						forces++;
+					}
+				}
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Replaces the journal with one snapshot per recovered game, through a
+	 * temporary file so that a crash leaves either the old or the new journal.
+	 */
+	private void compact(Map<Long, ActiveGame> games) throws IOException {
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		try (FileChannel output = FileChannel.open(temporary, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			for (Map.Entry<Long, ActiveGame> entry : games.entrySet()) {
+				appendSnapshot(entry.getKey(), entry.getValue());
+			}
+			synchronized (this) {
+				pending.flip();
+				while (pending.hasRemaining()) {
+					output.write(pending);
+				}
+				pending.clear();
+				appendedRecords = 0;
+			}
+			output.force(true);
+		}
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Reads the records of a journal file up to its end or the first damaged
+	 * record.
+	 * 
+	 * @return the games not yet ended, by id, in order of first appearance
+	 */
+	private static Map<Long, RecoveredGame> readJournal(Path file) throws IOException {
+		Map<Long, RecoveredGame> games = new LinkedHashMap<Long, RecoveredGame>();
+		try (FileChannel input = FileChannel.open(file, StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = input.map(FileChannel.MapMode.READ_ONLY, 0, input.size());
+			CRC32 checksum = new CRC32();
+			byte[] record = new byte[HEADER_SIZE + 0xFFFF];
+			while (buffer.remaining() >= HEADER_SIZE + CHECKSUM_SIZE) {
+				int start = buffer.position();
+				byte type = buffer.get();
+				long id = buffer.getLong();
+				int length = buffer.getShort() & 0xFFFF;
+				if (buffer.remaining() < length + CHECKSUM_SIZE) {
+					break;
+				}
+				buffer.position(start);
+				buffer.get(record, 0, HEADER_SIZE + length);
+				checksum.reset();
+				checksum.update(record, 0, HEADER_SIZE + length);
+				if (buffer.getInt() != (int) checksum.getValue()) {
+					break;
+				}
+				ByteBuffer payload = ByteBuffer.wrap(record, HEADER_SIZE, length);
+				if (type == CREATE) {
+					games.put(id, new RecoveredGame());
+				} else if (type == SNAPSHOT) {
+					RecoveredGame game = new RecoveredGame();
+					game.squareCodes = new byte[SQUARES];
+					payload.get(game.squareCodes);
+					game.history = new short[payload.remaining() / 2];
+					payload.asShortBuffer().get(game.history);
+					games.put(id, game);
+				} else if (type == MOVE && games.containsKey(id)) {
+					games.get(id).addMove(payload.getShort());
+				} else if (type == END) {
+					games.remove(id);
+				}
+			}
+		}
+		return games;
+	}
+
+	/**
+	 * A game read from the journal: its last snapshot, if any, and the moves
+	 * made after it.
+	 */
+	private static class RecoveredGame {
+		private byte[] squareCodes;
+		private short[] history = new short[0];
+		private short[] moves = new short[16];
+		private int moveCount;
+
+		private void addMove(short move) {
+			if (moveCount == moves.length) {
+				moves = Arrays.copyOf(moves, moveCount * 2);
+			}
+			moves[moveCount++] = move;
+		}
+
+		private ActiveGame restore() {
+			ActiveGame game = squareCodes == null ? new ActiveGame() : ActiveGame.restore(squareCodes, history);
+			for (int i = 0; i < moveCount && !game.isFinished(); i++) {
+				if (!game.move(MoveHistory.decode(moves[i]))) {
+					throw new IllegalStateException("Journal holds a move the game does not allow");
+				}
+			}
+			return game;
+		}
+	}
+
+	/**
+	 * Appends the moves and end of one game.
+	 */
+	private class JournalListener implements GameListener {
+		private final long id;
+		private final ActiveGame game;
+
+		private JournalListener(long id, ActiveGame game) {
+			this.id = id;
+			this.game = game;
+		}
+
+		@Override
+		public void onMove(FullDetailTurn turn) {
+			long record = appendMove(id, turn);
+			if (game.getHistory().size() % snapshotInterval == 0) {
+				record = appendSnapshot(id, game);
+			}
+			commit(record);
+		}
+
+		@Override
+		public void onGameEnd(ChessColor winner) {
+			commit(append(END, id, null));
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package storage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import game.ActiveGame;
+import game.Position;
+import game.Turn;
+
+/**
+ * Measures how many moves per second ActiveGames accept without a journal,
+ * with a GameJournal that only writes, and with a durable GameJournal that
+ * forces every move to disk with group commit. Each thread plays its own
+ * games, shuffling knights until the move limit ends each one. Finally it
+ * times recovering a journal of games left in progress.
+ * 
+ * Usage: JournalBenchmark [threads] [moves per thread]
+ */
+public class JournalBenchmark {
+	private static final int SNAPSHOT_INTERVAL = 32;
+	private static final int RECOVERY_GAMES = 1000;
+	private static final Turn[] SHUFFLE = { turn("b1", "c3"), turn("b8", "c6"), turn("c3", "b1"),
+			turn("c6", "b8") };
+
+	public static void main(String[] args) throws Exception {
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+		int moves = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+		Path directory = Files.createTempDirectory("journal");
+		Path file = directory.resolve("games.journal");
+		// a first pass warms up the JIT compiler
+		run(null, threads, moves / 4);
+		report("no journal", threads * (long) moves, run(null, threads, moves), 0);
+		for (boolean durable : new boolean[] { false, true }) {
+			Files.deleteIfExists(file);
+			try (GameJournal journal = new GameJournal(file, SNAPSHOT_INTERVAL, durable)) {
+				long elapsed = run(journal, threads, durable ? moves / 4 : moves);
+				report(durable ? "durable" : "buffered", threads * (long) (durable ? moves / 4 : moves), elapsed,
+						journal.getForceCount());
+			}
+		}
+		// games left in progress, each with a snapshot and a few moves after it
+		Files.deleteIfExists(file);
+		try (GameJournal journal = new GameJournal(file, SNAPSHOT_INTERVAL, false)) {
+			for (long id = 1; id <= RECOVERY_GAMES; id++) {
+				ActiveGame game = new ActiveGame();
+				journal.attach(id, game);
+				for (int i = 0; i < SNAPSHOT_INTERVAL + SNAPSHOT_INTERVAL / 2; i++) {
+					game.move(SHUFFLE[i % SHUFFLE.length]);
+				}
+			}
+		}
+		long start = System.nanoTime();
+		try (GameJournal journal = new GameJournal(file, SNAPSHOT_INTERVAL, false)) {
+			System.out.printf("recovered %d games in %d ms%n", journal.getRecoveredGames().size(),
+					(System.nanoTime() - start) / 1_000_000);
+		}
+		Files.deleteIfExists(file);
+		Files.deleteIfExists(directory);
+	}
+
+	/**
+	 * Plays moves on every thread.
+	 * 
+	 * @param journal the journal to attach games to, or null
+	 * @return elapsed nanoseconds
+	 */
+	private static long run(GameJournal journal, int threads, int moves) throws InterruptedException {
+		AtomicLong nextId = new AtomicLong();
+		List<Thread> workers = new ArrayList<Thread>();
+		for (int t = 0; t < threads; t++) {
+			workers.add(new Thread(() -> {
+				ActiveGame game = null;
+				for (int i = 0; i < moves; i++) {
+					if (game == null || game.isFinished()) {
+						game = new ActiveGame();
+						if (journal != null) {
+							journal.attach(nextId.incrementAndGet(), game);
+						}
+					}
+					game.move(SHUFFLE[game.getHistory().size() % SHUFFLE.length]);
+				}
+			}));
+		}
+		long start = System.nanoTime();
+		for (Thread worker : workers) {
+			worker.start();
+		}
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		return System.nanoTime() - start;
+	}
+
+	private static void report(String name, long moves, long elapsedNanos, long forces) {
+		System.out.printf("%-10s %8d moves %6d ms %9d moves/s %8d fsyncs%n", name, moves, elapsedNanos / 1_000_000,
+				moves * 1_000_000_000L / Math.max(1, elapsedNanos), forces);
+	}
+
+	private static Turn turn(String from, String to) {
+		return new Turn(new Position(from), new Position(to));
+	}
+}